@@ -0,0 +1,73 @@
+package app.benchmark;
+
+import app.PictureServiceApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// Boots the real application against an in-memory H2 database and a throwaway upload directory
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(Path uploadDir, WebApplicationType webApplicationType, String... args) {
+        // only read as a system property; launched from a main thread, devtools would otherwise restart the application
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        List<String> arguments = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                "--spring.datasource.driverClassName=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--file.upload.dir=" + uploadDir,
+                "--file.storage.migration.enabled=false",
+                // background renditions would compete with the measured thread for CPU and disk
+                "--picture.renditions.sizes=",
+                "--spring.servlet.multipart.max-file-size=64MB",
+                "--spring.servlet.multipart.max-request-size=64MB",
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN"));
+        // a repeated option would be bound as a comma-joined list, so an override replaces the default
+        for (String arg : args) {
+            String option = arg.substring(0, arg.indexOf('=') + 1);
+            arguments.removeIf(argument -> argument.startsWith(option));
+            arguments.add(arg);
+        }
+
+        return new SpringApplicationBuilder(PictureServiceApplication.class)
+                .web(webApplicationType)
+                .run(arguments.toArray(String[]::new));
+    }
+
+    static void stop(ConfigurableApplicationContext context, Path uploadDir) throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(uploadDir);
+    }
+
+    static Path createUploadDir() throws IOException {
+        return Files.createTempDirectory("picture-benchmark-");
+    }
+
+    static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    // every upload gets distinct bytes, so deduplication never turns a write into a reference count bump
+    static void makeUnique(byte[] content, int offset, long sequence) {
+        ByteBuffer.wrap(content, offset, Long.BYTES).putLong(sequence);
+    }
+}
@@ -0,0 +1,79 @@
+package app.benchmark;
+
+import app.cache.PerceptualHashIndex;
+import app.model.SimilarPicture;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// PerceptualHashIndex: building it as the startup load does, and searching it.
+// Hashes are clustered like real pictures, groups of near-duplicates a few bits apart; the memory per entry
+// is printed after each trial. Database reads of the load are not part of it.
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class PerceptualHashIndexBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int entries;
+
+    private long[] hashes;
+    private UUID[] ids;
+    private PerceptualHashIndex index;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hashes = new long[entries];
+        ids = new UUID[entries];
+        int originals = entries / 10;
+        for (int i = 0; i < entries; i++) {
+            hashes[i] = i < originals
+                    ? random.nextLong()
+                    : hashes[random.nextInt(originals)] ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+            ids[i] = UUID.randomUUID();
+        }
+        index = build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n%d entries: %d bytes, %.1f bytes per entry%n",
+                index.size(), index.memoryBytes(), (double) index.memoryBytes() / index.size());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public PerceptualHashIndex load() {
+        return build();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Query {
+
+        @Param({"4", "8", "12", "16"})
+        private int maxDistance;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<SimilarPicture> search(Query query) {
+        return index.search(hashes[random.nextInt(entries)] ^ (1L << random.nextInt(64)), query.maxDistance, 100);
+    }
+
+    private PerceptualHashIndex build() {
+        PerceptualHashIndex built = new PerceptualHashIndex();
+        for (int i = 0; i < entries; i++) {
+            built.add(hashes[i], ids[i]);
+        }
+        return built;
+    }
+}
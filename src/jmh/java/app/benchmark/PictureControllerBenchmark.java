@@ -0,0 +1,146 @@
+package app.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// End to end over HTTP against the embedded server: throughput plus the latency distribution,
+// single-threaded and with 8 concurrent clients
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PictureControllerBenchmark {
+
+    private static final int CONTENDED_THREADS = 8;
+    private static final String BOUNDARY = "picture-benchmark-boundary";
+    private static final Pattern PICTURE_ID = Pattern.compile("\"id\":\"([0-9a-f-]{36})\"");
+    private static final byte[] PART_HEAD = ("--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"picture\"; filename=\"upload.bin\"\r\n"
+            + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PART_TAIL = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final int CONTENT_OFFSET = PART_HEAD.length;
+
+    @Param({"10240", "1048576", "20971520"})
+    private int size;
+
+    private Path uploadDir;
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private URI picturesUri;
+    private String viewedPictureId;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        uploadDir = BenchmarkApplication.createUploadDir();
+        context = BenchmarkApplication.start(uploadDir, WebApplicationType.SERVLET);
+        picturesUri = URI.create("http://localhost:%s/api/v1/pictures/"
+                .formatted(context.getEnvironment().getProperty("local.server.port")));
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        viewedPictureId = upload(multipartBody(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkApplication.stop(context, uploadDir);
+    }
+
+    @State(Scope.Thread)
+    public static class MultipartBody {
+
+        private byte[] body;
+
+        @Setup(Level.Trial)
+        public void setUp(PictureControllerBenchmark benchmark) {
+            body = multipartBody(benchmark.size);
+        }
+
+        byte[] next(long sequence) {
+            BenchmarkApplication.makeUnique(body, CONTENT_OFFSET, sequence);
+            return body;
+        }
+    }
+
+    @Benchmark
+    public long view() throws IOException, InterruptedException {
+        return view(viewedPictureId);
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public long viewContended() throws IOException, InterruptedException {
+        return view(viewedPictureId);
+    }
+
+    // upload and delete in one round, so long runs leave nothing behind
+    @Benchmark
+    public int uploadAndDelete(MultipartBody body) throws IOException, InterruptedException {
+        return delete(upload(body.next(sequence.incrementAndGet())));
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public int uploadAndDeleteContended(MultipartBody body) throws IOException, InterruptedException {
+        return delete(upload(body.next(sequence.incrementAndGet())));
+    }
+
+    private static byte[] multipartBody(int size) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(PART_HEAD.length + size + PART_TAIL.length);
+        body.writeBytes(PART_HEAD);
+        body.writeBytes(BenchmarkApplication.randomContent(size));
+        body.writeBytes(PART_TAIL);
+        return body.toByteArray();
+    }
+
+    private String upload(byte[] body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(picturesUri.resolve("upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString(), 201);
+
+        Matcher matcher = PICTURE_ID.matcher(response.body());
+        if (!matcher.find()) {
+            throw new IllegalStateException("Upload response without id: " + response.body());
+        }
+        return matcher.group(1);
+    }
+
+    private long view(String pictureId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(picturesUri.resolve("view/" + pictureId)).GET().build();
+        return send(request, HttpResponse.BodyHandlers.discarding(), 200).headers()
+                .firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    private int delete(String pictureId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(picturesUri.resolve(pictureId)).DELETE().build();
+        return send(request, HttpResponse.BodyHandlers.discarding(), 204).statusCode();
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, int expectedStatus)
+            throws IOException, InterruptedException {
+        HttpResponse<T> response = httpClient.send(request, bodyHandler);
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException("%s %s answered %d".formatted(request.method(), request.uri(), response.statusCode()));
+        }
+        return response;
+    }
+}
@@ -0,0 +1,80 @@
+package app.benchmark;
+
+import app.model.Picture;
+import app.service.PictureService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// PictureService.deletePicture; each invocation deletes a picture uploaded outside the measured time
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PictureDeleteBenchmark {
+
+    private static final int CONTENDED_THREADS = 4;
+
+    @Param({"10240", "1048576", "20971520"})
+    private int size;
+
+    private Path uploadDir;
+    private ConfigurableApplicationContext context;
+    private PictureService pictureService;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        uploadDir = BenchmarkApplication.createUploadDir();
+        context = BenchmarkApplication.start(uploadDir, WebApplicationType.NONE);
+        pictureService = context.getBean(PictureService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkApplication.stop(context, uploadDir);
+    }
+
+    @State(Scope.Thread)
+    public static class StoredPicture {
+
+        private byte[] content;
+        private Picture picture;
+
+        @Setup(Level.Trial)
+        public void setUp(PictureDeleteBenchmark benchmark) {
+            content = BenchmarkApplication.randomContent(benchmark.size);
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        }
+
+        @Setup(Level.Invocation)
+        public void upload(PictureDeleteBenchmark benchmark) {
+            BenchmarkApplication.makeUnique(content, 0, benchmark.sequence.incrementAndGet());
+            picture = benchmark.pictureService.savePictureToStorage(
+                    new MockMultipartFile("picture", "delete.bin", "image/jpeg", content));
+        }
+    }
+
+    @Benchmark
+    public void delete(StoredPicture storedPicture) {
+        pictureService.deletePicture(storedPicture.picture.getId());
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public void deleteContended(StoredPicture storedPicture) {
+        pictureService.deletePicture(storedPicture.picture.getId());
+    }
+}
@@ -0,0 +1,138 @@
+package app.benchmark;
+
+import app.model.Picture;
+import app.service.PictureService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Upload and view through PictureService, single-threaded and with 4 threads contending for the same storage and database
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PictureServiceBenchmark {
+
+    private static final int CONTENDED_THREADS = 4;
+
+    @Param({"10240", "1048576", "20971520"})
+    private int size;
+
+    private Path uploadDir;
+    private ConfigurableApplicationContext context;
+    private PictureService pictureService;
+    private Picture storedPicture;
+
+    private final AtomicLong sequence = new AtomicLong();
+    // uploaded during an iteration, deleted after it so 20 MB runs do not fill the disk
+    private final Queue<UUID> uploaded = new ConcurrentLinkedQueue<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        uploadDir = BenchmarkApplication.createUploadDir();
+        context = BenchmarkApplication.start(uploadDir, WebApplicationType.NONE);
+        pictureService = context.getBean(PictureService.class);
+
+        bindRequest();
+        storedPicture = pictureService.savePictureToStorage(
+                new MockMultipartFile("picture", "view.bin", "image/jpeg", BenchmarkApplication.randomContent(size)));
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteUploaded() {
+        UUID pictureId;
+        while ((pictureId = uploaded.poll()) != null) {
+            pictureService.deletePicture(pictureId);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkApplication.stop(context, uploadDir);
+    }
+
+    @State(Scope.Thread)
+    public static class Uploader {
+
+        private byte[] content;
+
+        @Setup(Level.Trial)
+        public void setUp(PictureServiceBenchmark benchmark) {
+            content = BenchmarkApplication.randomContent(benchmark.size);
+            // the view URL is built from the current request, so every benchmark thread needs one
+            bindRequest();
+        }
+
+        MockMultipartFile next(long sequence) {
+            BenchmarkApplication.makeUnique(content, 0, sequence);
+            return new MockMultipartFile("picture", "upload.bin", "image/jpeg", content);
+        }
+    }
+
+    @Benchmark
+    public Picture upload(Uploader uploader) {
+        return upload(uploader.next(sequence.incrementAndGet()));
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public Picture uploadContended(Uploader uploader) {
+        return upload(uploader.next(sequence.incrementAndGet()));
+    }
+
+    // the view path: metadata lookup, then the content streamed to nowhere; served from the hot picture cache
+    // up to picture.hot-cache.max-entry-size, so the 20 MB case always reads storage
+    @Benchmark
+    public long view() throws IOException {
+        return view(storedPicture.getId(), true);
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public long viewContended() throws IOException {
+        return view(storedPicture.getId(), true);
+    }
+
+    // the same view, always opened from storage, as the baseline for the cache
+    @Benchmark
+    public long viewFromStorage() throws IOException {
+        return view(storedPicture.getId(), false);
+    }
+
+    private Picture upload(MockMultipartFile file) {
+        Picture picture = pictureService.savePictureToStorage(file);
+        uploaded.add(picture.getId());
+        return picture;
+    }
+
+    private long view(UUID pictureId, boolean cached) throws IOException {
+        Picture picture = pictureService.getPictureById(pictureId).orElseThrow();
+        Resource resource = cached
+                ? pictureService.getPictureResourceForView(picture)
+                : pictureService.getPictureResource(picture);
+        try (InputStream content = resource.getInputStream()) {
+            return content.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static void bindRequest() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    }
+}
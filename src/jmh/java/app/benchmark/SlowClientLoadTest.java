@@ -0,0 +1,114 @@
+package app.benchmark;
+
+import app.model.Picture;
+import app.service.PictureService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Capacity under slow clients, platform threads against virtual threads.
+// Every client asks for a large picture and never reads the response, so its server thread stays blocked
+// on the socket write. The test reports how many downloads are in flight at once and whether a request
+// arriving afterwards is still served. Platform mode stops at Tomcat's 200 workers; virtual mode
+// (Java 21+) keeps accepting up to picture.requests.max-concurrent.
+public final class SlowClientLoadTest {
+
+    private static final int PICTURE_SIZE = 16 * 1024 * 1024;
+    private static final Duration SETTLE_TIME = Duration.ofSeconds(3);
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    private SlowClientLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            String mode = virtualThreads ? "virtual" : "platform";
+            if (virtualThreads && Runtime.version().feature() < 21) {
+                System.out.printf("%-8s skipped, virtual threads need Java 21 (running %s)%n", mode, Runtime.version());
+                continue;
+            }
+            run(mode, virtualThreads, clients);
+        }
+    }
+
+    private static void run(String mode, boolean virtualThreads, int clients) throws Exception {
+        Path uploadDir = BenchmarkApplication.createUploadDir();
+        ConfigurableApplicationContext context = BenchmarkApplication.start(uploadDir, WebApplicationType.SERVLET,
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--picture.requests.max-concurrent=" + clients * 2,
+                "--server.tomcat.threads.max=200",
+                "--server.tomcat.connection-timeout=60s");
+        List<Socket> slowClients = new ArrayList<>(clients);
+        try {
+            int port = Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+            Picture picture = context.getBean(PictureService.class).savePictureToStorage(new MockMultipartFile(
+                    "picture", "large.bin", "image/jpeg", BenchmarkApplication.randomContent(PICTURE_SIZE)));
+
+            for (int i = 0; i < clients; i++) {
+                slowClients.add(requestWithoutReading(port, "/api/v1/pictures/view/" + picture.getId()));
+            }
+            Thread.sleep(SETTLE_TIME.toMillis());
+
+            double inFlight = context.getBean(MeterRegistry.class).get("picture.storage.transfers.active")
+                    .tag("direction", "read")
+                    .gauge()
+                    .value();
+            System.out.printf("%-8s clients=%d downloads in flight=%.0f probe=%s%n",
+                    mode, clients, inFlight, probe(port));
+        } finally {
+            for (Socket slowClient : slowClients) {
+                slowClient.close();
+            }
+            BenchmarkApplication.stop(context, uploadDir);
+        }
+    }
+
+    private static Socket requestWithoutReading(int port, String path) throws IOException {
+        Socket socket = new Socket();
+        // a tiny receive window, so the server's write blocks after the first few kilobytes
+        socket.setReceiveBufferSize(1024);
+        socket.connect(new InetSocketAddress("localhost", port));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    // a cheap request arriving while every slow client is still connected
+    private static String probe(int port) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(PROBE_TIMEOUT).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health"))
+                .timeout(PROBE_TIMEOUT)
+                .build();
+
+        long start = System.nanoTime();
+        try {
+            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            return "%d in %d ms".formatted(status, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (HttpTimeoutException e) {
+            return "timed out after " + PROBE_TIMEOUT.toSeconds() + " s";
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package app.benchmark;
+
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Time to the first successful /view, from launching a fresh JVM with the packaged application until a picture
+// stored by an earlier run is served. Runs against a file-based H2 database seeded once, per startup mode:
+//   default     java -jar, every bean created before the web server starts
+//   fast-start  the fast-start profile: lazy beans, background Hibernate bootstrap
+//   aot-cds     fast-start with AOT bean definitions and the CDS archive, when built with -Pfast-start
+// Medians are printed and written to target/startup-result.json.
+// mvn -Pbenchmarks -DskipTests package exec:exec -Dbenchmark.main=app.benchmark.StartupBenchmark -Dbenchmark.args="5"
+public final class StartupBenchmark {
+
+    // absolute, every run starts in its own working directory
+    private static final Path JAR = Path.of("target", "Picture-Service-0.0.1-SNAPSHOT.jar").toAbsolutePath();
+    private static final Path FAST_START_DIRECTORY = Path.of("target", "fast-start").toAbsolutePath();
+    private static final Path RESULT = Path.of("target", "startup-result.json");
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(3);
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        if (!Files.isRegularFile(JAR)) {
+            throw new IllegalStateException(JAR + " is missing, run mvn package first");
+        }
+
+        Map<String, List<String>> modes = new LinkedHashMap<>();
+        modes.put("default", List.of("-jar", JAR.toString()));
+        modes.put("fast-start", List.of("-Dspring.profiles.active=fast-start", "-jar", JAR.toString()));
+        Path archive = FAST_START_DIRECTORY.resolve("application.jsa");
+        if (Files.isRegularFile(archive)) {
+            modes.put("aot-cds", List.of("-XX:SharedArchiveFile=" + archive, "-Dspring.aot.enabled=true",
+                    "-Dspring.profiles.active=fast-start", "-jar", FAST_START_DIRECTORY.resolve(JAR.getFileName()).toString()));
+        } else {
+            System.out.println("aot-cds skipped, build with -Pfast-start for the AOT sources and CDS archive");
+        }
+
+        Path workDirectory = Files.createTempDirectory("picture-startup-");
+        try {
+            UUID pictureId = seed(workDirectory);
+            Map<String, List<Long>> results = new LinkedHashMap<>();
+            for (int run = 0; run < runs; run++) {
+                // modes interleaved, so a slow phase of the machine is spread over all of them
+                for (Map.Entry<String, List<String>> mode : modes.entrySet()) {
+                    long millis = timeToFirstView(workDirectory, mode.getValue(), pictureId);
+                    results.computeIfAbsent(mode.getKey(), key -> new ArrayList<>()).add(millis);
+                    System.out.printf("%-10s run %d: %d ms%n", mode.getKey(), run + 1, millis);
+                }
+            }
+            report(results);
+        } finally {
+            FileSystemUtils.deleteRecursively(workDirectory);
+        }
+    }
+
+    // starts the application once to create the schema and store the picture every measured run asks for
+    private static UUID seed(Path workDirectory) throws Exception {
+        int port = freePort();
+        Process process = launch(workDirectory, List.of("-jar", JAR.toString()), port);
+        try {
+            awaitStatus(port, "/actuator/health", process);
+            byte[] content = "startup benchmark picture".getBytes(StandardCharsets.UTF_8);
+            String boundary = UUID.randomUUID().toString();
+            byte[] body = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"picture\"; filename=\"seed.jpg\"\r\n"
+                    + "Content-Type: image/jpeg\r\n\r\n" + new String(content, StandardCharsets.ISO_8859_1) + "\r\n--"
+                    + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            HttpResponse<String> response = CLIENT.send(HttpRequest.newBuilder(uri(port, "/api/v1/pictures/upload"))
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Matcher id = Pattern.compile("\"id\"\\s*:\\s*\"([0-9a-f-]{36})\"").matcher(response.body());
+            if (response.statusCode() != 201 || !id.find()) {
+                throw new IllegalStateException("Seed upload failed: " + response.statusCode() + " " + response.body());
+            }
+            return UUID.fromString(id.group(1));
+        } finally {
+            stop(process);
+        }
+    }
+
+    private static long timeToFirstView(Path workDirectory, List<String> javaArgs, UUID pictureId) throws Exception {
+        int port = freePort();
+        long start = System.nanoTime();
+        Process process = launch(workDirectory, javaArgs, port);
+        try {
+            awaitStatus(port, "/api/v1/pictures/view/" + pictureId, process);
+            return Duration.ofNanos(System.nanoTime() - start).toMillis();
+        } finally {
+            stop(process);
+        }
+    }
+
+    private static Process launch(Path workDirectory, List<String> javaArgs, int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(javaArgs);
+        command.addAll(List.of(
+                "--spring.datasource.url=jdbc:h2:file:" + workDirectory.resolve("db").toAbsolutePath(),
+                "--spring.datasource.driverClassName=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--file.upload.dir=" + workDirectory.resolve("uploads").toAbsolutePath(),
+                "--server.port=" + port,
+                "--logging.level.root=WARN"));
+        return new ProcessBuilder(command)
+                .directory(workDirectory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workDirectory.resolve("application.log").toFile())
+                .start();
+    }
+
+    private static void awaitStatus(int port, String path, Process process) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri(port, path)).timeout(Duration.ofSeconds(30)).build();
+        long deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue() + ", see its log");
+            }
+            try {
+                if (CLIENT.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (ConnectException e) {
+                // not listening yet
+            }
+            Thread.sleep(POLL_INTERVAL.toMillis());
+        }
+        throw new IllegalStateException("No successful response from " + path + " within " + START_TIMEOUT);
+    }
+
+    private static void stop(Process process) throws InterruptedException {
+        process.destroy();
+        process.waitFor();
+    }
+
+    private static void report(Map<String, List<Long>> results) throws IOException {
+        List<String> entries = new ArrayList<>();
+        System.out.printf("%n%-10s %10s %10s %10s%n", "mode", "min ms", "median ms", "max ms");
+        for (Map.Entry<String, List<Long>> result : results.entrySet()) {
+            long[] millis = result.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+            long median = millis[millis.length / 2];
+            System.out.printf("%-10s %10d %10d %10d%n", result.getKey(), millis[0], median, millis[millis.length - 1]);
+            entries.add("  {\"mode\": \"%s\", \"timeToFirstViewMillis\": {\"median\": %d, \"runs\": %s}}"
+                    .formatted(result.getKey(), median, Arrays.toString(millis)));
+        }
+        Files.writeString(RESULT, entries.stream().collect(Collectors.joining(",\n", "[\n", "\n]\n")));
+    }
+
+    private static URI uri(int port, String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
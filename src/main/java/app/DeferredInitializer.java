@@ -0,0 +1,55 @@
+package app;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+// With lazy initialization, creates the beans no request has needed yet on a background thread once the
+// application is ready: scheduled sweeps and other background work still start, only after the first
+// requests can be served instead of before.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.main.lazy-initialization", havingValue = "true")
+public class DeferredInitializer {
+
+    private final ConfigurableListableBeanFactory beanFactory;
+
+    @Autowired
+    public DeferredInitializer(ConfigurableListableBeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        new CustomizableThreadFactory("deferred-init-").newThread(this::initializeRemainingBeans).start();
+    }
+
+    public int initializeRemainingBeans() {
+        long start = System.nanoTime();
+        int initialized = 0;
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (!definition.isSingleton() || definition.isAbstract() || !definition.isLazyInit()
+                    || beanFactory.containsSingleton(name)) {
+                continue;
+            }
+
+            try {
+                beanFactory.getBean(name);
+                initialized++;
+            } catch (BeansException e) {
+                log.warn("Could not initialize bean [%s] in the background".formatted(name), e);
+            }
+        }
+
+        log.info("Initialized %d deferred beans in %d ms".formatted(initialized, (System.nanoTime() - start) / 1_000_000));
+        return initialized;
+    }
+}
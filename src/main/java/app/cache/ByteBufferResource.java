@@ -0,0 +1,114 @@
+package app.cache;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// A cached picture as a Resource. Every stream reads its own view of the shared buffer,
+// so concurrent readers never copy the picture and never move each other's position.
+public class ByteBufferResource extends AbstractResource {
+
+    private static final int TRANSFER_CHUNK_SIZE = 8192;
+
+    private final ByteBuffer buffer;
+    private final String filename;
+    private final String description;
+
+    ByteBufferResource(ByteBuffer buffer, String filename, String description) {
+        this.buffer = buffer;
+        this.filename = filename;
+        this.description = description;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "cached " + description;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    // skip is a position change, so a range request starts at its offset without reading what comes before
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        // the only heap copy is this chunk on its way into the response buffer
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            byte[] chunk = new byte[Math.min(TRANSFER_CHUNK_SIZE, Math.max(1, buffer.remaining()))];
+            long transferred = 0;
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+                transferred += length;
+            }
+            return transferred;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package app.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+// Off-heap cache of the most viewed pictures, keyed by storage key and bounded by a byte budget.
+// Local files are memory-mapped, so a cached picture is served from the page cache without a read call;
+// other backends are read into a direct buffer, but only on the second view of a key, so a scan over cold
+// pictures does not fill direct memory that only the garbage collector gives back. Caffeine's W-TinyLFU
+// admission keeps a stream of one-off views from evicting the pictures that are viewed all the time.
+// Evicted buffers are released by the garbage collector, not at eviction.
+@Slf4j
+@Component
+public class HotPictureCache implements MeterBinder {
+
+    // keys of non-file pictures viewed once and not buffered yet
+    private static final int SEEN_ONCE_KEYS = 10_000;
+
+    private final long maxEntrySize;
+    private final Cache<String, ByteBuffer> cache;
+    private final Cache<String, Boolean> seenOnce;
+
+    @Autowired
+    public HotPictureCache(@Value("${picture.hot-cache.max-bytes:256MB}") DataSize maxBytes,
+                           @Value("${picture.hot-cache.max-entry-size:8MB}") DataSize maxEntrySize) {
+        this.maxEntrySize = Math.min(maxEntrySize.toBytes(), maxBytes.toBytes());
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes.toBytes())
+                .weigher((String key, ByteBuffer buffer) -> buffer.capacity())
+                .recordStats()
+                .build();
+        this.seenOnce = Caffeine.newBuilder()
+                .maximumSize(SEEN_ONCE_KEYS)
+                .build();
+    }
+
+    // the cached content, or the opened resource itself when it is too large to cache or cannot be buffered
+    public Resource get(String key, Supplier<Resource> opener) {
+        ByteBuffer cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return new ByteBufferResource(cached, filename(key), key);
+        }
+
+        Resource resource = opener.get();
+        if (maxEntrySize == 0) {
+            return resource;
+        }
+
+        try {
+            long length = resource.contentLength();
+            if (length < 0 || length > maxEntrySize) {
+                return resource;
+            }
+            if (!resource.isFile() && seenOnce.asMap().putIfAbsent(key, Boolean.TRUE) == null) {
+                return resource;
+            }
+
+            ByteBuffer loaded = load(resource, (int) length);
+            ByteBuffer previous = cache.asMap().putIfAbsent(key, loaded);
+            seenOnce.invalidate(key);
+            return new ByteBufferResource(previous == null ? loaded : previous, filename(key), key);
+
+        } catch (IOException e) {
+            log.debug("Could not cache [%s], serving it from storage".formatted(key), e);
+            return resource;
+        }
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+        seenOnce.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        seenOnce.invalidateAll();
+    }
+
+    // hit/miss/eviction counters as cache.* meters tagged cache=hotPicture, plus the bytes held
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "hotPicture");
+        Gauge.builder("picture.hot-cache.bytes", cache, c -> c.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("Bytes of picture content held by the hot picture cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private static ByteBuffer load(Resource resource, int length) throws IOException {
+        if (resource.isFile()) {
+            // read-only: stored content never changes under its key, the file is only ever replaced or removed
+            try (FileChannel channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        try (InputStream in = resource.getInputStream(); ReadableByteChannel channel = Channels.newChannel(in)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("Content ended after %d of %d bytes".formatted(buffer.position(), length));
+        }
+        return buffer.flip();
+    }
+
+    private static String filename(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+}
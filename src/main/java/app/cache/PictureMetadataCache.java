@@ -0,0 +1,92 @@
+package app.cache;
+
+import app.model.Picture;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+// Bounded, TTL-evicting cache of picture rows so hot views skip the database round-trip
+@Component
+public class PictureMetadataCache implements MeterBinder {
+
+    private final Cache<UUID, Picture> cache;
+
+    @Autowired
+    public PictureMetadataCache(@Value("${picture.metadata-cache.maximum-size:10000}") long maximumSize,
+                                @Value("${picture.metadata-cache.ttl:10m}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    // missing rows are not cached, so a picture uploaded right after a miss is found on the next lookup.
+    // The row is loaded outside the cache: a computing get holds a map bin lock for the whole query,
+    // which pins a virtual thread to its carrier.
+    public Optional<Picture> get(UUID pictureId, Function<UUID, Optional<Picture>> loader) {
+        Picture cached = cache.getIfPresent(pictureId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        Optional<Picture> loaded = loader.apply(pictureId);
+        loaded.ifPresent(picture -> cache.asMap().putIfAbsent(pictureId, picture));
+        return loaded;
+    }
+
+    // the rows found, by id; the ones not cached are loaded together by a single call of the loader
+    public Map<UUID, Picture> getAll(Collection<UUID> pictureIds, Function<List<UUID>, List<Picture>> loader) {
+        Map<UUID, Picture> found = new LinkedHashMap<>();
+        List<UUID> missing = new ArrayList<>();
+        for (UUID pictureId : pictureIds) {
+            Picture cached = cache.getIfPresent(pictureId);
+            if (cached != null) {
+                found.put(pictureId, cached);
+            } else {
+                missing.add(pictureId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (Picture picture : loader.apply(missing)) {
+                cache.asMap().putIfAbsent(picture.getId(), picture);
+                found.put(picture.getId(), picture);
+            }
+        }
+        return found;
+    }
+
+    public void put(Picture picture) {
+        cache.put(picture.getId(), picture);
+    }
+
+    public void invalidate(UUID pictureId) {
+        cache.invalidate(pictureId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    // hit/miss/eviction counters and the size as cache.* meters tagged cache=pictureMetadata
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "pictureMetadata");
+    }
+}
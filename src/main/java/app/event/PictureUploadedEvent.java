@@ -0,0 +1,10 @@
+package app.event;
+
+import app.model.Picture;
+import lombok.Value;
+
+@Value
+public class PictureUploadedEvent {
+
+    Picture picture;
+}
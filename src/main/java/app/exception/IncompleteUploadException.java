@@ -0,0 +1,8 @@
+package app.exception;
+
+public class IncompleteUploadException extends RuntimeException {
+
+    public IncompleteUploadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package app.exception;
+
+public class InvalidPictureQueryException extends RuntimeException {
+
+    public InvalidPictureQueryException(String message) {
+        super(message);
+    }
+
+    public InvalidPictureQueryException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
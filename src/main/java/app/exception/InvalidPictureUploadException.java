@@ -0,0 +1,8 @@
+package app.exception;
+
+public class InvalidPictureUploadException extends RuntimeException {
+
+    public InvalidPictureUploadException(String message) {
+        super(message);
+    }
+}
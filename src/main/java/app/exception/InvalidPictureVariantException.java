@@ -0,0 +1,12 @@
+package app.exception;
+
+public class InvalidPictureVariantException extends RuntimeException {
+
+    public InvalidPictureVariantException(String message) {
+        super(message);
+    }
+
+    public InvalidPictureVariantException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+package app.exception;
+
+public class PictureTooLargeException extends RuntimeException {
+
+    public PictureTooLargeException(String message) {
+        super(message);
+    }
+
+    public PictureTooLargeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,8 @@
+package app.exception;
+
+public class RenderCapacityExceededException extends RuntimeException {
+
+    public RenderCapacityExceededException(String message) {
+        super(message);
+    }
+}
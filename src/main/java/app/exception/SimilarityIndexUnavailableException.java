@@ -0,0 +1,8 @@
+package app.exception;
+
+public class SimilarityIndexUnavailableException extends RuntimeException {
+
+    public SimilarityIndexUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package app.exception;
+
+public class TooManyConcurrentRequestsException extends RuntimeException {
+
+    public TooManyConcurrentRequestsException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package app.exception;
+
+public class UploadSessionNotFoundException extends RuntimeException {
+
+    public UploadSessionNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,348 @@
+package app.metrics;
+
+import app.storage.PictureStorage;
+import app.storage.StorageEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Times every storage call and counts the bytes moved, whatever the backend.
+// Meters are resolved once up front, so a call only costs two nanoTime reads and a few atomic adds.
+public class MeteredPictureStorage implements PictureStorage {
+
+    enum Operation {
+        PUT, OPEN, OPEN_RANGE, EXISTS, SIZE, MOVE, DELETE;
+
+        final String tag = name().toLowerCase().replace('_', '-');
+    }
+
+    private final PictureStorage delegate;
+    private final MeterRegistry meterRegistry;
+    private final Map<Operation, Timer> latency = new EnumMap<>(Operation.class);
+    private final DistributionSummary bytesWritten;
+    private final DistributionSummary bytesRead;
+    private final AtomicInteger activeWrites = new AtomicInteger();
+    private final AtomicInteger activeReads = new AtomicInteger();
+
+    public MeteredPictureStorage(PictureStorage delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+        String backend = delegate.getClass().getSimpleName();
+
+        for (Operation operation : Operation.values()) {
+            latency.put(operation, Timer.builder("picture.storage.latency")
+                    .description("Time spent in a storage backend call")
+                    .tag("operation", operation.tag)
+                    .tag("backend", backend)
+                    .register(meterRegistry));
+        }
+        bytesWritten = DistributionSummary.builder("picture.storage.bytes.written")
+                .description("Size of each object written to storage")
+                .baseUnit("bytes")
+                .tag("backend", backend)
+                .register(meterRegistry);
+        bytesRead = DistributionSummary.builder("picture.storage.bytes.read")
+                .description("Bytes read through each opened object stream")
+                .baseUnit("bytes")
+                .tag("backend", backend)
+                .register(meterRegistry);
+        Gauge.builder("picture.storage.transfers.active", activeWrites, AtomicInteger::get)
+                .description("Storage writes in progress")
+                .tag("direction", "write")
+                .register(meterRegistry);
+        Gauge.builder("picture.storage.transfers.active", activeReads, AtomicInteger::get)
+                .description("Storage read streams currently open")
+                .tag("direction", "read")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        activeWrites.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            long size = delegate.put(key, content);
+            bytesWritten.record(size);
+            return size;
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.PUT, e);
+            throw e;
+        } finally {
+            record(Operation.PUT, start);
+            activeWrites.decrementAndGet();
+        }
+    }
+
+    @Override
+    public long putFile(String key, Path source) throws IOException {
+        activeWrites.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            long size = delegate.putFile(key, source);
+            bytesWritten.record(size);
+            return size;
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.PUT, e);
+            throw e;
+        } finally {
+            record(Operation.PUT, start);
+            activeWrites.decrementAndGet();
+        }
+    }
+
+    @Override
+    public Resource open(String key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return new MeteredResource(delegate.open(key));
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.OPEN, e);
+            throw e;
+        } finally {
+            record(Operation.OPEN, start);
+        }
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return new MeteredInputStream(delegate.openRange(key, offset, length));
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.OPEN_RANGE, e);
+            throw e;
+        } finally {
+            record(Operation.OPEN_RANGE, start);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.exists(key);
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.EXISTS, e);
+            throw e;
+        } finally {
+            record(Operation.EXISTS, start);
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.size(key);
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.SIZE, e);
+            throw e;
+        } finally {
+            record(Operation.SIZE, start);
+        }
+    }
+
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.move(sourceKey, targetKey);
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.MOVE, e);
+            throw e;
+        } finally {
+            record(Operation.MOVE, start);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.delete(key);
+        } catch (IOException | RuntimeException e) {
+            countError(Operation.DELETE, e);
+            throw e;
+        } finally {
+            record(Operation.DELETE, start);
+        }
+    }
+
+    @Override
+    public void quarantine(String key, String quarantineKey) throws IOException {
+        delegate.quarantine(key, quarantineKey);
+    }
+
+    // not timed: the listing is read lazily, long after this returns
+    @Override
+    public Stream<StorageEntry> list(String prefix) throws IOException {
+        return delegate.list(prefix);
+    }
+
+    public PictureStorage getDelegate() {
+        return delegate;
+    }
+
+    private void record(Operation operation, long start) {
+        latency.get(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // only on failures, so the tag lookup stays off the happy path
+    private void countError(Operation operation, Exception e) {
+        Counter.builder("picture.storage.errors")
+                .description("Failed storage backend calls")
+                .tag("operation", operation.tag)
+                .tag("exception", e.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    // counts into a plain field and records once on close, nothing is recorded per read call
+    private final class MeteredInputStream extends FilterInputStream {
+
+        private long count;
+        private boolean closed;
+
+        private MeteredInputStream(InputStream in) {
+            super(in);
+            activeReads.incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            long transferred = in.transferTo(out);
+            count += transferred;
+            return transferred;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                activeReads.decrementAndGet();
+                bytesRead.record(count);
+            }
+            super.close();
+        }
+    }
+
+    // the backend's resource with its streams metered; file access is passed through for readers that use it
+    private final class MeteredResource implements Resource {
+
+        private final Resource resource;
+
+        private MeteredResource(Resource resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new MeteredInputStream(resource.getInputStream());
+        }
+
+        @Override
+        public boolean exists() {
+            return resource.exists();
+        }
+
+        @Override
+        public boolean isReadable() {
+            return resource.isReadable();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return resource.isOpen();
+        }
+
+        @Override
+        public boolean isFile() {
+            return resource.isFile();
+        }
+
+        @Override
+        public URL getURL() throws IOException {
+            return resource.getURL();
+        }
+
+        @Override
+        public URI getURI() throws IOException {
+            return resource.getURI();
+        }
+
+        @Override
+        public File getFile() throws IOException {
+            return resource.getFile();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return resource.contentLength();
+        }
+
+        @Override
+        public long lastModified() throws IOException {
+            return resource.lastModified();
+        }
+
+        @Override
+        public Resource createRelative(String relativePath) throws IOException {
+            return resource.createRelative(relativePath);
+        }
+
+        @Override
+        public String getFilename() {
+            return resource.getFilename();
+        }
+
+        @Override
+        public String getDescription() {
+            return resource.getDescription();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof MeteredResource metered && resource.equals(metered.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return resource.hashCode();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package app.metrics;
+
+import app.storage.PictureStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+// Puts MeteredPictureStorage in front of whichever storage backend is active
+@Component
+public class PictureStorageMetricsPostProcessor implements BeanPostProcessor {
+
+    // looked up lazily, post-processors are created before the registry exists
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    @Autowired
+    public PictureStorageMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof PictureStorage storage && !(bean instanceof MeteredPictureStorage)) {
+            MeterRegistry registry = meterRegistry.getIfAvailable();
+            if (registry != null) {
+                return new MeteredPictureStorage(storage, registry);
+            }
+        }
+        return bean;
+    }
+}
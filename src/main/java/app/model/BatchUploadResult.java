@@ -0,0 +1,18 @@
+package app.model;
+
+import lombok.Value;
+
+// outcome of one file of a batch upload: the stored picture, or why it was not stored
+@Value
+public class BatchUploadResult {
+
+    String originalFileName;
+
+    Picture picture;
+
+    String error;
+
+    public boolean isStored() {
+        return picture != null;
+    }
+}
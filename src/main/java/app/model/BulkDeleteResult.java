@@ -0,0 +1,15 @@
+package app.model;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.UUID;
+
+// outcome of a bulk delete: the ids removed, and the ids that did not exist (or were deleted concurrently)
+@Value
+public class BulkDeleteResult {
+
+    List<UUID> deleted;
+
+    List<UUID> notFound;
+}
@@ -0,0 +1,25 @@
+package app.model;
+
+import lombok.Value;
+import org.springframework.core.io.Resource;
+
+import java.util.UUID;
+
+// one picture of a bundle response: its content with the status 200, or only the status it would have been
+// answered with on its own; picture is null when there is no row for the id
+@Value
+public class BundlePart {
+
+    UUID pictureId;
+
+    int status;
+
+    Picture picture;
+
+    Resource content;
+
+    String contentType;
+
+    // what the representation adds to the ETag of the picture, "" for the picture itself
+    String variantKey;
+}
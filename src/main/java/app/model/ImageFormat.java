@@ -0,0 +1,26 @@
+package app.model;
+
+import lombok.Getter;
+
+// the format an image really is, recognised from its first bytes whatever the client claimed
+@Getter
+public enum ImageFormat {
+
+    JPEG("image/jpeg"),
+    PNG("image/png"),
+    GIF("image/gif"),
+    WEBP("image/webp"),
+    BMP("image/bmp"),
+    TIFF("image/tiff"),
+    HEIF("image/heif"),
+    AVIF("image/avif"),
+
+    // not an image format this service recognises
+    UNKNOWN("application/octet-stream");
+
+    private final String mimeType;
+
+    ImageFormat(String mimeType) {
+        this.mimeType = mimeType;
+    }
+}
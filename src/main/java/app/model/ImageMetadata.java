@@ -0,0 +1,37 @@
+package app.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+// what the header of an image tells about it; everything but the format is null when the header does not say
+@Value
+@Builder
+public class ImageMetadata {
+
+    ImageFormat format;
+
+    Integer width;
+
+    Integer height;
+
+    // EXIF orientation, 1 to 8; 5 to 8 mean the picture is displayed rotated by a quarter turn
+    Integer orientation;
+
+    LocalDateTime takenAt;
+
+    String cameraMake;
+
+    String cameraModel;
+
+    public void applyTo(Picture picture) {
+        picture.setFormat(format);
+        picture.setWidth(width);
+        picture.setHeight(height);
+        picture.setOrientation(orientation);
+        picture.setTakenAt(takenAt);
+        picture.setCameraMake(cameraMake);
+        picture.setCameraModel(cameraModel);
+    }
+}
@@ -13,7 +13,19 @@ import java.util.UUID;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "pictures")
+// the listing walks (upload_date, id) backwards; type gets its own copy of that order,
+// the other filters narrow by their own index when they are selective
+@Table(name = "pictures", indexes = {
+        @Index(name = "idx_pictures_rendition_status", columnList = "rendition_status"),
+        @Index(name = "idx_pictures_content_hash", columnList = "content_hash"),
+        @Index(name = "idx_pictures_upload_date_id", columnList = "upload_date, id"),
+        @Index(name = "idx_pictures_type_upload_date_id", columnList = "type, upload_date, id"),
+        @Index(name = "idx_pictures_size", columnList = "size"),
+        @Index(name = "idx_pictures_original_file_name", columnList = "original_file_name"),
+        @Index(name = "idx_pictures_format_upload_date_id", columnList = "format, upload_date, id"),
+        @Index(name = "idx_pictures_width_height", columnList = "width, height"),
+        @Index(name = "idx_pictures_taken_at", columnList = "taken_at")
+})
 public class Picture {
 
     @Id
@@ -31,9 +43,50 @@ public class Picture {
     @Column(nullable = false)
     private LocalDateTime uploadDate;
 
+    // the shared blob when the content is deduplicated, otherwise a file owned by this picture
     @Column(nullable = false)
     private String filePath;
 
+    // hex SHA-256 of the content, null for pictures stored before it was recorded
+    @Column(length = 64)
+    private String contentHash;
+
+    // CRC32C of the content, cheap enough for PictureScrubber to check every copy; null for pictures stored before
+    private Long crc32c;
+
     @Column(nullable = false)
     private String pictureUrl;
+
+    // null for pictures stored before the rendition pipeline existed
+    @Enumerated(EnumType.STRING)
+    private RenditionStatus renditionStatus;
+
+    // read from the content at upload, null until PictureMetadataBackfill reaches pictures stored before
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private ImageFormat format;
+
+    private Integer width;
+
+    private Integer height;
+
+    private Integer orientation;
+
+    private LocalDateTime takenAt;
+
+    @Column(length = 64)
+    private String cameraMake;
+
+    @Column(length = 64)
+    private String cameraModel;
+
+    // 64-bit difference hash of the content, close for resized or recompressed copies of the same image;
+    // null until it is computed after upload, or for content that cannot be decoded
+    private Long perceptualHash;
+
+    // size of the losslessly optimized copy served instead of the content, null while there is none
+    private Long optimizedSize;
+
+    // set by the storage reconciler while the content behind filePath is missing, cleared when it is back
+    private LocalDateTime contentMissingSince;
 }
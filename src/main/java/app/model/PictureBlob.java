@@ -0,0 +1,42 @@
+package app.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// One stored file per distinct content, shared by every picture with the same digest
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+// blobs released to zero references wait here for the reaper
+@Table(name = "picture_blobs", indexes = {
+        @Index(name = "idx_picture_blobs_reference_count", columnList = "reference_count")
+})
+public class PictureBlob {
+
+    // hex SHA-256 of the content
+    @Id
+    @Column(length = 64)
+    private String contentHash;
+
+    @Column(nullable = false)
+    private String filePath;
+
+    @Column(nullable = false)
+    private long size;
+
+    // CRC32C of the content, null for blobs stored before it was recorded
+    private Long crc32c;
+
+    // number of pictures pointing at this blob; at zero the file and the row are removed, right away
+    // by a single delete, or by PictureReaper after a bulk delete
+    @Column(nullable = false)
+    private long referenceCount;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+}
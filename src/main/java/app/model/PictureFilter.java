@@ -0,0 +1,34 @@
+package app.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+// listing criteria, every one optional; upload dates are [from, to), sizes and dimensions are inclusive
+@Value
+@Builder
+public class PictureFilter {
+
+    LocalDateTime uploadedFrom;
+
+    LocalDateTime uploadedTo;
+
+    String type;
+
+    Long minSize;
+
+    Long maxSize;
+
+    String fileNamePrefix;
+
+    ImageFormat format;
+
+    Integer minWidth;
+
+    Integer maxWidth;
+
+    Integer minHeight;
+
+    Integer maxHeight;
+}
@@ -0,0 +1,14 @@
+package app.model;
+
+import lombok.Value;
+
+import java.util.UUID;
+
+// a picture's perceptual hash without the rest of the row, read in bulk to build the similarity index
+@Value
+public class PictureHash {
+
+    UUID id;
+
+    long perceptualHash;
+}
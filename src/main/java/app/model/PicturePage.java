@@ -0,0 +1,14 @@
+package app.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+// one page of a listing; nextCursor is null on the last page
+@Value
+public class PicturePage {
+
+    List<PictureSummary> items;
+
+    String nextCursor;
+}
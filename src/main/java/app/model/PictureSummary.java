@@ -0,0 +1,29 @@
+package app.model;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// the listed columns of a picture, selected straight into this by the query, never as a managed entity
+@Value
+public class PictureSummary {
+
+    UUID id;
+
+    String originalFileName;
+
+    String type;
+
+    long size;
+
+    LocalDateTime uploadDate;
+
+    String pictureUrl;
+
+    ImageFormat format;
+
+    Integer width;
+
+    Integer height;
+}
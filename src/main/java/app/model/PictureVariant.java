@@ -0,0 +1,14 @@
+package app.model;
+
+import lombok.Value;
+import org.springframework.core.io.Resource;
+
+@Value
+public class PictureVariant {
+
+    Resource resource;
+
+    String contentType;
+
+    String key;
+}
@@ -0,0 +1,13 @@
+package app.model;
+
+public enum RenditionStatus {
+
+    // waiting for the rendition pipeline, also after a restart
+    PENDING,
+
+    // every standard rendition is on disk
+    READY,
+
+    // the picture could not be decoded, renditions are only rendered on demand
+    FAILED
+}
@@ -0,0 +1,16 @@
+package app.model;
+
+import lombok.Value;
+
+import java.util.UUID;
+
+// a picture found near another by perceptual hash; distance is the number of differing hash bits, 0 to 64
+@Value
+public class SimilarPicture {
+
+    UUID id;
+
+    long perceptualHash;
+
+    int distance;
+}
@@ -0,0 +1,15 @@
+package app.model;
+
+import lombok.Value;
+
+@Value
+public class StoredBlob {
+
+    String contentHash;
+
+    String filePath;
+
+    long size;
+
+    long crc32c;
+}
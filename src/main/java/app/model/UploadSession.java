@@ -0,0 +1,46 @@
+package app.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// A resumable upload in progress: chunks land in a local staging file, the received byte ranges are tracked here
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "upload_sessions", indexes = {
+        @Index(name = "idx_upload_sessions_updated_at", columnList = "updated_at")
+})
+public class UploadSession {
+
+    @Id
+    private UUID id;
+
+    @Column(nullable = false)
+    private String originalFileName;
+
+    @Column(nullable = false)
+    private String type;
+
+    // declared total length, chunks may not write past it
+    @Column(nullable = false)
+    private long length;
+
+    // received byte ranges as merged "start-end" pairs with exclusive ends, e.g. "0-1048576,2097152-3145728";
+    // grows with every gap an out-of-order upload leaves, so sized as MySQL's mediumtext rather than the default tinytext
+    @Lob
+    @Column(nullable = false, length = 16_777_215)
+    private String receivedRanges;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    // last chunk or creation time, sessions idle for too long are swept
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,13 @@
+package app.model;
+
+public enum VariantFit {
+
+    // scale down to fit inside the box, keeping the aspect ratio
+    CONTAIN,
+
+    // scale to cover the whole box, keeping the aspect ratio, and crop the overflow
+    COVER,
+
+    // stretch to exactly the requested box
+    FILL
+}
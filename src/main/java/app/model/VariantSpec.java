@@ -0,0 +1,28 @@
+package app.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+@Value
+@Builder
+public class VariantSpec {
+
+    // null means "derive from the other dimension"
+    Integer width;
+
+    Integer height;
+
+    VariantFit fit;
+
+    // ImageIO format name, e.g. jpeg or png
+    String format;
+
+    // stable file name of the derivative, used as its cache key next to the picture id
+    public String key() {
+        return "%sx%s-%s.%s".formatted(
+                width == null ? "" : width,
+                height == null ? "" : height,
+                fit.name().toLowerCase(),
+                format);
+    }
+}
@@ -0,0 +1,41 @@
+package app.repository;
+
+import app.model.PictureBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PictureBlobRepository extends JpaRepository<PictureBlob, String> {
+
+    // row lock held until commit, so reference counting and file removal never interleave
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from PictureBlob b where b.contentHash = :contentHash")
+    Optional<PictureBlob> findForUpdate(String contentHash);
+
+    // drops several references at once; 0 when the picture did not point at this blob
+    @Modifying
+    @Query("update PictureBlob b set b.referenceCount = b.referenceCount - :count "
+            + "where b.contentHash = :contentHash and b.filePath = :filePath")
+    int releaseReferences(String contentHash, String filePath, long count);
+
+    List<PictureBlob> findByReferenceCountLessThanEqual(long referenceCount, Pageable pageable);
+
+    @Query("select b.contentHash from PictureBlob b where b.contentHash in :contentHashes")
+    List<String> findExistingHashes(Collection<String> contentHashes);
+
+    // records the checksum of a blob stored before checksums were, once its content was verified against its digest
+    @Transactional
+    @Modifying
+    @Query("update PictureBlob b set b.crc32c = :crc32c where b.contentHash = :contentHash and b.crc32c is null")
+    int updateCrc32c(String contentHash, long crc32c);
+}
@@ -0,0 +1,14 @@
+package app.repository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// where a picture's content lives, without loading the entity
+public interface PictureContentRef {
+
+    UUID getId();
+
+    String getFilePath();
+
+    LocalDateTime getContentMissingSince();
+}
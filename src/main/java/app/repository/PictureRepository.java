@@ -1,12 +1,106 @@
 package app.repository;
 
+import app.model.ImageFormat;
 import app.model.Picture;
+import app.model.PictureHash;
+import app.model.RenditionStatus;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
-public interface PictureRepository extends JpaRepository<Picture, UUID> {
+public interface PictureRepository extends JpaRepository<Picture, UUID>, PictureRepositoryCustom {
 
+    List<Picture> findByRenditionStatusOrderByUploadDateAsc(RenditionStatus renditionStatus, Pageable pageable);
+
+    // pictures whose file still sits at an absolute path below the given storage root
+    List<Picture> findByFilePathStartingWith(String prefix, Pageable pageable);
+
+    // every picture sharing the file, a blob may be referenced by several
+    @Query("select p.id from Picture p where p.filePath = :filePath")
+    List<UUID> findIdsByFilePath(String filePath);
+
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.filePath = :newFilePath where p.filePath = :oldFilePath")
+    int updateFilePath(String oldFilePath, String newFilePath);
+
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.renditionStatus = :renditionStatus where p.id = :pictureId")
+    int updateRenditionStatus(UUID pictureId, RenditionStatus renditionStatus);
+
+    // row locks held until commit, so a picture deleted concurrently is never released twice
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Picture p where p.id in :pictureIds")
+    List<Picture> findAllForUpdate(Collection<UUID> pictureIds);
+
+    // the number of rows removed, 0 when a concurrent delete removed it first
+    @Transactional
+    @Modifying
+    @Query("delete from Picture p where p.id = :pictureId")
+    int deleteRowById(UUID pictureId);
+
+    @Query("select p.id from Picture p where p.id in :pictureIds")
+    List<UUID> findExistingIds(Collection<UUID> pictureIds);
+
+    // walks the whole table in id order, a page after the given id, or from the start when it is null
+    @Query("select p.id as id, p.filePath as filePath, p.contentMissingSince as contentMissingSince from Picture p "
+            + "where :afterId is null or p.id > :afterId order by p.id")
+    List<PictureContentRef> findContentRefs(UUID afterId, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.contentMissingSince = :contentMissingSince where p.id in :pictureIds")
+    int updateContentMissingSince(Collection<UUID> pictureIds, LocalDateTime contentMissingSince);
+
+    // the same for every picture pointing at the verified content, a shared blob or a file of its own
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.crc32c = :crc32c "
+            + "where p.contentHash = :contentHash and p.filePath = :filePath and p.crc32c is null")
+    int updateCrc32c(String contentHash, String filePath, long crc32c);
+
+    // pictures stored before image metadata was read at upload, in id order after the given id
+    @Query("select p from Picture p where p.format is null and (:afterId is null or p.id > :afterId) order by p.id")
+    List<Picture> findWithoutImageMetadata(UUID afterId, Pageable pageable);
+
+    // only these columns, so a concurrent rendition status update is never overwritten
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.format = :format, p.width = :width, p.height = :height, p.orientation = :orientation, "
+            + "p.takenAt = :takenAt, p.cameraMake = :cameraMake, p.cameraModel = :cameraModel "
+            + "where p.id = :pictureId and p.format is null")
+    int updateImageMetadata(UUID pictureId, ImageFormat format, Integer width, Integer height, Integer orientation,
+                            LocalDateTime takenAt, String cameraMake, String cameraModel);
+
+    // every hashed picture in id order after the given id, without loading the entities
+    @Query("select new app.model.PictureHash(p.id, p.perceptualHash) from Picture p "
+            + "where p.perceptualHash is not null and (:afterId is null or p.id > :afterId) order by p.id")
+    List<PictureHash> findPerceptualHashes(UUID afterId, Pageable pageable);
+
+    // pictures of the given formats still without a perceptual hash, in id order after the given id
+    @Query("select p from Picture p where p.perceptualHash is null and p.format in :formats "
+            + "and (:afterId is null or p.id > :afterId) order by p.id")
+    List<Picture> findWithoutPerceptualHash(Collection<ImageFormat> formats, UUID afterId, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.perceptualHash = :perceptualHash where p.id = :pictureId and p.perceptualHash is null")
+    int updatePerceptualHash(UUID pictureId, long perceptualHash);
+
+    @Transactional
+    @Modifying
+    @Query("update Picture p set p.optimizedSize = :optimizedSize where p.id = :pictureId and p.optimizedSize is null")
+    int updateOptimizedSize(UUID pictureId, long optimizedSize);
 }
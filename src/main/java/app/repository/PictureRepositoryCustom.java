@@ -0,0 +1,18 @@
+package app.repository;
+
+import app.model.Picture;
+import app.model.PictureFilter;
+import app.model.PictureSummary;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public interface PictureRepositoryCustom {
+
+    // plain INSERTs for new rows, sent as JDBC batches in a single flush
+    void insertAll(List<Picture> pictures);
+
+    // newest first by (uploadDate, id), continuing strictly after the given position when there is one
+    List<PictureSummary> findSummaries(PictureFilter filter, LocalDateTime afterUploadDate, UUID afterId, int limit);
+}
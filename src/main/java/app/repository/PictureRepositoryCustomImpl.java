@@ -0,0 +1,114 @@
+package app.repository;
+
+import app.model.Picture;
+import app.model.PictureFilter;
+import app.model.PictureSummary;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class PictureRepositoryCustomImpl implements PictureRepositoryCustom {
+
+    private static final char LIKE_ESCAPE = '!';
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // persist instead of save: the ids are assigned up front, so save would merge and SELECT every row first
+    @Override
+    @Transactional
+    public void insertAll(List<Picture> pictures) {
+        pictures.forEach(entityManager::persist);
+        entityManager.flush();
+    }
+
+    // keyset pagination: the position predicate lets every page start with an index seek,
+    // so page 10000 costs the same as page 1, unlike an OFFSET that reads and discards every row before it
+    @Override
+    @Transactional(readOnly = true)
+    public List<PictureSummary> findSummaries(PictureFilter filter, LocalDateTime afterUploadDate, UUID afterId, int limit) {
+        StringBuilder jpql = new StringBuilder("""
+                select new app.model.PictureSummary(p.id, p.originalFileName, p.type, p.size, p.uploadDate, p.pictureUrl,
+                        p.format, p.width, p.height)
+                from Picture p
+                where 1 = 1""");
+        Map<String, Object> parameters = new HashMap<>();
+
+        if (filter.getUploadedFrom() != null) {
+            jpql.append(" and p.uploadDate >= :uploadedFrom");
+            parameters.put("uploadedFrom", filter.getUploadedFrom());
+        }
+        if (filter.getUploadedTo() != null) {
+            jpql.append(" and p.uploadDate < :uploadedTo");
+            parameters.put("uploadedTo", filter.getUploadedTo());
+        }
+        if (StringUtils.hasText(filter.getType())) {
+            jpql.append(" and p.type = :type");
+            parameters.put("type", filter.getType());
+        }
+        if (filter.getMinSize() != null) {
+            jpql.append(" and p.size >= :minSize");
+            parameters.put("minSize", filter.getMinSize());
+        }
+        if (filter.getMaxSize() != null) {
+            jpql.append(" and p.size <= :maxSize");
+            parameters.put("maxSize", filter.getMaxSize());
+        }
+        if (StringUtils.hasText(filter.getFileNamePrefix())) {
+            // a prefix match without a leading wildcard can still use the file name index
+            jpql.append(" and p.originalFileName like :fileNamePrefix escape '").append(LIKE_ESCAPE).append("'");
+            parameters.put("fileNamePrefix", escapeLike(filter.getFileNamePrefix()) + "%");
+        }
+        if (filter.getFormat() != null) {
+            jpql.append(" and p.format = :format");
+            parameters.put("format", filter.getFormat());
+        }
+        if (filter.getMinWidth() != null) {
+            jpql.append(" and p.width >= :minWidth");
+            parameters.put("minWidth", filter.getMinWidth());
+        }
+        if (filter.getMaxWidth() != null) {
+            jpql.append(" and p.width <= :maxWidth");
+            parameters.put("maxWidth", filter.getMaxWidth());
+        }
+        if (filter.getMinHeight() != null) {
+            jpql.append(" and p.height >= :minHeight");
+            parameters.put("minHeight", filter.getMinHeight());
+        }
+        if (filter.getMaxHeight() != null) {
+            jpql.append(" and p.height <= :maxHeight");
+            parameters.put("maxHeight", filter.getMaxHeight());
+        }
+        if (afterUploadDate != null && afterId != null) {
+            jpql.append(" and (p.uploadDate < :afterUploadDate or (p.uploadDate = :afterUploadDate and p.id < :afterId))");
+            parameters.put("afterUploadDate", afterUploadDate);
+            parameters.put("afterId", afterId);
+        }
+        jpql.append(" order by p.uploadDate desc, p.id desc");
+
+        TypedQuery<PictureSummary> query = entityManager.createQuery(jpql.toString(), PictureSummary.class)
+                .setMaxResults(limit);
+        parameters.forEach(query::setParameter);
+
+        return query.getResultList();
+    }
+
+    private static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 4);
+        for (char c : value.toCharArray()) {
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') {
+                escaped.append(LIKE_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
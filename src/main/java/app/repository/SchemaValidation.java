@@ -0,0 +1,120 @@
+package app.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.ValidateResult;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.jpa.boot.spi.JpaSettings;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.internal.ExceptionHandlerHaltImpl;
+import org.hibernate.tool.schema.spi.ContributableMatcher;
+import org.hibernate.tool.schema.spi.SchemaManagementTool;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+// Validates the schema in the background after startup rather than before it: the migrations applied to the
+// database against those in this build (checksums, nothing missing or pending), then the entities against the
+// migrated tables, as ddl-auto=validate would. A mismatch is logged and reported DOWN by this health indicator;
+// requests are served meanwhile, so a broken schema shows up in monitoring instead of as a slow or failed boot.
+@Slf4j
+@Component
+public class SchemaValidation implements HealthIndicator, HibernatePropertiesCustomizer {
+
+    private final boolean enabled;
+    private final ObjectProvider<Flyway> flyway;
+
+    // the mapping Hibernate booted with, captured for validating it later
+    private volatile Metadata metadata;
+    private volatile ServiceRegistry serviceRegistry;
+    private volatile Health health = Health.unknown().withDetail("reason", "not validated yet").build();
+
+    @Autowired
+    public SchemaValidation(@Value("${picture.schema.validation.enabled:true}") boolean enabled,
+                            ObjectProvider<Flyway> flyway) {
+        this.enabled = enabled;
+        this.flyway = flyway;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(JpaSettings.INTEGRATOR_PROVIDER, (IntegratorProvider) () -> List.of(new Integrator() {
+
+            @Override
+            public void integrate(Metadata metadata, BootstrapContext bootstrapContext, SessionFactoryImplementor sessionFactory) {
+                SchemaValidation.this.metadata = metadata;
+                SchemaValidation.this.serviceRegistry = sessionFactory.getServiceRegistry();
+            }
+
+            @Override
+            public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+                SchemaValidation.this.metadata = null;
+                SchemaValidation.this.serviceRegistry = null;
+            }
+        }));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            new CustomizableThreadFactory("schema-validation-").newThread(this::validate).start();
+        }
+    }
+
+    @Override
+    public Health health() {
+        return health;
+    }
+
+    public void validate() {
+        long start = System.nanoTime();
+        try {
+            Flyway migrations = flyway.getIfAvailable();
+            if (migrations != null) {
+                ValidateResult result = migrations.validateWithResult();
+                if (!result.validationSuccessful) {
+                    throw new IllegalStateException("Migrations do not match the database: " + result.getAllErrorMessages());
+                }
+            }
+            validateEntities();
+
+            health = Health.up().build();
+            log.info("Validated the database schema in %d ms".formatted((System.nanoTime() - start) / 1_000_000));
+        } catch (RuntimeException e) {
+            health = Health.down(e).build();
+            log.error("Database schema does not match this build", e);
+        }
+    }
+
+    private void validateEntities() {
+        Metadata bootMetadata = metadata;
+        ServiceRegistry registry = serviceRegistry;
+        if (bootMetadata == null || registry == null) {
+            return;
+        }
+
+        Map<String, Object> settings = registry.requireService(ConfigurationService.class).getSettings();
+        registry.requireService(SchemaManagementTool.class)
+                .getSchemaValidator(settings)
+                .doValidation(bootMetadata,
+                        SchemaManagementToolCoordinator.buildExecutionOptions(settings, ExceptionHandlerHaltImpl.INSTANCE),
+                        ContributableMatcher.ALL);
+    }
+}
@@ -0,0 +1,270 @@
+package app.service;
+
+import app.model.ImageFormat;
+import app.model.ImageMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Reads format, dimensions and the key EXIF fields from the first bytes of an image.
+// Only a bounded header window is read and parsed in place: no decoder is involved and no pixel is touched,
+// so a 50 MB upload costs the same as a 50 KB one. Malformed headers yield what could be read, never an error.
+@Component
+public class ImageMetadataExtractor {
+
+    private static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    private static final int MAX_TEXT_LENGTH = 64;
+
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_IMAGE_HEIGHT = 0x0101;
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+    private final int maxHeaderBytes;
+
+    @Autowired
+    public ImageMetadataExtractor(@Value("${picture.metadata.max-header-bytes:128KB}") DataSize maxHeaderBytes) {
+        this.maxHeaderBytes = (int) maxHeaderBytes.toBytes();
+    }
+
+    // how much of the content extract reads at most, so callers can request just that range from storage
+    public int getMaxHeaderBytes() {
+        return maxHeaderBytes;
+    }
+
+    public ImageMetadata extract(InputStream content) throws IOException {
+        byte[] header = content.readNBytes(maxHeaderBytes);
+        ImageMetadata.ImageMetadataBuilder metadata = ImageMetadata.builder();
+        ByteBuffer little = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer big = ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN);
+
+        try {
+            if (startsWith(header, 0, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF})) {
+                readJpeg(header, metadata.format(ImageFormat.JPEG));
+            } else if (startsWith(header, 0, PNG_SIGNATURE)) {
+                // IHDR is always the first chunk
+                if (header.length >= 24) {
+                    metadata.width(big.getInt(16)).height(big.getInt(20));
+                }
+                metadata.format(ImageFormat.PNG);
+            } else if (startsWith(header, 0, ascii("GIF87a")) || startsWith(header, 0, ascii("GIF89a"))) {
+                if (header.length >= 10) {
+                    metadata.width(unsignedShort(little, 6)).height(unsignedShort(little, 8));
+                }
+                metadata.format(ImageFormat.GIF);
+            } else if (startsWith(header, 0, ascii("BM")) && header.length >= 26) {
+                // a negative height marks a top-down bitmap
+                metadata.format(ImageFormat.BMP).width(Math.abs(little.getInt(18))).height(Math.abs(little.getInt(22)));
+            } else if (startsWith(header, 0, ascii("RIFF")) && startsWith(header, 8, ascii("WEBP"))) {
+                readWebp(header, little, metadata.format(ImageFormat.WEBP));
+            } else if (startsWith(header, 0, new byte[]{'I', 'I', 42, 0}) || startsWith(header, 0, new byte[]{'M', 'M', 0, 42})) {
+                readTiff(header, 0, header.length, metadata.format(ImageFormat.TIFF), true);
+            } else if (startsWith(header, 4, ascii("ftyp")) && header.length >= 12) {
+                // ISO base media file, the major brand names the image format
+                String brand = new String(header, 8, 4, StandardCharsets.US_ASCII);
+                metadata.format(switch (brand) {
+                    case "avif", "avis" -> ImageFormat.AVIF;
+                    case "heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1" -> ImageFormat.HEIF;
+                    default -> ImageFormat.UNKNOWN;
+                });
+            } else {
+                metadata.format(ImageFormat.UNKNOWN);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // a header cut short by the window or corrupt offsets: keep what was read before
+        }
+
+        return metadata.build();
+    }
+
+    // walks the marker segments up to the first frame header; EXIF sits in APP1 before it
+    private static void readJpeg(byte[] header, ImageMetadata.ImageMetadataBuilder metadata) {
+        ByteBuffer big = ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN);
+        int position = 2;
+        while (position + 4 <= header.length) {
+            if (header[position] != (byte) 0xFF) {
+                return;
+            }
+            int marker = header[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                position++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // markers without a length
+                position += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan: there is no frame header in front of the pixels
+                return;
+            }
+
+            int length = unsignedShort(big, position + 2);
+            int data = position + 4;
+            if (length < 2) {
+                return;
+            }
+            if (isStartOfFrame(marker)) {
+                if (data + 5 <= header.length) {
+                    metadata.height(unsignedShort(big, data + 1)).width(unsignedShort(big, data + 3));
+                }
+                return;
+            }
+            if (marker == 0xE1 && startsWith(header, data, EXIF_HEADER)) {
+                int tiffStart = data + EXIF_HEADER.length;
+                readTiff(header, tiffStart, Math.min(position + 2 + length, header.length), metadata, false);
+            }
+            position += 2 + length;
+        }
+    }
+
+    // SOF0 to SOF15, except DHT, JPG and DAC which share the range
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static void readWebp(byte[] header, ByteBuffer little, ImageMetadata.ImageMetadataBuilder metadata) {
+        if (header.length < 30) {
+            return;
+        }
+        if (startsWith(header, 12, ascii("VP8 ")) && (header[23] & 0xFF) == 0x9D
+                && (header[24] & 0xFF) == 0x01 && (header[25] & 0xFF) == 0x2A) {
+            // lossy: the key frame header, 14-bit dimensions
+            metadata.width(unsignedShort(little, 26) & 0x3FFF).height(unsignedShort(little, 28) & 0x3FFF);
+        } else if (startsWith(header, 12, ascii("VP8L")) && (header[20] & 0xFF) == 0x2F) {
+            // lossless: 14 bits each, stored minus one
+            int bits = little.getInt(21);
+            metadata.width((bits & 0x3FFF) + 1).height(((bits >>> 14) & 0x3FFF) + 1);
+        } else if (startsWith(header, 12, ascii("VP8X"))) {
+            // extended: 24 bits each, stored minus one
+            metadata.width(unsignedInt24(little, 24) + 1).height(unsignedInt24(little, 27) + 1);
+        }
+    }
+
+    // a TIFF structure, either a whole TIFF file or the EXIF block of a JPEG; offsets are relative to start
+    private static void readTiff(byte[] header, int start, int end, ImageMetadata.ImageMetadataBuilder metadata,
+                                 boolean dimensions) {
+        if (end - start < 8) {
+            return;
+        }
+        ByteOrder order = header[start] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        ByteBuffer tiff = ByteBuffer.wrap(header, start, end - start).slice().order(order);
+
+        int exifIfd = readIfd(tiff, tiff.getInt(4), metadata, dimensions);
+        if (exifIfd > 0) {
+            readIfd(tiff, exifIfd, metadata, false);
+        }
+    }
+
+    // the offset of the EXIF sub-IFD when this IFD points at one, otherwise 0
+    private static int readIfd(ByteBuffer tiff, int offset, ImageMetadata.ImageMetadataBuilder metadata, boolean dimensions) {
+        if (offset < 8 || offset + 2 > tiff.limit()) {
+            return 0;
+        }
+        int exifIfd = 0;
+        int entries = unsignedShort(tiff, offset);
+        for (int i = 0; i < entries; i++) {
+            int entry = offset + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            int tag = unsignedShort(tiff, entry);
+            int type = unsignedShort(tiff, entry + 2);
+            switch (tag) {
+                case TAG_IMAGE_WIDTH -> {
+                    if (dimensions) {
+                        metadata.width(integerValue(tiff, entry, type));
+                    }
+                }
+                case TAG_IMAGE_HEIGHT -> {
+                    if (dimensions) {
+                        metadata.height(integerValue(tiff, entry, type));
+                    }
+                }
+                case TAG_ORIENTATION -> {
+                    int orientation = integerValue(tiff, entry, type);
+                    if (orientation >= 1 && orientation <= 8) {
+                        metadata.orientation(orientation);
+                    }
+                }
+                case TAG_MAKE -> metadata.cameraMake(text(tiff, entry));
+                case TAG_MODEL -> metadata.cameraModel(text(tiff, entry));
+                case TAG_EXIF_IFD -> exifIfd = tiff.getInt(entry + 8);
+                case TAG_DATE_TIME_ORIGINAL -> metadata.takenAt(dateTime(text(tiff, entry)));
+                default -> {
+                }
+            }
+        }
+        return exifIfd;
+    }
+
+    // SHORT values are left-aligned in the 4-byte value field
+    private static int integerValue(ByteBuffer tiff, int entry, int type) {
+        return type == 3 ? unsignedShort(tiff, entry + 8) : tiff.getInt(entry + 8);
+    }
+
+    // ASCII values of up to 4 bytes are stored inline, longer ones at an offset
+    private static String text(ByteBuffer tiff, int entry) {
+        int count = tiff.getInt(entry + 4);
+        int offset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        if (count <= 0 || offset < 0 || offset + count > tiff.limit()) {
+            return null;
+        }
+        byte[] value = new byte[Math.min(count, MAX_TEXT_LENGTH)];
+        tiff.get(offset, value);
+        String text = new String(value, StandardCharsets.US_ASCII);
+        int nul = text.indexOf('\0');
+        text = (nul < 0 ? text : text.substring(0, nul)).trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static LocalDateTime dateTime(String value) {
+        try {
+            return value == null ? null : LocalDateTime.parse(value, EXIF_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            // cameras write "0000:00:00 00:00:00" and worse when the clock was never set
+            return null;
+        }
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static int unsignedInt24(ByteBuffer little, int index) {
+        return (little.get(index) & 0xFF) | (little.get(index + 1) & 0xFF) << 8 | (little.get(index + 2) & 0xFF) << 16;
+    }
+
+    private static boolean startsWith(byte[] header, int offset, byte[] prefix) {
+        if (offset < 0 || header.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (header[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
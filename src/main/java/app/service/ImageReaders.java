@@ -0,0 +1,49 @@
+package app.service;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+// Opens stored content for decoding, the same way for every caller: files are read with random access,
+// other storage backends through their stream. Stream, input and reader are closed once the callback returns.
+@UtilityClass
+class ImageReaders {
+
+    static <T> T read(Resource content, ReaderCallback<T> callback) throws IOException {
+        try (InputStream stream = content.isFile() ? null : content.getInputStream();
+             ImageInputStream input = ImageIO.createImageInputStream(stream == null ? content.getFile() : stream)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new UndecodableImageException();
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return callback.read(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface ReaderCallback<T> {
+
+        T read(ImageReader reader) throws IOException;
+    }
+
+    // no installed ImageIO reader recognises the content
+    static class UndecodableImageException extends IOException {
+
+        UndecodableImageException() {
+            super("Picture is not a decodable image");
+        }
+    }
+}
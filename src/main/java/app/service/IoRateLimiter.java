@@ -0,0 +1,47 @@
+package app.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Spaces background file operations out to a steady rate so they never burst against foreground I/O.
+// The caller sleeps outside the lock, so waiting never pins a virtual thread.
+final class IoRateLimiter {
+
+    private final long intervalNanos;
+    private final Lock lock = new ReentrantLock();
+    private long next = System.nanoTime();
+
+    IoRateLimiter(int permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? Duration.ofSeconds(1).toNanos() / permitsPerSecond : 0;
+    }
+
+    // false when interrupted while waiting
+    boolean acquire(int permits) {
+        if (intervalNanos == 0) {
+            return true;
+        }
+
+        long wait;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long start = Math.max(next, now);
+            next = start + permits * intervalNanos;
+            wait = start - now;
+        } finally {
+            lock.unlock();
+        }
+
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package app.service;
+
+import app.model.ImageFormat;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+// 64-bit difference hash (dHash): the image is reduced to a 9x8 grid of average brightness and every bit
+// says whether a cell is darker than its right neighbour. Resizing, recompression and small colour changes
+// keep almost all bits, so near-duplicates are a few bits apart while unrelated images differ in about half.
+@Component
+public class PerceptualHasher {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+    // decoded resolution of the shorter side, every cell still averages dozens of pixels
+    private static final int SAMPLE_SIZE = 64;
+
+    private final Set<ImageFormat> decodableFormats = EnumSet.noneOf(ImageFormat.class);
+
+    public PerceptualHasher() {
+        Set<String> mimeTypes = Set.of(ImageIO.getReaderMIMETypes());
+        for (ImageFormat format : ImageFormat.values()) {
+            if (format != ImageFormat.UNKNOWN && mimeTypes.contains(format.getMimeType())) {
+                decodableFormats.add(format);
+            }
+        }
+    }
+
+    // the formats an installed ImageIO reader can decode, the only ones worth hashing
+    public Set<ImageFormat> getDecodableFormats() {
+        return decodableFormats;
+    }
+
+    public long hash(Resource content) throws IOException {
+        BufferedImage image = decode(content);
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        long[] sums = new long[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                // ITU-R BT.601 luma
+                int luma = (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+                int cell = cellRow + x * GRID_WIDTH / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        long[] averages = new long[sums.length];
+        Arrays.setAll(averages, cell -> counts[cell] == 0 ? 0 : sums[cell] * 1024 / counts[cell]);
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (averages[y * GRID_WIDTH + x] < averages[y * GRID_WIDTH + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static BufferedImage decode(Resource content) throws IOException {
+        return ImageReaders.read(content, reader -> {
+            // only every n-th pixel is decoded, the grid is far coarser than any source
+            int subsampling = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / SAMPLE_SIZE);
+            ImageReadParam readParam = reader.getDefaultReadParam();
+            readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, readParam);
+        });
+    }
+}
@@ -0,0 +1,148 @@
+package app.service;
+
+import app.model.BatchUploadResult;
+import app.model.Picture;
+import app.repository.PictureRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Multi-file uploads: the files are written in parallel, then every row goes to the database in one batched flush
+@Slf4j
+@Service
+public class PictureBatchUploadService {
+
+    private final PictureService pictureService;
+    private final PictureRepository pictureRepository;
+    private final Executor executor;
+
+    @Autowired
+    public PictureBatchUploadService(PictureService pictureService,
+                                     PictureRepository pictureRepository,
+                                     @Value("${picture.batch-upload.workers:4}") int workers,
+                                     @Value("${picture.batch-upload.queue-capacity:200}") int queueCapacity,
+                                     @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.pictureService = pictureService;
+        this.pictureRepository = pictureRepository;
+        this.executor = virtualThreads && JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)
+                ? virtualThreadExecutor(workers)
+                : platformThreadExecutor(workers, queueCapacity);
+    }
+
+    // one result per file, in request order; a failed file never fails the others
+    public List<BatchUploadResult> savePicturesToStorage(List<MultipartFile> pictureFiles) {
+        String pictureViewUriPrefix = pictureService.pictureViewUriPrefix();
+
+        List<CompletableFuture<Picture>> writes = new ArrayList<>(pictureFiles.size());
+        for (MultipartFile pictureFile : pictureFiles) {
+            writes.add(pictureFile.isEmpty()
+                    ? CompletableFuture.failedFuture(new IllegalArgumentException("Empty file"))
+                    : CompletableFuture.supplyAsync(
+                            () -> pictureService.storePictureContent(pictureFile, pictureViewUriPrefix), executor));
+        }
+
+        BatchUploadResult[] results = new BatchUploadResult[pictureFiles.size()];
+        List<Picture> written = new ArrayList<>(pictureFiles.size());
+        for (int i = 0; i < writes.size(); i++) {
+            try {
+                written.add(writes.get(i).join());
+            } catch (CompletionException e) {
+                results[i] = failed(pictureFiles.get(i), e.getCause());
+            }
+        }
+
+        List<Picture> persisted = persist(written);
+
+        int next = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            Picture picture = written.get(next++);
+            if (persisted.contains(picture)) {
+                pictureService.onPictureSaved(picture);
+                results[i] = new BatchUploadResult(picture.getOriginalFileName(), picture, null);
+            } else {
+                results[i] = new BatchUploadResult(picture.getOriginalFileName(), null, "Could not save picture");
+            }
+        }
+
+        return List.of(results);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService pool) {
+            pool.shutdown();
+        } else if (executor instanceof SimpleAsyncTaskExecutor virtual) {
+            virtual.close();
+        }
+    }
+
+    // all rows in one transaction; if the batch is rejected, row by row so one bad row only fails itself
+    private List<Picture> persist(List<Picture> pictures) {
+        if (pictures.isEmpty()) {
+            return pictures;
+        }
+
+        try {
+            pictureRepository.insertAll(pictures);
+            return pictures;
+        } catch (RuntimeException e) {
+            log.warn("Batch insert of %d pictures failed, retrying one by one".formatted(pictures.size()), e);
+        }
+
+        List<Picture> persisted = new ArrayList<>(pictures.size());
+        for (Picture picture : pictures) {
+            try {
+                pictureRepository.insertAll(List.of(picture));
+                persisted.add(picture);
+            } catch (RuntimeException e) {
+                log.warn("Could not save picture with id [%s]".formatted(picture.getId()), e);
+                // nothing references the written content, so it would be orphaned
+                pictureService.discardPictureContent(picture);
+            }
+        }
+        return persisted;
+    }
+
+    private static BatchUploadResult failed(MultipartFile pictureFile, Throwable cause) {
+        String originalFileName = pictureFile.getOriginalFilename() == null
+                ? null
+                : StringUtils.cleanPath(pictureFile.getOriginalFilename());
+        return new BatchUploadResult(originalFileName, null, cause.getMessage());
+    }
+
+    // when every worker is busy and the queue is full the request thread writes the file itself
+    private static Executor platformThreadExecutor(int workers, int queueCapacity) {
+        return new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("batch-upload-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // a fresh virtual thread per file; the limit still caps parallel writes per instance,
+    // a submitter past it parks until a write finishes instead of queueing
+    private static Executor virtualThreadExecutor(int workers) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("batch-upload-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(workers);
+        return executor;
+    }
+}
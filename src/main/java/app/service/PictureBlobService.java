@@ -0,0 +1,205 @@
+package app.service;
+
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.model.StoredBlob;
+import app.repository.PictureBlobRepository;
+import app.storage.PictureStorage;
+import app.storage.StorageKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+// Content-addressed picture files: identical uploads share one blob with a reference count
+@Slf4j
+@Service
+public class PictureBlobService {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final boolean deduplicate;
+    private final PictureStorage pictureStorage;
+    private final PictureBlobRepository pictureBlobRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public PictureBlobService(@Value("${file.storage.deduplicate:true}") boolean deduplicate,
+                              PictureStorage pictureStorage,
+                              PictureBlobRepository pictureBlobRepository,
+                              TransactionTemplate transactionTemplate) {
+        this.deduplicate = deduplicate;
+        this.pictureStorage = pictureStorage;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    // the content is hashed and checksummed while it is written once to a staging key, then filed under its digest
+    public StoredBlob store(InputStream content, UUID pictureId) throws IOException {
+        String stagingKey = StorageKeys.stagingKey(pictureId);
+
+        try {
+            MessageDigest digest = newDigest();
+            CRC32C checksum = new CRC32C();
+            long size;
+            try (InputStream digestingContent = new CheckedInputStream(new DigestInputStream(content, digest), checksum)) {
+                size = pictureStorage.put(stagingKey, digestingContent);
+            }
+
+            return file(HexFormat.of().formatHex(digest.digest()), checksum.getValue(), stagingKey, size, pictureId);
+
+        } finally {
+            pictureStorage.delete(stagingKey);
+        }
+    }
+
+    // a complete local file, hashed in one read and then handed to the storage, which may simply rename it
+    public StoredBlob storeFile(Path file, UUID pictureId) throws IOException {
+        String stagingKey = StorageKeys.stagingKey(pictureId);
+
+        try {
+            MessageDigest digest = newDigest();
+            CRC32C checksum = new CRC32C();
+            try (InputStream digestingContent = new CheckedInputStream(new DigestInputStream(Files.newInputStream(file), digest), checksum)) {
+                digestingContent.transferTo(OutputStream.nullOutputStream());
+            }
+            long size = pictureStorage.putFile(stagingKey, file);
+
+            return file(HexFormat.of().formatHex(digest.digest()), checksum.getValue(), stagingKey, size, pictureId);
+
+        } finally {
+            pictureStorage.delete(stagingKey);
+        }
+    }
+
+    // drop the picture's reference and remove the content once nothing points at it anymore
+    public void release(Picture picture) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Optional<PictureBlob> optionalBlob = picture.getContentHash() == null
+                    ? Optional.empty()
+                    : pictureBlobRepository.findForUpdate(picture.getContentHash());
+
+            if (optionalBlob.isPresent() && optionalBlob.get().getFilePath().equals(picture.getFilePath())) {
+                PictureBlob blob = optionalBlob.get();
+                if (blob.getReferenceCount() > 1) {
+                    blob.setReferenceCount(blob.getReferenceCount() - 1);
+                    return;
+                }
+                pictureBlobRepository.delete(blob);
+            }
+
+            // removed while the row lock is held, so an upload of the same content waits and re-creates it
+            deleteContent(picture.getFilePath());
+        });
+    }
+
+    // the reaper's half of a bulk delete: the blob goes only if no upload referenced it again in the meantime
+    public boolean removeIfUnreferenced(String contentHash) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            Optional<PictureBlob> optionalBlob = pictureBlobRepository.findForUpdate(contentHash);
+            if (optionalBlob.isEmpty() || optionalBlob.get().getReferenceCount() > 0) {
+                return false;
+            }
+
+            deleteContent(optionalBlob.get().getFilePath());
+            pictureBlobRepository.delete(optionalBlob.get());
+            return true;
+        }));
+    }
+
+    public void deleteContent(String filePath) {
+        try {
+            if (StorageKeys.isLegacyFilePath(filePath)) {
+                Files.deleteIfExists(Path.of(filePath));
+            } else {
+                pictureStorage.delete(filePath);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private StoredBlob file(String contentHash, long crc32c, String stagingKey, long size, UUID pictureId) throws IOException {
+        if (!deduplicate) {
+            String pictureKey = StorageKeys.pictureKey(pictureId);
+            pictureStorage.move(stagingKey, pictureKey);
+            return new StoredBlob(contentHash, pictureKey, size, crc32c);
+        }
+
+        String blobKey;
+        try {
+            blobKey = transactionTemplate.execute(status -> reference(contentHash, crc32c, stagingKey, size));
+        } catch (DataIntegrityViolationException | PessimisticLockingFailureException e) {
+            // a concurrent upload of the same content created the blob first; on MySQL the loser usually
+            // fails earlier, on the gap lock its locking read of the missing row took, as a deadlock
+            blobKey = transactionTemplate.execute(status -> reference(contentHash, crc32c, stagingKey, size));
+        }
+        return new StoredBlob(contentHash, blobKey, size, crc32c);
+    }
+
+    private String reference(String contentHash, long crc32c, String stagingKey, long size) {
+        try {
+            Optional<PictureBlob> optionalBlob = pictureBlobRepository.findForUpdate(contentHash);
+
+            if (optionalBlob.isPresent()) {
+                PictureBlob blob = optionalBlob.get();
+                blob.setReferenceCount(blob.getReferenceCount() + 1);
+                // a blob stored before checksums were recorded gets the one of its identical content
+                if (blob.getCrc32c() == null) {
+                    blob.setCrc32c(crc32c);
+                }
+                // heal a blob whose content went missing with the identical content just received
+                if (!StorageKeys.isLegacyFilePath(blob.getFilePath()) && !pictureStorage.exists(blob.getFilePath())
+                        && pictureStorage.exists(stagingKey)) {
+                    pictureStorage.move(stagingKey, blob.getFilePath());
+                }
+                log.info("Deduplicated upload against blob [%s]".formatted(contentHash));
+                return blob.getFilePath();
+            }
+
+            String blobKey = StorageKeys.blobKey(contentHash);
+            if (pictureStorage.exists(stagingKey)) {
+                pictureStorage.move(stagingKey, blobKey);
+            }
+            pictureBlobRepository.saveAndFlush(PictureBlob.builder()
+                    .contentHash(contentHash)
+                    .filePath(blobKey)
+                    .size(size)
+                    .crc32c(crc32c)
+                    .referenceCount(1)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+            return blobKey;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package app.service;
+
+import app.cache.HotPictureCache;
+import app.cache.PerceptualHashIndex;
+import app.cache.PictureMetadataCache;
+import app.model.BulkDeleteResult;
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import app.repository.PictureRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+// Deletes many pictures in one transaction: the rows go in a single batched statement and the references
+// to shared blobs are released per blob, not per picture. Files are left to PictureReaper, so the request
+// only ever costs a few statements, however many files it frees.
+@Slf4j
+@Service
+public class PictureBulkDeleteService {
+
+    private static final Comparator<ContentRef> LOCK_ORDER = Comparator
+            .comparing(ContentRef::contentHash, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ContentRef::filePath);
+
+    private final PictureRepository pictureRepository;
+    private final PictureBlobRepository pictureBlobRepository;
+    private final PictureWriteBehind pictureWriteBehind;
+    private final PictureMetadataCache metadataCache;
+    private final HotPictureCache hotPictureCache;
+    private final PerceptualHashIndex perceptualHashIndex;
+    private final PictureReaper pictureReaper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public PictureBulkDeleteService(PictureRepository pictureRepository,
+                                    PictureBlobRepository pictureBlobRepository,
+                                    PictureWriteBehind pictureWriteBehind,
+                                    PictureMetadataCache metadataCache,
+                                    HotPictureCache hotPictureCache,
+                                    PerceptualHashIndex perceptualHashIndex,
+                                    PictureReaper pictureReaper,
+                                    TransactionTemplate transactionTemplate) {
+        this.pictureRepository = pictureRepository;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.pictureWriteBehind = pictureWriteBehind;
+        this.metadataCache = metadataCache;
+        this.hotPictureCache = hotPictureCache;
+        this.perceptualHashIndex = perceptualHashIndex;
+        this.pictureReaper = pictureReaper;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public BulkDeleteResult deletePictures(List<UUID> pictureIds) {
+        Set<UUID> requested = new LinkedHashSet<>(pictureIds);
+        // pictures uploaded a moment ago may not have their rows yet
+        requested.forEach(pictureWriteBehind::awaitInserted);
+        Deletion deletion = transactionTemplate.execute(status -> delete(requested));
+
+        // only after commit: a rolled back delete must not lose its files
+        deletion.deleted().forEach(metadataCache::invalidate);
+        deletion.filePaths().forEach(hotPictureCache::invalidate);
+        deletion.perceptualHashes().forEach((pictureId, hash) -> perceptualHashIndex.remove(hash, pictureId));
+        pictureReaper.reapBlobs(deletion.releasedBlobs());
+        pictureReaper.reapFiles(deletion.ownedFiles());
+        pictureReaper.reapVariants(deletion.deleted());
+
+        List<UUID> notFound = requested.stream()
+                .filter(pictureId -> !deletion.deleted().contains(pictureId))
+                .toList();
+        log.info("Bulk deleted %d pictures, %d not found".formatted(deletion.deleted().size(), notFound.size()));
+
+        return new BulkDeleteResult(List.copyOf(deletion.deleted()), notFound);
+    }
+
+    private Deletion delete(Set<UUID> requested) {
+        // the row locks make a concurrent delete of the same picture wait, then find nothing to release
+        List<Picture> pictures = pictureRepository.findAllForUpdate(requested);
+        if (pictures.isEmpty()) {
+            return new Deletion(Set.of(), Set.of(), Map.of(), List.of(), List.of());
+        }
+
+        Set<UUID> deleted = pictures.stream().map(Picture::getId).collect(Collectors.toCollection(LinkedHashSet::new));
+        pictureRepository.deleteAllByIdInBatch(deleted);
+
+        // one update per blob, taken in hash order so two bulk deletes never lock the same blobs in opposite order
+        Map<ContentRef, Long> references = pictures.stream()
+                .collect(Collectors.groupingBy(picture -> new ContentRef(picture.getContentHash(), picture.getFilePath()),
+                        () -> new TreeMap<>(LOCK_ORDER), Collectors.counting()));
+
+        List<String> releasedBlobs = new ArrayList<>();
+        List<String> ownedFiles = new ArrayList<>();
+        references.forEach((ref, count) -> {
+            if (ref.contentHash() != null
+                    && pictureBlobRepository.releaseReferences(ref.contentHash(), ref.filePath(), count) > 0) {
+                releasedBlobs.add(ref.contentHash());
+            } else {
+                // content of a single picture, not shared through a blob
+                ownedFiles.add(ref.filePath());
+            }
+        });
+
+        // blobs still referenced by other pictures stay untouched
+        List<String> unreferenced = pictureBlobRepository.findAllById(releasedBlobs).stream()
+                .filter(blob -> blob.getReferenceCount() <= 0)
+                .map(PictureBlob::getContentHash)
+                .toList();
+
+        Set<String> filePaths = references.keySet().stream().map(ContentRef::filePath).collect(Collectors.toSet());
+        Map<UUID, Long> perceptualHashes = pictures.stream()
+                .filter(picture -> picture.getPerceptualHash() != null)
+                .collect(Collectors.toMap(Picture::getId, Picture::getPerceptualHash));
+        return new Deletion(deleted, filePaths, perceptualHashes, unreferenced, ownedFiles);
+    }
+
+    private record ContentRef(String contentHash, String filePath) {
+    }
+
+    private record Deletion(Set<UUID> deleted, Set<String> filePaths, Map<UUID, Long> perceptualHashes,
+                            List<String> releasedBlobs, List<String> ownedFiles) {
+    }
+}
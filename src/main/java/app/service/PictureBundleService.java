@@ -0,0 +1,162 @@
+package app.service;
+
+import app.exception.InvalidPictureVariantException;
+import app.exception.PictureNotFoundException;
+import app.exception.RenderCapacityExceededException;
+import app.model.BundlePart;
+import app.model.ImageFormat;
+import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.VariantSpec;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// The pictures of a gallery page in one response. The pictures are read on a shared pool, at most read-ahead of
+// them ahead of the one being written, and handed to the writer in the order asked for; content up to
+// max-buffered-size is read whole on the pool, larger content is streamed by the writer from storage.
+@Slf4j
+@Service
+public class PictureBundleService {
+
+    private final PictureService pictureService;
+    private final PictureVariantService pictureVariantService;
+    private final PictureRenditionService pictureRenditionService;
+    private final PictureNegotiationService pictureNegotiationService;
+    private final ThreadPoolExecutor executor;
+    private final int readAhead;
+    private final long maxBufferedSize;
+
+    @Autowired
+    public PictureBundleService(PictureService pictureService,
+                                PictureVariantService pictureVariantService,
+                                PictureRenditionService pictureRenditionService,
+                                PictureNegotiationService pictureNegotiationService,
+                                @Value("${picture.bundle.read-threads:8}") int readThreads,
+                                @Value("${picture.bundle.read-ahead:8}") int readAhead,
+                                @Value("${picture.bundle.max-buffered-size:1MB}") DataSize maxBufferedSize) {
+        this.pictureService = pictureService;
+        this.pictureVariantService = pictureVariantService;
+        this.pictureRenditionService = pictureRenditionService;
+        this.pictureNegotiationService = pictureNegotiationService;
+        // a full pool has the request thread read the part itself rather than queue it behind other requests
+        this.executor = new ThreadPoolExecutor(readThreads, readThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(readThreads * 16), new CustomizableThreadFactory("bundle-io-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.readAhead = Math.max(1, readAhead);
+        this.maxBufferedSize = maxBufferedSize.toBytes();
+    }
+
+    // one part per id, in the order given; pictures holds the rows found for them, by id.
+    // Without width, height, fit and format each part is what the plain view would answer for accept.
+    public void writeBundle(List<UUID> pictureIds, Map<UUID, Picture> pictures,
+                            Integer width, Integer height, String fit, String format, String accept,
+                            PartWriter writer) throws IOException {
+        Iterator<UUID> remaining = pictureIds.iterator();
+        Deque<CompletableFuture<BundlePart>> window = new ArrayDeque<>(readAhead);
+        try {
+            fill(window, remaining, pictures, width, height, fit, format, accept);
+            while (!window.isEmpty()) {
+                BundlePart part = window.poll().join();
+                fill(window, remaining, pictures, width, height, fit, format, accept);
+                writer.write(part);
+            }
+        } finally {
+            // the client went away, the parts read ahead are not needed anymore
+            window.forEach(read -> read.cancel(false));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void fill(Deque<CompletableFuture<BundlePart>> window, Iterator<UUID> remaining, Map<UUID, Picture> pictures,
+                      Integer width, Integer height, String fit, String format, String accept) {
+        while (window.size() < readAhead && remaining.hasNext()) {
+            UUID pictureId = remaining.next();
+            Picture picture = pictures.get(pictureId);
+            window.add(CompletableFuture.supplyAsync(
+                    () -> read(pictureId, picture, width, height, fit, format, accept), executor));
+        }
+    }
+
+    // a part that failed carries the status its own view request would have got
+    private BundlePart read(UUID pictureId, Picture picture,
+                            Integer width, Integer height, String fit, String format, String accept) {
+        if (picture == null) {
+            return failed(pictureId, null, HttpStatus.NOT_FOUND);
+        }
+
+        try {
+            PictureVariant representation = representation(picture, width, height, fit, format, accept);
+            Resource content = representation.getResource();
+            if (content.contentLength() <= maxBufferedSize) {
+                content = new ByteArrayResource(content.getContentAsByteArray());
+            }
+            return new BundlePart(pictureId, HttpStatus.OK.value(), picture, content,
+                    representation.getContentType(), representation.getKey());
+
+        } catch (PictureNotFoundException e) {
+            return failed(pictureId, picture, HttpStatus.NOT_FOUND);
+        } catch (InvalidPictureVariantException e) {
+            return failed(pictureId, picture, HttpStatus.BAD_REQUEST);
+        } catch (RenderCapacityExceededException e) {
+            return failed(pictureId, picture, HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read picture [%s] for a bundle".formatted(pictureId), e);
+            return failed(pictureId, picture, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // the same choice as the view endpoint makes; the key is empty for the picture itself
+    private PictureVariant representation(Picture picture, Integer width, Integer height, String fit, String format,
+                                          String accept) {
+        if (width == null && height == null && fit == null && format == null) {
+            return pictureNegotiationService.negotiate(picture, accept)
+                    .map(variant -> new PictureVariant(variant.getResource(), variant.getContentType(), "-" + variant.getKey()))
+                    .orElseGet(() -> new PictureVariant(pictureService.getPictureResourceForView(picture), contentTypeOf(picture), ""));
+        }
+
+        VariantSpec spec = pictureVariantService.toSpec(picture, width, height, fit, format);
+        PictureVariant variant = pictureRenditionService.findRendition(picture, spec)
+                .orElseGet(() -> pictureVariantService.getVariant(picture, pictureService.getPictureResource(picture), spec));
+        return new PictureVariant(variant.getResource(), variant.getContentType(), "-" + variant.getKey());
+    }
+
+    private static BundlePart failed(UUID pictureId, Picture picture, HttpStatus status) {
+        return new BundlePart(pictureId, status.value(), picture, null, null, "");
+    }
+
+    private static String contentTypeOf(Picture picture) {
+        return picture.getFormat() == null || picture.getFormat() == ImageFormat.UNKNOWN
+                ? picture.getType()
+                : picture.getFormat().getMimeType();
+    }
+
+    @FunctionalInterface
+    public interface PartWriter {
+
+        void write(BundlePart part) throws IOException;
+    }
+}
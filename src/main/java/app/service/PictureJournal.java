@@ -0,0 +1,208 @@
+package app.service;
+
+import app.model.Picture;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only journal of picture rows not yet in the database, in numbered segment files.
+// An entry is its length, the CRC32 of its payload and the row as JSON; a torn write at the end of a segment,
+// left by a crash mid-append, fails its length or checksum and ends the replay of that segment.
+// A segment is deleted once it is full or closed and every row in it has reached the database.
+@Slf4j
+final class PictureJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "pictures-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_ENTRY_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private long nextSequence;
+    private Segment current;
+    private FileChannel channel;
+
+    PictureJournal(Path directory, long maxSegmentSize) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the rows of every segment left by an earlier run, oldest first; new rows go to a segment after them
+    List<Entry> recover() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+
+        for (Path path : segments) {
+            Segment segment = new Segment(path);
+            List<Picture> pictures = read(path);
+            segment.unflushed.set(pictures.size());
+            pictures.forEach(picture -> entries.add(new Entry(picture, segment)));
+            nextSequence = Math.max(nextSequence, sequence(path) + 1);
+            seal(segment);
+        }
+        return entries;
+    }
+
+    // writes the rows and forces them to disk once for all of them; returns the segment they are in
+    Segment append(List<Picture> pictures) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(pictures.size());
+        int length = 0;
+        for (Picture picture : pictures) {
+            byte[] payload = objectMapper.writeValueAsBytes(picture);
+            payloads.add(payload);
+            length += HEADER_BYTES + payload.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] payload : payloads) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        buffer.flip();
+
+        if (channel == null || channel.position() > 0 && channel.position() + length > maxSegmentSize) {
+            roll();
+        }
+        Segment segment = current;
+        // counted before the write, so a row flushed right after it can never take the count below zero
+        segment.unflushed.addAndGet(pictures.size());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        return segment;
+    }
+
+    // a row from this segment is in the database, or was given up on
+    void flushed(Segment segment) {
+        if (segment.unflushed.decrementAndGet() == 0 && segment.sealed) {
+            delete(segment);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            seal(current);
+        }
+    }
+
+    private void roll() throws IOException {
+        close();
+        Path path = directory.resolve("%s%020d%s".formatted(SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        current = new Segment(path);
+    }
+
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        if (segment.unflushed.get() == 0) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        if (!segment.deleted.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // replayed once more at the next start, the rows already in the database are skipped then
+            log.warn("Could not delete journal segment [%s]".formatted(segment.path), e);
+        }
+    }
+
+    private List<Picture> read(Path path) throws IOException {
+        List<Picture> pictures = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int checksum = input.readInt();
+                    if (length <= 0 || length > MAX_ENTRY_BYTES) {
+                        throw new IOException("Invalid entry length " + length);
+                    }
+                    byte[] payload = input.readNBytes(length);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (payload.length != length || (int) crc.getValue() != checksum) {
+                        throw new IOException("Entry does not match its checksum");
+                    }
+                    pictures.add(objectMapper.readValue(payload, Picture.class));
+                } catch (IOException e) {
+                    log.warn("Ignoring the torn end of journal segment [%s] after %d rows: %s"
+                            .formatted(path, pictures.size(), e.getMessage()));
+                    break;
+                }
+            }
+        }
+        return pictures;
+    }
+
+    private static long sequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static final class Segment {
+
+        private final Path path;
+        private final AtomicInteger unflushed = new AtomicInteger();
+        private final AtomicBoolean deleted = new AtomicBoolean();
+        // no more rows are written to it
+        private volatile boolean sealed;
+
+        private Segment(Path path) {
+            this.path = path;
+        }
+    }
+
+    record Entry(Picture picture, Segment segment) {
+    }
+}
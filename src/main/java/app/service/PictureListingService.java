@@ -0,0 +1,96 @@
+package app.service;
+
+import app.exception.InvalidPictureQueryException;
+import app.model.PictureFilter;
+import app.model.PicturePage;
+import app.model.PictureSummary;
+import app.repository.PictureRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+// Keyset-paginated listing. The cursor is the (uploadDate, id) of the last row handed out,
+// opaque to clients so the ordering can change without breaking them.
+@Service
+public class PictureListingService {
+
+    private final PictureRepository pictureRepository;
+    private final int defaultLimit;
+    private final int maxLimit;
+
+    @Autowired
+    public PictureListingService(PictureRepository pictureRepository,
+                                 @Value("${picture.listing.default-limit:50}") int defaultLimit,
+                                 @Value("${picture.listing.max-limit:1000}") int maxLimit) {
+        this.pictureRepository = pictureRepository;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public PicturePage listPictures(PictureFilter filter, String cursor, Integer limit) {
+        validate(filter);
+        int pageSize = limit == null ? defaultLimit : limit;
+        if (pageSize < 1 || pageSize > maxLimit) {
+            throw new InvalidPictureQueryException("Parameter [limit] must be between 1 and %d".formatted(maxLimit));
+        }
+
+        Position after = cursor == null ? new Position(null, null) : decode(cursor);
+
+        // one row past the page tells whether there is a next one, without a count query
+        List<PictureSummary> rows = pictureRepository.findSummaries(filter, after.uploadDate(), after.id(), pageSize + 1);
+        if (rows.size() <= pageSize) {
+            return new PicturePage(rows, null);
+        }
+
+        List<PictureSummary> items = rows.subList(0, pageSize);
+        return new PicturePage(items, encode(items.get(pageSize - 1)));
+    }
+
+    // the largest page, used when a whole result set is streamed page by page
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    private static void validate(PictureFilter filter) {
+        if (filter.getUploadedFrom() != null && filter.getUploadedTo() != null
+                && !filter.getUploadedFrom().isBefore(filter.getUploadedTo())) {
+            throw new InvalidPictureQueryException("Parameter [uploadedFrom] must be before [uploadedTo]");
+        }
+        if (filter.getMinSize() != null && filter.getMaxSize() != null && filter.getMinSize() > filter.getMaxSize()) {
+            throw new InvalidPictureQueryException("Parameter [minSize] must not be greater than [maxSize]");
+        }
+        if (filter.getMinWidth() != null && filter.getMaxWidth() != null && filter.getMinWidth() > filter.getMaxWidth()) {
+            throw new InvalidPictureQueryException("Parameter [minWidth] must not be greater than [maxWidth]");
+        }
+        if (filter.getMinHeight() != null && filter.getMaxHeight() != null && filter.getMinHeight() > filter.getMaxHeight()) {
+            throw new InvalidPictureQueryException("Parameter [minHeight] must not be greater than [maxHeight]");
+        }
+    }
+
+    private static String encode(PictureSummary last) {
+        String position = last.getUploadDate() + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Position decode(String cursor) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+            if (position.length != 2) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            return new Position(LocalDateTime.parse(position[0]), UUID.fromString(position[1]));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new InvalidPictureQueryException("Invalid cursor [%s]".formatted(cursor), e);
+        }
+    }
+
+    private record Position(LocalDateTime uploadDate, UUID id) {
+    }
+}
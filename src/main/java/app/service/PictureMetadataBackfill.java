@@ -0,0 +1,120 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.model.ImageMetadata;
+import app.model.Picture;
+import app.repository.PictureRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Reads the image metadata of pictures stored before it was extracted at upload.
+// Runs in the background after startup: each batch has its headers read in parallel, throttled to
+// max-reads-per-second so the backfill never competes with views for disk or S3, and is written in one transaction.
+// A header that cannot be read leaves the row untouched, for the next start to try again.
+@Slf4j
+@Service
+public class PictureMetadataBackfill {
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final int workers;
+    private final IoRateLimiter rateLimiter;
+    private final PictureRepository pictureRepository;
+    private final PictureService pictureService;
+    private final PictureMetadataCache metadataCache;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public PictureMetadataBackfill(@Value("${picture.metadata.backfill.enabled:true}") boolean enabled,
+                                   @Value("${picture.metadata.backfill.batch-size:200}") int batchSize,
+                                   @Value("${picture.metadata.backfill.workers:4}") int workers,
+                                   @Value("${picture.metadata.backfill.max-reads-per-second:200}") int maxReadsPerSecond,
+                                   PictureRepository pictureRepository,
+                                   PictureService pictureService,
+                                   PictureMetadataCache metadataCache,
+                                   TransactionTemplate transactionTemplate) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.rateLimiter = new IoRateLimiter(maxReadsPerSecond);
+        this.pictureRepository = pictureRepository;
+        this.pictureService = pictureService;
+        this.metadataCache = metadataCache;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBackfill() {
+        if (enabled) {
+            new CustomizableThreadFactory("metadata-backfill-").newThread(this::backfill).start();
+        }
+    }
+
+    public int backfill() {
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("metadata-backfill-worker-"));
+        int updated = 0;
+        try {
+            UUID afterId = null;
+            while (true) {
+                List<Picture> batch = pictureRepository.findWithoutImageMetadata(afterId, PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                List<CompletableFuture<Optional<ImageMetadata>>> reads = batch.stream()
+                        .map(picture -> CompletableFuture.supplyAsync(() -> read(picture), executor))
+                        .toList();
+                updated += save(batch, reads);
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (updated > 0) {
+            log.info("Read image metadata of %d pictures stored before it was extracted at upload".formatted(updated));
+        }
+        return updated;
+    }
+
+    private Optional<ImageMetadata> read(Picture picture) {
+        if (!rateLimiter.acquire(1)) {
+            return Optional.empty();
+        }
+        return pictureService.readImageMetadata(picture.getFilePath(), picture.getSize());
+    }
+
+    private int save(List<Picture> batch, List<CompletableFuture<Optional<ImageMetadata>>> reads) {
+        // every read finishes before the transaction starts, so no connection is held while the headers are read
+        List<Optional<ImageMetadata>> extracted = reads.stream().map(CompletableFuture::join).toList();
+
+        Integer saved = transactionTemplate.execute(status -> {
+            int rows = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (extracted.get(i).isPresent()) {
+                    ImageMetadata metadata = extracted.get(i).get();
+                    rows += pictureRepository.updateImageMetadata(batch.get(i).getId(), metadata.getFormat(),
+                            metadata.getWidth(), metadata.getHeight(), metadata.getOrientation(), metadata.getTakenAt(),
+                            metadata.getCameraMake(), metadata.getCameraModel());
+                }
+            }
+            return rows;
+        });
+        batch.forEach(picture -> metadataCache.invalidate(picture.getId()));
+        return saved == null ? 0 : saved;
+    }
+}
@@ -0,0 +1,214 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.model.ImageFormat;
+import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.RenditionStatus;
+import app.model.VariantFit;
+import app.model.VariantSpec;
+import app.repository.PictureRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+// Picks the most compact representation for the plain view of a picture.
+// Every client may get the losslessly optimized copy: the same format and the same pixels in fewer bytes.
+// A client that names another format in Accept, e.g. image/webp, gets the full-size render in that format when
+// it is at least min-savings smaller; wildcards never select one, a client only gets a format it asked for by name.
+// Both are produced once by the rendition pipeline and served from the variant directory.
+@Slf4j
+@Service
+public class PictureNegotiationService {
+
+    private static final String OPTIMIZED_KEY = "optimized.";
+
+    private final PictureVariantService pictureVariantService;
+    private final PictureOptimizer pictureOptimizer;
+    private final PictureRepository pictureRepository;
+    private final PictureMetadataCache metadataCache;
+    private final double minSavings;
+    // negotiated format names with an installed ImageIO writer, and their content types
+    private final Map<String, MediaType> alternateFormats = new LinkedHashMap<>();
+    private final Counter optimizedBytesSaved;
+    private final Counter viewBytesSavedByOptimized;
+    private final Counter viewBytesSavedByAlternate;
+
+    @Autowired
+    public PictureNegotiationService(PictureVariantService pictureVariantService,
+                                     PictureOptimizer pictureOptimizer,
+                                     PictureRepository pictureRepository,
+                                     PictureMetadataCache metadataCache,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${picture.negotiation.formats:webp,avif}") List<String> formats,
+                                     @Value("${picture.negotiation.min-savings:0.1}") double minSavings) {
+        this.pictureVariantService = pictureVariantService;
+        this.pictureOptimizer = pictureOptimizer;
+        this.pictureRepository = pictureRepository;
+        this.metadataCache = metadataCache;
+        this.minSavings = minSavings;
+
+        for (String format : formats) {
+            String name = format.trim().toLowerCase(Locale.ROOT);
+            if (ImageIO.getImageWritersByFormatName(name).hasNext()) {
+                alternateFormats.put(name, MediaType.parseMediaType(
+                        ImageIO.getImageWritersByFormatName(name).next().getOriginatingProvider().getMIMETypes()[0]));
+            } else if (!name.isEmpty()) {
+                log.info("No ImageIO writer for negotiated format [%s], it is not offered".formatted(name));
+            }
+        }
+
+        this.optimizedBytesSaved = Counter.builder("picture.optimizer.bytes.saved")
+                .description("Bytes the optimized copies of uploads save over their content")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.viewBytesSavedByOptimized = viewBytesSaved(meterRegistry, "optimized");
+        this.viewBytesSavedByAlternate = viewBytesSaved(meterRegistry, "alternate");
+    }
+
+    // whether the representation depends on the Accept header, so responses must say Vary: Accept
+    public boolean variesByAccept() {
+        return !alternateFormats.isEmpty();
+    }
+
+    // full-size renders in the negotiated formats; animated and exotic sources are never converted
+    public List<VariantSpec> alternateSpecs(Picture picture) {
+        if (picture.getFormat() != ImageFormat.JPEG && picture.getFormat() != ImageFormat.PNG) {
+            return List.of();
+        }
+
+        String sourceFormat = picture.getFormat().name().toLowerCase(Locale.ROOT);
+        return alternateFormats.keySet().stream()
+                .filter(format -> !format.equals(sourceFormat))
+                .map(PictureNegotiationService::fullSizeSpec)
+                .toList();
+    }
+
+    // writes the optimized copy next to the variants and records its size; the content itself is never changed
+    public void optimize(Picture picture, Resource original) {
+        if (picture.getOptimizedSize() != null || !pictureOptimizer.accepts(picture.getFormat(), picture.getSize())) {
+            return;
+        }
+
+        try {
+            byte[] content;
+            try (InputStream input = original.getInputStream()) {
+                content = input.readAllBytes();
+            }
+
+            Optional<byte[]> optimized = pictureOptimizer.optimize(picture.getFormat(), content, picture.getOrientation());
+            if (optimized.isEmpty()) {
+                return;
+            }
+
+            pictureVariantService.saveVariant(picture.getId(), optimizedKey(picture), optimized.get());
+            if (pictureRepository.updateOptimizedSize(picture.getId(), optimized.get().length) > 0) {
+                optimizedBytesSaved.increment(content.length - optimized.get().length);
+                metadataCache.invalidate(picture.getId());
+                log.info("Optimized picture with id [%s] from %d to %d bytes".formatted(picture.getId(),
+                        content.length, optimized.get().length));
+            }
+
+        } catch (IOException e) {
+            log.debug("Could not optimize picture with id [%s]".formatted(picture.getId()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the representation to serve instead of the content, empty when the content itself is the smallest
+    public Optional<PictureVariant> negotiate(Picture picture, String accept) {
+        PictureVariant best = null;
+        long bestSize = picture.getSize();
+
+        if (picture.getOptimizedSize() != null) {
+            Optional<PictureVariant> optimized = pictureVariantService.findVariant(picture.getId(), optimizedKey(picture),
+                    picture.getFormat().getMimeType());
+            if (optimized.isPresent()) {
+                best = optimized.get();
+                bestSize = picture.getOptimizedSize();
+            }
+        }
+
+        // alternates are only looked for once the pipeline has rendered them, a file check per named format
+        if (accept != null && variesByAccept() && picture.getRenditionStatus() == RenditionStatus.READY) {
+            List<MediaType> accepted = parseAccept(accept);
+            for (VariantSpec spec : alternateSpecs(picture)) {
+                if (!acceptsByName(accepted, alternateFormats.get(spec.getFormat()))) {
+                    continue;
+                }
+
+                Optional<PictureVariant> alternate = pictureVariantService.findVariant(picture.getId(), spec);
+                long size = alternate.map(PictureNegotiationService::sizeOf).orElse(-1L);
+                if (size >= 0 && size <= bestSize * (1 - minSavings)) {
+                    best = alternate.get();
+                    bestSize = size;
+                }
+            }
+        }
+
+        if (best == null) {
+            return Optional.empty();
+        }
+        // counted per response, conditional and range requests included
+        (best.getKey().startsWith(OPTIMIZED_KEY) ? viewBytesSavedByOptimized : viewBytesSavedByAlternate)
+                .increment(picture.getSize() - bestSize);
+        return Optional.of(best);
+    }
+
+    private static Counter viewBytesSaved(MeterRegistry meterRegistry, String representation) {
+        return Counter.builder("picture.view.bytes.saved")
+                .description("Bytes views saved by serving a smaller representation than the content")
+                .baseUnit("bytes")
+                .tag("representation", representation)
+                .register(meterRegistry);
+    }
+
+    // what toSpec makes of a format without dimensions, built here without its per-request validation
+    private static VariantSpec fullSizeSpec(String format) {
+        return VariantSpec.builder()
+                .fit(VariantFit.CONTAIN)
+                .format(format)
+                .build();
+    }
+
+    private static String optimizedKey(Picture picture) {
+        return OPTIMIZED_KEY + picture.getFormat().name().toLowerCase(Locale.ROOT);
+    }
+
+    private static List<MediaType> parseAccept(String accept) {
+        try {
+            return MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return List.of();
+        }
+    }
+
+    private static boolean acceptsByName(List<MediaType> accepted, MediaType mediaType) {
+        return accepted.stream().anyMatch(candidate -> !candidate.isWildcardType() && !candidate.isWildcardSubtype()
+                && candidate.equalsTypeAndSubtype(mediaType) && candidate.getQualityValue() > 0);
+    }
+
+    private static long sizeOf(PictureVariant variant) {
+        try {
+            return variant.getResource().contentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package app.service;
+
+import app.model.ImageFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Lossless size reduction of JPEG and PNG content, in pure Java, without decoding a single pixel.
+// JPEG: metadata segments (EXIF, XMP, Photoshop, comments, thumbnails) are dropped, an orientation other
+// than the default is kept in a minimal EXIF block; the entropy-coded scan is copied as is.
+// PNG: text, time and other metadata chunks are dropped, the image data is re-deflated at the highest level.
+// Colour information (ICC profiles, gamma, transparency) is always kept, so every pixel looks the same.
+// Each run is bounded by a CPU time budget and a cap on concurrent runs; past the budget the original stays.
+@Component
+public class PictureOptimizer {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // chunks that change how pixels are shown; every other ancillary chunk is metadata
+    private static final Set<String> PNG_KEPT_CHUNKS = Set.of("IHDR", "PLTE", "IDAT", "IEND",
+            "tRNS", "gAMA", "cHRM", "sRGB", "iCCP", "sBIT", "pHYs");
+    private static final int PNG_MAX_IDAT_LENGTH = 256 * 1024;
+    private static final int STEP = 64 * 1024;
+
+    private final boolean enabled;
+    private final long maxInputSize;
+    private final long minSavings;
+    private final long cpuBudgetNanos;
+    private final Semaphore permits;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Autowired
+    public PictureOptimizer(@Value("${picture.optimizer.enabled:true}") boolean enabled,
+                            @Value("${picture.optimizer.max-input-size:20MB}") DataSize maxInputSize,
+                            @Value("${picture.optimizer.min-savings:1KB}") DataSize minSavings,
+                            @Value("${picture.optimizer.cpu-budget:2s}") Duration cpuBudget,
+                            @Value("${picture.optimizer.max-concurrent:1}") int maxConcurrent) {
+        this.enabled = enabled;
+        this.maxInputSize = maxInputSize.toBytes();
+        this.minSavings = minSavings.toBytes();
+        this.cpuBudgetNanos = cpuBudget.toNanos();
+        this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+    }
+
+    // whether content of this format and size is worth reading for optimize
+    public boolean accepts(ImageFormat format, long size) {
+        return enabled && (format == ImageFormat.JPEG || format == ImageFormat.PNG) && size <= maxInputSize;
+    }
+
+    // the smaller content, or empty when it saves less than min-savings, is malformed or runs over the budget
+    public Optional<byte[]> optimize(ImageFormat format, byte[] content, Integer orientation) throws InterruptedException {
+        if (!accepts(format, content.length)) {
+            return Optional.empty();
+        }
+
+        permits.acquire();
+        try {
+            Budget budget = new Budget();
+            byte[] optimized = format == ImageFormat.JPEG
+                    ? optimizeJpeg(content, orientation, budget)
+                    : optimizePng(content, budget);
+            return optimized != null && optimized.length <= content.length - minSavings
+                    ? Optional.of(optimized)
+                    : Optional.empty();
+        } catch (IndexOutOfBoundsException | DataFormatException e) {
+            // malformed content is served as it was uploaded
+            return Optional.empty();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static byte[] optimizeJpeg(byte[] content, Integer orientation, Budget budget) {
+        if ((content[0] & 0xFF) != 0xFF || (content[1] & 0xFF) != 0xD8) {
+            return null;
+        }
+
+        ByteBuffer big = ByteBuffer.wrap(content);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        out.write(content, 0, 2);
+        boolean orientationWritten = orientation == null || orientation == 1;
+        int position = 2;
+        while (true) {
+            if (!budget.hasTimeLeft()) {
+                return null;
+            }
+            if ((content[position] & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = content[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                position++;
+                continue;
+            }
+            if (marker == 0xD9 || (marker >= 0xD0 && marker <= 0xD7) || marker == 0x01) {
+                out.write(content, position, 2);
+                position += 2;
+                if (marker == 0xD9) {
+                    return out.toByteArray();
+                }
+                continue;
+            }
+
+            int segmentEnd = position + 2 + (big.getShort(position + 2) & 0xFFFF);
+            if (segmentEnd > content.length) {
+                return null;
+            }
+            boolean app0 = marker == 0xE0;
+            if (!orientationWritten && !app0) {
+                // right after JFIF, where EXIF is expected
+                out.writeBytes(orientationExif(orientation));
+                orientationWritten = true;
+            }
+            if (keepJpegSegment(content, position, marker)) {
+                out.write(content, position, segmentEnd - position);
+            }
+            if (marker == 0xDA) {
+                // the scan and everything after it are copied untouched
+                out.write(content, segmentEnd, content.length - segmentEnd);
+                return out.toByteArray();
+            }
+            position = segmentEnd;
+        }
+    }
+
+    // JFIF, ICC profiles and the Adobe colour transform are needed to show the pixels right, other APPn and COM are not
+    private static boolean keepJpegSegment(byte[] content, int position, int marker) {
+        if (marker == 0xE0 || marker == 0xEE) {
+            return true;
+        }
+        if (marker == 0xE2) {
+            return startsWith(content, position + 4, "ICC_PROFILE\0");
+        }
+        return marker != 0xFE && !(marker >= 0xE1 && marker <= 0xEF);
+    }
+
+    // an APP1 segment with a single-entry IFD holding the orientation
+    private static byte[] orientationExif(int orientation) {
+        ByteBuffer exif = ByteBuffer.allocate(36);
+        exif.putShort((short) 0xFFE1).putShort((short) 34)
+                .put("Exif\0\0".getBytes(StandardCharsets.US_ASCII))
+                .put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8)
+                .putShort((short) 1)
+                .putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0)
+                .putInt(0);
+        return exif.array();
+    }
+
+    private static byte[] optimizePng(byte[] content, Budget budget) throws DataFormatException {
+        if (!startsWith(content, 0, PNG_SIGNATURE)) {
+            return null;
+        }
+
+        ByteBuffer big = ByteBuffer.wrap(content);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        out.write(content, 0, PNG_SIGNATURE.length);
+        Inflater inflater = new Inflater();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            // the re-deflated image data, the inflated scanlines are never held in full
+            ByteArrayOutputStream imageData = null;
+            int position = PNG_SIGNATURE.length;
+            while (position + 12 <= content.length) {
+                int length = big.getInt(position);
+                String type = new String(content, position + 4, 4, StandardCharsets.US_ASCII);
+                int dataStart = position + 8;
+                if (length < 0 || dataStart + length + 4 > content.length) {
+                    return null;
+                }
+                if ("acTL".equals(type) || (Character.isUpperCase(type.charAt(0)) && !PNG_KEPT_CHUNKS.contains(type))) {
+                    // animated, or a critical chunk this code does not know: left alone
+                    return null;
+                }
+
+                if ("IDAT".equals(type)) {
+                    if (imageData == null) {
+                        imageData = new ByteArrayOutputStream(content.length);
+                    }
+                    inflater.setInput(content, dataStart, length);
+                    if (!recompress(inflater, deflater, imageData, budget)) {
+                        return null;
+                    }
+                } else {
+                    if (imageData != null) {
+                        // every IDAT is consecutive, the image data ends at the first chunk after them
+                        if (!inflater.finished() || !finish(deflater, imageData, budget)) {
+                            return null;
+                        }
+                        writeImageData(out, imageData.toByteArray());
+                        imageData = null;
+                    }
+                    if (PNG_KEPT_CHUNKS.contains(type)) {
+                        out.write(content, position, length + 12);
+                    }
+                    if ("IEND".equals(type)) {
+                        return out.toByteArray();
+                    }
+                }
+                position = dataStart + length + 4;
+            }
+            return null;
+        } finally {
+            inflater.end();
+            deflater.end();
+        }
+    }
+
+    // inflates the input of one IDAT and deflates it again right away
+    private static boolean recompress(Inflater inflater, Deflater deflater, ByteArrayOutputStream imageData, Budget budget)
+            throws DataFormatException {
+        byte[] scanlines = new byte[STEP];
+        byte[] compressed = new byte[STEP];
+        while (!inflater.needsInput() && !inflater.finished()) {
+            if (!budget.hasTimeLeft()) {
+                return false;
+            }
+            int inflated = inflater.inflate(scanlines);
+            if (inflated == 0 && inflater.needsDictionary()) {
+                return false;
+            }
+            deflater.setInput(scanlines, 0, inflated);
+            while (!deflater.needsInput()) {
+                imageData.write(compressed, 0, deflater.deflate(compressed));
+            }
+        }
+        return true;
+    }
+
+    private static boolean finish(Deflater deflater, ByteArrayOutputStream imageData, Budget budget) {
+        byte[] compressed = new byte[STEP];
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (!budget.hasTimeLeft()) {
+                return false;
+            }
+            imageData.write(compressed, 0, deflater.deflate(compressed));
+        }
+        return true;
+    }
+
+    private static void writeImageData(ByteArrayOutputStream out, byte[] imageData) {
+        int offset = 0;
+        do {
+            int length = Math.min(PNG_MAX_IDAT_LENGTH, imageData.length - offset);
+            writeChunk(out, "IDAT", imageData, offset, length);
+            offset += length;
+        } while (offset < imageData.length);
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data, int offset, int length) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeBytes(ByteBuffer.allocate(8).putInt(length).put(typeBytes).array());
+        out.write(data, offset, length);
+        out.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    private static boolean startsWith(byte[] content, int offset, String prefix) {
+        return startsWith(content, offset, prefix.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean startsWith(byte[] content, int offset, byte[] prefix) {
+        if (content.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // CPU time of the optimizing thread, wall time where the JVM cannot measure it
+    private final class Budget {
+
+        private final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        private final long start = now();
+
+        private boolean hasTimeLeft() {
+            return now() - start < cpuBudgetNanos;
+        }
+
+        private long now() {
+            return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+    }
+}
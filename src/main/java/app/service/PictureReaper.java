@@ -0,0 +1,138 @@
+package app.service;
+
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Removes the files left behind by bulk deletes, off the request thread and at a bounded rate.
+// Blobs released to zero references stay in the blob table until their file is gone, so the table is the
+// durable queue: whatever the in-memory queue rejects, or a restart drops, is picked up by the sweep.
+// Files and variants have no row left; what is dropped of them is found again by the storage reconciler.
+@Slf4j
+@Service
+public class PictureReaper {
+
+    private final PictureBlobService pictureBlobService;
+    private final PictureBlobRepository pictureBlobRepository;
+    private final PictureVariantService pictureVariantService;
+    private final IoRateLimiter rateLimiter;
+    private final int sweepBatchSize;
+    private final ThreadPoolExecutor executor;
+
+    // work queued or running right now, so the sweep never submits a blob twice
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public PictureReaper(PictureBlobService pictureBlobService,
+                         PictureBlobRepository pictureBlobRepository,
+                         PictureVariantService pictureVariantService,
+                         @Value("${picture.reaper.max-deletes-per-second:100}") int maxDeletesPerSecond,
+                         @Value("${picture.reaper.queue-capacity:10000}") int queueCapacity,
+                         @Value("${picture.reaper.sweep-batch-size:500}") int sweepBatchSize) {
+        this.pictureBlobService = pictureBlobService;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.pictureVariantService = pictureVariantService;
+        this.rateLimiter = new IoRateLimiter(maxDeletesPerSecond);
+        this.sweepBatchSize = sweepBatchSize;
+        // a single worker: deletes are throttled anyway, more threads would only share the same budget
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("reaper-"));
+    }
+
+    public void reapBlobs(Collection<String> contentHashes) {
+        contentHashes.forEach(contentHash -> enqueue("blob:" + contentHash, () -> reapBlob(contentHash)));
+    }
+
+    // content owned by a single picture, whose row is already gone; a file dropped from the queue is found
+    // again by the storage reconciler
+    public void reapFiles(Collection<String> filePaths) {
+        filePaths.forEach(filePath -> enqueue("file:" + filePath, () -> reapFile(filePath)));
+    }
+
+    // a directory dropped from the queue is found again by the storage reconciler, as its picture is gone
+    public void reapVariants(Collection<UUID> pictureIds) {
+        pictureIds.forEach(pictureId -> enqueue("variants:" + pictureId, () -> {
+            if (rateLimiter.acquire(1)) {
+                pictureVariantService.deleteVariants(pictureId);
+            }
+        }));
+    }
+
+    // re-queues released blobs after a restart or after the queue was full
+    @Scheduled(initialDelayString = "${picture.reaper.sweep-initial-delay:PT30S}",
+            fixedDelayString = "${picture.reaper.sweep-interval:PT5M}")
+    public void sweepReleasedBlobs() {
+        int capacity = Math.min(sweepBatchSize, executor.getQueue().remainingCapacity());
+        if (capacity == 0) {
+            return;
+        }
+
+        List<PictureBlob> released = pictureBlobRepository.findByReferenceCountLessThanEqual(0, PageRequest.of(0, capacity));
+        reapBlobs(released.stream().map(PictureBlob::getContentHash).toList());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void enqueue(String work, Runnable task) {
+        if (!queued.add(work)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    queued.remove(work);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(work);
+            log.debug("Reaper queue is full, [%s] is left for the next sweep or reconciliation".formatted(work));
+        }
+    }
+
+    private void reapBlob(String contentHash) {
+        if (!rateLimiter.acquire(1)) {
+            return;
+        }
+        try {
+            if (pictureBlobService.removeIfUnreferenced(contentHash)) {
+                log.info("Reaped released blob [%s]".formatted(contentHash));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not reap blob [%s]".formatted(contentHash), e);
+        }
+    }
+
+    private void reapFile(String filePath) {
+        if (!rateLimiter.acquire(1)) {
+            return;
+        }
+        try {
+            pictureBlobService.deleteContent(filePath);
+        } catch (RuntimeException e) {
+            log.warn("Could not reap file [%s]".formatted(filePath), e);
+        }
+    }
+}
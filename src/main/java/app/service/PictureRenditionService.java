@@ -0,0 +1,176 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.event.PictureUploadedEvent;
+import app.exception.InvalidPictureVariantException;
+import app.exception.PictureNotFoundException;
+import app.exception.RenderCapacityExceededException;
+import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.RenditionStatus;
+import app.model.VariantSpec;
+import app.repository.PictureRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Renders the standard renditions of every upload in the background, along with the representations
+// PictureNegotiationService serves in place of the original: full-size alternate formats and the optimized copy.
+// The PENDING status in the pictures table is the durable queue: whatever the bounded
+// in-memory queue rejects, or a restart drops, is picked up again by the periodic sweep.
+@Slf4j
+@Service
+public class PictureRenditionService {
+
+    private static final String SOURCE_FORMAT = "source";
+
+    private final PictureRepository pictureRepository;
+    private final PictureService pictureService;
+    private final PictureVariantService pictureVariantService;
+    private final PictureNegotiationService pictureNegotiationService;
+    private final PictureMetadataCache metadataCache;
+    private final List<Integer> sizes;
+    private final List<String> formats;
+    private final int sweepBatchSize;
+    private final ThreadPoolExecutor executor;
+
+    // ids queued or rendering right now, so the sweep never submits a picture twice
+    private final Set<UUID> queued = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public PictureRenditionService(PictureRepository pictureRepository,
+                                   PictureService pictureService,
+                                   PictureVariantService pictureVariantService,
+                                   PictureNegotiationService pictureNegotiationService,
+                                   PictureMetadataCache metadataCache,
+                                   @Value("${picture.renditions.sizes:64,256,1024}") List<Integer> sizes,
+                                   @Value("${picture.renditions.formats:source,jpeg}") List<String> formats,
+                                   @Value("${picture.renditions.workers:2}") int workers,
+                                   @Value("${picture.renditions.queue-capacity:1000}") int queueCapacity,
+                                   @Value("${picture.renditions.sweep-batch-size:100}") int sweepBatchSize) {
+        this.pictureRepository = pictureRepository;
+        this.pictureService = pictureService;
+        this.pictureVariantService = pictureVariantService;
+        this.pictureNegotiationService = pictureNegotiationService;
+        this.metadataCache = metadataCache;
+        this.sizes = sizes;
+        this.formats = formats;
+        this.sweepBatchSize = sweepBatchSize;
+        // platform threads even in virtual-thread mode: rendering is CPU-bound, so more threads would not help
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("rendition-"));
+    }
+
+    @EventListener
+    public void onPictureUploaded(PictureUploadedEvent event) {
+        enqueue(event.getPicture().getId());
+    }
+
+    // re-queues pending pictures after a restart or after the queue was full
+    @Scheduled(initialDelayString = "${picture.renditions.sweep-initial-delay:PT10S}",
+            fixedDelayString = "${picture.renditions.sweep-interval:PT1M}")
+    public void sweepPendingRenditions() {
+        int capacity = Math.min(sweepBatchSize, executor.getQueue().remainingCapacity());
+        if (capacity == 0) {
+            return;
+        }
+
+        List<Picture> pending = pictureRepository.findByRenditionStatusOrderByUploadDateAsc(
+                RenditionStatus.PENDING, PageRequest.of(0, capacity));
+        pending.forEach(picture -> enqueue(picture.getId()));
+    }
+
+    // a pre-built standard rendition, served without touching the original or the render limiter
+    public Optional<PictureVariant> findRendition(Picture picture, VariantSpec spec) {
+        if (picture.getRenditionStatus() != RenditionStatus.READY || !renditionSpecs(picture).contains(spec)) {
+            return Optional.empty();
+        }
+
+        return pictureVariantService.findVariant(picture.getId(), spec);
+    }
+
+    public Set<VariantSpec> renditionSpecs(Picture picture) {
+        Set<VariantSpec> specs = new LinkedHashSet<>();
+        for (Integer size : sizes) {
+            for (String format : formats) {
+                specs.add(pictureVariantService.toSpec(picture, size, size, null,
+                        SOURCE_FORMAT.equals(format) ? null : format));
+            }
+        }
+        return specs;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // interrupted work stays PENDING and is resumed by the next sweep
+        executor.shutdownNow();
+    }
+
+    private void enqueue(UUID pictureId) {
+        if (!queued.add(pictureId)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> render(pictureId));
+        } catch (RejectedExecutionException e) {
+            queued.remove(pictureId);
+            log.debug("Rendition queue is full, picture with id [%s] is left for the next sweep".formatted(pictureId));
+        }
+    }
+
+    private void render(UUID pictureId) {
+        try {
+            Optional<Picture> optionalPicture = pictureRepository.findById(pictureId);
+            if (optionalPicture.isEmpty() || optionalPicture.get().getRenditionStatus() != RenditionStatus.PENDING) {
+                return;
+            }
+
+            Picture picture = optionalPicture.get();
+            Resource original = pictureService.getPictureResource(picture);
+            for (VariantSpec spec : renditionSpecs(picture)) {
+                pictureVariantService.getVariant(picture, original, spec);
+            }
+            for (VariantSpec spec : pictureNegotiationService.alternateSpecs(picture)) {
+                pictureVariantService.getVariant(picture, original, spec);
+            }
+            pictureNegotiationService.optimize(picture, original);
+
+            updateStatus(pictureId, RenditionStatus.READY);
+            log.info("Rendered standard renditions of picture with id [%s]".formatted(pictureId));
+
+        } catch (RenderCapacityExceededException e) {
+            log.debug("Render capacity exhausted, picture with id [%s] is left for the next sweep".formatted(pictureId));
+        } catch (InvalidPictureVariantException | PictureNotFoundException e) {
+            updateStatus(pictureId, RenditionStatus.FAILED);
+        } catch (RuntimeException e) {
+            log.warn("Could not render renditions of picture with id [%s]".formatted(pictureId), e);
+            updateStatus(pictureId, RenditionStatus.FAILED);
+        } finally {
+            queued.remove(pictureId);
+        }
+    }
+
+    private void updateStatus(UUID pictureId, RenditionStatus renditionStatus) {
+        pictureRepository.updateRenditionStatus(pictureId, renditionStatus);
+        metadataCache.invalidate(pictureId);
+    }
+}
@@ -0,0 +1,305 @@
+package app.service;
+
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import app.repository.PictureRepository;
+import app.storage.PictureStorage;
+import app.storage.StorageEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Re-reads every stored file and checks it against the size and checksums recorded at upload, so silent disk
+// corruption is found before a user is served it. A file that does not match is moved below quarantine/ for an
+// operator; its pictures then show up as missing content in the storage reconciler, and the next upload of the same
+// content heals a quarantined blob. Content stored before checksums were recorded is verified against its SHA-256
+// digest and gets its CRC32C recorded. Reads are large and sequential, and the scrubber sleeps between them so it
+// spends at most io-share of its time reading.
+@Slf4j
+@Service
+public class PictureScrubber {
+
+    private static final String BLOBS = "blobs";
+    private static final String PICTURES = "pictures";
+    private static final String QUARANTINE = "quarantine/";
+
+    private final boolean enabled;
+    private final PictureStorage pictureStorage;
+    private final PictureRepository pictureRepository;
+    private final PictureBlobRepository pictureBlobRepository;
+    private final int batchSize;
+    private final double ioShare;
+    private final int readBufferSize;
+    private final boolean verifySha256;
+    private final Counter intactFiles;
+    private final Counter corruptFiles;
+    private final Counter bytesRead;
+    // files checked by the running pass, or the last one
+    private final AtomicLong passFiles = new AtomicLong();
+    private final AtomicLong lastPassCompleted = new AtomicLong();
+
+    @Autowired
+    public PictureScrubber(@Value("${picture.scrubber.enabled:true}") boolean enabled,
+                           PictureStorage pictureStorage,
+                           PictureRepository pictureRepository,
+                           PictureBlobRepository pictureBlobRepository,
+                           @Value("${picture.scrubber.batch-size:200}") int batchSize,
+                           @Value("${picture.scrubber.io-share:0.1}") double ioShare,
+                           @Value("${picture.scrubber.read-buffer:1MB}") DataSize readBuffer,
+                           @Value("${picture.scrubber.verify-sha256:false}") boolean verifySha256,
+                           MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.pictureStorage = pictureStorage;
+        this.pictureRepository = pictureRepository;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.batchSize = batchSize;
+        this.ioShare = Math.max(0.01, Math.min(1.0, ioShare));
+        this.readBufferSize = (int) readBuffer.toBytes();
+        this.verifySha256 = verifySha256;
+
+        this.intactFiles = Counter.builder("picture.scrubber.files")
+                .description("Stored files verified by the scrubber")
+                .tag("result", "intact")
+                .register(meterRegistry);
+        this.corruptFiles = Counter.builder("picture.scrubber.files")
+                .description("Stored files verified by the scrubber")
+                .tag("result", "corrupt")
+                .register(meterRegistry);
+        this.bytesRead = Counter.builder("picture.scrubber.bytes")
+                .description("Bytes re-read by the scrubber")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("picture.scrubber.pass.files", passFiles, AtomicLong::get)
+                .description("Files checked by the running scrub pass, or the last one")
+                .register(meterRegistry);
+        Gauge.builder("picture.scrubber.pass.completed", lastPassCompleted, AtomicLong::get)
+                .description("When the last scrub pass completed, in seconds since the epoch")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${picture.scrubber.initial-delay:PT15M}",
+            fixedDelayString = "${picture.scrubber.interval:P1D}")
+    public void scrub() {
+        if (!enabled) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        passFiles.set(0);
+        // one read buffer for the whole pass; direct memory is only given back by the garbage collector
+        ByteBuffer buffer = ByteBuffer.allocateDirect(readBufferSize);
+        int corrupt;
+        try {
+            corrupt = scrub(BLOBS, buffer) + scrub(PICTURES, buffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        lastPassCompleted.set(Instant.now().getEpochSecond());
+        log.info("Scrubbed %d stored files, %d corrupt ones quarantined, in %d s"
+                .formatted(passFiles.get(), corrupt, Duration.ofNanos(System.nanoTime() - start).toSeconds()));
+    }
+
+    // the number of corrupt files quarantined
+    int scrub(String prefix) throws InterruptedException {
+        return scrub(prefix, ByteBuffer.allocateDirect(readBufferSize));
+    }
+
+    private int scrub(String prefix, ByteBuffer buffer) throws InterruptedException {
+        int corrupt = 0;
+        try (Stream<StorageEntry> entries = pictureStorage.list(prefix)) {
+            Iterator<StorageEntry> iterator = entries.iterator();
+            List<String> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next().getKey());
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    Map<String, Expected> expectations = BLOBS.equals(prefix) ? blobExpectations(batch) : pictureExpectations(batch);
+                    for (Map.Entry<String, Expected> expectation : expectations.entrySet()) {
+                        if (!verify(expectation.getKey(), expectation.getValue(), buffer)) {
+                            corrupt++;
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not scrub [%s]".formatted(prefix), e);
+        }
+        return corrupt;
+    }
+
+    // false when the file did not match and was quarantined; a file gone meanwhile counts as neither
+    private boolean verify(String key, Expected expected, ByteBuffer buffer) throws InterruptedException {
+        boolean withDigest = expected.sha256() != null && (verifySha256 || expected.crc32c() == null);
+        Checksums actual;
+        try {
+            actual = read(key, withDigest, buffer);
+        } catch (NoSuchFileException e) {
+            // deleted since it was listed, or never there, which the storage reconciler reports
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not scrub [%s]".formatted(key), e);
+            return true;
+        }
+        passFiles.incrementAndGet();
+
+        String mismatch = null;
+        if (actual.size() != expected.size()) {
+            mismatch = "size %d instead of %d".formatted(actual.size(), expected.size());
+        } else if (expected.crc32c() != null && actual.crc32c() != expected.crc32c()) {
+            mismatch = "CRC32C %08x instead of %08x".formatted(actual.crc32c(), expected.crc32c());
+        } else if (withDigest && !actual.sha256().equals(expected.sha256())) {
+            mismatch = "SHA-256 %s instead of %s".formatted(actual.sha256(), expected.sha256());
+        }
+
+        if (mismatch == null) {
+            intactFiles.increment();
+            if (expected.crc32c() == null && withDigest) {
+                pictureBlobRepository.updateCrc32c(expected.sha256(), actual.crc32c());
+                pictureRepository.updateCrc32c(expected.sha256(), key, actual.crc32c());
+            }
+            return true;
+        }
+
+        corruptFiles.increment();
+        log.error("Stored file [%s] is corrupt: %s".formatted(key, mismatch));
+        quarantine(key);
+        return false;
+    }
+
+    private void quarantine(String key) {
+        try {
+            pictureStorage.quarantine(key, QUARANTINE + key);
+            log.warn("Moved corrupt file [%s] to [%s]".formatted(key, QUARANTINE + key));
+        } catch (IOException e) {
+            log.warn("Could not quarantine corrupt file [%s]".formatted(key), e);
+        }
+    }
+
+    // one sequential pass over the content through the pass's direct buffer: straight from the file when it is local,
+    // through the storage stream otherwise
+    private Checksums read(String key, boolean withDigest, ByteBuffer buffer) throws IOException, InterruptedException {
+        Resource resource = pictureStorage.open(key);
+        CRC32C crc32c = new CRC32C();
+        MessageDigest digest = withDigest ? newDigest() : null;
+        long size = 0;
+
+        try (ReadableByteChannel channel = resource.isFile()
+                ? FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)
+                : Channels.newChannel(resource.getInputStream())) {
+            boolean end = false;
+            while (!end) {
+                long readStart = System.nanoTime();
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) == -1) {
+                        end = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                size += buffer.remaining();
+                crc32c.update(buffer.duplicate());
+                if (digest != null) {
+                    digest.update(buffer);
+                }
+                throttle(System.nanoTime() - readStart);
+            }
+        }
+
+        bytesRead.increment(size);
+        return new Checksums(size, crc32c.getValue(), digest == null ? null : HexFormat.of().formatHex(digest.digest()));
+    }
+
+    // sleeps long enough after a read that reading takes at most io-share of the time
+    private void throttle(long readNanos) throws InterruptedException {
+        if (ioShare < 1.0) {
+            TimeUnit.NANOSECONDS.sleep((long) (readNanos * (1 - ioShare) / ioShare));
+        }
+    }
+
+    // blobs are named by their digest; files without a row are orphans, left to the storage reconciler
+    private Map<String, Expected> blobExpectations(List<String> keys) {
+        Map<String, String> keysByHash = new HashMap<>();
+        keys.forEach(key -> keysByHash.put(lastSegment(key), key));
+
+        Map<String, Expected> expectations = new HashMap<>();
+        for (PictureBlob blob : pictureBlobRepository.findAllById(keysByHash.keySet())) {
+            expectations.put(keysByHash.get(blob.getContentHash()),
+                    new Expected(blob.getSize(), blob.getCrc32c(), blob.getContentHash()));
+        }
+        return expectations;
+    }
+
+    private Map<String, Expected> pictureExpectations(List<String> keys) {
+        Map<UUID, String> keysById = new HashMap<>();
+        for (String key : keys) {
+            try {
+                keysById.put(UUID.fromString(lastSegment(key)), key);
+            } catch (IllegalArgumentException e) {
+                // not named by this service, left alone
+            }
+        }
+
+        Map<String, Expected> expectations = new HashMap<>();
+        for (Picture picture : pictureRepository.findAllById(keysById.keySet())) {
+            // a picture that moved on to a shared blob is checked there
+            String key = keysById.get(picture.getId());
+            if (key.equals(picture.getFilePath())) {
+                expectations.put(key, new Expected(picture.getSize(), picture.getCrc32c(), picture.getContentHash()));
+            }
+        }
+        return expectations;
+    }
+
+    private static String lastSegment(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Expected(long size, Long crc32c, String sha256) {
+    }
+
+    private record Checksums(long size, long crc32c, String sha256) {
+    }
+}
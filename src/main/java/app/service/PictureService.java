@@ -1,23 +1,45 @@
 package app.service;
 
+import app.cache.HotPictureCache;
+import app.cache.PerceptualHashIndex;
+import app.cache.PictureMetadataCache;
+import app.event.PictureUploadedEvent;
+import app.exception.InvalidPictureUploadException;
 import app.exception.PictureNotFoundException;
+import app.exception.PictureTooLargeException;
+import app.model.ImageMetadata;
 import app.model.Picture;
+import app.model.RenditionStatus;
+import app.model.StoredBlob;
 import app.repository.PictureRepository;
+import app.storage.PictureStorage;
+import app.storage.StorageKeys;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -27,60 +49,203 @@ public class PictureService {
 
     private final Path fileStorageLocation;
     private final PictureRepository pictureRepository;
+    private final PictureWriteBehind pictureWriteBehind;
+    private final PictureMetadataCache metadataCache;
+    private final HotPictureCache hotPictureCache;
+    private final PerceptualHashIndex perceptualHashIndex;
+    private final PictureVariantService pictureVariantService;
+    private final PictureBlobService pictureBlobService;
+    private final PictureStorage pictureStorage;
+    private final ImageMetadataExtractor imageMetadataExtractor;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final DistributionSummary uploadSize;
 
     @Autowired
-    public PictureService(@Value("${file.upload.dir}") String fileUploadDir, PictureRepository pictureRepository) {
+    public PictureService(@Value("${file.upload.dir}") String fileUploadDir,
+                          PictureRepository pictureRepository,
+                          PictureWriteBehind pictureWriteBehind,
+                          PictureMetadataCache metadataCache,
+                          HotPictureCache hotPictureCache,
+                          PerceptualHashIndex perceptualHashIndex,
+                          PictureVariantService pictureVariantService,
+                          PictureBlobService pictureBlobService,
+                          PictureStorage pictureStorage,
+                          ImageMetadataExtractor imageMetadataExtractor,
+                          ApplicationEventPublisher eventPublisher,
+                          TransactionTemplate transactionTemplate,
+                          MeterRegistry meterRegistry) {
         this.fileStorageLocation = Paths.get(fileUploadDir).toAbsolutePath().normalize();
         this.pictureRepository = pictureRepository;
+        this.pictureWriteBehind = pictureWriteBehind;
+        this.metadataCache = metadataCache;
+        this.hotPictureCache = hotPictureCache;
+        this.perceptualHashIndex = perceptualHashIndex;
+        this.pictureVariantService = pictureVariantService;
+        this.pictureBlobService = pictureBlobService;
+        this.pictureStorage = pictureStorage;
+        this.imageMetadataExtractor = imageMetadataExtractor;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.uploadSize = DistributionSummary.builder("picture.upload.size")
+                .description("Size of each stored upload")
+                .baseUnit("bytes")
+                .register(meterRegistry);
     }
 
-    // Save image in a local directory
+    // Save image in the configured storage backend
     public Picture savePictureToStorage(MultipartFile pictureFile) {
         if (pictureFile == null)
             throw new PictureNotFoundException();
 
-        UUID pictureId = UUID.randomUUID();
+        Picture picture = storePictureContent(pictureFile, pictureViewUriPrefix());
+
+        return persist(picture);
+    }
+
+    // Save image read straight from the request body: size and content hash are taken in the same single write
+    public Picture savePictureStreamToStorage(InputStream content, String originalFileName, String contentType,
+                                              String expectedContentHash) {
+        Picture picture = storePictureContent(content, originalFileName, contentType, pictureViewUriPrefix());
+
+        if (picture.getSize() == 0 || (expectedContentHash != null
+                && !expectedContentHash.equalsIgnoreCase(picture.getContentHash()))) {
+            discardPictureContent(picture);
+            throw new InvalidPictureUploadException(picture.getSize() == 0
+                    ? "Picture is empty."
+                    : "Picture content does not match the expected SHA-256 digest.");
+        }
+
+        return persist(picture);
+    }
+
+    // Save an already complete local file, such as a finished resumable upload; the file is moved, not copied, when possible
+    public Picture savePictureFileToStorage(Path file, String originalFileName, String contentType) {
+        Picture picture = storePictureContent(pictureId -> pictureBlobService.storeFile(file, pictureId),
+                originalFileName, contentType, pictureViewUriPrefix());
 
+        return persist(picture);
+    }
+
+    // write the content and build the row, without persisting it; safe to call off the request thread
+    public Picture storePictureContent(MultipartFile pictureFile, String pictureViewUriPrefix) {
         try {
-            Path filePath = fileStorageLocation.resolve(pictureId.toString());
+            return storePictureContent(pictureFile.getInputStream(), pictureFile.getOriginalFilename(),
+                    pictureFile.getContentType(), pictureViewUriPrefix);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read picture " + pictureFile.getOriginalFilename() + ". Please try again!", e);
+        }
+    }
 
-            if (!Files.exists(fileStorageLocation)) {
-                Files.createDirectories(fileStorageLocation);
-            }
+    private Picture storePictureContent(InputStream content, String originalFileName, String contentType,
+                                        String pictureViewUriPrefix) {
+        return storePictureContent(pictureId -> pictureBlobService.store(content, pictureId),
+                originalFileName, contentType, pictureViewUriPrefix);
+    }
 
-            Files.copy(pictureFile.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-            log.info("Saving picture to storage with id [%s]".formatted(pictureId.toString()));
+    private Picture storePictureContent(BlobWriter blobWriter, String originalFileName, String contentType,
+                                        String pictureViewUriPrefix) {
+        UUID pictureId = UUID.randomUUID();
 
-            String pictureUri = ServletUriComponentsBuilder.fromCurrentContextPath()
-                    .path("api/v1/pictures")
-                    .path("/view/")
-                    .path(pictureId.toString())
-                    .toUriString();
-            // http://localhost:8081/api/v1/pictures/view/uuuid.jpg
+        try {
+            // identical content is stored once and shared through a reference-counted blob
+            StoredBlob storedBlob = blobWriter.write(pictureId);
+            log.info("Saving picture to storage with id [%s]".formatted(pictureId.toString()));
 
             Picture picture = Picture.builder()
                     .id(pictureId)
-                    .originalFileName(StringUtils.cleanPath(pictureFile.getOriginalFilename()))
-                    .type(pictureFile.getContentType())
-                    .size(pictureFile.getSize())
+                    .originalFileName(StringUtils.cleanPath(originalFileName))
+                    .type(contentType)
+                    .size(storedBlob.getSize())
                     .uploadDate(LocalDateTime.now())
-                    .filePath(filePath.toAbsolutePath().toString())
-                    .pictureUrl(pictureUri)
+                    .filePath(storedBlob.getFilePath())
+                    .contentHash(storedBlob.getContentHash())
+                    .crc32c(storedBlob.getCrc32c())
+                    .pictureUrl(pictureViewUriPrefix + pictureId)
+                    .renditionStatus(RenditionStatus.PENDING)
                     .build();
-
-            pictureRepository.save(picture);
+            // left empty when the header cannot be read, the backfill tries again later
+            readImageMetadata(picture.getFilePath(), picture.getSize()).ifPresent(metadata -> metadata.applyTo(picture));
 
             return picture;
 
+        } catch (PictureTooLargeException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Could not store picture " + pictureId + ". Please try again!", e);
         }
     }
 
-    // get image data from database
+    private Picture persist(Picture picture) {
+        boolean journaled;
+        try {
+            journaled = pictureWriteBehind.write(picture);
+            if (!journaled) {
+                // persist instead of save: the id is assigned up front, so save would merge and SELECT the row first
+                pictureRepository.insertAll(List.of(picture));
+            }
+        } catch (RuntimeException e) {
+            // no row points at the content, so it must not stay behind
+            discardPictureContent(picture);
+            throw new RuntimeException("Could not store picture " + picture.getId() + ". Please try again!", e);
+        }
+
+        if (journaled) {
+            // the uploaded event follows once the row is in the database
+            uploadSize.record(picture.getSize());
+            metadataCache.put(picture);
+        } else {
+            onPictureSaved(picture);
+        }
+
+        return picture;
+    }
+
+    public void discardPictureContent(Picture picture) {
+        try {
+            pictureBlobService.release(picture);
+        } catch (RuntimeException e) {
+            log.warn("Could not discard content of unsaved picture with id [%s]".formatted(picture.getId()), e);
+        }
+    }
+
+    public void onPictureSaved(Picture picture) {
+        uploadSize.record(picture.getSize());
+        metadataCache.put(picture);
+        // renditions are queued, never rendered on the upload thread
+        eventPublisher.publishEvent(new PictureUploadedEvent(picture));
+    }
+
+    // http://localhost:8081/api/v1/pictures/view/, resolved on the request thread
+    public String pictureViewUriPrefix() {
+        return ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("api/v1/pictures")
+                .path("/view/")
+                .toUriString();
+    }
+
+    // get image data from the rows not written yet, then the metadata cache, falling back to the database
     public Optional<Picture> getPictureById(UUID pictureId) {
+        Optional<Picture> journaled = pictureWriteBehind.find(pictureId);
+        if (journaled.isPresent()) {
+            return journaled;
+        }
 
-        return pictureRepository.findById(pictureId);
+        return metadataCache.get(pictureId, pictureRepository::findById);
+    }
+
+    // the rows of many pictures by id, those not journaled or cached in one query; ids without a row are left out
+    public Map<UUID, Picture> getPicturesByIds(Collection<UUID> pictureIds) {
+        Map<UUID, Picture> journaled = new HashMap<>();
+        List<UUID> rest = new ArrayList<>();
+        for (UUID pictureId : pictureIds) {
+            pictureWriteBehind.find(pictureId).ifPresentOrElse(
+                    picture -> journaled.put(pictureId, picture), () -> rest.add(pictureId));
+        }
+
+        Map<UUID, Picture> pictures = metadataCache.getAll(rest, pictureRepository::findAllById);
+        pictures.putAll(journaled);
+        return pictures;
     }
 
     // to view an image
@@ -98,6 +263,47 @@ public class PictureService {
         }
     }
 
+    // to stream an already resolved image without loading it on the heap
+    public Resource getPictureResource(Picture picture) {
+        if (StorageKeys.isLegacyFilePath(picture.getFilePath())) {
+            Path picturePath = Paths.get(picture.getFilePath()).normalize();
+
+            if (!picturePath.startsWith(fileStorageLocation) || !Files.isReadable(picturePath)) {
+                throw new PictureNotFoundException("Picture with id [%s] not found".formatted(picture.getId()));
+            }
+
+            return new FileSystemResource(picturePath);
+        }
+
+        try {
+            return pictureStorage.open(picture.getFilePath());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new PictureNotFoundException("Picture with id [%s] not found".formatted(picture.getId()));
+        }
+    }
+
+    // only the header window is read back, from storage as a range, never the whole content
+    public Optional<ImageMetadata> readImageMetadata(String filePath, long size) {
+        long length = Math.min(size, imageMetadataExtractor.getMaxHeaderBytes());
+        try (InputStream header = length == 0
+                ? InputStream.nullInputStream()
+                : StorageKeys.isLegacyFilePath(filePath)
+                        ? Files.newInputStream(Path.of(filePath))
+                        : pictureStorage.openRange(filePath, 0, length)) {
+            return Optional.of(imageMetadataExtractor.extract(header));
+
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read the image header of [%s]".formatted(filePath), e);
+            return Optional.empty();
+        }
+    }
+
+    // the original for a view response, from memory when it is viewed often enough to be kept there;
+    // renders and other one-off reads go through getPictureResource so they never skew what is kept
+    public Resource getPictureResourceForView(Picture picture) {
+        return hotPictureCache.get(picture.getFilePath(), () -> getPictureResource(picture));
+    }
+
     public String getFileType(String pictureId) throws IOException {
         String contentType = Files.probeContentType(fileStorageLocation.resolve(pictureId).normalize());
         if (contentType == null) {
@@ -108,26 +314,40 @@ public class PictureService {
 
     // delete an image
     public void deletePicture(UUID pictureId) {
-        Path picturePath = Path.of(String.valueOf(fileStorageLocation), String.valueOf(pictureId));
-
-
-        Optional<Picture> optionalPicture = pictureRepository.findById(pictureId);
-        if (optionalPicture.isEmpty()) {
+        pictureWriteBehind.awaitInserted(pictureId);
+        Picture picture = transactionTemplate.execute(status -> delete(pictureId));
+        if (picture == null) {
             throw new PictureNotFoundException("Picture with id [%s] not found".formatted(pictureId));
         }
 
-        try {
-            Picture picture = optionalPicture.get();
-
-            if (Files.exists(picturePath)) {
-                Files.delete(picturePath);
-                pictureRepository.delete(picture);
-                log.info("Successfully deleted picture with id:[%s]".formatted(pictureId));
-            }
+        // only after commit: a rolled back delete must keep its picture visible
+        metadataCache.invalidate(pictureId);
+        hotPictureCache.invalidate(picture.getFilePath());
+        if (picture.getPerceptualHash() != null) {
+            perceptualHashIndex.remove(picture.getPerceptualHash(), pictureId);
+        }
+        pictureVariantService.deleteVariants(pictureId);
+        log.info("Successfully deleted picture with id:[%s]".formatted(pictureId));
+    }
 
-        } catch (Exception e) {
-            throw new PictureNotFoundException("Picture with name [%s] not found".formatted(pictureId));
+    // the deleted picture, or null when there was none; the row lock makes a concurrent single or bulk delete
+    // of the same picture wait, then find nothing to release, so a shared blob loses one reference per picture
+    private Picture delete(UUID pictureId) {
+        List<Picture> pictures = pictureRepository.findAllForUpdate(List.of(pictureId));
+        if (pictures.isEmpty() || pictureRepository.deleteRowById(pictureId) == 0) {
+            return null;
         }
+
+        // the row goes even when the content is already missing, otherwise the picture could never be deleted;
+        // the file itself only goes away with the last picture sharing it
+        Picture picture = pictures.get(0);
+        pictureBlobService.release(picture);
+        return picture;
     }
 
+    @FunctionalInterface
+    private interface BlobWriter {
+
+        StoredBlob write(UUID pictureId) throws IOException;
+    }
 }
@@ -0,0 +1,249 @@
+package app.service;
+
+import app.cache.PerceptualHashIndex;
+import app.cache.PictureMetadataCache;
+import app.event.PictureUploadedEvent;
+import app.exception.InvalidPictureQueryException;
+import app.exception.PictureNotFoundException;
+import app.exception.SimilarityIndexUnavailableException;
+import app.model.Picture;
+import app.model.PictureHash;
+import app.model.SimilarPicture;
+import app.repository.PictureRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Near-duplicate lookup by perceptual hash.
+// Every upload is hashed in the background and added to the in-memory index; the index is built from the
+// pictures table after startup, then pictures stored before hashing existed are backfilled at a bounded rate.
+// The hash column is the durable state: an upload the queue rejects, or a restart drops, is hashed by the next backfill.
+@Slf4j
+@Service
+public class PictureSimilarityService {
+
+    private final boolean enabled;
+    private final int defaultDistance;
+    private final int maxDistance;
+    private final int defaultLimit;
+    private final int maxLimit;
+    private final int loadBatchSize;
+    private final int backfillBatchSize;
+    private final int backfillWorkers;
+    private final IoRateLimiter rateLimiter;
+    private final PerceptualHashIndex index;
+    private final PerceptualHasher hasher;
+    private final PictureRepository pictureRepository;
+    private final PictureService pictureService;
+    private final PictureMetadataCache metadataCache;
+    private final ThreadPoolExecutor executor;
+
+    // ids queued or hashing right now, so an upload is never hashed twice
+    private final Set<UUID> queued = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded;
+
+    @Autowired
+    public PictureSimilarityService(@Value("${picture.similarity.enabled:true}") boolean enabled,
+                                    @Value("${picture.similarity.default-distance:8}") int defaultDistance,
+                                    @Value("${picture.similarity.max-distance:16}") int maxDistance,
+                                    @Value("${picture.similarity.default-limit:20}") int defaultLimit,
+                                    @Value("${picture.similarity.max-limit:100}") int maxLimit,
+                                    @Value("${picture.similarity.load-batch-size:10000}") int loadBatchSize,
+                                    @Value("${picture.similarity.queue-capacity:1000}") int queueCapacity,
+                                    @Value("${picture.similarity.backfill.batch-size:200}") int backfillBatchSize,
+                                    @Value("${picture.similarity.backfill.workers:2}") int backfillWorkers,
+                                    @Value("${picture.similarity.backfill.max-reads-per-second:50}") int maxReadsPerSecond,
+                                    PerceptualHashIndex index,
+                                    PerceptualHasher hasher,
+                                    PictureRepository pictureRepository,
+                                    PictureService pictureService,
+                                    PictureMetadataCache metadataCache) {
+        this.enabled = enabled;
+        this.defaultDistance = defaultDistance;
+        this.maxDistance = maxDistance;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
+        this.loadBatchSize = loadBatchSize;
+        this.backfillBatchSize = backfillBatchSize;
+        this.backfillWorkers = backfillWorkers;
+        this.rateLimiter = new IoRateLimiter(maxReadsPerSecond);
+        this.index = index;
+        this.hasher = hasher;
+        this.pictureRepository = pictureRepository;
+        this.pictureService = pictureService;
+        this.metadataCache = metadataCache;
+        // a single worker: hashing decodes the picture, which is CPU-bound like rendering
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("similarity-"));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            new CustomizableThreadFactory("similarity-index-").newThread(() -> {
+                load();
+                backfill();
+            }).start();
+        }
+    }
+
+    @EventListener
+    public void onPictureUploaded(PictureUploadedEvent event) {
+        Picture picture = event.getPicture();
+        if (!enabled || !hasher.getDecodableFormats().contains(picture.getFormat()) || !queued.add(picture.getId())) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    hash(picture);
+                } finally {
+                    queued.remove(picture.getId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(picture.getId());
+            log.debug("Similarity queue is full, picture with id [%s] is left for the next backfill".formatted(picture.getId()));
+        }
+    }
+
+    // the pictures whose hash is within maxDistance bits of the given picture's, closest first
+    public List<SimilarPicture> findSimilar(UUID pictureId, Integer distance, Integer limit) {
+        int searchDistance = distance == null ? defaultDistance : distance;
+        if (searchDistance < 0 || searchDistance > maxDistance) {
+            throw new InvalidPictureQueryException("Parameter [maxDistance] must be between 0 and %d".formatted(maxDistance));
+        }
+        int resultLimit = limit == null ? defaultLimit : limit;
+        if (resultLimit < 1 || resultLimit > maxLimit) {
+            throw new InvalidPictureQueryException("Parameter [limit] must be between 1 and %d".formatted(maxLimit));
+        }
+
+        Picture picture = pictureService.getPictureById(pictureId)
+                .orElseThrow(() -> new PictureNotFoundException("Picture with id [%s] not found".formatted(pictureId)));
+        if (!enabled || !loaded) {
+            throw new SimilarityIndexUnavailableException("Similarity index is not loaded yet.");
+        }
+        if (picture.getPerceptualHash() == null) {
+            if (!hasher.getDecodableFormats().contains(picture.getFormat())) {
+                throw new InvalidPictureQueryException("Picture with id [%s] is not a decodable image".formatted(pictureId));
+            }
+            throw new SimilarityIndexUnavailableException("Picture with id [%s] has not been hashed yet.".formatted(pictureId));
+        }
+
+        // one more than asked for, the picture itself is among the matches
+        List<SimilarPicture> matches = index.search(picture.getPerceptualHash(), searchDistance, resultLimit + 1).stream()
+                .filter(match -> !match.getId().equals(pictureId))
+                .toList();
+
+        // a picture deleted while it was being hashed can be indexed after its delete, it is dropped here
+        Set<UUID> existing = new HashSet<>(pictureRepository.findExistingIds(matches.stream().map(SimilarPicture::getId).toList()));
+        matches.stream()
+                .filter(match -> !existing.contains(match.getId()))
+                .forEach(match -> index.remove(match.getPerceptualHash(), match.getId()));
+
+        return matches.stream()
+                .filter(match -> existing.contains(match.getId()))
+                .limit(resultLimit)
+                .toList();
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // reads every stored hash in id order, only two columns a row
+    public void load() {
+        long start = System.nanoTime();
+        UUID afterId = null;
+        List<PictureHash> page;
+        do {
+            page = pictureRepository.findPerceptualHashes(afterId, PageRequest.of(0, loadBatchSize));
+            for (PictureHash pictureHash : page) {
+                index.add(pictureHash.getPerceptualHash(), pictureHash.getId());
+            }
+            afterId = page.isEmpty() ? afterId : page.get(page.size() - 1).getId();
+        } while (page.size() == loadBatchSize);
+        loaded = true;
+
+        log.info("Loaded %d perceptual hashes into the similarity index in %d ms, %d bytes".formatted(index.size(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis(), index.memoryBytes()));
+    }
+
+    // hashes the pictures stored before hashing existed; pictures that cannot be decoded stay without a hash,
+    // those whose format is not known yet are reached once the metadata backfill has read it, at a later start
+    public int backfill() {
+        ExecutorService workers = Executors.newFixedThreadPool(backfillWorkers,
+                new CustomizableThreadFactory("similarity-backfill-"));
+        int hashed = 0;
+        try {
+            UUID afterId = null;
+            while (true) {
+                List<Picture> batch = pictureRepository.findWithoutPerceptualHash(hasher.getDecodableFormats(), afterId,
+                        PageRequest.of(0, backfillBatchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                List<CompletableFuture<Boolean>> hashes = batch.stream()
+                        .map(picture -> CompletableFuture.supplyAsync(() -> rateLimiter.acquire(1) && hash(picture), workers))
+                        .toList();
+                hashed += (int) hashes.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        if (hashed > 0) {
+            log.info("Hashed %d pictures stored before perceptual hashes were computed".formatted(hashed));
+        }
+        return hashed;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private boolean hash(Picture picture) {
+        try {
+            long hash = hasher.hash(pictureService.getPictureResource(picture));
+            // the row decides: a picture deleted or hashed meanwhile is not indexed again
+            if (pictureRepository.updatePerceptualHash(picture.getId(), hash) == 0) {
+                return false;
+            }
+            index.add(hash, picture.getId());
+            metadataCache.invalidate(picture.getId());
+            return true;
+
+        } catch (IOException | PictureNotFoundException e) {
+            log.debug("Could not hash picture with id [%s]".formatted(picture.getId()), e);
+            return false;
+        } catch (RuntimeException e) {
+            log.warn("Could not hash picture with id [%s]".formatted(picture.getId()), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import app.repository.PictureRepository;
+import app.storage.PictureStorage;
+import app.storage.StorageKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+// Moves files stored at absolute paths in the flat upload directory into the storage backend.
+// Runs in the background while the service keeps serving: until a row is switched to its key,
+// views and deletes keep using the absolute path. A row whose file is missing is left as it is and reported.
+@Slf4j
+@Service
+public class PictureStorageMigration {
+
+    private final Path fileStorageLocation;
+    private final boolean enabled;
+    private final int batchSize;
+    private final PictureRepository pictureRepository;
+    private final PictureBlobRepository pictureBlobRepository;
+    private final PictureStorage pictureStorage;
+    private final PictureMetadataCache metadataCache;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public PictureStorageMigration(@Value("${file.upload.dir}") String fileUploadDir,
+                                   @Value("${file.storage.migration.enabled:true}") boolean enabled,
+                                   @Value("${file.storage.migration.batch-size:100}") int batchSize,
+                                   PictureRepository pictureRepository,
+                                   PictureBlobRepository pictureBlobRepository,
+                                   PictureStorage pictureStorage,
+                                   PictureMetadataCache metadataCache,
+                                   TransactionTemplate transactionTemplate) {
+        this.fileStorageLocation = Paths.get(fileUploadDir).toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.pictureRepository = pictureRepository;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.pictureStorage = pictureStorage;
+        this.metadataCache = metadataCache;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startMigration() {
+        if (enabled) {
+            new CustomizableThreadFactory("storage-migration-").newThread(this::migrateLegacyFiles).start();
+        }
+    }
+
+    public int migrateLegacyFiles() {
+        int migrated = 0;
+        int missing = 0;
+        // rows that failed keep their legacy path and match again, each batch reads past them
+        Set<UUID> skipped = new HashSet<>();
+
+        while (true) {
+            List<Picture> batch = pictureRepository.findByFilePathStartingWith(
+                    fileStorageLocation.toString(), PageRequest.of(0, batchSize + skipped.size()))
+                    .stream()
+                    .filter(picture -> !skipped.contains(picture.getId()))
+                    .toList();
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            for (Picture picture : batch) {
+                try {
+                    migrate(picture);
+                    migrated++;
+                } catch (NoSuchFileException e) {
+                    log.warn("Skipping picture with id [%s], its file [%s] is missing".formatted(picture.getId(), e.getFile()));
+                    skipped.add(picture.getId());
+                    missing++;
+                } catch (RuntimeException | IOException e) {
+                    log.warn("Could not migrate file of picture with id [%s]".formatted(picture.getId()), e);
+                    skipped.add(picture.getId());
+                }
+            }
+        }
+
+        if (migrated > 0 || !skipped.isEmpty()) {
+            log.info("Migrated %d pictures into the storage backend; %d left at their legacy path, %d of them with their file missing"
+                    .formatted(migrated, skipped.size(), missing));
+        }
+        return migrated;
+    }
+
+    private void migrate(Picture picture) throws IOException {
+        String legacyFilePath = picture.getFilePath();
+        Path legacyPath = Paths.get(legacyFilePath);
+
+        // blobs keep their digest key, files owned by one picture move under its id
+        boolean sharedBlob = picture.getContentHash() != null && pictureBlobRepository.findById(picture.getContentHash())
+                .map(blob -> blob.getFilePath().equals(legacyFilePath))
+                .orElse(false);
+        String key = sharedBlob ? StorageKeys.blobKey(picture.getContentHash()) : StorageKeys.pictureKey(picture.getId());
+
+        if (Files.exists(legacyPath)) {
+            // taken over by a rename where the backend can, rather than copied
+            pictureStorage.putFile(key, legacyPath);
+        } else if (!pictureStorage.exists(key)) {
+            throw new NoSuchFileException(legacyFilePath);
+        }
+        // otherwise an earlier run moved the file but stopped before switching the row
+
+        List<UUID> repointed = transactionTemplate.execute(status -> {
+            if (sharedBlob) {
+                // the row lock keeps uploads of the same content from referencing the old path meanwhile
+                Optional<PictureBlob> blob = pictureBlobRepository.findForUpdate(picture.getContentHash());
+                blob.ifPresent(b -> b.setFilePath(key));
+            }
+            List<UUID> pictureIds = pictureRepository.findIdsByFilePath(legacyFilePath);
+            pictureRepository.updateFilePath(legacyFilePath, key);
+            return pictureIds;
+        });
+        repointed.forEach(metadataCache::invalidate);
+    }
+}
@@ -0,0 +1,252 @@
+package app.service;
+
+import app.repository.PictureBlobRepository;
+import app.repository.PictureContentRef;
+import app.repository.PictureRepository;
+import app.storage.PictureStorage;
+import app.storage.StorageEntry;
+import app.storage.StorageKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// Brings storage and database back in line after crashes, failed deletes and manual edits.
+// Orphans: files no row points at, and variant directories of pictures that are gone, removed once older than
+// the grace period, so an upload still between its write and its commit is never mistaken for one. Dangling rows: pictures whose content is missing,
+// flagged with contentMissingSince for an operator, never deleted automatically.
+// Storage is walked through a lazy listing and checked against the database a batch at a time,
+// and every storage call is throttled, so a full pass never competes with foreground I/O.
+@Slf4j
+@Service
+public class PictureStorageReconciler {
+
+    private static final String BLOBS = "blobs";
+    private static final String PICTURES = "pictures";
+    private static final String STAGING = "staging";
+
+    private final boolean enabled;
+    private final PictureStorage pictureStorage;
+    private final PictureRepository pictureRepository;
+    private final PictureBlobRepository pictureBlobRepository;
+    private final PictureBlobService pictureBlobService;
+    private final PictureVariantService pictureVariantService;
+    private final int batchSize;
+    private final Duration orphanGracePeriod;
+    private final IoRateLimiter rateLimiter;
+    private final Clock clock;
+
+    @Autowired
+    public PictureStorageReconciler(@Value("${picture.reconciler.enabled:true}") boolean enabled,
+                                    PictureStorage pictureStorage,
+                                    PictureRepository pictureRepository,
+                                    PictureBlobRepository pictureBlobRepository,
+                                    PictureBlobService pictureBlobService,
+                                    PictureVariantService pictureVariantService,
+                                    @Value("${picture.reconciler.batch-size:500}") int batchSize,
+                                    @Value("${picture.reconciler.max-files-per-second:200}") int maxFilesPerSecond,
+                                    @Value("${picture.reconciler.orphan-grace-period:PT1H}") Duration orphanGracePeriod) {
+        this(enabled, pictureStorage, pictureRepository, pictureBlobRepository, pictureBlobService, pictureVariantService,
+                batchSize, maxFilesPerSecond, orphanGracePeriod, Clock.systemDefaultZone());
+    }
+
+    PictureStorageReconciler(boolean enabled,
+                             PictureStorage pictureStorage,
+                             PictureRepository pictureRepository,
+                             PictureBlobRepository pictureBlobRepository,
+                             PictureBlobService pictureBlobService,
+                             PictureVariantService pictureVariantService,
+                             int batchSize,
+                             int maxFilesPerSecond,
+                             Duration orphanGracePeriod,
+                             Clock clock) {
+        this.enabled = enabled;
+        this.pictureStorage = pictureStorage;
+        this.pictureRepository = pictureRepository;
+        this.pictureBlobRepository = pictureBlobRepository;
+        this.pictureBlobService = pictureBlobService;
+        this.pictureVariantService = pictureVariantService;
+        this.batchSize = batchSize;
+        this.orphanGracePeriod = orphanGracePeriod;
+        this.rateLimiter = new IoRateLimiter(maxFilesPerSecond);
+        this.clock = clock;
+    }
+
+    @Scheduled(initialDelayString = "${picture.reconciler.initial-delay:PT10M}",
+            fixedDelayString = "${picture.reconciler.interval:PT6H}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int orphans = removeOrphans();
+        int orphanedVariants = removeOrphanedVariants();
+        int dangling = flagDanglingPictures();
+        log.info(("Storage reconciliation removed %d orphaned files and the variants of %d deleted pictures, "
+                + "and found %d pictures without content in %d s")
+                .formatted(orphans, orphanedVariants, dangling, Duration.ofNanos(System.nanoTime() - start).toSeconds()));
+    }
+
+    // the number of files removed
+    int removeOrphans() {
+        Instant cutoff = clock.instant().minus(orphanGracePeriod);
+        return removeOrphans(BLOBS, cutoff, this::unreferencedBlobs)
+                + removeOrphans(PICTURES, cutoff, this::unreferencedPictureFiles)
+                // nothing references staging content, anything that outlived the grace period was abandoned
+                + removeOrphans(STAGING, cutoff, keys -> keys);
+    }
+
+    // the number of pictures whose variants were removed; the reaper removes them after a bulk delete,
+    // but whatever its queue had no room for or a restart interrupted is only found here
+    int removeOrphanedVariants() {
+        int removed = 0;
+        try (Stream<UUID> pictureIds = pictureVariantService.listPicturesWithVariantsBefore(clock.instant().minus(orphanGracePeriod))) {
+            Iterator<UUID> iterator = pictureIds.iterator();
+            List<UUID> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    Set<UUID> existing = new HashSet<>(pictureRepository.findExistingIds(batch));
+                    for (UUID pictureId : batch) {
+                        if (existing.contains(pictureId)) {
+                            continue;
+                        }
+                        if (!rateLimiter.acquire(1)) {
+                            return removed;
+                        }
+                        pictureVariantService.deleteVariants(pictureId);
+                        removed++;
+                        log.info("Removed orphaned variants of picture with id [%s]".formatted(pictureId));
+                    }
+                    batch.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not scan variants for orphaned ones", e);
+        }
+        return removed;
+    }
+
+    // the number of pictures whose content is missing
+    int flagDanglingPictures() {
+        int dangling = 0;
+        UUID afterId = null;
+        List<PictureContentRef> page;
+        do {
+            page = pictureRepository.findContentRefs(afterId, PageRequest.of(0, batchSize));
+            List<UUID> missing = new ArrayList<>();
+            List<UUID> found = new ArrayList<>();
+            for (PictureContentRef ref : page) {
+                if (!rateLimiter.acquire(1)) {
+                    return dangling;
+                }
+                if (!contentExists(ref.getFilePath())) {
+                    if (ref.getContentMissingSince() == null) {
+                        missing.add(ref.getId());
+                    }
+                    dangling++;
+                } else if (ref.getContentMissingSince() != null) {
+                    found.add(ref.getId());
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                log.warn("Content of %d pictures is missing, e.g. picture with id [%s]".formatted(missing.size(), missing.get(0)));
+                pictureRepository.updateContentMissingSince(missing, LocalDateTime.now(clock));
+            }
+            if (!found.isEmpty()) {
+                pictureRepository.updateContentMissingSince(found, null);
+            }
+            afterId = page.isEmpty() ? afterId : page.get(page.size() - 1).getId();
+        } while (page.size() == batchSize);
+
+        return dangling;
+    }
+
+    private int removeOrphans(String prefix, Instant cutoff, Function<List<String>, Collection<String>> unreferenced) {
+        int removed = 0;
+        try (Stream<StorageEntry> entries = pictureStorage.list(prefix)) {
+            Iterator<StorageEntry> iterator = entries.iterator();
+            List<String> batch = new ArrayList<>(batchSize);
+            while (iterator.hasNext()) {
+                StorageEntry entry = iterator.next();
+                if (entry.getLastModified().isBefore(cutoff)) {
+                    batch.add(entry.getKey());
+                }
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    for (String key : batch.isEmpty() ? List.<String>of() : unreferenced.apply(batch)) {
+                        if (!rateLimiter.acquire(1)) {
+                            return removed;
+                        }
+                        pictureBlobService.deleteContent(key);
+                        removed++;
+                        log.info("Removed orphaned file [%s]".formatted(key));
+                    }
+                    batch.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not scan [%s] for orphaned files".formatted(prefix), e);
+        }
+        return removed;
+    }
+
+    private Collection<String> unreferencedBlobs(List<String> keys) {
+        Set<String> existing = new HashSet<>(pictureBlobRepository.findExistingHashes(
+                keys.stream().map(PictureStorageReconciler::lastSegment).toList()));
+        return keys.stream().filter(key -> !existing.contains(lastSegment(key))).toList();
+    }
+
+    private Collection<String> unreferencedPictureFiles(List<String> keys) {
+        List<UUID> pictureIds = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            try {
+                pictureIds.add(UUID.fromString(lastSegment(key)));
+            } catch (IllegalArgumentException e) {
+                // not named by this service, left alone
+            }
+        }
+        Set<UUID> existing = new HashSet<>(pictureRepository.findExistingIds(pictureIds));
+        return pictureIds.stream()
+                .filter(pictureId -> !existing.contains(pictureId))
+                .map(StorageKeys::pictureKey)
+                .toList();
+    }
+
+    private boolean contentExists(String filePath) {
+        try {
+            return StorageKeys.isLegacyFilePath(filePath)
+                    ? Files.exists(Path.of(filePath))
+                    : pictureStorage.exists(filePath);
+        } catch (IOException e) {
+            // unknown is not missing
+            log.warn("Could not check content [%s]".formatted(filePath), e);
+            return true;
+        }
+    }
+
+    private static String lastSegment(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,367 @@
+package app.service;
+
+import app.exception.InvalidPictureVariantException;
+import app.exception.RenderCapacityExceededException;
+import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.VariantFit;
+import app.model.VariantSpec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@Slf4j
+@Service
+public class PictureVariantService {
+
+    private static final String DEFAULT_FORMAT = "jpeg";
+
+    private final Path variantStorageLocation;
+    private final int maxDimension;
+    private final float jpegQuality;
+    private final Duration renderWaitTimeout;
+    private final Semaphore renderPermits;
+
+    // one render per derivative: concurrent requests for the same uncached variant wait on the first one
+    private final ConcurrentMap<Path, CompletableFuture<Path>> rendersInFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PictureVariantService(@Value("${file.variant.dir:${file.upload.dir}/variants}") String variantDir,
+                                 @Value("${picture.variant.max-dimension:4096}") int maxDimension,
+                                 @Value("${picture.variant.jpeg-quality:0.85}") float jpegQuality,
+                                 @Value("${picture.variant.max-concurrent-renders:0}") int maxConcurrentRenders,
+                                 @Value("${picture.variant.render-wait-timeout:5s}") Duration renderWaitTimeout) {
+        this.variantStorageLocation = Paths.get(variantDir).toAbsolutePath().normalize();
+        this.maxDimension = maxDimension;
+        this.jpegQuality = jpegQuality;
+        this.renderWaitTimeout = renderWaitTimeout;
+        // 0 means half of the cores, so renders never take every CPU away from request handling
+        int permits = maxConcurrentRenders > 0
+                ? maxConcurrentRenders
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.renderPermits = new Semaphore(permits, true);
+    }
+
+    // validate the raw request parameters and fill in defaults
+    public VariantSpec toSpec(Picture picture, Integer width, Integer height, String fit, String format) {
+        checkDimension("w", width);
+        checkDimension("h", height);
+
+        VariantFit variantFit;
+        try {
+            variantFit = fit == null ? VariantFit.CONTAIN : VariantFit.valueOf(fit.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPictureVariantException("Unsupported fit [%s]".formatted(fit));
+        }
+
+        String variantFormat = format == null ? formatOf(picture.getType()) : normalizeFormat(format);
+        if (!ImageIO.getImageWritersByFormatName(variantFormat).hasNext()) {
+            throw new InvalidPictureVariantException("Unsupported format [%s]".formatted(format));
+        }
+
+        return VariantSpec.builder()
+                .width(width)
+                .height(height)
+                .fit(variantFit)
+                .format(variantFormat)
+                .build();
+    }
+
+    // serve a derivative from disk, rendering it once if it does not exist yet
+    public PictureVariant getVariant(Picture picture, Resource original, VariantSpec spec) {
+        Path target = variantPath(picture.getId(), spec);
+
+        if (!Files.isReadable(target)) {
+            CompletableFuture<Path> render = new CompletableFuture<>();
+            CompletableFuture<Path> renderInFlight = rendersInFlight.putIfAbsent(target, render);
+
+            if (renderInFlight != null) {
+                awaitRender(renderInFlight);
+            } else {
+                try {
+                    // another render may have finished between the first check and taking ownership
+                    if (!Files.isReadable(target)) {
+                        renderWithPermit(original, spec, target);
+                        log.info("Rendered variant [%s] of picture with id [%s]".formatted(spec.key(), picture.getId()));
+                    }
+                    render.complete(target);
+                } catch (RuntimeException e) {
+                    render.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    rendersInFlight.remove(target, render);
+                }
+            }
+        }
+
+        return toVariant(target, spec);
+    }
+
+    // an already rendered derivative, without ever rendering it on the calling thread
+    public Optional<PictureVariant> findVariant(UUID pictureId, VariantSpec spec) {
+        Path target = variantPath(pictureId, spec);
+
+        return Files.isReadable(target) ? Optional.of(toVariant(target, spec)) : Optional.empty();
+    }
+
+    // a derivative produced elsewhere rather than rendered, such as the losslessly optimized original
+    public void saveVariant(UUID pictureId, String key, byte[] content) throws IOException {
+        Path target = variantDirectory(pictureId).resolve(key);
+        Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(target.getParent(), ".render-", ".tmp");
+
+        try {
+            Files.write(tempFile, content);
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public Optional<PictureVariant> findVariant(UUID pictureId, String key, String contentType) {
+        Path target = variantDirectory(pictureId).resolve(key);
+
+        return Files.isReadable(target)
+                ? Optional.of(new PictureVariant(new FileSystemResource(target), contentType, key))
+                : Optional.empty();
+    }
+
+    // pictures with variants on disk whose directory has not changed since the cutoff, for the storage reconciler;
+    // the stream holds the directory open until closed
+    public Stream<UUID> listPicturesWithVariantsBefore(Instant cutoff) throws IOException {
+        if (!Files.isDirectory(variantStorageLocation)) {
+            return Stream.empty();
+        }
+        int depth = variantStorageLocation.getNameCount() + 2;
+        return Files.find(variantStorageLocation, 2, (path, attributes) -> path.getNameCount() == depth
+                        && attributes.isDirectory() && attributes.lastModifiedTime().toInstant().isBefore(cutoff))
+                .map(path -> path.getFileName().toString())
+                // not named by this service, left alone
+                .filter(name -> name.length() == 36)
+                .flatMap(name -> {
+                    try {
+                        return Stream.of(UUID.fromString(name));
+                    } catch (IllegalArgumentException e) {
+                        return Stream.empty();
+                    }
+                });
+    }
+
+    public void deleteVariants(UUID pictureId) {
+        try {
+            FileSystemUtils.deleteRecursively(variantDirectory(pictureId));
+        } catch (IOException e) {
+            log.warn("Could not delete variants of picture with id [%s]".formatted(pictureId), e);
+        }
+    }
+
+    private void checkDimension(String name, Integer value) {
+        if (value != null && (value < 1 || value > maxDimension)) {
+            throw new InvalidPictureVariantException("Parameter [%s] must be between 1 and %d".formatted(name, maxDimension));
+        }
+    }
+
+    private void awaitRender(CompletableFuture<Path> renderInFlight) {
+        try {
+            renderInFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void renderWithPermit(Resource original, VariantSpec spec, Path target) {
+        boolean acquired;
+        try {
+            acquired = renderPermits.tryAcquire(renderWaitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            throw new RenderCapacityExceededException("Too many variants are being rendered. Please try again!");
+        }
+
+        try {
+            render(original, spec, target);
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    private void render(Resource original, VariantSpec spec, Path target) {
+        try {
+            ImageReaders.read(original, reader -> {
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+
+                double scaleX = scaleX(spec, sourceWidth, sourceHeight);
+                double scaleY = spec.getFit() == VariantFit.FILL && spec.getWidth() != null && spec.getHeight() != null
+                        ? (double) spec.getHeight() / sourceHeight
+                        : scaleX;
+                int drawnWidth = Math.max(1, (int) Math.round(sourceWidth * scaleX));
+                int drawnHeight = Math.max(1, (int) Math.round(sourceHeight * scaleY));
+                int outputWidth = spec.getFit() == VariantFit.CONTAIN || spec.getWidth() == null || spec.getHeight() == null
+                        ? drawnWidth
+                        : spec.getWidth();
+                int outputHeight = spec.getFit() == VariantFit.CONTAIN || spec.getWidth() == null || spec.getHeight() == null
+                        ? drawnHeight
+                        : spec.getHeight();
+
+                // decode only every n-th pixel of big sources, keeping at least 2x headroom for a smooth resize
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                int subsampling = (int) Math.max(1, Math.floor(Math.min(1 / scaleX, 1 / scaleY) / 2));
+                if (subsampling > 1) {
+                    readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage source = reader.read(0, readParam);
+
+                boolean keepAlpha = source.getColorModel().hasAlpha()
+                        && !"jpeg".equals(spec.getFormat())
+                        && !"bmp".equals(spec.getFormat());
+                BufferedImage output = new BufferedImage(outputWidth, outputHeight,
+                        keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+                Graphics2D graphics = output.createGraphics();
+                try {
+                    graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                    graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    if (!keepAlpha) {
+                        graphics.setColor(Color.WHITE);
+                        graphics.fillRect(0, 0, outputWidth, outputHeight);
+                    }
+                    // centred, so COVER crops evenly on both sides
+                    graphics.drawImage(source,
+                            (outputWidth - drawnWidth) / 2, (outputHeight - drawnHeight) / 2,
+                            drawnWidth, drawnHeight, null);
+                } finally {
+                    graphics.dispose();
+                }
+
+                write(output, spec.getFormat(), target);
+                return null;
+            });
+        } catch (ImageReaders.UndecodableImageException e) {
+            throw new InvalidPictureVariantException(e.getMessage());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not render picture variant " + spec.key() + ". Please try again!", e);
+        }
+    }
+
+    private double scaleX(VariantSpec spec, int sourceWidth, int sourceHeight) {
+        Integer width = spec.getWidth();
+        Integer height = spec.getHeight();
+
+        if (width == null && height == null) {
+            return 1;
+        }
+        if (width == null) {
+            return Math.min(1, (double) height / sourceHeight);
+        }
+        if (height == null) {
+            return Math.min(1, (double) width / sourceWidth);
+        }
+
+        double widthScale = (double) width / sourceWidth;
+        double heightScale = (double) height / sourceHeight;
+        return switch (spec.getFit()) {
+            case CONTAIN -> Math.min(1, Math.min(widthScale, heightScale));
+            case COVER -> Math.max(widthScale, heightScale);
+            case FILL -> widthScale;
+        };
+    }
+
+    // written next to the target and moved into place, so readers never see a half-written derivative
+    private void write(BufferedImage image, String format, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(target.getParent(), ".render-", ".tmp");
+
+        try {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            if ("jpeg".equals(format)) {
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionQuality(jpegQuality);
+            }
+
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(tempFile.toFile())) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null), writeParam);
+            } finally {
+                writer.dispose();
+            }
+
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private PictureVariant toVariant(Path target, VariantSpec spec) {
+        return new PictureVariant(new FileSystemResource(target), contentTypeOf(spec.getFormat()), spec.key());
+    }
+
+    private Path variantDirectory(UUID pictureId) {
+        String id = pictureId.toString();
+        return variantStorageLocation.resolve(id.substring(0, 2)).resolve(id);
+    }
+
+    private Path variantPath(UUID pictureId, VariantSpec spec) {
+        return variantDirectory(pictureId).resolve(spec.key());
+    }
+
+    private static String formatOf(String contentType) {
+        if (contentType != null) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(contentType);
+            if (writers.hasNext()) {
+                return normalizeFormat(writers.next().getOriginatingProvider().getFormatNames()[0]);
+            }
+        }
+        return DEFAULT_FORMAT;
+    }
+
+    private static String normalizeFormat(String format) {
+        String normalized = format.toLowerCase(Locale.ROOT);
+        return "jpg".equals(normalized) ? "jpeg" : normalized;
+    }
+
+    private static String contentTypeOf(String format) {
+        return ImageIO.getImageWritersByFormatName(format).next().getOriginatingProvider().getMIMETypes()[0];
+    }
+}
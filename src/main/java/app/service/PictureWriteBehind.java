@@ -0,0 +1,368 @@
+package app.service;
+
+import app.event.PictureUploadedEvent;
+import app.model.Picture;
+import app.repository.PictureRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+// Write-behind for the rows of new pictures. An upload returns once its row is in the local journal, forced to disk
+// together with every other row that arrived meanwhile (group commit); the rows then reach the database as batched
+// INSERTs, one transaction per batch. Until then reads are served from the pending rows. The uploaded event is only
+// published after the insert, so the rendition and similarity pipelines always find the row they update.
+// Rows journaled but not inserted when the process stopped are replayed at the next start.
+@Slf4j
+@Service
+public class PictureWriteBehind {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(100);
+    private static final Duration RETRY_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration WRITE_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final boolean enabled;
+    private final PictureRepository pictureRepository;
+    private final PictureBlobService pictureBlobService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int maxBatchSize;
+    private final Duration maxDelay;
+    private final int maxPending;
+    private final DistributionSummary batchSize;
+
+    // journaled rows not in the database yet, by picture id
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> journalQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Pending> insertQueue = new LinkedBlockingQueue<>();
+    private final PictureJournal journal;
+    private final Thread journalWriter;
+    private final Thread inserter;
+    private volatile boolean running;
+
+    @Autowired
+    public PictureWriteBehind(@Value("${picture.write-behind.enabled:false}") boolean enabled,
+                              @Value("${picture.write-behind.journal-dir:${file.upload.dir}/journal}") String journalDir,
+                              @Value("${picture.write-behind.segment-size:64MB}") DataSize segmentSize,
+                              @Value("${picture.write-behind.max-batch-size:200}") int maxBatchSize,
+                              @Value("${picture.write-behind.max-delay:20ms}") Duration maxDelay,
+                              @Value("${picture.write-behind.max-pending:10000}") int maxPending,
+                              PictureRepository pictureRepository,
+                              PictureBlobService pictureBlobService,
+                              ApplicationEventPublisher eventPublisher,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.pictureRepository = pictureRepository;
+        this.pictureBlobService = pictureBlobService;
+        this.eventPublisher = eventPublisher;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.maxPending = maxPending;
+        this.batchSize = DistributionSummary.builder("picture.write-behind.batch.size")
+                .description("Rows inserted per write-behind transaction")
+                .register(meterRegistry);
+        Gauge.builder("picture.write-behind.pending", pending, Map::size)
+                .description("Journaled picture rows not in the database yet")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            this.journal = null;
+            this.journalWriter = null;
+            this.inserter = null;
+            return;
+        }
+
+        this.journal = new PictureJournal(Path.of(journalDir).toAbsolutePath().normalize(), segmentSize.toBytes());
+        try {
+            List<PictureJournal.Entry> recovered = journal.recover();
+            for (PictureJournal.Entry entry : recovered) {
+                Pending row = new Pending(entry.picture(), true);
+                row.segment = entry.segment();
+                pending.put(row.picture.getId(), row);
+                insertQueue.add(row);
+            }
+            if (!recovered.isEmpty()) {
+                log.info("Replaying %d journaled pictures not known to be in the database".formatted(recovered.size()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.running = true;
+        this.journalWriter = new CustomizableThreadFactory("write-behind-journal-").newThread(this::writeJournal);
+        this.inserter = new CustomizableThreadFactory("write-behind-insert-").newThread(this::insertRows);
+        journalWriter.start();
+        inserter.start();
+    }
+
+    // true once the row is durably journaled; false when write-behind is off or too far behind,
+    // then the caller inserts the row itself
+    public boolean write(Picture picture) {
+        if (!running || pending.size() >= maxPending) {
+            return false;
+        }
+
+        Pending row = new Pending(picture, false);
+        journalQueue.add(row);
+        try {
+            row.journaled.get(WRITE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Could not journal picture " + picture.getId(), e.getCause());
+        } catch (TimeoutException e) {
+            return cancelOrAwait(row, new RuntimeException("Could not journal picture " + picture.getId() + " in time", e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return cancelOrAwait(row, new RuntimeException("Interrupted while journaling picture " + picture.getId(), e));
+        }
+    }
+
+    // the caller discards the content when write fails, so a row given up on must never reach the database:
+    // withdrawn while still queued, otherwise the journal writer has it and its outcome is the caller's
+    private boolean cancelOrAwait(Pending row, RuntimeException failure) {
+        if (row.taken.compareAndSet(false, true)) {
+            journalQueue.remove(row);
+            throw failure;
+        }
+
+        try {
+            row.journaled.join();
+            return true;
+        } catch (CompletionException e) {
+            throw new RuntimeException("Could not journal picture " + row.picture.getId(), e.getCause());
+        }
+    }
+
+    // the row of a picture uploaded but not in the database yet
+    public Optional<Picture> find(UUID pictureId) {
+        Pending row = pending.get(pictureId);
+        return row == null ? Optional.empty() : Optional.of(row.picture);
+    }
+
+    // waits until a pending row is in the database, so a delete right after the upload finds it
+    public void awaitInserted(UUID pictureId) {
+        Pending row = pending.get(pictureId);
+        if (row == null) {
+            return;
+        }
+
+        try {
+            row.settled.get(WRITE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Picture with id [%s] is still not in the database".formatted(pictureId));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException, IOException {
+        if (!enabled) {
+            return;
+        }
+
+        // the writer drains what was queued before, the inserter gets a bounded time for the rest;
+        // whatever is left stays in the journal for the next start
+        running = false;
+        journalWriter.join(SHUTDOWN_TIMEOUT.toMillis());
+        inserter.join(SHUTDOWN_TIMEOUT.toMillis());
+        synchronized (journal) {
+            journal.close();
+        }
+    }
+
+    private void writeJournal() {
+        List<Pending> group = new ArrayList<>(maxBatchSize);
+        while (running || !journalQueue.isEmpty()) {
+            try {
+                Pending first = journalQueue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                // every row that arrived during the previous write shares this one
+                group.add(first);
+                journalQueue.drainTo(group, maxBatchSize - 1);
+                // rows their caller gave up on are left out
+                group.removeIf(row -> !row.taken.compareAndSet(false, true));
+                if (group.isEmpty()) {
+                    continue;
+                }
+
+                PictureJournal.Segment segment;
+                synchronized (journal) {
+                    segment = journal.append(group.stream().map(row -> row.picture).toList());
+                }
+                for (Pending row : group) {
+                    row.segment = segment;
+                    pending.put(row.picture.getId(), row);
+                    insertQueue.add(row);
+                    row.journaled.complete(null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                group.forEach(row -> row.journaled.completeExceptionally(e));
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not journal %d pictures".formatted(group.size()), e);
+                group.forEach(row -> row.journaled.completeExceptionally(e));
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void insertRows() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running || !insertQueue.isEmpty()) {
+            try {
+                Pending first = insertQueue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // a short wait for the batch to fill trades a little latency for far fewer commits
+                long deadline = System.nanoTime() + maxDelay.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? insertQueue.poll(remaining, TimeUnit.NANOSECONDS) : insertQueue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    insertQueue.drainTo(batch, maxBatchSize - batch.size());
+                }
+
+                List<Pending> failed = insert(batch);
+                while (!failed.isEmpty() && running) {
+                    Thread.sleep(RETRY_INTERVAL.toMillis());
+                    failed = insert(failed);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // all rows in one transaction; if the batch is rejected, row by row. Returns the rows to retry,
+    // those the database could not take for a reason other than the row itself
+    private List<Pending> insert(List<Pending> batch) {
+        List<Pending> rows = batch;
+        if (batch.stream().anyMatch(row -> row.recovered)) {
+            try {
+                rows = withoutExisting(batch);
+            } catch (RuntimeException e) {
+                log.warn("Could not check %d replayed pictures against the database".formatted(batch.size()), e);
+                return batch;
+            }
+        }
+        if (rows.isEmpty()) {
+            return rows;
+        }
+
+        try {
+            pictureRepository.insertAll(rows.stream().map(row -> row.picture).toList());
+            batchSize.record(rows.size());
+            rows.forEach(row -> settle(row, true));
+            return List.of();
+        } catch (RuntimeException e) {
+            log.warn("Batch insert of %d journaled pictures failed, retrying one by one".formatted(rows.size()), e);
+        }
+
+        List<Pending> failed = new ArrayList<>();
+        for (Pending row : rows) {
+            try {
+                pictureRepository.insertAll(List.of(row.picture));
+                batchSize.record(1);
+                settle(row, true);
+            } catch (DataIntegrityViolationException e) {
+                log.error("Dropping journaled picture with id [%s], the database rejects its row".formatted(row.picture.getId()), e);
+                // nothing references the written content, so it would be orphaned
+                try {
+                    pictureBlobService.release(row.picture);
+                } catch (RuntimeException releaseFailure) {
+                    log.warn("Could not discard content of picture with id [%s]".formatted(row.picture.getId()), releaseFailure);
+                }
+                settle(row, false);
+            } catch (RuntimeException e) {
+                failed.add(row);
+            }
+        }
+        return failed;
+    }
+
+    // a replayed row may have been inserted just before the process stopped
+    private List<Pending> withoutExisting(List<Pending> batch) {
+        Set<UUID> existing = pictureRepository.findAllById(batch.stream().map(row -> row.picture.getId()).toList())
+                .stream()
+                .map(Picture::getId)
+                .collect(Collectors.toSet());
+        List<Pending> rows = new ArrayList<>(batch.size());
+        for (Pending row : batch) {
+            if (existing.contains(row.picture.getId())) {
+                settle(row, false);
+            } else {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void settle(Pending row, boolean inserted) {
+        pending.remove(row.picture.getId());
+        journal.flushed(row.segment);
+        row.settled.complete(null);
+        if (inserted) {
+            // renditions are queued, never rendered on the inserting thread
+            eventPublisher.publishEvent(new PictureUploadedEvent(row.picture));
+        }
+    }
+
+    private static final class Pending {
+
+        private final Picture picture;
+        // read back from the journal at startup rather than written by this process
+        private final boolean recovered;
+        private final CompletableFuture<Void> journaled = new CompletableFuture<>();
+        private final CompletableFuture<Void> settled = new CompletableFuture<>();
+        // set by whichever comes first, the journal writer taking the row or its caller giving up on it
+        private final AtomicBoolean taken = new AtomicBoolean();
+        private volatile PictureJournal.Segment segment;
+
+        private Pending(Picture picture, boolean recovered) {
+            this.picture = picture;
+            this.recovered = recovered;
+        }
+    }
+}
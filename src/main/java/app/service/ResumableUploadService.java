@@ -0,0 +1,265 @@
+package app.service;
+
+import app.exception.IncompleteUploadException;
+import app.exception.InvalidPictureUploadException;
+import app.exception.PictureTooLargeException;
+import app.exception.UploadSessionNotFoundException;
+import app.model.Picture;
+import app.model.UploadSession;
+import app.repository.UploadSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// tus-style resumable uploads: create a session, write chunks at any offset, in any order and in parallel,
+// then finalize it into a Picture. Chunks go into a sparse staging file with positional writes.
+@Slf4j
+@Service
+public class ResumableUploadService {
+
+    private static final int CHUNK_BUFFER_SIZE = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path sessionLocation;
+    private final long maxLength;
+    private final int maxRanges;
+    private final Duration sessionTtl;
+    private final int sweepBatchSize;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final PictureService pictureService;
+    private final TransactionTemplate transactionTemplate;
+
+    // chunk writes share a session's lock, finalize and removal take it exclusively,
+    // so the staging file is never promoted or deleted under a write still in flight
+    private final ReadWriteLock[] sessionLocks = new ReadWriteLock[LOCK_STRIPES];
+
+    @Autowired
+    public ResumableUploadService(@Value("${file.resumable.dir:${file.upload.dir}/sessions}") String sessionDir,
+                                  @Value("${picture.resumable.max-length:2GB}") DataSize maxLength,
+                                  @Value("${picture.resumable.max-ranges:1000}") int maxRanges,
+                                  @Value("${picture.resumable.session-ttl:24h}") Duration sessionTtl,
+                                  @Value("${picture.resumable.sweep-batch-size:100}") int sweepBatchSize,
+                                  UploadSessionRepository uploadSessionRepository,
+                                  PictureService pictureService,
+                                  TransactionTemplate transactionTemplate) {
+        this.sessionLocation = Paths.get(sessionDir).toAbsolutePath().normalize();
+        this.maxLength = maxLength.toBytes();
+        this.maxRanges = maxRanges;
+        this.sessionTtl = sessionTtl;
+        this.sweepBatchSize = sweepBatchSize;
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.pictureService = pictureService;
+        this.transactionTemplate = transactionTemplate;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            sessionLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public UploadSession createSession(String originalFileName, String contentType, long length) {
+        if (length <= 0) {
+            throw new InvalidPictureUploadException("Upload length must be positive.");
+        }
+        if (length > maxLength) {
+            throw new PictureTooLargeException("Upload exceeds the limit of %d bytes.".formatted(maxLength));
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID())
+                .originalFileName(StringUtils.hasText(originalFileName) ? StringUtils.cleanPath(originalFileName) : "upload")
+                .type(StringUtils.hasText(contentType) ? contentType : "application/octet-stream")
+                .length(length)
+                .receivedRanges(UploadRanges.NONE)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+
+        try {
+            Files.createDirectories(sessionLocation);
+            Files.createFile(stagingFile(session.getId()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        uploadSessionRepository.save(session);
+        log.info("Created upload session with id [%s] for %d bytes".formatted(session.getId(), length));
+
+        return session;
+    }
+
+    public Optional<UploadSession> getSession(UUID sessionId) {
+        return uploadSessionRepository.findById(sessionId);
+    }
+
+    // writes the chunk at the given offset; the same range may be sent again after a failure
+    public UploadSession appendChunk(UUID sessionId, long offset, InputStream content) {
+        Lock lock = sessionLock(sessionId).readLock();
+        lock.lock();
+        try {
+            UploadSession session = findSession(sessionId);
+            if (offset < 0 || offset > session.getLength()) {
+                throw new InvalidPictureUploadException("Offset %d is outside the upload of %d bytes."
+                        .formatted(offset, session.getLength()));
+            }
+
+            long written = write(stagingFile(sessionId), offset, session.getLength() - offset, content);
+
+            return transactionTemplate.execute(status -> {
+                UploadSession locked = uploadSessionRepository.findForUpdate(sessionId)
+                        .orElseThrow(() -> notFound(sessionId));
+                String receivedRanges = UploadRanges.add(locked.getReceivedRanges(), offset, offset + written);
+                // every chunk rewrites the ranges under the row lock, so a client scattering tiny chunks
+                // must not grow them with the upload length
+                if (UploadRanges.count(receivedRanges) > maxRanges) {
+                    throw new InvalidPictureUploadException(("Chunk at offset %d would leave more than %d separate ranges; "
+                            + "send the chunks next to the ones already received.").formatted(offset, maxRanges));
+                }
+                locked.setReceivedRanges(receivedRanges);
+                locked.setUpdatedAt(LocalDateTime.now());
+                return locked;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // received offset for a resuming client: every byte before it is stored
+    public long receivedOffset(UploadSession session) {
+        return UploadRanges.contiguousPrefix(session.getReceivedRanges());
+    }
+
+    // promotes the complete staging file through the regular picture persistence path
+    public Picture finalizeSession(UUID sessionId) {
+        Lock lock = sessionLock(sessionId).writeLock();
+        lock.lock();
+        try {
+            UploadSession session = findSession(sessionId);
+            if (!UploadRanges.isComplete(session.getReceivedRanges(), session.getLength())) {
+                throw new IncompleteUploadException("Upload has %d of %d bytes."
+                        .formatted(receivedOffset(session), session.getLength()));
+            }
+
+            Picture picture;
+            try {
+                picture = pictureService.savePictureFileToStorage(
+                        stagingFile(sessionId), session.getOriginalFileName(), session.getType());
+            } catch (RuntimeException e) {
+                // once the staging file has been handed over the session cannot be resumed anymore
+                if (!Files.exists(stagingFile(sessionId))) {
+                    uploadSessionRepository.delete(session);
+                }
+                throw e;
+            }
+            uploadSessionRepository.delete(session);
+            log.info("Finalized upload session with id [%s] into picture with id [%s]".formatted(sessionId, picture.getId()));
+
+            return picture;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void abortSession(UUID sessionId) {
+        Lock lock = sessionLock(sessionId).writeLock();
+        lock.lock();
+        try {
+            remove(findSession(sessionId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // drops sessions nobody wrote to within the TTL, together with their staging files
+    @Scheduled(initialDelayString = "${picture.resumable.sweep-initial-delay:PT1M}",
+            fixedDelayString = "${picture.resumable.sweep-interval:PT15M}")
+    public void sweepAbandonedSessions() {
+        List<UploadSession> abandoned = uploadSessionRepository.findByUpdatedAtBefore(
+                LocalDateTime.now().minus(sessionTtl), PageRequest.of(0, sweepBatchSize));
+
+        for (UploadSession session : abandoned) {
+            Lock lock = sessionLock(session.getId()).writeLock();
+            // a session with a chunk in flight is not abandoned
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                remove(session);
+                log.info("Removed abandoned upload session with id [%s]".formatted(session.getId()));
+            } catch (RuntimeException e) {
+                log.warn("Could not remove abandoned upload session with id [%s]".formatted(session.getId()), e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void remove(UploadSession session) {
+        try {
+            Files.deleteIfExists(stagingFile(session.getId()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        uploadSessionRepository.delete(session);
+    }
+
+    // positional writes, so chunks of the same session never contend for a file pointer
+    private static long write(Path stagingFile, long offset, long remaining, InputStream content) {
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BUFFER_SIZE);
+            long position = offset;
+            int read;
+            while ((read = content.read(buffer.array())) != -1) {
+                if (position - offset + read > remaining) {
+                    throw new PictureTooLargeException("Chunk runs past the declared upload length.");
+                }
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            return position - offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private UploadSession findSession(UUID sessionId) {
+        return uploadSessionRepository.findById(sessionId).orElseThrow(() -> notFound(sessionId));
+    }
+
+    private Path stagingFile(UUID sessionId) {
+        return sessionLocation.resolve(sessionId + ".part");
+    }
+
+    private ReadWriteLock sessionLock(UUID sessionId) {
+        return sessionLocks[Math.floorMod(sessionId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static UploadSessionNotFoundException notFound(UUID sessionId) {
+        return new UploadSessionNotFoundException("Upload session with id [%s] not found".formatted(sessionId));
+    }
+}
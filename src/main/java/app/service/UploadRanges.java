@@ -0,0 +1,89 @@
+package app.service;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Sorted, merged byte ranges in the "start-end,start-end" form kept on an upload session; ends are exclusive
+@UtilityClass
+class UploadRanges {
+
+    static final String NONE = "";
+
+    static String add(String ranges, long start, long end) {
+        if (end <= start) {
+            return ranges;
+        }
+
+        List<long[]> merged = new ArrayList<>();
+        long[] added = {start, end};
+        boolean placed = false;
+        for (long[] range : parse(ranges)) {
+            if (range[1] < added[0]) {
+                merged.add(range);
+            } else if (range[0] > added[1]) {
+                if (!placed) {
+                    merged.add(added);
+                    placed = true;
+                }
+                merged.add(range);
+            } else {
+                // overlapping or touching, widen the new range
+                added[0] = Math.min(added[0], range[0]);
+                added[1] = Math.max(added[1], range[1]);
+            }
+        }
+        if (!placed) {
+            merged.add(added);
+        }
+
+        return format(merged);
+    }
+
+    static int count(String ranges) {
+        if (ranges == null || ranges.isEmpty()) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = 0; i < ranges.length(); i++) {
+            if (ranges.charAt(i) == ',') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // the offset up to which every byte has been received
+    static long contiguousPrefix(String ranges) {
+        List<long[]> parsed = parse(ranges);
+        return parsed.isEmpty() || parsed.get(0)[0] != 0 ? 0 : parsed.get(0)[1];
+    }
+
+    static boolean isComplete(String ranges, long length) {
+        return contiguousPrefix(ranges) >= length;
+    }
+
+    private static List<long[]> parse(String ranges) {
+        List<long[]> parsed = new ArrayList<>();
+        if (ranges == null || ranges.isEmpty()) {
+            return parsed;
+        }
+        for (String range : ranges.split(",")) {
+            int dash = range.indexOf('-');
+            parsed.add(new long[]{Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1))});
+        }
+        return parsed;
+    }
+
+    private static String format(List<long[]> ranges) {
+        StringBuilder formatted = new StringBuilder();
+        for (long[] range : ranges) {
+            if (!formatted.isEmpty()) {
+                formatted.append(',');
+            }
+            formatted.append(range[0]).append('-').append(range[1]);
+        }
+        return formatted.toString();
+    }
+}
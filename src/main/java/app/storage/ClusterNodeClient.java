@@ -0,0 +1,125 @@
+package app.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.OptionalLong;
+
+// The internal storage protocol of one peer: its own copies under /internal/storage/<key>, authenticated by the shared
+// cluster secret. A peer only ever answers from its local disk, it never forwards, so calls cannot loop.
+final class ClusterNodeClient {
+
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration TRANSFER_TIMEOUT = Duration.ofMinutes(5);
+
+    private final String nodeId;
+    private final URI baseUri;
+    private final String secret;
+    private final HttpClient httpClient;
+
+    ClusterNodeClient(String nodeId, URI baseUri, String secret, HttpClient httpClient) {
+        this.nodeId = nodeId;
+        this.baseUri = baseUri;
+        this.secret = secret;
+        this.httpClient = httpClient;
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+
+    long put(String key, Path file) throws IOException {
+        HttpRequest.Builder request = request(key, TRANSFER_TIMEOUT).PUT(HttpRequest.BodyPublishers.ofFile(file));
+        expectSuccess(send(request, HttpResponse.BodyHandlers.discarding()), key);
+        return Files.size(file);
+    }
+
+    // empty when the peer has no copy
+    OptionalLong size(String key) throws IOException {
+        HttpRequest.Builder request = request(key, PROBE_TIMEOUT).method("HEAD", HttpRequest.BodyPublishers.noBody());
+        HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return OptionalLong.empty();
+        }
+        expectSuccess(response, key);
+        return OptionalLong.of(response.headers().firstValueAsLong("Content-Length").orElseThrow());
+    }
+
+    InputStream openRange(String key, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        HttpRequest.Builder request = request(key, TRANSFER_TIMEOUT)
+                .header("Range", "bytes=%d-%d".formatted(offset, offset + length - 1))
+                .GET();
+        HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+        }
+        expectSuccess(response, key);
+        return response.body();
+    }
+
+    // true when the peer had a copy
+    boolean delete(String key) throws IOException {
+        HttpResponse<Void> response = send(request(key, PROBE_TIMEOUT).DELETE(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        expectSuccess(response, key);
+        return true;
+    }
+
+    void probe() throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(baseUri.resolve(StorageCluster.HEALTH_PATH))
+                .timeout(PROBE_TIMEOUT)
+                .header(StorageCluster.SECRET_HEADER, secret)
+                .GET();
+        HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IOException("Node [%s] answered %d to a health probe".formatted(nodeId, response.statusCode()));
+        }
+    }
+
+    private HttpRequest.Builder request(String key, Duration timeout) {
+        // keys are restricted to characters that need no escaping in a path
+        return HttpRequest.newBuilder(baseUri.resolve(StorageCluster.STORAGE_PATH + StorageKeys.validate(key)))
+                .timeout(timeout)
+                .header(StorageCluster.SECRET_HEADER, secret);
+    }
+
+    // every call made here is idempotent and a PUT body is published from a file, which can be read again;
+    // so one retry covers a pooled connection the peer already closed, and nothing else is retried
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+        HttpRequest httpRequest = request.build();
+        try {
+            try {
+                return httpClient.send(httpRequest, bodyHandler);
+            } catch (IOException e) {
+                if (!DroppedConnections.isDroppedConnection(e)) {
+                    throw e;
+                }
+                return httpClient.send(httpRequest, bodyHandler);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling node " + nodeId, e);
+        }
+    }
+
+    private void expectSuccess(HttpResponse<?> response, String key) throws IOException {
+        if (response.statusCode() == 404) {
+            throw new NoSuchFileException(key);
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Node [%s] answered %d for [%s]".formatted(nodeId, response.statusCode(), key));
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package app.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+// Picture storage spread over the nodes of a StorageCluster. A key is stored on the nodes the hash ring gives it,
+// written to all of them in parallel: put returns once write-quorum copies are stored, the others finish in the
+// background, and a copy that failed is made later by ClusterRebalancer. Reads go to the nearest node holding a copy.
+// Staging keys are uploads still being received; they stay on the receiving node until moved to their final key.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "cluster")
+public class ClusterPictureStorage implements PictureStorage {
+
+    private static final String LOCAL_ONLY_PREFIX = "staging/";
+
+    private final StorageCluster cluster;
+    private final ShardedFileSystemPictureStorage local;
+
+    @Autowired
+    public ClusterPictureStorage(StorageCluster cluster) {
+        this.cluster = cluster;
+        this.local = cluster.local();
+    }
+
+    // spooled first, every replica is written from the same file
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        if (isLocalOnly(key)) {
+            return local.put(key, content);
+        }
+
+        Path spoolFile = Files.createTempFile(cluster.spoolDirectory(), "put-", ".tmp");
+        try {
+            Files.copy(content, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+        return replicate(key, spoolFile);
+    }
+
+    @Override
+    public long putFile(String key, Path source) throws IOException {
+        if (isLocalOnly(key)) {
+            return local.putFile(key, source);
+        }
+        return replicate(key, spool(source));
+    }
+
+    @Override
+    public Resource open(String key) throws IOException {
+        if (isLocalOnly(key)) {
+            return local.open(key);
+        }
+
+        return read(key, new ReadAttempt<>() {
+
+            @Override
+            public Resource local() throws IOException {
+                return local.open(key);
+            }
+
+            @Override
+            public Resource remote(ClusterNodeClient client) throws IOException {
+                OptionalLong size = client.size(key);
+                if (size.isEmpty()) {
+                    throw new NoSuchFileException(key);
+                }
+                return new NodeResource(client, key, size.getAsLong());
+            }
+        });
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        if (isLocalOnly(key)) {
+            return local.openRange(key, offset, length);
+        }
+
+        return read(key, new ReadAttempt<>() {
+
+            @Override
+            public InputStream local() throws IOException {
+                return local.openRange(key, offset, length);
+            }
+
+            @Override
+            public InputStream remote(ClusterNodeClient client) throws IOException {
+                return client.openRange(key, offset, length);
+            }
+        });
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        try {
+            size(key);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        if (isLocalOnly(key)) {
+            return local.size(key);
+        }
+
+        return read(key, new ReadAttempt<>() {
+
+            @Override
+            public Long local() throws IOException {
+                return local.size(key);
+            }
+
+            @Override
+            public Long remote(ClusterNodeClient client) throws IOException {
+                return client.size(key).orElseThrow(() -> new NoSuchFileException(key));
+            }
+        });
+    }
+
+    // a finished upload moves from staging to its replicas without being read again
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        if (isLocalOnly(sourceKey) && isLocalOnly(targetKey)) {
+            local.move(sourceKey, targetKey);
+            return;
+        }
+
+        if (isLocalOnly(sourceKey)) {
+            Path source = local.resolve(sourceKey);
+            if (!Files.exists(source)) {
+                throw new NoSuchFileException(sourceKey);
+            }
+            replicate(targetKey, spool(source));
+            return;
+        }
+
+        try (InputStream content = open(sourceKey).getInputStream()) {
+            put(targetKey, content);
+        }
+        delete(sourceKey);
+    }
+
+    // from every node rather than the owners only, a copy left behind by a ring change goes as well;
+    // a node not answering keeps its copy, which the storage reconciler removes once the node is back
+    @Override
+    public boolean delete(String key) throws IOException {
+        if (isLocalOnly(key)) {
+            return local.delete(key);
+        }
+
+        boolean existed = local.delete(key);
+        List<CompletableFuture<Boolean>> deletes = new ArrayList<>();
+        for (String node : cluster.readOrder(key)) {
+            if (!cluster.isSelf(node)) {
+                deletes.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return cluster.client(node).delete(key);
+                    } catch (IOException e) {
+                        cluster.markFailed(node);
+                        log.warn("Could not delete [%s] from storage node [%s]".formatted(key, node), e);
+                        return false;
+                    }
+                }, cluster.executor()));
+            }
+        }
+        for (CompletableFuture<Boolean> delete : deletes) {
+            existed |= delete.join();
+        }
+        return existed;
+    }
+
+    // this node's copy only, the one read first; the replicas are intact and ClusterRebalancer copies one back
+    @Override
+    public void quarantine(String key, String quarantineKey) throws IOException {
+        local.move(key, quarantineKey);
+    }
+
+    // this node's own copies only; every node lists, and reconciles, what is on its own disk
+    @Override
+    public Stream<StorageEntry> list(String prefix) throws IOException {
+        return local.list(prefix);
+    }
+
+    // writes the spooled file to every owner of the key and returns once the write quorum is reached;
+    // the spool file is removed when the last write is done, which may be after this returns
+    private long replicate(String key, Path spoolFile) throws IOException {
+        long size = Files.size(spoolFile);
+        List<String> owners = cluster.owners(key);
+        int quorum = cluster.writeQuorum();
+        if (owners.size() < quorum) {
+            Files.deleteIfExists(spoolFile);
+            throw new IOException("Only %d storage nodes are up, %d copies of [%s] are needed".formatted(owners.size(), quorum, key));
+        }
+
+        AtomicInteger stored = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        CompletableFuture<Void> quorumReached = new CompletableFuture<>();
+        List<CompletableFuture<Void>> writes = new ArrayList<>(owners.size());
+        for (String owner : owners) {
+            writes.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (cluster.isSelf(owner)) {
+                        try (InputStream content = Files.newInputStream(spoolFile)) {
+                            local.put(key, content);
+                        }
+                    } else {
+                        cluster.client(owner).put(key, spoolFile);
+                    }
+                    if (stored.incrementAndGet() == quorum) {
+                        quorumReached.complete(null);
+                    }
+                } catch (IOException e) {
+                    if (!cluster.isSelf(owner)) {
+                        cluster.markFailed(owner);
+                    }
+                    failure.compareAndSet(null, e);
+                    // from here on the remaining writes cannot make up the quorum
+                    if (failed.incrementAndGet() == owners.size() - quorum + 1) {
+                        quorumReached.completeExceptionally(e);
+                    }
+                }
+            }, cluster.executor()));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).whenComplete((result, e) -> {
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException deleteFailure) {
+                log.warn("Could not delete spool file [%s]".formatted(spoolFile), deleteFailure);
+            }
+        });
+
+        try {
+            quorumReached.get();
+            return size;
+        } catch (ExecutionException e) {
+            // the copies that were stored have no row pointing at them, the storage reconciler removes them
+            throw new IOException("Stored %d of the %d copies of [%s] needed".formatted(stored.get(), quorum, key), failure.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while storing [%s]".formatted(key), e);
+        }
+    }
+
+    // the nearest node with a copy answers; NoSuchFileException only when every node says it has none
+    private <T> T read(String key, ReadAttempt<T> attempt) throws IOException {
+        IOException failure = null;
+        for (String node : cluster.readOrder(key)) {
+            try {
+                return cluster.isSelf(node) ? attempt.local() : attempt.remote(cluster.client(node));
+            } catch (NoSuchFileException e) {
+                // no copy on this node, try the next
+            } catch (IOException e) {
+                cluster.markFailed(node);
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        throw failure != null ? failure : new NoSuchFileException(key);
+    }
+
+    // takes the file over by a rename, or a copy when it is on another volume
+    private Path spool(Path source) throws IOException {
+        Path spoolFile = Files.createTempFile(cluster.spoolDirectory(), "put-", ".tmp");
+        try {
+            Files.move(source, spoolFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.copy(source, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(source);
+        } catch (IOException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+        return spoolFile;
+    }
+
+    private static boolean isLocalOnly(String key) {
+        return key.startsWith(LOCAL_ONLY_PREFIX);
+    }
+
+    private interface ReadAttempt<T> {
+
+        T local() throws IOException;
+
+        T remote(ClusterNodeClient client) throws IOException;
+    }
+
+    // length is known from the HEAD done in open(), the body is only fetched when it is read
+    private static final class NodeResource extends AbstractResource {
+
+        private final ClusterNodeClient client;
+        private final String key;
+        private final long contentLength;
+
+        private NodeResource(ClusterNodeClient client, String key, long contentLength) {
+            this.client = client;
+            this.key = key;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return client.openRange(key, 0, contentLength);
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Storage node [" + client.nodeId() + "] object [" + key + "]";
+        }
+    }
+}
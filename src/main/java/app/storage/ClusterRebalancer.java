@@ -0,0 +1,123 @@
+package app.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Streams copies to the nodes the ring says should hold them. A pass runs after the ring changes - a node was given up
+// on or came back - and every repair-interval regardless, which also completes keys whose write reached the quorum
+// but not every replica. A pass walks this node's own copies only; every node does the same for its own, so together
+// they cover every key. A copy this node no longer owns is deleted once every owner is confirmed to hold it.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "cluster")
+public class ClusterRebalancer {
+
+    // staging is never replicated, variants are kept by each node for itself
+    private static final List<String> PREFIXES = List.of("blobs", "pictures");
+
+    private final StorageCluster cluster;
+    private final ShardedFileSystemPictureStorage local;
+    private final Duration repairInterval;
+
+    // the ring the last complete pass balanced against, touched by the scheduler thread only
+    private long balancedVersion = -1;
+    private Instant lastPass = Instant.EPOCH;
+
+    @Autowired
+    public ClusterRebalancer(StorageCluster cluster,
+                             @Value("${file.storage.cluster.repair-interval:PT6H}") Duration repairInterval) {
+        this.cluster = cluster;
+        this.local = cluster.local();
+        this.repairInterval = repairInterval;
+    }
+
+    @Scheduled(initialDelayString = "${file.storage.cluster.rebalance-interval:PT1M}",
+            fixedDelayString = "${file.storage.cluster.rebalance-interval:PT1M}")
+    public void rebalance() {
+        long version = cluster.ringVersion();
+        if (version == balancedVersion && lastPass.plus(repairInterval).isAfter(Instant.now())) {
+            return;
+        }
+
+        if (pass(version)) {
+            balancedVersion = version;
+            lastPass = Instant.now();
+        }
+    }
+
+    // true when every copy is where it belongs; false when a node did not answer or the ring changed meanwhile,
+    // then the next run starts over
+    boolean pass(long version) {
+        long start = System.nanoTime();
+        int checked = 0;
+        int copied = 0;
+        int dropped = 0;
+        int failed = 0;
+
+        for (String prefix : PREFIXES) {
+            try (Stream<StorageEntry> entries = local.list(prefix)) {
+                Iterator<StorageEntry> iterator = entries.iterator();
+                while (iterator.hasNext()) {
+                    if (cluster.ringVersion() != version) {
+                        log.info("Storage ring changed during rebalancing, starting over");
+                        return false;
+                    }
+
+                    String key = iterator.next().getKey();
+                    checked++;
+                    boolean everyOwnerHasIt = true;
+                    List<String> owners = cluster.owners(key);
+                    for (String owner : owners) {
+                        if (cluster.isSelf(owner)) {
+                            continue;
+                        }
+                        try {
+                            ClusterNodeClient client = cluster.client(owner);
+                            if (client.size(key).isEmpty()) {
+                                client.put(key, local.resolve(key));
+                                copied++;
+                            }
+                        } catch (NoSuchFileException e) {
+                            // deleted here meanwhile, nothing left to copy
+                            everyOwnerHasIt = false;
+                        } catch (IOException e) {
+                            cluster.markFailed(owner);
+                            everyOwnerHasIt = false;
+                            failed++;
+                        }
+                    }
+
+                    if (!owners.contains(cluster.nodeId()) && everyOwnerHasIt) {
+                        try {
+                            local.delete(key);
+                            dropped++;
+                        } catch (IOException e) {
+                            log.warn("Could not drop the copy of [%s] this node no longer owns".formatted(key), e);
+                            failed++;
+                        }
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Could not rebalance [%s]".formatted(prefix), e);
+                failed++;
+            }
+        }
+
+        log.info("Rebalanced storage: %d copies checked, %d streamed to their owners, %d dropped, %d failed in %d ms"
+                .formatted(checked, copied, dropped, failed, (System.nanoTime() - start) / 1_000_000));
+        return failed == 0;
+    }
+}
@@ -0,0 +1,29 @@
+package app.storage;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.ClosedChannelException;
+
+@UtilityClass
+class DroppedConnections {
+
+    // a pooled connection the server closed while it sat idle fails on its first use: the response ends before its
+    // first byte, or the connection is reset. A timeout never counts, the call already waited as long as it may.
+    static boolean isDroppedConnection(IOException failure) {
+        if (failure instanceof HttpTimeoutException) {
+            return false;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EOFException || cause instanceof ClosedChannelException
+                    || (cause instanceof SocketException && !(cause instanceof ConnectException))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
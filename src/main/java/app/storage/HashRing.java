@@ -0,0 +1,70 @@
+package app.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Consistent hashing with virtual nodes: every node owns virtualNodes points on a 64-bit ring, and a key belongs to
+// the first distinct nodes found walking clockwise from its hash. A node joining or leaving only moves the keys
+// next to its own points, about 1/n of them, and those come from or go to all other nodes instead of one neighbour.
+public final class HashRing {
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // a colliding point keeps its first owner, decided by node order, so every instance builds the same ring
+                points.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    // the nodes holding the key, its primary first; fewer than count when the ring has fewer nodes
+    public List<String> nodesFor(String key, int count) {
+        int wanted = Math.min(count, nodes.size());
+        List<String> owners = new ArrayList<>(wanted);
+        if (wanted == 0) {
+            return owners;
+        }
+
+        long hash = hash(key);
+        for (Map<Long, String> part : List.of(points.tailMap(hash, true), points.headMap(hash, false))) {
+            for (String node : part.values()) {
+                if (!owners.contains(node)) {
+                    owners.add(node);
+                    if (owners.size() == wanted) {
+                        return owners;
+                    }
+                }
+            }
+        }
+        return owners;
+    }
+
+    // the first 8 bytes of an MD5 digest: evenly spread and the same on every JVM, unlike String.hashCode
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
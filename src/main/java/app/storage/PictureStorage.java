@@ -0,0 +1,50 @@
+package app.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+// Where picture bytes live. Keys are backend-neutral, '/'-separated names built by StorageKeys.
+public interface PictureStorage {
+
+    // stores the content under the key, readers only ever see the complete object; returns the bytes written
+    long put(String key, InputStream content) throws IOException;
+
+    // hands a finished local file over to the backend, which may take it by renaming; the source is gone afterwards
+    default long putFile(String key, Path source) throws IOException {
+        long size;
+        try (InputStream content = Files.newInputStream(source)) {
+            size = put(key, content);
+        }
+        Files.delete(source);
+        return size;
+    }
+
+    // a streamable handle on the object, NoSuchFileException when it does not exist
+    Resource open(String key) throws IOException;
+
+    // length bytes starting at offset, without reading what comes before
+    InputStream openRange(String key, long offset, long length) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    // renames within the backend, replacing the target
+    void move(String sourceKey, String targetKey) throws IOException;
+
+    // true when the object existed
+    boolean delete(String key) throws IOException;
+
+    // sets aside the copy that was just read and found corrupt; a backend keeping several copies moves only that one
+    default void quarantine(String key, String quarantineKey) throws IOException {
+        move(key, quarantineKey);
+    }
+
+    // every object below the prefix, read lazily while the stream is consumed; close the stream when done
+    Stream<StorageEntry> list(String prefix) throws IOException;
+}
@@ -0,0 +1,383 @@
+package app.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// S3-compatible object storage (AWS S3, MinIO, ...) over path-style URLs and SigV4 request signing
+@Component
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "s3")
+public class S3PictureStorage implements PictureStorage {
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final DateTimeFormatter AMZ_DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final Duration requestTimeout;
+    private final HttpClient httpClient;
+
+    @Autowired
+    public S3PictureStorage(@Value("${file.storage.s3.endpoint}") String endpoint,
+                            @Value("${file.storage.s3.bucket}") String bucket,
+                            @Value("${file.storage.s3.region:us-east-1}") String region,
+                            @Value("${file.storage.s3.access-key}") String accessKey,
+                            @Value("${file.storage.s3.secret-key}") String secretKey,
+                            @Value("${file.storage.s3.request-timeout:PT5M}") Duration requestTimeout) {
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.bucket = bucket;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    // S3 needs the length up front, so the content is spooled to a local temp file first
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        Path spoolFile = Files.createTempFile("s3-put-", ".tmp");
+        try {
+            long size = Files.copy(content, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+            HttpRequest.Builder request = signedRequest("PUT", key, Map.of())
+                    .PUT(HttpRequest.BodyPublishers.ofFile(spoolFile));
+            expectSuccess(send(request, HttpResponse.BodyHandlers.discarding()), key);
+            return size;
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    @Override
+    public Resource open(String key) throws IOException {
+        return new S3ObjectResource(key, size(key));
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        HttpRequest.Builder request = signedRequest("GET", key, Map.of())
+                .header("Range", "bytes=%d-%d".formatted(offset, offset + length - 1))
+                .GET();
+        return bodyOf(send(request, HttpResponse.BodyHandlers.ofInputStream()), key);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        HttpResponse<Void> response = send(head(key), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        expectSuccess(response, key);
+        return true;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        HttpResponse<Void> response = send(head(key), HttpResponse.BodyHandlers.discarding());
+        expectSuccess(response, key);
+        return response.headers().firstValueAsLong("Content-Length").orElseThrow();
+    }
+
+    // server-side copy, the bytes never pass through this service
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        HttpRequest.Builder copy = signedRequest("PUT", targetKey,
+                Map.of("x-amz-copy-source", "/" + bucket + "/" + encodePath(StorageKeys.validate(sourceKey))))
+                .PUT(HttpRequest.BodyPublishers.noBody());
+        expectSuccess(send(copy, HttpResponse.BodyHandlers.discarding()), sourceKey);
+        delete(sourceKey);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean existed = exists(key);
+        HttpRequest.Builder request = signedRequest("DELETE", key, Map.of()).DELETE();
+        expectSuccess(send(request, HttpResponse.BodyHandlers.discarding()), key);
+        return existed;
+    }
+
+    // ListObjectsV2, a page of keys fetched whenever the previous one is used up
+    @Override
+    public Stream<StorageEntry> list(String prefix) throws IOException {
+        String keyPrefix = StorageKeys.validate(prefix) + "/";
+        ListPage first = listPage(keyPrefix, null);
+
+        Iterator<StorageEntry> entries = new Iterator<>() {
+
+            private ListPage page = first;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                while (index == page.entries().size() && page.nextToken() != null) {
+                    try {
+                        page = listPage(keyPrefix, page.nextToken());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    index = 0;
+                }
+                return index < page.entries().size();
+            }
+
+            @Override
+            public StorageEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.entries().get(index++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private ListPage listPage(String keyPrefix, String continuationToken) throws IOException {
+        Map<String, String> query = new TreeMap<>();
+        query.put("list-type", "2");
+        query.put("prefix", keyPrefix);
+        if (continuationToken != null) {
+            query.put("continuation-token", continuationToken);
+        }
+        StringBuilder canonicalQuery = new StringBuilder();
+        query.forEach((name, value) -> {
+            if (!canonicalQuery.isEmpty()) {
+                canonicalQuery.append('&');
+            }
+            canonicalQuery.append(encodeQueryValue(name)).append('=').append(encodeQueryValue(value));
+        });
+
+        HttpRequest.Builder request = signedRequest("GET", "/" + bucket, canonicalQuery.toString(), Map.of()).GET();
+        try (InputStream body = bodyOf(send(request, HttpResponse.BodyHandlers.ofInputStream()), keyPrefix)) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = factory.newDocumentBuilder().parse(body);
+
+            List<StorageEntry> entries = new ArrayList<>();
+            NodeList contents = document.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element object = (Element) contents.item(i);
+                entries.add(new StorageEntry(text(object, "Key"), Long.parseLong(text(object, "Size")),
+                        Instant.parse(text(object, "LastModified"))));
+            }
+            boolean truncated = "true".equals(text(document.getDocumentElement(), "IsTruncated"));
+            return new ListPage(entries, truncated ? text(document.getDocumentElement(), "NextContinuationToken") : null);
+        } catch (ParserConfigurationException | SAXException | RuntimeException e) {
+            throw new IOException("Could not read the listing of [%s]".formatted(keyPrefix), e);
+        }
+    }
+
+    private static String text(Element parent, String name) {
+        NodeList nodes = parent.getElementsByTagName(name);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+
+    private HttpRequest.Builder head(String key) {
+        return signedRequest("HEAD", key, Map.of()).method("HEAD", HttpRequest.BodyPublishers.noBody());
+    }
+
+    // every call made here is idempotent, and a PUT body is published from its spool file, which can be read again;
+    // so one retry covers a pooled connection the server already closed, and nothing else is retried
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+        HttpRequest httpRequest = request.build();
+        try {
+            try {
+                return httpClient.send(httpRequest, bodyHandler);
+            } catch (IOException e) {
+                if (!DroppedConnections.isDroppedConnection(e)) {
+                    throw e;
+                }
+                return httpClient.send(httpRequest, bodyHandler);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling object storage", e);
+        }
+    }
+
+    private InputStream bodyOf(HttpResponse<InputStream> response, String key) throws IOException {
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+        }
+        expectSuccess(response, key);
+        return response.body();
+    }
+
+    private static void expectSuccess(HttpResponse<?> response, String key) throws IOException {
+        if (response.statusCode() == 404) {
+            throw new NoSuchFileException(key);
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Object storage answered %d for [%s]".formatted(response.statusCode(), key));
+        }
+    }
+
+    private HttpRequest.Builder signedRequest(String method, String key, Map<String, String> extraHeaders) {
+        return signedRequest(method, "/" + bucket + "/" + encodePath(StorageKeys.validate(key)), "", extraHeaders);
+    }
+
+    // AWS Signature Version 4 with an unsigned payload, so bodies are streamed instead of hashed up front
+    private HttpRequest.Builder signedRequest(String method, String canonicalUri, String canonicalQuery,
+                                              Map<String, String> extraHeaders) {
+        URI uri = URI.create(endpoint + canonicalUri + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String scope = AMZ_DAY.format(now) + "/" + region + "/s3/aws4_request";
+
+        Map<String, String> signedHeaders = new TreeMap<>(extraHeaders);
+        signedHeaders.put("host", uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        signedHeaders.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+        signedHeaders.put("x-amz-date", amzDate);
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        signedHeaders.forEach((name, value) -> canonicalHeaders.append(name).append(':').append(value.trim()).append('\n'));
+        String signedHeaderNames = String.join(";", signedHeaders.keySet());
+
+        String canonicalRequest = String.join("\n",
+                method, canonicalUri, canonicalQuery, canonicalHeaders.toString(), signedHeaderNames, UNSIGNED_PAYLOAD);
+        String stringToSign = String.join("\n",
+                "AWS4-HMAC-SHA256", amzDate, scope, hex(sha256(canonicalRequest)));
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), AMZ_DAY.format(now));
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=%s/%s, SignedHeaders=%s, Signature=%s"
+                        .formatted(accessKey, scope, signedHeaderNames, signature));
+        signedHeaders.forEach((name, value) -> {
+            if (!"host".equals(name)) {
+                builder.header(name, value);
+            }
+        });
+        return builder;
+    }
+
+    private static String encodePath(String key) {
+        StringBuilder encoded = new StringBuilder();
+        for (String segment : key.split("/")) {
+            if (!encoded.isEmpty()) {
+                encoded.append('/');
+            }
+            encoded.append(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return encoded.toString();
+    }
+
+    // RFC 3986 as SigV4 wants it: everything but the unreserved characters percent-encoded
+    private static String encodeQueryValue(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private record ListPage(List<StorageEntry> entries, String nextToken) {
+    }
+
+    // length is known from the HEAD done in open(), the body is only fetched when it is read
+    private final class S3ObjectResource extends AbstractResource {
+
+        private final String key;
+        private final long contentLength;
+
+        private S3ObjectResource(String key, long contentLength) {
+            this.key = key;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return openRange(key, 0, contentLength);
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            return "S3 object [" + bucket + "/" + key + "]";
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package app.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+// Local disk layout: "blobs/abcdef..." is stored as blobs/ab/cd/abcdef..., so no directory grows past 65536 entries
+@Component
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "filesystem", matchIfMissing = true)
+public class ShardedFileSystemPictureStorage implements PictureStorage {
+
+    private final Path storageLocation;
+
+    @Autowired
+    public ShardedFileSystemPictureStorage(@Value("${file.upload.dir}") String fileUploadDir) {
+        this.storageLocation = Paths.get(fileUploadDir).toAbsolutePath().normalize();
+    }
+
+    // written next to the target, forced to disk and only then renamed into place,
+    // so after a crash the key holds either nothing or the complete content, never a truncated file
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(target.getParent(), ".put-", ".tmp");
+
+        try {
+            long size;
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                size = content.transferTo(Channels.newOutputStream(channel));
+                channel.force(false);
+            }
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return size;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public Resource open(String key) throws IOException {
+        Path path = resolve(key);
+        if (!Files.isReadable(path)) {
+            throw new NoSuchFileException(key);
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public InputStream openRange(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    // a rename when the file is on the same volume, a copy otherwise
+    @Override
+    public long putFile(String key, Path source) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        long size = Files.size(source);
+
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return size;
+        } catch (AtomicMoveNotSupportedException e) {
+            return PictureStorage.super.putFile(key, source);
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public void move(String sourceKey, String targetKey) throws IOException {
+        Path target = resolve(targetKey);
+        Files.createDirectories(target.getParent());
+        Files.move(resolve(sourceKey), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    // a depth-first walk over directory streams, nothing is collected up front; in-progress ".put-" files are skipped
+    @Override
+    public Stream<StorageEntry> list(String prefix) throws IOException {
+        Path directory = storageLocation.resolve(StorageKeys.validate(prefix));
+        if (!Files.isDirectory(directory)) {
+            return Stream.empty();
+        }
+
+        return Files.find(directory, Integer.MAX_VALUE,
+                        (path, attributes) -> attributes.isRegularFile() && !path.getFileName().toString().startsWith("."))
+                .map(path -> entry(prefix, path))
+                .filter(Objects::nonNull);
+    }
+
+    Path resolve(String key) {
+        String[] segments = StorageKeys.validate(key).split("/");
+        String name = segments[segments.length - 1];
+
+        Path directory = storageLocation;
+        for (int i = 0; i < segments.length - 1; i++) {
+            directory = directory.resolve(segments[i]);
+        }
+        if (name.length() >= 4) {
+            directory = directory.resolve(name.substring(0, 2)).resolve(name.substring(2, 4));
+        }
+        return directory.resolve(name);
+    }
+
+    // null when the file went away between being listed and being looked at
+    private static StorageEntry entry(String prefix, Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new StorageEntry(prefix + "/" + path.getFileName(), attributes.size(),
+                    attributes.lastModifiedTime().toInstant());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read();
+            if (read >= 0) {
+                remaining--;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
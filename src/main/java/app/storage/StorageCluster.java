@@ -0,0 +1,258 @@
+package app.storage;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Membership of the storage cluster (file.storage.backend=cluster). Every node is listed in file.storage.cluster.nodes
+// with the base URL its peers reach it on, and keeps its own copies below file.upload.dir like a single instance.
+// Peers are probed every probe-interval: one that stops answering is read from last, and after failure-timeout it is
+// taken off the ring, so its keys get new owners and ClusterRebalancer copies them there. Once it answers again it is
+// put back on the ring and gets its keys back the same way.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "cluster")
+public class StorageCluster {
+
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+    static final String STORAGE_PATH = "/internal/storage/";
+    static final String HEALTH_PATH = "/internal/cluster/health";
+
+    // weight of the newest probe in the smoothed latency
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final String nodeId;
+    private final ShardedFileSystemPictureStorage local;
+    private final Path spoolDirectory;
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+    private final int replication;
+    private final int writeQuorum;
+    private final int virtualNodes;
+    private final Duration failureTimeout;
+    private final byte[] secret;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong ringVersion = new AtomicLong();
+    private volatile HashRing ring;
+
+    @Autowired
+    public StorageCluster(@Value("${file.upload.dir}") String fileUploadDir,
+                          @Value("${file.storage.cluster.node-id}") String nodeId,
+                          @Value("${file.storage.cluster.nodes}") List<String> nodes,
+                          @Value("${file.storage.cluster.secret}") String secret,
+                          @Value("${file.storage.cluster.replication:3}") int replication,
+                          @Value("${file.storage.cluster.write-quorum:0}") int writeQuorum,
+                          @Value("${file.storage.cluster.virtual-nodes:128}") int virtualNodes,
+                          @Value("${file.storage.cluster.failure-timeout:PT1M}") Duration failureTimeout,
+                          @Value("${file.storage.cluster.transfer-threads:16}") int transferThreads) {
+        if (!StringUtils.hasText(secret)) {
+            throw new IllegalArgumentException("file.storage.cluster.secret must be set, peers authenticate with it");
+        }
+        this.nodeId = nodeId;
+        this.local = new ShardedFileSystemPictureStorage(fileUploadDir);
+        this.replication = replication;
+        // a majority of the replicas unless configured
+        this.writeQuorum = writeQuorum > 0 ? writeQuorum : replication / 2 + 1;
+        this.virtualNodes = virtualNodes;
+        this.failureTimeout = failureTimeout;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        if (this.writeQuorum > replication) {
+            throw new IllegalArgumentException("file.storage.cluster.write-quorum cannot exceed the replication");
+        }
+
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        for (String node : nodes) {
+            int separator = node.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Cluster node [%s] is not written as id=url".formatted(node));
+            }
+            String id = node.substring(0, separator).trim();
+            URI uri = URI.create(node.substring(separator + 1).trim());
+            if (!id.equals(nodeId)) {
+                peers.put(id, new Peer(new ClusterNodeClient(id, uri, secret, httpClient)));
+            }
+        }
+        if (peers.size() == nodes.size()) {
+            throw new IllegalArgumentException("This node [%s] is not one of file.storage.cluster.nodes".formatted(nodeId));
+        }
+
+        // a copy is spooled here while its replicas are written, on the same volume so taking over a file is a rename
+        this.spoolDirectory = Paths.get(fileUploadDir).toAbsolutePath().normalize().resolve(".cluster-spool");
+        try {
+            FileSystemUtils.deleteRecursively(spoolDirectory);
+            Files.createDirectories(spoolDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.executor = new ThreadPoolExecutor(transferThreads, transferThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(transferThreads * 16), new CustomizableThreadFactory("cluster-io-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        // every configured node starts on the ring, so nodes starting one after the other do not shuffle keys around
+        this.ring = new HashRing(allNodes(), virtualNodes);
+        log.info("Storage cluster node [%s] with peers %s, %d replicas, write quorum %d"
+                .formatted(nodeId, peers.keySet(), replication, this.writeQuorum));
+    }
+
+    @Scheduled(fixedDelayString = "${file.storage.cluster.probe-interval:PT5S}")
+    public void probePeers() {
+        for (Peer peer : peers.values()) {
+            long start = System.nanoTime();
+            try {
+                peer.client.probe();
+                double latency = (System.nanoTime() - start) / 1_000_000.0;
+                peer.latencyMillis = peer.failingSince == null && peer.latencyMillis > 0
+                        ? peer.latencyMillis + LATENCY_WEIGHT * (latency - peer.latencyMillis)
+                        : latency;
+                if (peer.failingSince != null) {
+                    log.info("Storage node [%s] answers again".formatted(peer.client.nodeId()));
+                }
+                peer.failingSince = null;
+            } catch (IOException e) {
+                markFailed(peer.client.nodeId());
+            }
+        }
+        updateRing();
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    // this node's own copies, what its peers are served from
+    public ShardedFileSystemPictureStorage local() {
+        return local;
+    }
+
+    public boolean authorized(String presentedSecret) {
+        return presentedSecret != null
+                && MessageDigest.isEqual(secret, presentedSecret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // changes whenever a node is taken off or put back on the ring
+    long ringVersion() {
+        return ringVersion.get();
+    }
+
+    // the nodes that should hold the key, its primary first
+    List<String> owners(String key) {
+        return ring.nodesFor(key, replication);
+    }
+
+    // where to look for a copy, nearest first: the owners, then every other node, which may still hold a copy
+    // from before the last ring change
+    List<String> readOrder(String key) {
+        List<String> owners = new ArrayList<>(owners(key));
+        owners.sort(nearestFirst());
+        List<String> others = new ArrayList<>(allNodes());
+        others.removeAll(owners);
+        others.sort(nearestFirst());
+        owners.addAll(others);
+        return owners;
+    }
+
+    int writeQuorum() {
+        return writeQuorum;
+    }
+
+    boolean isSelf(String node) {
+        return nodeId.equals(node);
+    }
+
+    ClusterNodeClient client(String node) {
+        return peers.get(node).client;
+    }
+
+    Path spoolDirectory() {
+        return spoolDirectory;
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    // a call to the node failed; it is read from last until a probe gets an answer again
+    void markFailed(String node) {
+        Peer peer = peers.get(node);
+        if (peer != null && peer.failingSince == null) {
+            peer.failingSince = Instant.now();
+            log.warn("Storage node [%s] does not answer".formatted(node));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void updateRing() {
+        Instant givenUpBefore = Instant.now().minus(failureTimeout);
+        Set<String> live = new TreeSet<>();
+        live.add(nodeId);
+        peers.forEach((id, peer) -> {
+            Instant failingSince = peer.failingSince;
+            if (failingSince == null || failingSince.isAfter(givenUpBefore)) {
+                live.add(id);
+            }
+        });
+
+        if (!live.equals(ring.nodes())) {
+            log.warn("Storage ring changes from %s to %s".formatted(ring.nodes(), live));
+            ring = new HashRing(live, virtualNodes);
+            ringVersion.incrementAndGet();
+        }
+    }
+
+    // this node, then answering peers by their smoothed probe latency, then the ones not answering
+    private Comparator<String> nearestFirst() {
+        return Comparator.<String>comparingInt(node -> isSelf(node) ? 0 : peers.get(node).failingSince == null ? 1 : 2)
+                .thenComparingDouble(node -> isSelf(node) ? 0 : peers.get(node).latencyMillis);
+    }
+
+    private Set<String> allNodes() {
+        Set<String> nodes = new TreeSet<>(peers.keySet());
+        nodes.add(nodeId);
+        return nodes;
+    }
+
+    private static final class Peer {
+
+        private final ClusterNodeClient client;
+        private volatile Instant failingSince;
+        private volatile double latencyMillis;
+
+        private Peer(ClusterNodeClient client) {
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package app.storage;
+
+import lombok.Value;
+
+import java.time.Instant;
+
+// one stored object as seen by a listing
+@Value
+public class StorageEntry {
+
+    String key;
+
+    long size;
+
+    Instant lastModified;
+}
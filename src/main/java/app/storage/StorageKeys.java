@@ -0,0 +1,41 @@
+package app.storage;
+
+import lombok.experimental.UtilityClass;
+
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+@UtilityClass
+public class StorageKeys {
+
+    private static final Pattern VALID_KEY = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*(/[A-Za-z0-9_-][A-Za-z0-9._-]*)*");
+
+    // deduplicated content, shared by every picture with this digest
+    public static String blobKey(String contentHash) {
+        return "blobs/" + contentHash;
+    }
+
+    // content owned by a single picture
+    public static String pictureKey(UUID pictureId) {
+        return "pictures/" + pictureId;
+    }
+
+    // an upload still being received
+    public static String stagingKey(UUID uploadId) {
+        return "staging/" + uploadId;
+    }
+
+    // absolute paths were stored before the storage backend existed, PictureStorageMigration turns them into keys
+    public static boolean isLegacyFilePath(String filePath) {
+        return Paths.get(filePath).isAbsolute();
+    }
+
+    // keys never contain "..", empty segments or characters a backend would have to escape
+    public static String validate(String key) {
+        if (key == null || !VALID_KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid storage key [%s]".formatted(key));
+        }
+        return key;
+    }
+}
@@ -0,0 +1,90 @@
+package app.web;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A concurrency limit that follows storage latency, gradient-style: every interval the mean latency of each storage
+// operation is compared with its long-run baseline. While latency stays within tolerance of the baseline the limit
+// grows by about its square root; once it climbs past, the limit shrinks in proportion, down to half per interval.
+// Taking a slot is a CAS on the in-flight count; the limit is only written by the thread calling adjust.
+final class AdaptiveConcurrencyLimit {
+
+    // weight of the newest interval in the baseline, small so a slow build-up of latency still shows as a rise
+    private static final double BASELINE_WEIGHT = 0.05;
+    // weight of the computed limit in the one applied, so a single noisy interval does not swing it
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // most requests in flight at once since the last adjust
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final Map<String, Double> baselines = new HashMap<>();
+    private double estimatedLimit;
+    private volatile int limit;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.estimatedLimit = clamp(initialLimit);
+        this.limit = (int) estimatedLimit;
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                peakInFlight.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    // the mean latency in nanos of each storage operation that ran during the interval; one caller at a time
+    void adjust(Map<String, Double> meanLatencies) {
+        int peak = peakInFlight.getAndSet(inFlight.get());
+        if (meanLatencies.isEmpty()) {
+            return;
+        }
+
+        double gradient = 1.0;
+        for (Map.Entry<String, Double> sample : meanLatencies.entrySet()) {
+            double latency = sample.getValue();
+            double baseline = baselines.merge(sample.getKey(), latency,
+                    (previous, current) -> previous + BASELINE_WEIGHT * (current - previous));
+            gradient = Math.min(gradient, Math.max(MIN_GRADIENT, tolerance * baseline / latency));
+        }
+
+        // latency is fine but the limit was not reached either: it proved nothing, so it does not grow
+        if (gradient == 1.0 && peak < limit / 2) {
+            return;
+        }
+
+        double computed = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = clamp(estimatedLimit * (1 - SMOOTHING) + computed * SMOOTHING);
+        limit = (int) estimatedLimit;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
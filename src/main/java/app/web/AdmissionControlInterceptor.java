@@ -0,0 +1,197 @@
+package app.web;
+
+import app.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Admission control for uploads and views, checked before the handler runs and rejected at once with a 429:
+// a request rate per client, a shared bandwidth budget for each direction, and a concurrency limit that follows
+// storage latency. Each check is a CAS on its own counter, so nothing is serialized across request threads.
+// A zero rate or bandwidth turns that check off.
+@Component
+public class AdmissionControlInterceptor implements HandlerInterceptor {
+
+    // bytes a handler streamed without a Content-Length, charged to the egress budget instead
+    public static final String BYTES_SENT_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".bytesSent";
+    private static final String ADMITTED_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".admitted";
+    private static final List<String> LATENCY_OPERATIONS = List.of("put", "open", "open-range");
+
+    private final double clientRate;
+    private final double clientBurst;
+    private final String clientHeader;
+    private final TokenBucket ingestBudget;
+    private final TokenBucket egressBudget;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final Duration adjustInterval;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+    // storage timer totals at the last adjust, count and nanos per operation
+    private final Map<String, long[]> lastLatencyTotals = new HashMap<>();
+
+    @Autowired
+    public AdmissionControlInterceptor(@Value("${picture.admission.client-rate:50}") double clientRate,
+                                       @Value("${picture.admission.client-burst:100}") double clientBurst,
+                                       @Value("${picture.admission.client-header:}") String clientHeader,
+                                       @Value("${picture.admission.ingest-bandwidth:0}") DataSize ingestBandwidth,
+                                       @Value("${picture.admission.egress-bandwidth:0}") DataSize egressBandwidth,
+                                       @Value("${picture.admission.bandwidth-burst:PT2S}") Duration bandwidthBurst,
+                                       @Value("${picture.admission.initial-concurrency:64}") int initialConcurrency,
+                                       @Value("${picture.admission.min-concurrency:8}") int minConcurrency,
+                                       @Value("${picture.admission.max-concurrency:512}") int maxConcurrency,
+                                       @Value("${picture.admission.latency-tolerance:2.0}") double latencyTolerance,
+                                       @Value("${picture.admission.adjust-interval:PT1S}") Duration adjustInterval,
+                                       ObjectProvider<MeterRegistry> meterRegistry) {
+        long now = System.nanoTime();
+        this.clientRate = clientRate;
+        this.clientBurst = Math.max(1, clientBurst);
+        this.clientHeader = clientHeader;
+        this.ingestBudget = bandwidthBudget(ingestBandwidth, bandwidthBurst, now);
+        this.egressBudget = bandwidthBudget(egressBandwidth, bandwidthBurst, now);
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(initialConcurrency, minConcurrency, maxConcurrency, latencyTolerance);
+        this.adjustInterval = adjustInterval;
+        this.meterRegistry = meterRegistry.getIfAvailable();
+
+        if (this.meterRegistry != null) {
+            Gauge.builder("picture.admission.concurrency.limit", concurrencyLimit, AdaptiveConcurrencyLimit::limit)
+                    .description("Uploads and views admitted at once, adapted to storage latency")
+                    .register(this.meterRegistry);
+            Gauge.builder("picture.admission.concurrency.active", concurrencyLimit, AdaptiveConcurrencyLimit::inFlight)
+                    .description("Uploads and views being handled")
+                    .register(this.meterRegistry);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // the async dispatch of a streamed response runs this again for a request already admitted
+        if (request.getAttribute(ADMITTED_ATTRIBUTE) != null) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        TokenBucket clientBucket = null;
+        if (clientRate > 0) {
+            clientBucket = clientBuckets.computeIfAbsent(clientKey(request), key -> new TokenBucket(clientRate, clientBurst, now));
+            long wait = clientBucket.tryTake(1, now);
+            if (wait > 0) {
+                throw new TooManyRequestsException("Too many requests from this client. Please slow down!", Duration.ofNanos(wait));
+            }
+        }
+
+        // an upload is charged its declared length up front; a view is charged what it sent once done,
+        // and waits here while an earlier view has left the budget in debt
+        boolean ingest = !HttpMethod.GET.matches(request.getMethod()) && !HttpMethod.HEAD.matches(request.getMethod());
+        TokenBucket budget = ingest ? ingestBudget : egressBudget;
+        long bytes = ingest ? Math.max(0, request.getContentLengthLong()) : 0;
+        if (budget != null) {
+            long wait = budget.tryTake(bytes, now);
+            if (wait > 0) {
+                refund(clientBucket, 1);
+                throw new TooManyRequestsException("Transfer bandwidth is exhausted. Please try again!", Duration.ofNanos(wait));
+            }
+        }
+
+        // a refused request is not served, so it gives back what the checks above took
+        if (!concurrencyLimit.tryAcquire()) {
+            refund(clientBucket, 1);
+            refund(budget, bytes);
+            throw new TooManyRequestsException("Storage is saturated. Please try again!", adjustInterval);
+        }
+        request.setAttribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(ADMITTED_ATTRIBUTE) == null) {
+            return;
+        }
+        request.removeAttribute(ADMITTED_ATTRIBUTE);
+        concurrencyLimit.release();
+
+        String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (egressBudget != null && HttpMethod.GET.matches(request.getMethod())) {
+            if (request.getAttribute(BYTES_SENT_ATTRIBUTE) instanceof Long bytesSent) {
+                egressBudget.charge(bytesSent, System.nanoTime());
+            } else if (contentLength != null) {
+                egressBudget.charge(Long.parseLong(contentLength), System.nanoTime());
+            }
+        }
+    }
+
+    private static void refund(TokenBucket bucket, long tokens) {
+        if (bucket != null) {
+            bucket.refund(tokens);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${picture.admission.adjust-interval:PT1S}")
+    public void adjust() {
+        concurrencyLimit.adjust(storageLatencies());
+
+        // a full bucket is what a new client starts with, so dropping it forgets nothing
+        long now = System.nanoTime();
+        clientBuckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    // the mean latency of each storage operation since the last call, from the timers MeteredPictureStorage keeps
+    private Map<String, Double> storageLatencies() {
+        Map<String, Double> latencies = new HashMap<>();
+        if (meterRegistry == null) {
+            return latencies;
+        }
+
+        for (String operation : LATENCY_OPERATIONS) {
+            long count = 0;
+            long totalNanos = 0;
+            for (Timer timer : meterRegistry.find("picture.storage.latency").tag("operation", operation).timers()) {
+                count += timer.count();
+                totalNanos += (long) timer.totalTime(TimeUnit.NANOSECONDS);
+            }
+
+            long[] last = lastLatencyTotals.put(operation, new long[]{count, totalNanos});
+            if (last != null && count > last[0]) {
+                latencies.put(operation, (double) (totalNanos - last[1]) / (count - last[0]));
+            }
+        }
+        return latencies;
+    }
+
+    // the configured header when a proxy or gateway identifies the client, the peer address otherwise
+    private String clientKey(HttpServletRequest request) {
+        if (StringUtils.hasText(clientHeader)) {
+            String client = request.getHeader(clientHeader);
+            if (StringUtils.hasText(client)) {
+                return client;
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static TokenBucket bandwidthBudget(DataSize bytesPerSecond, Duration burst, long now) {
+        if (bytesPerSecond.toBytes() <= 0) {
+            return null;
+        }
+        return new TokenBucket(bytesPerSecond.toBytes(), bytesPerSecond.toBytes() * (burst.toNanos() / 1e9), now);
+    }
+}
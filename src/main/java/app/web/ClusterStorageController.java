@@ -0,0 +1,81 @@
+package app.web;
+
+import app.storage.StorageCluster;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+
+// Peer-to-peer endpoints of the cluster storage backend, answered from this node's own disk only.
+// GET serves Range requests and HEAD as well; every call needs the shared cluster secret.
+@RestController
+@RequestMapping("internal")
+@ConditionalOnProperty(name = "file.storage.backend", havingValue = "cluster")
+public class ClusterStorageController {
+
+    private final StorageCluster storageCluster;
+
+    @Autowired
+    public ClusterStorageController(StorageCluster storageCluster) {
+        this.storageCluster = storageCluster;
+    }
+
+    @GetMapping("/cluster/health")
+    public ResponseEntity<String> health(@RequestHeader(value = StorageCluster.SECRET_HEADER, required = false) String secret) {
+        if (!storageCluster.authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(storageCluster.nodeId());
+    }
+
+    @PutMapping("/storage/{*key}")
+    public ResponseEntity<Void> put(@PathVariable String key,
+                                    @RequestHeader(value = StorageCluster.SECRET_HEADER, required = false) String secret,
+                                    HttpServletRequest request) throws IOException {
+        if (!storageCluster.authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        storageCluster.local().put(storageKey(key), request.getInputStream());
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/storage/{*key}")
+    public ResponseEntity<Resource> get(@PathVariable String key,
+                                        @RequestHeader(value = StorageCluster.SECRET_HEADER, required = false) String secret)
+            throws IOException {
+        if (!storageCluster.authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(storageCluster.local().open(storageKey(key)));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @DeleteMapping("/storage/{*key}")
+    public ResponseEntity<Void> delete(@PathVariable String key,
+                                       @RequestHeader(value = StorageCluster.SECRET_HEADER, required = false) String secret)
+            throws IOException {
+        if (!storageCluster.authorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return storageCluster.local().delete(storageKey(key))
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    // {*key} captures the rest of the path with its leading slash
+    private static String storageKey(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+}
@@ -1,20 +1,52 @@
 package app.web;
 
+import app.exception.IncompleteUploadException;
+import app.exception.InvalidPictureQueryException;
+import app.exception.InvalidPictureUploadException;
+import app.exception.InvalidPictureVariantException;
 import app.exception.PictureNotFoundException;
+import app.exception.PictureTooLargeException;
+import app.exception.RenderCapacityExceededException;
+import app.exception.SimilarityIndexUnavailableException;
+import app.exception.TooManyConcurrentRequestsException;
+import app.exception.TooManyRequestsException;
+import app.exception.UploadSessionNotFoundException;
 import app.web.dto.ErrorResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.servlet.resource.NoResourceFoundException;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 @ControllerAdvice
 public class ExceptionAdvice {
 
+    private final MeterRegistry meterRegistry;
+    // every exception type maps to one status, so its counter is built once and reused
+    private final Map<Class<?>, Counter> errorCounters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ExceptionAdvice(ObjectProvider<MeterRegistry> meterRegistry) {
+        // slice tests run without metrics auto-configuration
+        this.meterRegistry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+    }
+
     @ResponseStatus(HttpStatus.NOT_FOUND)
     @ExceptionHandler(NoResourceFoundException.class)
-    public ResponseEntity<ErrorResponse> handleNotFoundEndpoint() {
+    public ResponseEntity<ErrorResponse> handleNotFoundEndpoint(NoResourceFoundException exception) {
+
+        countError(exception, HttpStatus.NOT_FOUND);
 
         ErrorResponse errorResponse = new ErrorResponse(HttpStatus.NOT_FOUND.value(), "Not supported application endpoint.");
 
@@ -25,9 +57,132 @@ public class ExceptionAdvice {
     @ExceptionHandler(PictureNotFoundException.class)
     public ResponseEntity<ErrorResponse> handlePictureNotFoundException(PictureNotFoundException exception){
 
+        countError(exception, HttpStatus.NOT_FOUND);
+
         ErrorResponse errorResponse = new ErrorResponse(HttpStatus.NOT_FOUND.value(), "Picture not found.");
 
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
     }
 
+    @ExceptionHandler(UploadSessionNotFoundException.class)
+    public ResponseEntity<ErrorResponse> handleUploadSessionNotFoundException(UploadSessionNotFoundException exception) {
+
+        countError(exception, HttpStatus.NOT_FOUND);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.NOT_FOUND.value(), "Upload session not found.");
+
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
+    }
+
+    @ExceptionHandler(IncompleteUploadException.class)
+    public ResponseEntity<ErrorResponse> handleIncompleteUploadException(IncompleteUploadException exception) {
+
+        countError(exception, HttpStatus.CONFLICT);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.CONFLICT.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+    }
+
+    @ExceptionHandler(InvalidPictureVariantException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidPictureVariantException(InvalidPictureVariantException exception) {
+
+        countError(exception, HttpStatus.BAD_REQUEST);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.BAD_REQUEST.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse);
+    }
+
+    @ExceptionHandler(InvalidPictureUploadException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidPictureUploadException(InvalidPictureUploadException exception) {
+
+        countError(exception, HttpStatus.BAD_REQUEST);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.BAD_REQUEST.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse);
+    }
+
+    @ExceptionHandler(InvalidPictureQueryException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidPictureQueryException(InvalidPictureQueryException exception) {
+
+        countError(exception, HttpStatus.BAD_REQUEST);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.BAD_REQUEST.value(), exception.getMessage());
+
+        // JSON even when the client asked for the NDJSON stream, which an error body cannot be written as
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(errorResponse);
+    }
+
+    @ExceptionHandler(PictureTooLargeException.class)
+    public ResponseEntity<ErrorResponse> handlePictureTooLargeException(PictureTooLargeException exception) {
+
+        countError(exception, HttpStatus.PAYLOAD_TOO_LARGE);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.PAYLOAD_TOO_LARGE.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(errorResponse);
+    }
+
+    @ExceptionHandler(RenderCapacityExceededException.class)
+    public ResponseEntity<ErrorResponse> handleRenderCapacityExceededException(RenderCapacityExceededException exception) {
+
+        countError(exception, HttpStatus.SERVICE_UNAVAILABLE);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(errorResponse);
+    }
+
+    @ExceptionHandler(TooManyConcurrentRequestsException.class)
+    public ResponseEntity<ErrorResponse> handleTooManyConcurrentRequestsException(TooManyConcurrentRequestsException exception) {
+
+        countError(exception, HttpStatus.SERVICE_UNAVAILABLE);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(errorResponse);
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<ErrorResponse> handleTooManyRequestsException(TooManyRequestsException exception) {
+
+        countError(exception, HttpStatus.TOO_MANY_REQUESTS);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.TOO_MANY_REQUESTS.value(), exception.getMessage());
+
+        // whole seconds, rounded up so a client retrying on the dot is admitted
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(errorResponse);
+    }
+
+    @ExceptionHandler(SimilarityIndexUnavailableException.class)
+    public ResponseEntity<ErrorResponse> handleSimilarityIndexUnavailableException(SimilarityIndexUnavailableException exception) {
+
+        countError(exception, HttpStatus.SERVICE_UNAVAILABLE);
+
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), exception.getMessage());
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(errorResponse);
+    }
+
+    private void countError(Exception exception, HttpStatus status) {
+        errorCounters.computeIfAbsent(exception.getClass(), type -> Counter.builder("picture.errors")
+                        .description("Requests answered with an error by ExceptionAdvice")
+                        .tag("exception", type.getSimpleName())
+                        .tag("status", String.valueOf(status.value()))
+                        .register(meterRegistry))
+                .increment();
+    }
 }
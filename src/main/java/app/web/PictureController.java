@@ -1,16 +1,58 @@
 package app.web;
 
+import app.exception.InvalidPictureUploadException;
+import app.exception.PictureNotFoundException;
+import app.exception.PictureTooLargeException;
+import app.model.BatchUploadResult;
+import app.model.BundlePart;
+import app.model.BulkDeleteResult;
+import app.model.ImageFormat;
 import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.VariantSpec;
+import app.service.PictureBatchUploadService;
+import app.service.PictureBundleService;
+import app.service.PictureBulkDeleteService;
+import app.service.PictureNegotiationService;
+import app.service.PictureRenditionService;
 import app.service.PictureService;
+import app.service.PictureVariantService;
+import app.web.dto.BatchUploadItemResponse;
+import app.web.dto.BulkDeleteRequest;
+import app.web.dto.BulkDeleteResponse;
 import app.web.dto.PictureUploadResponse;
 import app.web.mapper.DtoMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -18,11 +60,53 @@ import java.util.UUID;
 @RequestMapping("api/v1/pictures")
 public class PictureController {
 
+    private static final String IMAGE_WIDTH_HEADER = "X-Image-Width";
+    private static final String IMAGE_HEIGHT_HEADER = "X-Image-Height";
+    private static final String IMAGE_ORIENTATION_HEADER = "X-Image-Orientation";
+    private static final String PICTURE_STATUS_HEADER = "X-Picture-Status";
+
     private final PictureService pictureService;
+    private final PictureVariantService pictureVariantService;
+    private final PictureRenditionService pictureRenditionService;
+    private final PictureNegotiationService pictureNegotiationService;
+    private final PictureBatchUploadService pictureBatchUploadService;
+    private final PictureBulkDeleteService pictureBulkDeleteService;
+    private final PictureBundleService pictureBundleService;
+    private final CacheControl viewCacheControl;
+    private final int batchUploadMaxFiles;
+    private final int bulkDeleteMaxIds;
+    private final int bundleMaxIds;
+    private final long maxFileSize;
+    private final long maxRequestSize;
 
     @Autowired
-    public PictureController(PictureService pictureService) {
+    public PictureController(PictureService pictureService,
+                             PictureVariantService pictureVariantService,
+                             PictureRenditionService pictureRenditionService,
+                             PictureNegotiationService pictureNegotiationService,
+                             PictureBatchUploadService pictureBatchUploadService,
+                             PictureBulkDeleteService pictureBulkDeleteService,
+                             PictureBundleService pictureBundleService,
+                             @Value("${picture.view.cache-max-age:365d}") Duration viewCacheMaxAge,
+                             @Value("${picture.batch-upload.max-files:200}") int batchUploadMaxFiles,
+                             @Value("${picture.bulk-delete.max-ids:1000}") int bulkDeleteMaxIds,
+                             @Value("${picture.bundle.max-ids:200}") int bundleMaxIds,
+                             @Value("${spring.servlet.multipart.max-file-size:1MB}") DataSize maxFileSize,
+                             @Value("${spring.servlet.multipart.max-request-size:10MB}") DataSize maxRequestSize) {
         this.pictureService = pictureService;
+        this.pictureVariantService = pictureVariantService;
+        this.pictureRenditionService = pictureRenditionService;
+        this.pictureNegotiationService = pictureNegotiationService;
+        this.pictureBatchUploadService = pictureBatchUploadService;
+        this.pictureBulkDeleteService = pictureBulkDeleteService;
+        this.pictureBundleService = pictureBundleService;
+        // pictures never change once stored under their id, so caches may keep them without revalidating
+        this.viewCacheControl = CacheControl.maxAge(viewCacheMaxAge).cachePublic().immutable();
+        this.batchUploadMaxFiles = batchUploadMaxFiles;
+        this.bulkDeleteMaxIds = bulkDeleteMaxIds;
+        this.bundleMaxIds = bundleMaxIds;
+        this.maxFileSize = maxFileSize.toBytes();
+        this.maxRequestSize = maxRequestSize.toBytes();
     }
 
     @PostMapping("/upload")
@@ -39,20 +123,221 @@ public class PictureController {
                 .body(response);
     }
 
+    // the body is parsed while it arrives and the picture part is written straight to storage,
+    // nothing is spooled to a temp file first; needs spring.servlet.multipart.resolve-lazily
+    @PostMapping(value = "/upload/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<PictureUploadResponse> uploadPictureStream(
+            HttpServletRequest request,
+            @RequestHeader(value = "X-Content-SHA256", required = false) String expectedContentHash) throws IOException {
+
+        JakartaServletFileUpload<?, ?> upload = new JakartaServletFileUpload<>();
+        upload.setFileSizeMax(maxFileSize);
+        upload.setSizeMax(maxRequestSize);
+
+        try {
+            FileItemInputIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemInput item = items.next();
+                if (item.isFormField() || !"picture".equals(item.getFieldName())) {
+                    continue;
+                }
+
+                try (InputStream content = new BufferedInputStream(new SizeLimitedPartStream(item.getInputStream()))) {
+                    // sniffed from the first bytes of the same stream, the declared type is only a fallback
+                    String sniffedType = URLConnection.guessContentTypeFromStream(content);
+                    String contentType = sniffedType != null ? sniffedType : item.getContentType();
+
+                    Picture storedPicture = pictureService.savePictureStreamToStorage(
+                            content, item.getName(), contentType, expectedContentHash);
+
+                    return ResponseEntity
+                            .status(HttpStatus.CREATED)
+                            .body(DtoMapper.fromPicture(storedPicture));
+                }
+            }
+        } catch (FileUploadSizeException e) {
+            throw new PictureTooLargeException("Upload exceeds the limit of %d bytes.".formatted(e.getPermitted()), e);
+        }
+
+        throw new InvalidPictureUploadException("Request has no picture part.");
+    }
+
+    // 201 when every file was stored, 207 with the per-file outcome otherwise
+    @PostMapping("/upload/batch")
+    public ResponseEntity<List<BatchUploadItemResponse>> uploadPictures(@RequestParam("pictures") List<MultipartFile> pictures) {
+        if(pictures.isEmpty() || pictures.size() > batchUploadMaxFiles)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+        List<BatchUploadResult> results = pictureBatchUploadService.savePicturesToStorage(pictures);
+
+        List<BatchUploadItemResponse> response = results.stream()
+                .map(DtoMapper::fromBatchUploadResult)
+                .toList();
+
+        return ResponseEntity
+                .status(results.stream().allMatch(BatchUploadResult::isStored) ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS)
+                .body(response);
+    }
+
     @GetMapping("/view/{pictureId:.+}")
-    public ResponseEntity<byte[]> viewByteFile(@PathVariable UUID pictureId) {
+    public ResponseEntity<Resource> viewByteFile(@PathVariable UUID pictureId,
+                                                 @RequestParam(value = "w", required = false) Integer width,
+                                                 @RequestParam(value = "h", required = false) Integer height,
+                                                 @RequestParam(value = "fit", required = false) String fit,
+                                                 @RequestParam(value = "format", required = false) String format,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+        // resolve the row first so a missing picture never touches the disk
+        Picture picture = pictureService.getPictureById(pictureId)
+                .orElseThrow(() -> new PictureNotFoundException("Picture with id [%s] not found".formatted(pictureId)));
+
+        if (width == null && height == null && fit == null && format == null) {
+            // a smaller copy when there is one, otherwise the content itself;
+            // streamed to the response in fixed-size chunks, never buffered whole on the heap
+            Optional<PictureVariant> representation = pictureNegotiationService.negotiate(picture, accept);
+            Resource pictureFromStorage = representation.map(PictureVariant::getResource)
+                    .orElseGet(() -> pictureService.getPictureResourceForView(picture));
+            ResponseEntity.BodyBuilder response = viewResponse(picture,
+                    representation.map(PictureVariant::getContentType).orElseGet(() -> contentTypeOf(picture)),
+                    eTagOf(picture, representation.map(variant -> "-" + variant.getKey()).orElse("")));
+            if (pictureNegotiationService.variesByAccept()) {
+                response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+            }
+
+            // lets a client lay the picture out before its bytes arrive
+            if (picture.getWidth() != null && picture.getHeight() != null) {
+                response.header(IMAGE_WIDTH_HEADER, picture.getWidth().toString())
+                        .header(IMAGE_HEIGHT_HEADER, picture.getHeight().toString());
+            }
+            if (picture.getOrientation() != null) {
+                response.header(IMAGE_ORIENTATION_HEADER, picture.getOrientation().toString());
+            }
+
+            return response.body(pictureFromStorage);
+        }
+
+        VariantSpec spec = pictureVariantService.toSpec(picture, width, height, fit, format);
+        PictureVariant variant = pictureRenditionService.findRendition(picture, spec)
+                .orElseGet(() -> pictureVariantService.getVariant(picture, pictureService.getPictureResource(picture), spec));
+
+        return viewResponse(picture, variant.getContentType(), eTagOf(picture, "-" + variant.getKey()))
+                .body(variant.getResource());
+    }
+
+    // the pictures of a gallery page in one multipart/mixed response: a part per id in the order given, with the
+    // picture's ETag and its id as Content-ID. The rows come from one query, the contents are read in parallel.
+    // A picture that cannot be served gets an empty part with the status its own view would have in X-Picture-Status.
+    @GetMapping("/bundle")
+    public void viewBundle(@RequestParam("ids") List<UUID> pictureIds,
+                           @RequestParam(value = "w", required = false) Integer width,
+                           @RequestParam(value = "h", required = false) Integer height,
+                           @RequestParam(value = "fit", required = false) String fit,
+                           @RequestParam(value = "format", required = false) String format,
+                           @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+        if(pictureIds.isEmpty() || pictureIds.size() > bundleMaxIds) {
+            response.sendError(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        Map<UUID, Picture> pictures = pictureService.getPicturesByIds(pictureIds);
 
-        final String picId = pictureId.toString();
-        byte[] pictureFromStorage = pictureService.getPicture(picId);
-        Optional<Picture> pictureById = pictureService.getPictureById(pictureId);
+        if (pictureNegotiationService.variesByAccept()) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        // the headers go out before any part is read, so a part that fails cannot be kept out of a cached bundle:
+        // caches revalidate every time, and a bundle that is unchanged is answered from its rows alone
+        if (pictures.keySet().containsAll(pictureIds)) {
+            String eTag = bundleETagOf(pictureIds, pictures, width, height, fit, format,
+                    pictureNegotiationService.variesByAccept() ? accept : null);
+            if (new ServletWebRequest(request, response).checkNotModified(eTag)) {
+                return;
+            }
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        } else {
+            // a missing picture may still be uploaded under its id later, the bundle must not be kept without it
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        }
 
-        return pictureById.map(picture ->
-             ResponseEntity
-                    .status(HttpStatus.OK)
-                    .contentType(MediaType.parseMediaType(picture.getType()))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + picture.getOriginalFileName() + "\"")
-                    .body(pictureFromStorage)
-        ).orElse(ResponseEntity.notFound().build());
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        response.setContentType("multipart/mixed; boundary=" + boundary);
+
+        OutputStream out = response.getOutputStream();
+        long[] bytesSent = {0};
+        try {
+            pictureBundleService.writeBundle(pictureIds, pictures, width, height, fit, format, accept, part -> {
+                StringBuilder headers = new StringBuilder("--").append(boundary).append("\r\n");
+                headers.append("Content-ID: <").append(part.getPictureId()).append(">\r\n");
+                long length = 0;
+                if (part.getContent() != null) {
+                    length = part.getContent().contentLength();
+                    headers.append(HttpHeaders.CONTENT_TYPE).append(": ").append(part.getContentType()).append("\r\n");
+                    headers.append(HttpHeaders.ETAG).append(": ").append(eTagOf(part.getPicture(), part.getVariantKey())).append("\r\n");
+                } else {
+                    headers.append(PICTURE_STATUS_HEADER).append(": ").append(part.getStatus()).append("\r\n");
+                }
+                headers.append(HttpHeaders.CONTENT_LENGTH).append(": ").append(length).append("\r\n\r\n");
+                out.write(headers.toString().getBytes(StandardCharsets.US_ASCII));
+
+                if (part.getContent() != null) {
+                    try (InputStream content = part.getContent().getInputStream()) {
+                        content.transferTo(out);
+                    }
+                }
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                bytesSent[0] += length;
+            });
+            out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } finally {
+            request.setAttribute(AdmissionControlInterceptor.BYTES_SENT_ATTRIBUTE, bytesSent[0]);
+        }
+    }
+
+    // 304 for If-None-Match/If-Modified-Since and 206 for Range are handled by Spring from these headers
+    private ResponseEntity.BodyBuilder viewResponse(Picture picture, String contentType, String eTag) {
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(HttpStatus.OK)
+                .contentType(MediaType.parseMediaType(contentType))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + picture.getOriginalFileName() + "\"")
+                .eTag(eTag)
+                .cacheControl(viewCacheControl);
+
+        if (picture.getUploadDate() != null) {
+            response.lastModified(picture.getUploadDate().atZone(ZoneId.systemDefault()));
+        }
+
+        return response;
+    }
+
+    // the format read from the content when it is known, never a type the client merely claimed
+    private static String contentTypeOf(Picture picture) {
+        return picture.getFormat() == null || picture.getFormat() == ImageFormat.UNKNOWN
+                ? picture.getType()
+                : picture.getFormat().getMimeType();
+    }
+
+    // strong validator: the bytes behind an id never change, so id, size and upload time identify them exactly
+    private static String eTagOf(Picture picture, String variantKey) {
+        long uploadTime = picture.getUploadDate() == null
+                ? 0
+                : picture.getUploadDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        return "\"%s-%x-%x%s\"".formatted(picture.getId(), picture.getSize(), uploadTime, variantKey);
+    }
+
+    // changes with any of the pictures or what is asked of them; a picture's row changes when a smaller copy or
+    // an alternate format of it becomes ready, which the plain view then serves instead
+    private static String bundleETagOf(List<UUID> pictureIds, Map<UUID, Picture> pictures, Integer width, Integer height,
+                                       String fit, String format, String accept) {
+        StringBuilder validators = new StringBuilder();
+        for (UUID pictureId : pictureIds) {
+            Picture picture = pictures.get(pictureId);
+            validators.append(eTagOf(picture, "")).append(picture.getRenditionStatus()).append(picture.getOptimizedSize()).append(',');
+        }
+        validators.append(width).append(',').append(height).append(',').append(fit).append(',').append(format).append(',').append(accept);
+        return "\"" + DigestUtils.md5DigestAsHex(validators.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
     }
 
     @DeleteMapping("/{pictureId:.+}")
@@ -60,4 +345,65 @@ public class PictureController {
         pictureService.deletePicture(pictureId);
         return ResponseEntity.noContent().build();
     }
+
+    // POST rather than DELETE with a body, which proxies and clients may drop; the files are removed in the background
+    @PostMapping("/delete")
+    public ResponseEntity<BulkDeleteResponse> deletePictures(@RequestBody BulkDeleteRequest request) {
+        if(request.getIds() == null || request.getIds().isEmpty() || request.getIds().size() > bulkDeleteMaxIds)
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+        BulkDeleteResult result = pictureBulkDeleteService.deletePictures(request.getIds());
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(DtoMapper.fromBulkDeleteResult(result));
+    }
+
+    // the parser enforces the limits while reading, this surfaces a breach as a 413 instead of a storage failure
+    private static final class SizeLimitedPartStream extends FilterInputStream {
+
+        private SizeLimitedPartStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (FileUploadSizeException e) {
+                throw tooLarge(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (FileUploadSizeException e) {
+                throw tooLarge(e);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                return super.skip(n);
+            } catch (FileUploadSizeException e) {
+                throw tooLarge(e);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            try {
+                return super.available();
+            } catch (FileUploadSizeException e) {
+                throw tooLarge(e);
+            }
+        }
+
+        private static PictureTooLargeException tooLarge(FileUploadSizeException e) {
+            return new PictureTooLargeException("Picture exceeds the limit of %d bytes.".formatted(e.getPermitted()), e);
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package app.web;
+
+import app.exception.InvalidPictureQueryException;
+import app.model.ImageFormat;
+import app.model.PictureFilter;
+import app.model.PicturePage;
+import app.model.PictureSummary;
+import app.service.PictureListingService;
+import app.web.dto.PictureListRequest;
+import app.web.dto.PictureListResponse;
+import app.web.mapper.DtoMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+// GET /api/v1/pictures?uploadedFrom=&uploadedTo=&type=&minSize=&maxSize=&fileNamePrefix=&limit=&cursor=
+@RestController
+@RequestMapping("api/v1/pictures")
+public class PictureListingController {
+
+    private final PictureListingService pictureListingService;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public PictureListingController(PictureListingService pictureListingService, ObjectMapper objectMapper) {
+        this.pictureListingService = pictureListingService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PictureListResponse> listPictures(PictureListRequest request) {
+        PicturePage page = pictureListingService.listPictures(filterOf(request), request.getCursor(), request.getLimit());
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(DtoMapper.fromPicturePage(page));
+    }
+
+    // every match from the cursor on, one JSON object per line. Fetched a page at a time and flushed
+    // after each, so neither the heap nor a database connection is held for the whole result set.
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamPictures(PictureListRequest request, HttpServletResponse response) throws IOException {
+        PictureFilter filter = filterOf(request);
+        int pageSize = pictureListingService.getMaxLimit();
+
+        // the first page is fetched before anything is written, so an invalid query still gets its 400
+        PicturePage page = pictureListingService.listPictures(filter, request.getCursor(), pageSize);
+
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        OutputStream out = response.getOutputStream();
+        while (true) {
+            for (PictureSummary summary : page.getItems()) {
+                out.write(objectMapper.writeValueAsBytes(DtoMapper.fromPictureSummary(summary)));
+                out.write('\n');
+            }
+            out.flush();
+
+            if (page.getNextCursor() == null) {
+                return;
+            }
+            page = pictureListingService.listPictures(filter, page.getNextCursor(), pageSize);
+        }
+    }
+
+    private static PictureFilter filterOf(PictureListRequest request) {
+        return PictureFilter.builder()
+                .uploadedFrom(request.getUploadedFrom())
+                .uploadedTo(request.getUploadedTo())
+                .type(request.getType())
+                .minSize(request.getMinSize())
+                .maxSize(request.getMaxSize())
+                .fileNamePrefix(request.getFileNamePrefix())
+                .format(formatOf(request.getFormat()))
+                .minWidth(request.getMinWidth())
+                .maxWidth(request.getMaxWidth())
+                .minHeight(request.getMinHeight())
+                .maxHeight(request.getMaxHeight())
+                .build();
+    }
+
+    private static ImageFormat formatOf(String format) {
+        if (!StringUtils.hasText(format)) {
+            return null;
+        }
+        try {
+            ImageFormat imageFormat = ImageFormat.valueOf(format.trim().toUpperCase(Locale.ROOT));
+            if (imageFormat != ImageFormat.UNKNOWN) {
+                return imageFormat;
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        throw new InvalidPictureQueryException("Parameter [format] is not a supported image format");
+    }
+}
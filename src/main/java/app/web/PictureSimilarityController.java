@@ -0,0 +1,44 @@
+package app.web;
+
+import app.model.SimilarPicture;
+import app.service.PictureService;
+import app.service.PictureSimilarityService;
+import app.web.dto.SimilarPicturesResponse;
+import app.web.mapper.DtoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.UUID;
+
+// GET /api/v1/pictures/similar/{pictureId}?maxDistance=&limit=
+@RestController
+@RequestMapping("api/v1/pictures")
+public class PictureSimilarityController {
+
+    private final PictureSimilarityService pictureSimilarityService;
+    private final PictureService pictureService;
+
+    @Autowired
+    public PictureSimilarityController(PictureSimilarityService pictureSimilarityService, PictureService pictureService) {
+        this.pictureSimilarityService = pictureSimilarityService;
+        this.pictureService = pictureService;
+    }
+
+    @GetMapping("/similar/{pictureId}")
+    public ResponseEntity<SimilarPicturesResponse> findSimilarPictures(@PathVariable UUID pictureId,
+                                                                       @RequestParam(required = false) Integer maxDistance,
+                                                                       @RequestParam(required = false) Integer limit) {
+        List<SimilarPicture> matches = pictureSimilarityService.findSimilar(pictureId, maxDistance, limit);
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(DtoMapper.fromSimilarPictures(pictureId, matches, pictureService.pictureViewUriPrefix()));
+    }
+}
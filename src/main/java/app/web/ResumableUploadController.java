@@ -0,0 +1,118 @@
+package app.web;
+
+import app.exception.InvalidPictureUploadException;
+import app.exception.UploadSessionNotFoundException;
+import app.model.Picture;
+import app.model.UploadSession;
+import app.service.ResumableUploadService;
+import app.web.dto.PictureUploadResponse;
+import app.web.mapper.DtoMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// tus-style protocol: POST creates a session, PATCH writes a chunk at Upload-Offset,
+// HEAD reports how far the upload got, POST .../finalize turns it into a picture
+@RestController
+@RequestMapping("api/v1/pictures/uploads")
+public class ResumableUploadController {
+
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final String UPLOAD_METADATA = "Upload-Metadata";
+    static final String CHUNK_CONTENT_TYPE = "application/offset+octet-stream";
+
+    private final ResumableUploadService resumableUploadService;
+
+    @Autowired
+    public ResumableUploadController(ResumableUploadService resumableUploadService) {
+        this.resumableUploadService = resumableUploadService;
+    }
+
+    // Upload-Metadata carries base64 values as in tus: "filename d29ybGQucG5n,filetype aW1hZ2UvcG5n"
+    @PostMapping
+    public ResponseEntity<Void> createSession(@RequestHeader(UPLOAD_LENGTH) long length,
+                                              @RequestHeader(value = UPLOAD_METADATA, required = false) String metadata) {
+        Map<String, String> values = parseMetadata(metadata);
+
+        UploadSession session = resumableUploadService.createSession(values.get("filename"), values.get("filetype"), length);
+
+        return ResponseEntity
+                .created(ServletUriComponentsBuilder.fromCurrentRequest().path("/{sessionId}").build(session.getId()))
+                .header(UPLOAD_OFFSET, "0")
+                .build();
+    }
+
+    @RequestMapping(value = "/{sessionId}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getOffset(@PathVariable UUID sessionId) {
+        UploadSession session = resumableUploadService.getSession(sessionId)
+                .orElseThrow(() -> new UploadSessionNotFoundException("Upload session with id [%s] not found".formatted(sessionId)));
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .header(UPLOAD_LENGTH, String.valueOf(session.getLength()))
+                .header(UPLOAD_OFFSET, String.valueOf(resumableUploadService.receivedOffset(session)))
+                .build();
+    }
+
+    // chunks may be sent in parallel at different offsets; the answer is the contiguous offset received so far
+    @PatchMapping(value = "/{sessionId}", consumes = CHUNK_CONTENT_TYPE)
+    public ResponseEntity<Void> appendChunk(@PathVariable UUID sessionId,
+                                            @RequestHeader(UPLOAD_OFFSET) long offset,
+                                            HttpServletRequest request) throws IOException {
+        UploadSession session = resumableUploadService.appendChunk(sessionId, offset, request.getInputStream());
+
+        return ResponseEntity.noContent()
+                .header(UPLOAD_OFFSET, String.valueOf(resumableUploadService.receivedOffset(session)))
+                .build();
+    }
+
+    @PostMapping("/{sessionId}/finalize")
+    public ResponseEntity<PictureUploadResponse> finalizeSession(@PathVariable UUID sessionId) {
+        Picture storedPicture = resumableUploadService.finalizeSession(sessionId);
+
+        PictureUploadResponse response = DtoMapper.fromPicture(storedPicture);
+
+        return ResponseEntity
+                .status(HttpStatus.CREATED)
+                .header(HttpHeaders.LOCATION, storedPicture.getPictureUrl())
+                .body(response);
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abortSession(@PathVariable UUID sessionId) {
+        resumableUploadService.abortSession(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private static Map<String, String> parseMetadata(String metadata) {
+        Map<String, String> values = new HashMap<>();
+        if (metadata == null || metadata.isBlank()) {
+            return values;
+        }
+
+        try {
+            for (String pair : metadata.split(",")) {
+                String[] keyAndValue = pair.trim().split(" ", 2);
+                values.put(keyAndValue[0], keyAndValue.length == 2
+                        ? new String(Base64.getDecoder().decode(keyAndValue[1].trim()), StandardCharsets.UTF_8)
+                        : "");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPictureUploadException("Upload-Metadata values must be base64 encoded.");
+        }
+        return values;
+    }
+}
@@ -0,0 +1,54 @@
+package app.web;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A token bucket kept as a single timestamp (GCRA): the time at which the bucket would be full again. Taking tokens
+// pushes it forward by their cost, so a take is one CAS on one AtomicLong - no lock, no refill thread.
+final class TokenBucket {
+
+    private final double nanosPerToken;
+    private final long burstNanos;
+    // when every token taken so far has been paid back at the refill rate
+    private final AtomicLong fullAt;
+
+    TokenBucket(double tokensPerSecond, double burst, long now) {
+        this.nanosPerToken = 1_000_000_000.0 / tokensPerSecond;
+        this.burstNanos = (long) (burst * nanosPerToken);
+        this.fullAt = new AtomicLong(now);
+    }
+
+    // 0 when the tokens were taken, otherwise the nanos until they would be; a take larger than the burst
+    // goes through once the bucket is full, so no request is refused forever
+    long tryTake(long tokens, long now) {
+        long cost = (long) (tokens * nanosPerToken);
+        long allowed = Math.max(0, burstNanos - cost);
+        while (true) {
+            long current = fullAt.get();
+            long owed = Math.max(current, now) - now;
+            if (owed > allowed) {
+                return owed - allowed;
+            }
+            if (fullAt.compareAndSet(current, Math.max(current, now) + cost)) {
+                return 0;
+            }
+        }
+    }
+
+    // takes the tokens whatever the balance, for costs only known once the work is done;
+    // the debt is paid back before tryTake lets anything through again
+    void charge(long tokens, long now) {
+        long cost = (long) (tokens * nanosPerToken);
+        fullAt.accumulateAndGet(now, (current, time) -> Math.max(current, time) + cost);
+    }
+
+    // gives back tokens taken for work that was then refused; the bucket never ends up fuller than it was
+    void refund(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        fullAt.addAndGet(-cost);
+    }
+
+    // a full bucket holds nothing a new one would not, so it can be dropped
+    boolean isFull(long now) {
+        return fullAt.get() <= now;
+    }
+}
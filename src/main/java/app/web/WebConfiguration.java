@@ -0,0 +1,29 @@
+package app.web;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private final AdmissionControlInterceptor admissionControlInterceptor;
+    private final ConcurrencyLimitInterceptor concurrencyLimitInterceptor;
+
+    @Autowired
+    public WebConfiguration(AdmissionControlInterceptor admissionControlInterceptor,
+                            ConcurrencyLimitInterceptor concurrencyLimitInterceptor) {
+        this.admissionControlInterceptor = admissionControlInterceptor;
+        this.concurrencyLimitInterceptor = concurrencyLimitInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // first, so a request turned away never waits for a permit
+        registry.addInterceptor(admissionControlInterceptor)
+                .addPathPatterns("/api/v1/pictures/upload/**", "/api/v1/pictures/uploads/**", "/api/v1/pictures/view/**",
+                        "/api/v1/pictures/bundle");
+        registry.addInterceptor(concurrencyLimitInterceptor).addPathPatterns("/api/**");
+    }
+}
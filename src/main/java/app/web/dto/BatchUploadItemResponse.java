@@ -0,0 +1,22 @@
+package app.web.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@Builder
+public class BatchUploadItemResponse {
+
+    private String pictureOriginalFileName;
+
+    private boolean stored;
+
+    private UUID id;
+
+    private LocalDateTime uploadDate;
+
+    private String error;
+}
@@ -0,0 +1,12 @@
+package app.web.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class BulkDeleteRequest {
+
+    private List<UUID> ids;
+}
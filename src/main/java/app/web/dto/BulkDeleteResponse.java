@@ -0,0 +1,16 @@
+package app.web.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+public class BulkDeleteResponse {
+
+    private List<UUID> deleted;
+
+    private List<UUID> notFound;
+}
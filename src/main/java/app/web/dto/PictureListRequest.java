@@ -0,0 +1,40 @@
+package app.web.dto;
+
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+// query parameters of GET /api/v1/pictures
+@Data
+public class PictureListRequest {
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime uploadedFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime uploadedTo;
+
+    private String type;
+
+    private Long minSize;
+
+    private Long maxSize;
+
+    private String fileNamePrefix;
+
+    // jpeg, png, gif, webp, bmp, tiff, heif or avif, as read from the content
+    private String format;
+
+    private Integer minWidth;
+
+    private Integer maxWidth;
+
+    private Integer minHeight;
+
+    private Integer maxHeight;
+
+    private String cursor;
+
+    private Integer limit;
+}
@@ -0,0 +1,16 @@
+package app.web.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class PictureListResponse {
+
+    private List<PictureSummaryResponse> items;
+
+    // pass back as ?cursor= for the next page, null on the last page
+    private String nextCursor;
+}
@@ -0,0 +1,31 @@
+package app.web.dto;
+
+import app.model.ImageFormat;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@Builder
+public class PictureSummaryResponse {
+
+    private UUID id;
+
+    private String pictureOriginalFileName;
+
+    private String type;
+
+    private long size;
+
+    private LocalDateTime uploadDate;
+
+    private String pictureUrl;
+
+    private ImageFormat format;
+
+    private Integer width;
+
+    private Integer height;
+}
@@ -1,5 +1,6 @@
 package app.web.dto;
 
+import app.model.ImageFormat;
 import lombok.Builder;
 import lombok.Data;
 
@@ -15,4 +16,15 @@ public class PictureUploadResponse {
     private String pictureOriginalFileName;
 
     private LocalDateTime uploadDate;
+
+    // read from the content; null when it is not an image this service recognises
+    private ImageFormat format;
+
+    private Integer width;
+
+    private Integer height;
+
+    private Integer orientation;
+
+    private LocalDateTime takenAt;
 }
@@ -0,0 +1,18 @@
+package app.web.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+@Builder
+public class SimilarPictureResponse {
+
+    private UUID id;
+
+    // differing bits between the two perceptual hashes, 0 for visually identical pictures
+    private int distance;
+
+    private String pictureUrl;
+}
@@ -0,0 +1,17 @@
+package app.web.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+public class SimilarPicturesResponse {
+
+    private UUID pictureId;
+
+    // closest first
+    private List<SimilarPictureResponse> items;
+}
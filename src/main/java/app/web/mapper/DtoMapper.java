@@ -1,9 +1,24 @@
 package app.web.mapper;
 
+import app.model.BatchUploadResult;
+import app.model.BulkDeleteResult;
+import app.model.ImageFormat;
 import app.model.Picture;
+import app.model.PicturePage;
+import app.model.PictureSummary;
+import app.model.SimilarPicture;
+import app.web.dto.BatchUploadItemResponse;
+import app.web.dto.BulkDeleteResponse;
+import app.web.dto.PictureListResponse;
+import app.web.dto.PictureSummaryResponse;
 import app.web.dto.PictureUploadResponse;
+import app.web.dto.SimilarPictureResponse;
+import app.web.dto.SimilarPicturesResponse;
 import lombok.experimental.UtilityClass;
 
+import java.util.List;
+import java.util.UUID;
+
 @UtilityClass
 public class DtoMapper {
 
@@ -13,6 +28,70 @@ public class DtoMapper {
                 .uploadDate(picture.getUploadDate())
                 .pictureOriginalFileName(picture.getOriginalFileName())
                 .id(picture.getId())
+                .format(picture.getFormat() == ImageFormat.UNKNOWN ? null : picture.getFormat())
+                .width(picture.getWidth())
+                .height(picture.getHeight())
+                .orientation(picture.getOrientation())
+                .takenAt(picture.getTakenAt())
+                .build();
+    }
+
+    public static BatchUploadItemResponse fromBatchUploadResult(BatchUploadResult result) {
+
+        Picture picture = result.getPicture();
+
+        return BatchUploadItemResponse.builder()
+                .pictureOriginalFileName(result.getOriginalFileName())
+                .stored(result.isStored())
+                .id(picture == null ? null : picture.getId())
+                .uploadDate(picture == null ? null : picture.getUploadDate())
+                .error(result.getError())
+                .build();
+    }
+
+    public static BulkDeleteResponse fromBulkDeleteResult(BulkDeleteResult result) {
+
+        return BulkDeleteResponse.builder()
+                .deleted(result.getDeleted())
+                .notFound(result.getNotFound())
+                .build();
+    }
+
+    public static PictureSummaryResponse fromPictureSummary(PictureSummary summary) {
+
+        return PictureSummaryResponse.builder()
+                .id(summary.getId())
+                .pictureOriginalFileName(summary.getOriginalFileName())
+                .type(summary.getType())
+                .size(summary.getSize())
+                .uploadDate(summary.getUploadDate())
+                .pictureUrl(summary.getPictureUrl())
+                .format(summary.getFormat() == ImageFormat.UNKNOWN ? null : summary.getFormat())
+                .width(summary.getWidth())
+                .height(summary.getHeight())
+                .build();
+    }
+
+    public static PictureListResponse fromPicturePage(PicturePage page) {
+
+        return PictureListResponse.builder()
+                .items(page.getItems().stream().map(DtoMapper::fromPictureSummary).toList())
+                .nextCursor(page.getNextCursor())
+                .build();
+    }
+
+    public static SimilarPicturesResponse fromSimilarPictures(UUID pictureId, List<SimilarPicture> matches,
+                                                              String pictureViewUriPrefix) {
+
+        return SimilarPicturesResponse.builder()
+                .pictureId(pictureId)
+                .items(matches.stream()
+                        .map(match -> SimilarPictureResponse.builder()
+                                .id(match.getId())
+                                .distance(match.getDistance())
+                                .pictureUrl(pictureViewUriPrefix + match.getId())
+                                .build())
+                        .toList())
                 .build();
     }
 }
@@ -0,0 +1,46 @@
+-- Content-addressed blobs, resumable upload sessions, renditions, image metadata and the listing indexes
+
+alter table pictures add column height integer;
+alter table pictures add column orientation integer;
+alter table pictures add column width integer;
+alter table pictures add column content_missing_since timestamp(6);
+alter table pictures add column optimized_size bigint;
+alter table pictures add column perceptual_hash bigint;
+alter table pictures add column taken_at timestamp(6);
+alter table pictures add column camera_make varchar(64);
+alter table pictures add column camera_model varchar(64);
+alter table pictures add column content_hash varchar(64);
+alter table pictures add column format enum ('AVIF','BMP','GIF','HEIF','JPEG','PNG','TIFF','UNKNOWN','WEBP');
+alter table pictures add column rendition_status enum ('FAILED','PENDING','READY');
+
+create table picture_blobs (
+    created_at timestamp(6) not null,
+    reference_count bigint not null,
+    size bigint not null,
+    content_hash varchar(64) not null,
+    file_path varchar(255) not null,
+    primary key (content_hash)
+);
+
+create table upload_sessions (
+    created_at timestamp(6) not null,
+    length bigint not null,
+    updated_at timestamp(6) not null,
+    id uuid not null,
+    original_file_name varchar(255) not null,
+    type varchar(255) not null,
+    received_ranges clob not null,
+    primary key (id)
+);
+
+create index idx_picture_blobs_reference_count on picture_blobs (reference_count);
+create index idx_pictures_rendition_status on pictures (rendition_status);
+create index idx_pictures_content_hash on pictures (content_hash);
+create index idx_pictures_upload_date_id on pictures (upload_date, id);
+create index idx_pictures_type_upload_date_id on pictures (type, upload_date, id);
+create index idx_pictures_size on pictures (size);
+create index idx_pictures_original_file_name on pictures (original_file_name);
+create index idx_pictures_format_upload_date_id on pictures (format, upload_date, id);
+create index idx_pictures_width_height on pictures (width, height);
+create index idx_pictures_taken_at on pictures (taken_at);
+create index idx_upload_sessions_updated_at on upload_sessions (updated_at);
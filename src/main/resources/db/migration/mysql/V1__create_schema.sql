@@ -0,0 +1,13 @@
+-- Schema as Hibernate created it with ddl-auto=update from the original picture entity; a database created that way
+-- is baselined at this version and migrated forward from there
+
+create table pictures (
+    size bigint not null,
+    upload_date datetime(6) not null,
+    id binary(16) not null,
+    file_path varchar(255) not null,
+    original_file_name varchar(255) not null,
+    picture_url varchar(255) not null,
+    type varchar(255) not null,
+    primary key (id)
+) engine=InnoDB;
@@ -0,0 +1,4 @@
+-- CRC32C of the content, recorded at upload and checked by the scrubber; null for content stored before
+
+alter table pictures add column crc32c bigint;
+alter table picture_blobs add column crc32c bigint;
@@ -0,0 +1,119 @@
+package app.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotPictureCacheUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private final HotPictureCache hotPictureCache = new HotPictureCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(16));
+
+    @Test
+    void givenLocalFile_whenGetTwice_thenOpensItOnceAndServesTheMappedCopy() throws IOException {
+        // given
+        Path file = Files.write(tempDir.resolve("abcdef"), "test data".getBytes());
+        AtomicInteger opened = new AtomicInteger();
+        Supplier<Resource> opener = () -> {
+            opened.incrementAndGet();
+            return new FileSystemResource(file);
+        };
+
+        // when
+        hotPictureCache.get("blobs/abcdef", opener);
+        Resource cached = hotPictureCache.get("blobs/abcdef", opener);
+
+        // then
+        assertEquals(1, opened.get());
+        assertInstanceOf(ByteBufferResource.class, cached);
+        assertEquals(9, cached.contentLength());
+        assertArrayEquals("test data".getBytes(), cached.getContentAsByteArray());
+        try (InputStream range = cached.getInputStream()) {
+            assertEquals(5, range.skip(5));
+            assertArrayEquals("data".getBytes(), range.readAllBytes());
+        }
+    }
+
+    @Test
+    void givenPictureLargerThanAnEntry_whenGet_thenServesItFromStorageUncached() {
+        // given
+        Resource large = new ByteArrayResource(new byte[32 * 1024]);
+
+        // when
+        Resource served = hotPictureCache.get("blobs/large", () -> large);
+
+        // then
+        assertSame(large, served);
+        assertSame(large, hotPictureCache.get("blobs/large", () -> large));
+    }
+
+    @Test
+    void givenCachedPicture_whenInvalidate_thenNextGetReopensIt() {
+        // given
+        AtomicInteger opened = new AtomicInteger();
+        Supplier<Resource> opener = () -> {
+            opened.incrementAndGet();
+            return new ByteArrayResource("test data".getBytes());
+        };
+        hotPictureCache.get("blobs/abcdef", opener);
+        hotPictureCache.get("blobs/abcdef", opener);
+
+        // when
+        hotPictureCache.invalidate("blobs/abcdef");
+        hotPictureCache.get("blobs/abcdef", opener);
+
+        // then
+        assertEquals(3, opened.get());
+    }
+
+    @Test
+    void givenPictureFromNonFileStorage_whenViewedOnce_thenServesItWithoutBuffering() throws IOException {
+        // given
+        AtomicInteger opened = new AtomicInteger();
+        Supplier<Resource> opener = () -> {
+            opened.incrementAndGet();
+            return new ByteArrayResource("test data".getBytes());
+        };
+
+        // when
+        Resource firstView = hotPictureCache.get("blobs/abcdef", opener);
+        Resource secondView = hotPictureCache.get("blobs/abcdef", opener);
+        Resource thirdView = hotPictureCache.get("blobs/abcdef", opener);
+
+        // then
+        assertInstanceOf(ByteArrayResource.class, firstView);
+        assertInstanceOf(ByteBufferResource.class, secondView);
+        assertInstanceOf(ByteBufferResource.class, thirdView);
+        assertArrayEquals("test data".getBytes(), thirdView.getContentAsByteArray());
+        assertEquals(2, opened.get());
+    }
+
+    @Test
+    void givenCachedPicture_whenBindTo_thenReportsBytesHeldAndHits() {
+        // given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        hotPictureCache.bindTo(registry);
+        hotPictureCache.get("blobs/abcdef", () -> new ByteArrayResource("test data".getBytes()));
+        hotPictureCache.get("blobs/abcdef", () -> new ByteArrayResource("test data".getBytes()));
+        hotPictureCache.get("blobs/abcdef", () -> new ByteArrayResource("test data".getBytes()));
+
+        // then
+        assertEquals(9, registry.get("picture.hot-cache.bytes").gauge().value());
+        assertEquals(1, registry.get("cache.gets").tag("cache", "hotPicture").tag("result", "hit").functionCounter().count());
+    }
+}
@@ -0,0 +1,77 @@
+package app.cache;
+
+import app.model.SimilarPicture;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerceptualHashIndexUTest {
+
+    private final PerceptualHashIndex index = new PerceptualHashIndex();
+
+    @Test
+    void givenClusteredHashes_whenSearch_thenFindsExactlyWhatALinearScanFinds() {
+        // given
+        Random random = new Random(42);
+        long[] hashes = new long[40000];
+        UUID[] ids = new UUID[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            // near-duplicates of a few hundred originals, a couple of bits flipped each
+            hashes[i] = i < 2000 ? random.nextLong() : hashes[random.nextInt(2000)] ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+            ids[i] = UUID.randomUUID();
+            index.add(hashes[i], ids[i]);
+        }
+
+        for (int query = 0; query < 100; query++) {
+            long hash = hashes[random.nextInt(hashes.length)] ^ (1L << random.nextInt(64));
+            // probing from 0 to 4 bits per chunk, and a full scan past that
+            int maxDistance = query % 21;
+
+            // when
+            List<SimilarPicture> found = index.search(hash, maxDistance, Integer.MAX_VALUE);
+
+            // then
+            List<UUID> expected = IntStream.range(0, hashes.length)
+                    .filter(i -> PerceptualHashIndex.distance(hash, hashes[i]) <= maxDistance)
+                    .mapToObj(i -> ids[i])
+                    .sorted()
+                    .toList();
+            assertEquals(expected, found.stream().map(SimilarPicture::getId).sorted().toList());
+            List<Integer> distances = found.stream().map(SimilarPicture::getDistance).toList();
+            assertEquals(distances.stream().sorted().toList(), distances);
+        }
+    }
+
+    @Test
+    void givenManyRemovedEntries_whenSearch_thenOnlyLiveEntriesAreFoundAfterTheRebuild() {
+        // given
+        Random random = new Random(7);
+        List<UUID> kept = new ArrayList<>();
+        long hash = random.nextLong();
+        for (int i = 0; i < 60000; i++) {
+            UUID pictureId = UUID.randomUUID();
+            long pictureHash = hash ^ (1L << (i % 64));
+            assertTrue(index.add(pictureHash, pictureId));
+            assertFalse(index.add(pictureHash, pictureId));
+            if (i % 3 == 0) {
+                kept.add(pictureId);
+            } else {
+                assertTrue(index.remove(pictureHash, pictureId));
+                assertFalse(index.remove(pictureHash, pictureId));
+            }
+        }
+
+        // when
+        List<SimilarPicture> found = index.search(hash, 1, Integer.MAX_VALUE);
+
+        // then
+        assertEquals(kept.size(), index.size());
+        assertEquals(kept.stream().sorted().toList(), found.stream().map(SimilarPicture::getId).sorted().toList());
+    }
+}
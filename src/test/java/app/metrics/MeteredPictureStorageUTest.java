@@ -0,0 +1,77 @@
+package app.metrics;
+
+import app.storage.ShardedFileSystemPictureStorage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MeteredPictureStorageUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MeteredPictureStorage pictureStorage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        pictureStorage = new MeteredPictureStorage(new ShardedFileSystemPictureStorage(tempDir.toString()), meterRegistry);
+    }
+
+    @Test
+    void givenPut_whenContentIsWritten_thenLatencyAndBytesAreRecorded() throws IOException {
+        // when
+        pictureStorage.put("blobs/abcdef", new ByteArrayInputStream("test data".getBytes()));
+
+        // then
+        assertEquals(1, meterRegistry.get("picture.storage.latency").tag("operation", "put").timer().count());
+        DistributionSummary written = meterRegistry.get("picture.storage.bytes.written").summary();
+        assertEquals(1, written.count());
+        assertEquals(9, written.totalAmount());
+    }
+
+    @Test
+    void givenOpenedResource_whenStreamIsReadAndClosed_thenBytesReadAreRecordedOnce() throws IOException {
+        // given
+        pictureStorage.put("blobs/abcdef", new ByteArrayInputStream("test data".getBytes()));
+        Resource resource = pictureStorage.open("blobs/abcdef");
+
+        // when
+        try (InputStream content = resource.getInputStream()) {
+            assertEquals(1, meterRegistry.get("picture.storage.transfers.active").tag("direction", "read").gauge().value());
+            content.readAllBytes();
+        }
+
+        // then
+        DistributionSummary read = meterRegistry.get("picture.storage.bytes.read").summary();
+        assertEquals(1, read.count());
+        assertEquals(9, read.totalAmount());
+        assertEquals(0, meterRegistry.get("picture.storage.transfers.active").tag("direction", "read").gauge().value());
+        assertTrue(resource.isFile());
+    }
+
+    @Test
+    void givenMissingKey_whenOpen_thenErrorIsCountedByExceptionType() {
+        // when
+        assertThrows(NoSuchFileException.class, () -> pictureStorage.open("blobs/missing"));
+
+        // then
+        assertEquals(1, meterRegistry.get("picture.storage.errors")
+                .tag("operation", "open")
+                .tag("exception", "NoSuchFileException")
+                .counter().count());
+        assertEquals(1, meterRegistry.get("picture.storage.latency").tag("operation", "open").timer().count());
+    }
+}
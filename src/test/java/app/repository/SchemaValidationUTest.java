@@ -0,0 +1,59 @@
+package app.repository;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.CoreErrorCode;
+import org.flywaydb.core.api.ErrorDetails;
+import org.flywaydb.core.api.output.ValidateResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SchemaValidationUTest {
+
+    @Mock
+    private ObjectProvider<Flyway> flywayProvider;
+
+    @Mock
+    private Flyway flyway;
+
+    @Test
+    void givenMigrationsNotMatchingDatabase_whenValidate_thenReportsDown() {
+        // given
+        SchemaValidation schemaValidation = new SchemaValidation(true, flywayProvider);
+        when(flywayProvider.getIfAvailable()).thenReturn(flyway);
+        when(flyway.validateWithResult()).thenReturn(new ValidateResult("10.20.1", "picture-service",
+                new ErrorDetails(CoreErrorCode.VALIDATE_ERROR, "Detected applied migration not resolved locally: 2"),
+                false, 1, List.of(), List.of()));
+        assertEquals(Status.UNKNOWN, schemaValidation.health().getStatus());
+
+        // when
+        schemaValidation.validate();
+
+        // then
+        assertEquals(Status.DOWN, schemaValidation.health().getStatus());
+    }
+
+    @Test
+    void givenMatchingMigrations_whenValidate_thenReportsUp() {
+        // given
+        SchemaValidation schemaValidation = new SchemaValidation(true, flywayProvider);
+        when(flywayProvider.getIfAvailable()).thenReturn(flyway);
+        when(flyway.validateWithResult()).thenReturn(new ValidateResult("10.20.1", "picture-service", null,
+                true, 1, List.of(), List.of()));
+
+        // when
+        schemaValidation.validate();
+
+        // then
+        assertEquals(Status.UP, schemaValidation.health().getStatus());
+    }
+}
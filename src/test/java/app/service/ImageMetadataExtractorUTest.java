@@ -0,0 +1,110 @@
+package app.service;
+
+import app.model.ImageFormat;
+import app.model.ImageMetadata;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageMetadataExtractorUTest {
+
+    private final ImageMetadataExtractor extractor = new ImageMetadataExtractor(DataSize.ofKilobytes(64));
+
+    @Test
+    void givenImagesWrittenByImageIo_whenExtract_thenReadsFormatAndDimensions() throws IOException {
+        for (String format : new String[]{"jpeg", "png", "gif", "bmp", "tiff"}) {
+            // when
+            ImageMetadata metadata = extractor.extract(new ByteArrayInputStream(image(format, 320, 200)));
+
+            // then
+            assertEquals(ImageFormat.valueOf(format.toUpperCase()), metadata.getFormat(), format);
+            assertEquals(320, metadata.getWidth(), format);
+            assertEquals(200, metadata.getHeight(), format);
+        }
+    }
+
+    @Test
+    void givenJpegWithExif_whenExtract_thenReadsOrientationCameraAndCaptureTime() throws IOException {
+        // when
+        ImageMetadata metadata = extractor.extract(new ByteArrayInputStream(jpegWithExif()));
+
+        // then
+        assertEquals(ImageFormat.JPEG, metadata.getFormat());
+        assertEquals(4000, metadata.getWidth());
+        assertEquals(3000, metadata.getHeight());
+        assertEquals(6, metadata.getOrientation());
+        assertEquals("Canon", metadata.getCameraMake());
+        assertEquals(LocalDateTime.of(2024, 5, 17, 14, 30, 5), metadata.getTakenAt());
+    }
+
+    @Test
+    void givenLargeImage_whenExtract_thenReadsOnlyTheHeaderWindow() throws IOException {
+        // given
+        byte[] content = Arrays.copyOf(image("png", 16, 16), 1024 * 1024);
+        ByteArrayInputStream stream = new ByteArrayInputStream(content);
+
+        // when
+        extractor.extract(stream);
+
+        // then
+        assertEquals(content.length - 64 * 1024, stream.available());
+    }
+
+    @Test
+    void givenNonImageOrTruncatedHeader_whenExtract_thenReturnsWhatIsKnownWithoutFailing() throws IOException {
+        // when
+        ImageMetadata text = extractor.extract(new ByteArrayInputStream("<html></html>".getBytes(StandardCharsets.US_ASCII)));
+        ImageMetadata truncated = extractor.extract(new ByteArrayInputStream(Arrays.copyOf(jpegWithExif(), 40)));
+
+        // then
+        assertEquals(ImageFormat.UNKNOWN, text.getFormat());
+        assertNull(text.getWidth());
+        assertEquals(ImageFormat.JPEG, truncated.getFormat());
+        assertNull(truncated.getWidth());
+    }
+
+    private static byte[] image(String format, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out));
+        return out.toByteArray();
+    }
+
+    // SOI, an APP1 EXIF segment in big-endian TIFF layout, then a baseline frame header
+    private static byte[] jpegWithExif() {
+        ByteBuffer tiff = ByteBuffer.allocate(96);
+        tiff.put(new byte[]{'M', 'M', 0, 42}).putInt(8);
+        // IFD0 at 8: Make, Orientation and the EXIF sub-IFD pointer
+        tiff.putShort((short) 3);
+        tiff.putShort((short) 0x010F).putShort((short) 2).putInt(6).putInt(50);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(56);
+        tiff.putInt(0);
+        // offset 50: "Canon\0"
+        tiff.put("Canon\0".getBytes(StandardCharsets.US_ASCII));
+        // EXIF IFD at 56: DateTimeOriginal, 20 bytes at offset 74
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x9003).putShort((short) 2).putInt(20).putInt(74);
+        tiff.putInt(0);
+        tiff.put("2024:05:17 14:30:05\0".getBytes(StandardCharsets.US_ASCII));
+
+        byte[] exif = Arrays.copyOf(tiff.array(), tiff.position());
+        ByteBuffer jpeg = ByteBuffer.allocate(256);
+        jpeg.put(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        jpeg.put(new byte[]{(byte) 0xFF, (byte) 0xE1}).putShort((short) (2 + 6 + exif.length));
+        jpeg.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII)).put(exif);
+        jpeg.put(new byte[]{(byte) 0xFF, (byte) 0xC0}).putShort((short) 17).put((byte) 8)
+                .putShort((short) 3000).putShort((short) 4000).put(new byte[12]);
+        return Arrays.copyOf(jpeg.array(), jpeg.position());
+    }
+}
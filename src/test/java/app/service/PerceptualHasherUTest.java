@@ -0,0 +1,71 @@
+package app.service;
+
+import app.cache.PerceptualHashIndex;
+import app.model.ImageFormat;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerceptualHasherUTest {
+
+    private final PerceptualHasher hasher = new PerceptualHasher();
+
+    @Test
+    void givenResizedAndRecompressedCopy_whenHash_thenOnlyAFewBitsDifferFromTheOriginal() throws IOException {
+        // given
+        BufferedImage original = scene(800, 600, 0);
+        BufferedImage resized = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(original, 0, 0, 200, 150, null);
+        graphics.dispose();
+
+        // when
+        long originalHash = hasher.hash(encode(original, "png"));
+        long copyHash = hasher.hash(encode(resized, "jpeg"));
+        long otherHash = hasher.hash(encode(scene(800, 600, 1), "png"));
+
+        // then
+        assertTrue(PerceptualHashIndex.distance(originalHash, copyHash) <= 4);
+        assertTrue(PerceptualHashIndex.distance(originalHash, otherHash) > 16);
+        assertTrue(hasher.getDecodableFormats().containsAll(List.of(ImageFormat.JPEG, ImageFormat.PNG)));
+    }
+
+    @Test
+    void givenContentThatIsNoImage_whenHash_thenThrowsIOException() {
+        assertThrows(IOException.class, () -> hasher.hash(new ByteArrayResource("not an image".getBytes())));
+    }
+
+    // blocks of pseudo-random brightness, different for every seed
+    private static BufferedImage scene(int width, int height, int seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y += height / 12) {
+            for (int x = 0; x < width; x += width / 12) {
+                int grey = random.nextInt(256);
+                graphics.setColor(new Color(grey, grey, grey));
+                graphics.fillRect(x, y, width / 12 + 1, height / 12 + 1);
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    private static ByteArrayResource encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return new ByteArrayResource(out.toByteArray());
+    }
+}
@@ -0,0 +1,127 @@
+package app.service;
+
+import app.model.BatchUploadResult;
+import app.model.Picture;
+import app.repository.PictureRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureBatchUploadServiceUTest {
+
+    private static final String URI_PREFIX = "http://localhost/api/v1/pictures/view/";
+
+    @Mock
+    private PictureService pictureService;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    private PictureBatchUploadService pictureBatchUploadService;
+
+    @BeforeEach
+    void setUp() {
+        pictureBatchUploadService = new PictureBatchUploadService(pictureService, pictureRepository, 2, 10, false);
+        when(pictureService.pictureViewUriPrefix()).thenReturn(URI_PREFIX);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pictureBatchUploadService.shutdown();
+    }
+
+    @Test
+    void givenSeveralFiles_whenSavePicturesToStorage_thenInsertsAllRowsInOneBatch() {
+        // given
+        List<MultipartFile> files = List.of(file("a.jpg"), file("b.jpg"), file("c.jpg"));
+        when(pictureService.storePictureContent(any(), eq(URI_PREFIX)))
+                .thenAnswer(invocation -> picture(invocation.getArgument(0, MultipartFile.class)));
+
+        // when
+        List<BatchUploadResult> results = pictureBatchUploadService.savePicturesToStorage(files);
+
+        // then
+        assertEquals(List.of("a.jpg", "b.jpg", "c.jpg"),
+                results.stream().map(BatchUploadResult::getOriginalFileName).toList());
+        assertTrue(results.stream().allMatch(BatchUploadResult::isStored));
+        verify(pictureRepository, times(1)).insertAll(anyList());
+        verify(pictureService, times(3)).onPictureSaved(any());
+    }
+
+    @Test
+    void givenFileThatCannotBeWritten_whenSavePicturesToStorage_thenOnlyThatFileFails() {
+        // given
+        List<MultipartFile> files = List.of(file("a.jpg"), file("broken.jpg"));
+        when(pictureService.storePictureContent(any(), eq(URI_PREFIX))).thenAnswer(invocation -> {
+            MultipartFile file = invocation.getArgument(0);
+            if (file.getOriginalFilename().equals("broken.jpg")) {
+                throw new RuntimeException("Could not store picture");
+            }
+            return picture(file);
+        });
+
+        // when
+        List<BatchUploadResult> results = pictureBatchUploadService.savePicturesToStorage(files);
+
+        // then
+        assertTrue(results.get(0).isStored());
+        assertFalse(results.get(1).isStored());
+        assertEquals("Could not store picture", results.get(1).getError());
+        verify(pictureRepository).insertAll(List.of(results.get(0).getPicture()));
+    }
+
+    @Test
+    void givenRowRejectedByDatabase_whenSavePicturesToStorage_thenRetriesRowByRowAndDiscardsOrphanedContent() {
+        // given
+        List<MultipartFile> files = List.of(file("a.jpg"), file("rejected.jpg"));
+        when(pictureService.storePictureContent(any(), eq(URI_PREFIX)))
+                .thenAnswer(invocation -> picture(invocation.getArgument(0, MultipartFile.class)));
+        doAnswer(invocation -> {
+            List<Picture> pictures = invocation.getArgument(0);
+            if (pictures.stream().anyMatch(picture -> picture.getOriginalFileName().equals("rejected.jpg"))) {
+                throw new DataIntegrityViolationException("rejected");
+            }
+            return null;
+        }).when(pictureRepository).insertAll(anyList());
+
+        // when
+        List<BatchUploadResult> results = pictureBatchUploadService.savePicturesToStorage(files);
+
+        // then
+        assertTrue(results.get(0).isStored());
+        assertFalse(results.get(1).isStored());
+        verify(pictureService).onPictureSaved(results.get(0).getPicture());
+        verify(pictureService).discardPictureContent(argThat(picture -> picture.getOriginalFileName().equals("rejected.jpg")));
+    }
+
+    private static MultipartFile file(String name) {
+        return new MockMultipartFile("pictures", name, "image/jpeg", name.getBytes());
+    }
+
+    private static Picture picture(MultipartFile file) {
+        UUID id = UUID.randomUUID();
+        return Picture.builder()
+                .id(id)
+                .originalFileName(file.getOriginalFilename())
+                .type(file.getContentType())
+                .filePath("pictures/" + id)
+                .pictureUrl(URI_PREFIX + id)
+                .build();
+    }
+}
@@ -0,0 +1,175 @@
+package app.service;
+
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.model.StoredBlob;
+import app.repository.PictureBlobRepository;
+import app.storage.ShardedFileSystemPictureStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PictureBlobServiceUTest {
+
+    // SHA-256 of "test data"
+    private static final String TEST_DATA_HASH = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+    // CRC32C of "test data"
+    private static final long TEST_DATA_CRC32C = 0x3379b4caL;
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureBlobRepository pictureBlobRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final Map<String, PictureBlob> blobs = new HashMap<>();
+    private ShardedFileSystemPictureStorage pictureStorage;
+
+    @BeforeEach
+    void setUp() {
+        pictureStorage = new ShardedFileSystemPictureStorage(tempDir.toString());
+        when(pictureBlobRepository.findForUpdate(any()))
+                .thenAnswer(invocation -> Optional.ofNullable(blobs.get(invocation.<String>getArgument(0))));
+        when(pictureBlobRepository.saveAndFlush(any())).thenAnswer(invocation -> {
+            PictureBlob blob = invocation.getArgument(0);
+            blobs.put(blob.getContentHash(), blob);
+            return blob;
+        });
+        doAnswer(invocation -> blobs.remove(invocation.<PictureBlob>getArgument(0).getContentHash()))
+                .when(pictureBlobRepository).delete(any());
+    }
+
+    @Test
+    void givenIdenticalUploads_whenStore_thenBothShareOneBlob() throws IOException {
+        PictureBlobService pictureBlobService = newService(true);
+
+        StoredBlob first = pictureBlobService.store(content("test data"), UUID.randomUUID());
+        StoredBlob second = pictureBlobService.store(content("test data"), UUID.randomUUID());
+
+        assertEquals(TEST_DATA_HASH, first.getContentHash());
+        assertEquals(9, first.getSize());
+        assertEquals(TEST_DATA_CRC32C, first.getCrc32c());
+        assertEquals(TEST_DATA_CRC32C, blobs.get(TEST_DATA_HASH).getCrc32c());
+        assertEquals(first.getFilePath(), second.getFilePath());
+        assertEquals(2, blobs.get(TEST_DATA_HASH).getReferenceCount());
+        assertEquals("blobs/" + TEST_DATA_HASH, first.getFilePath());
+        assertArrayEquals("test data".getBytes(), pictureStorage.open(first.getFilePath()).getContentAsByteArray());
+        try (Stream<Path> staged = Files.walk(tempDir.resolve("staging"))) {
+            assertEquals(0, staged.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void givenLockingReadLosingADeadlock_whenStore_thenRetriesAndStoresTheBlob() throws IOException {
+        PictureBlobService pictureBlobService = newService(true);
+        when(pictureBlobRepository.findForUpdate(TEST_DATA_HASH))
+                .thenThrow(new CannotAcquireLockException("Deadlock found when trying to get lock"))
+                .thenAnswer(invocation -> Optional.ofNullable(blobs.get(TEST_DATA_HASH)));
+
+        StoredBlob stored = pictureBlobService.store(content("test data"), UUID.randomUUID());
+
+        assertEquals("blobs/" + TEST_DATA_HASH, stored.getFilePath());
+        assertEquals(1, blobs.get(TEST_DATA_HASH).getReferenceCount());
+        assertArrayEquals("test data".getBytes(), pictureStorage.open(stored.getFilePath()).getContentAsByteArray());
+    }
+
+    @Test
+    void givenDifferentUploads_whenStore_thenEachGetsItsOwnBlob() throws IOException {
+        PictureBlobService pictureBlobService = newService(true);
+
+        StoredBlob first = pictureBlobService.store(content("test data"), UUID.randomUUID());
+        StoredBlob second = pictureBlobService.store(content("other data"), UUID.randomUUID());
+
+        assertNotEquals(first.getFilePath(), second.getFilePath());
+        assertEquals(2, blobs.size());
+    }
+
+    @Test
+    void givenSharedBlob_whenRelease_thenFileIsRemovedWithLastReference() throws IOException {
+        PictureBlobService pictureBlobService = newService(true);
+        StoredBlob first = pictureBlobService.store(content("test data"), UUID.randomUUID());
+        StoredBlob second = pictureBlobService.store(content("test data"), UUID.randomUUID());
+
+        pictureBlobService.release(pictureOf(first));
+
+        assertTrue(pictureStorage.exists(first.getFilePath()));
+        assertEquals(1, blobs.get(TEST_DATA_HASH).getReferenceCount());
+
+        pictureBlobService.release(pictureOf(second));
+
+        assertFalse(pictureStorage.exists(second.getFilePath()));
+        assertTrue(blobs.isEmpty());
+    }
+
+    @Test
+    void givenCompleteLocalFile_whenStoreFile_thenItIsMovedIntoItsBlob() throws IOException {
+        PictureBlobService pictureBlobService = newService(true);
+        Path file = Files.writeString(tempDir.resolve("upload.part"), "test data");
+
+        StoredBlob stored = pictureBlobService.storeFile(file, UUID.randomUUID());
+
+        assertEquals(TEST_DATA_HASH, stored.getContentHash());
+        assertEquals(9, stored.getSize());
+        assertFalse(Files.exists(file));
+        assertArrayEquals("test data".getBytes(), pictureStorage.open(stored.getFilePath()).getContentAsByteArray());
+    }
+
+    @Test
+    void givenDeduplicationDisabled_whenStore_thenFileIsOwnedByThePicture() throws IOException {
+        PictureBlobService pictureBlobService = newService(false);
+        UUID pictureId = UUID.randomUUID();
+
+        StoredBlob stored = pictureBlobService.store(content("test data"), pictureId);
+
+        assertEquals("pictures/" + pictureId, stored.getFilePath());
+        assertEquals(TEST_DATA_HASH, stored.getContentHash());
+        verify(pictureBlobRepository, never()).saveAndFlush(any());
+
+        pictureBlobService.release(pictureOf(stored));
+
+        assertFalse(pictureStorage.exists(stored.getFilePath()));
+    }
+
+    private PictureBlobService newService(boolean deduplicate) {
+        return new PictureBlobService(deduplicate, pictureStorage, pictureBlobRepository, new TransactionTemplate(transactionManager));
+    }
+
+    private static ByteArrayInputStream content(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    private static Picture pictureOf(StoredBlob storedBlob) {
+        return Picture.builder()
+                .id(UUID.randomUUID())
+                .contentHash(storedBlob.getContentHash())
+                .filePath(storedBlob.getFilePath())
+                .build();
+    }
+}
@@ -0,0 +1,115 @@
+package app.service;
+
+import app.cache.HotPictureCache;
+import app.cache.PerceptualHashIndex;
+import app.cache.PictureMetadataCache;
+import app.model.BulkDeleteResult;
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import app.repository.PictureRepository;
+import app.storage.StorageKeys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureBulkDeleteServiceUTest {
+
+    private static final String CONTENT_HASH = "abcdef";
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureBlobRepository pictureBlobRepository;
+
+    @Mock
+    private PictureReaper pictureReaper;
+
+    @Mock
+    private PictureWriteBehind pictureWriteBehind;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private PictureBulkDeleteService pictureBulkDeleteService;
+
+    @BeforeEach
+    void setUp() {
+        pictureBulkDeleteService = new PictureBulkDeleteService(pictureRepository, pictureBlobRepository, pictureWriteBehind,
+                new PictureMetadataCache(100, Duration.ofMinutes(1)),
+                new HotPictureCache(DataSize.ofMegabytes(1), DataSize.ofKilobytes(64)), new PerceptualHashIndex(), pictureReaper, new TransactionTemplate(transactionManager));
+    }
+
+    @Test
+    void givenPicturesSharingABlob_whenDeletePictures_thenReleasesTheBlobOnceAndQueuesFilesForTheReaper() {
+        // given
+        Picture first = sharedPicture();
+        Picture second = sharedPicture();
+        UUID ownedId = UUID.randomUUID();
+        Picture owned = Picture.builder().id(ownedId).filePath(StorageKeys.pictureKey(ownedId)).build();
+        UUID missingId = UUID.randomUUID();
+        List<UUID> requested = List.of(first.getId(), second.getId(), ownedId, missingId);
+        when(pictureRepository.findAllForUpdate(any())).thenReturn(List.of(first, second, owned));
+        when(pictureBlobRepository.releaseReferences(CONTENT_HASH, StorageKeys.blobKey(CONTENT_HASH), 2)).thenReturn(1);
+        when(pictureBlobRepository.findAllById(List.of(CONTENT_HASH))).thenReturn(List.of(blob(0)));
+
+        // when
+        BulkDeleteResult result = pictureBulkDeleteService.deletePictures(requested);
+
+        // then
+        assertEquals(List.of(first.getId(), second.getId(), ownedId), result.getDeleted());
+        assertEquals(List.of(missingId), result.getNotFound());
+        verify(pictureRepository, times(1)).deleteAllByIdInBatch(Set.of(first.getId(), second.getId(), ownedId));
+        verify(pictureReaper).reapBlobs(List.of(CONTENT_HASH));
+        verify(pictureReaper).reapFiles(List.of(StorageKeys.pictureKey(ownedId)));
+        verify(pictureReaper).reapVariants(Set.of(first.getId(), second.getId(), ownedId));
+    }
+
+    @Test
+    void givenBlobStillReferencedElsewhere_whenDeletePictures_thenLeavesItAlone() {
+        // given
+        Picture picture = sharedPicture();
+        when(pictureRepository.findAllForUpdate(any())).thenReturn(List.of(picture));
+        when(pictureBlobRepository.releaseReferences(CONTENT_HASH, StorageKeys.blobKey(CONTENT_HASH), 1)).thenReturn(1);
+        when(pictureBlobRepository.findAllById(List.of(CONTENT_HASH))).thenReturn(List.of(blob(1)));
+
+        // when
+        pictureBulkDeleteService.deletePictures(List.of(picture.getId()));
+
+        // then
+        verify(pictureReaper).reapBlobs(List.of());
+        verify(pictureReaper).reapFiles(List.of());
+    }
+
+    private static Picture sharedPicture() {
+        return Picture.builder()
+                .id(UUID.randomUUID())
+                .contentHash(CONTENT_HASH)
+                .filePath(StorageKeys.blobKey(CONTENT_HASH))
+                .build();
+    }
+
+    private static PictureBlob blob(long referenceCount) {
+        return PictureBlob.builder()
+                .contentHash(CONTENT_HASH)
+                .filePath(StorageKeys.blobKey(CONTENT_HASH))
+                .referenceCount(referenceCount)
+                .build();
+    }
+}
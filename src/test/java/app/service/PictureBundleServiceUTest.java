@@ -0,0 +1,119 @@
+package app.service;
+
+import app.exception.PictureNotFoundException;
+import app.model.BundlePart;
+import app.model.Picture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureBundleServiceUTest {
+
+    @Mock
+    private PictureService pictureService;
+
+    @Mock
+    private PictureVariantService pictureVariantService;
+
+    @Mock
+    private PictureRenditionService pictureRenditionService;
+
+    @Mock
+    private PictureNegotiationService pictureNegotiationService;
+
+    private PictureBundleService pictureBundleService;
+
+    @BeforeEach
+    void setUp() {
+        pictureBundleService = new PictureBundleService(pictureService, pictureVariantService, pictureRenditionService,
+                pictureNegotiationService, 2, 2, DataSize.ofBytes(16));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pictureBundleService.shutdown();
+    }
+
+    @Test
+    void givenFoundMissingAndUnreadablePictures_whenWriteBundle_thenWritesAPartPerIdInOrder() throws IOException {
+        // given
+        Picture first = picture();
+        Picture unreadable = picture();
+        Picture last = picture();
+        UUID missingId = UUID.randomUUID();
+        when(pictureNegotiationService.negotiate(any(), isNull())).thenReturn(Optional.empty());
+        when(pictureService.getPictureResourceForView(first)).thenReturn(new ByteArrayResource("first".getBytes()));
+        when(pictureService.getPictureResourceForView(unreadable))
+                .thenThrow(new PictureNotFoundException("Picture with id [%s] not found".formatted(unreadable.getId())));
+        when(pictureService.getPictureResourceForView(last)).thenReturn(new ByteArrayResource("last".getBytes()));
+        List<BundlePart> written = new ArrayList<>();
+
+        // when
+        pictureBundleService.writeBundle(List.of(first.getId(), missingId, unreadable.getId(), last.getId()),
+                Map.of(first.getId(), first, unreadable.getId(), unreadable, last.getId(), last),
+                null, null, null, null, null, written::add);
+
+        // then
+        assertEquals(List.of(first.getId(), missingId, unreadable.getId(), last.getId()),
+                written.stream().map(BundlePart::getPictureId).toList());
+        assertEquals(List.of(200, 404, 404, 200), written.stream().map(BundlePart::getStatus).toList());
+        assertArrayEquals("first".getBytes(), written.get(0).getContent().getContentAsByteArray());
+        assertEquals(MediaType.IMAGE_JPEG_VALUE, written.get(0).getContentType());
+        assertEquals("", written.get(0).getVariantKey());
+        assertNull(written.get(1).getContent());
+        assertArrayEquals("last".getBytes(), written.get(3).getContent().getContentAsByteArray());
+    }
+
+    @Test
+    void givenContentOverTheBufferedSize_whenWriteBundle_thenLeavesItToBeStreamedFromStorage(@TempDir Path tempDir) throws IOException {
+        // given
+        Picture small = picture();
+        Picture large = picture();
+        Path largeFile = Files.write(tempDir.resolve("large"), new byte[64]);
+        Resource largeContent = new FileSystemResource(largeFile);
+        when(pictureNegotiationService.negotiate(any(), isNull())).thenReturn(Optional.empty());
+        when(pictureService.getPictureResourceForView(small)).thenReturn(new FileSystemResource(Files.write(tempDir.resolve("small"), new byte[8])));
+        when(pictureService.getPictureResourceForView(large)).thenReturn(largeContent);
+        List<BundlePart> written = new ArrayList<>();
+
+        // when
+        pictureBundleService.writeBundle(List.of(small.getId(), large.getId()), Map.of(small.getId(), small, large.getId(), large),
+                null, null, null, null, null, written::add);
+
+        // then
+        assertInstanceOf(ByteArrayResource.class, written.get(0).getContent());
+        assertSame(largeContent, written.get(1).getContent());
+    }
+
+    private static Picture picture() {
+        return Picture.builder()
+                .id(UUID.randomUUID())
+                .type(MediaType.IMAGE_JPEG_VALUE)
+                .filePath("pictures/" + UUID.randomUUID())
+                .build();
+    }
+}
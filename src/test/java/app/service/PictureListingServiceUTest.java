@@ -0,0 +1,80 @@
+package app.service;
+
+import app.exception.InvalidPictureQueryException;
+import app.model.ImageFormat;
+import app.model.PictureFilter;
+import app.model.PicturePage;
+import app.model.PictureSummary;
+import app.repository.PictureRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureListingServiceUTest {
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    private PictureListingService pictureListingService;
+
+    private final PictureFilter filter = PictureFilter.builder().type("image/png").build();
+
+    @BeforeEach
+    void setUp() {
+        pictureListingService = new PictureListingService(pictureRepository, 2, 100);
+    }
+
+    @Test
+    void givenMoreRowsThanTheLimit_whenListPictures_thenNextCursorContinuesAfterTheLastItem() {
+        // given
+        PictureSummary first = summary(LocalDateTime.of(2025, 3, 3, 10, 0));
+        PictureSummary second = summary(LocalDateTime.of(2025, 3, 2, 10, 0));
+        PictureSummary third = summary(LocalDateTime.of(2025, 3, 1, 10, 0));
+        when(pictureRepository.findSummaries(filter, null, null, 3)).thenReturn(List.of(first, second, third));
+        when(pictureRepository.findSummaries(filter, second.getUploadDate(), second.getId(), 3)).thenReturn(List.of(third));
+
+        // when
+        PicturePage page = pictureListingService.listPictures(filter, null, null);
+        PicturePage lastPage = pictureListingService.listPictures(filter, page.getNextCursor(), null);
+
+        // then
+        assertEquals(List.of(first, second), page.getItems());
+        assertNotNull(page.getNextCursor());
+        assertEquals(List.of(third), lastPage.getItems());
+        assertNull(lastPage.getNextCursor());
+    }
+
+    @Test
+    void givenMalformedCursor_whenListPictures_thenThrowsInvalidPictureQueryException() {
+        assertThrows(InvalidPictureQueryException.class, () -> pictureListingService.listPictures(filter, "not-a-cursor", null));
+
+        verifyNoInteractions(pictureRepository);
+    }
+
+    @Test
+    void givenLimitAboveMaximumOrInvertedRange_whenListPictures_thenThrowsInvalidPictureQueryException() {
+        PictureFilter invertedSizes = PictureFilter.builder().minSize(10L).maxSize(5L).build();
+
+        assertThrows(InvalidPictureQueryException.class, () -> pictureListingService.listPictures(filter, null, 101));
+        assertThrows(InvalidPictureQueryException.class, () -> pictureListingService.listPictures(invertedSizes, null, null));
+        verify(pictureRepository, never()).findSummaries(any(), any(), any(), anyInt());
+    }
+
+    private static PictureSummary summary(LocalDateTime uploadDate) {
+        UUID id = UUID.randomUUID();
+        return new PictureSummary(id, id + ".png", "image/png", 10, uploadDate, "http://localhost/api/v1/pictures/view/" + id,
+                ImageFormat.PNG, 640, 480);
+    }
+}
@@ -0,0 +1,60 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.model.ImageFormat;
+import app.model.ImageMetadata;
+import app.model.Picture;
+import app.repository.PictureRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureMetadataBackfillUTest {
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureService pictureService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void givenPicturesWithoutMetadata_whenBackfill_thenUpdatesReadableOnesAndMovesPastTheRest() {
+        // given
+        Picture readable = Picture.builder().id(new UUID(0, 1)).filePath("blobs/aaaa").size(100).build();
+        Picture unreadable = Picture.builder().id(new UUID(0, 2)).filePath("blobs/bbbb").size(100).build();
+        when(pictureRepository.findWithoutImageMetadata(isNull(), any())).thenReturn(List.of(readable, unreadable));
+        when(pictureRepository.findWithoutImageMetadata(eq(unreadable.getId()), any())).thenReturn(List.of());
+        when(pictureService.readImageMetadata("blobs/aaaa", 100)).thenReturn(Optional.of(
+                ImageMetadata.builder().format(ImageFormat.PNG).width(640).height(480).build()));
+        when(pictureService.readImageMetadata("blobs/bbbb", 100)).thenReturn(Optional.empty());
+        when(pictureRepository.updateImageMetadata(readable.getId(), ImageFormat.PNG, 640, 480, null, null, null, null))
+                .thenReturn(1);
+        PictureMetadataBackfill backfill = new PictureMetadataBackfill(true, 2, 2, 0, pictureRepository, pictureService,
+                new PictureMetadataCache(100, Duration.ofMinutes(1)), new TransactionTemplate(transactionManager));
+
+        // when
+        int updated = backfill.backfill();
+
+        // then
+        assertEquals(1, updated);
+        verify(pictureRepository, never()).updateImageMetadata(eq(unreadable.getId()), any(), any(), any(), any(), any(), any(), any());
+    }
+}
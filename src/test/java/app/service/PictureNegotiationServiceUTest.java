@@ -0,0 +1,127 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.model.ImageFormat;
+import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.RenditionStatus;
+import app.model.VariantSpec;
+import app.repository.PictureRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureNegotiationServiceUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    private PictureVariantService pictureVariantService;
+    private PictureNegotiationService pictureNegotiationService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        pictureVariantService = new PictureVariantService(tempDir.resolve("variants").toString(), 4096, 0.85f, 2, Duration.ofSeconds(5));
+        meterRegistry = new SimpleMeterRegistry();
+        pictureNegotiationService = new PictureNegotiationService(pictureVariantService,
+                new PictureOptimizer(true, DataSize.ofMegabytes(20), DataSize.ofKilobytes(1), Duration.ofSeconds(2), 1),
+                pictureRepository, new PictureMetadataCache(100, Duration.ofMinutes(1)), meterRegistry,
+                List.of("jpeg", "no-such-format"), 0.1);
+    }
+
+    @Test
+    void givenPngWithMetadata_whenOptimize_thenStoresSmallerCopyAndServesItToEveryClient() throws IOException {
+        // given
+        byte[] png = paddedPng();
+        Picture picture = picture(png.length);
+        when(pictureRepository.updateOptimizedSize(eq(picture.getId()), anyLong())).thenReturn(1);
+
+        // when
+        pictureNegotiationService.optimize(picture, new ByteArrayResource(png));
+
+        // then
+        verify(pictureRepository).updateOptimizedSize(eq(picture.getId()), longThat(size -> size < png.length - 1024));
+        picture.setOptimizedSize(pictureVariantService.findVariant(picture.getId(), "optimized.png", "image/png")
+                .orElseThrow().getResource().contentLength());
+        Optional<PictureVariant> served = pictureNegotiationService.negotiate(picture, null);
+        assertTrue(served.isPresent());
+        assertEquals("image/png", served.get().getContentType());
+        assertEquals(png.length - picture.getOptimizedSize(),
+                meterRegistry.get("picture.view.bytes.saved").tag("representation", "optimized").counter().count());
+    }
+
+    @Test
+    void givenRenderedAlternate_whenNegotiate_thenServesItOnlyToClientsNamingItsFormat() throws IOException {
+        // given
+        byte[] png = paddedPng();
+        Picture picture = picture(png.length * 100L);
+        picture.setRenditionStatus(RenditionStatus.READY);
+        List<VariantSpec> specs = pictureNegotiationService.alternateSpecs(picture);
+        assertEquals(1, specs.size());
+        pictureVariantService.getVariant(picture, new ByteArrayResource(png), specs.get(0));
+
+        // when / then
+        assertTrue(pictureNegotiationService.variesByAccept());
+        assertEquals("image/jpeg", pictureNegotiationService.negotiate(picture, "image/jpeg,image/*;q=0.8")
+                .orElseThrow().getContentType());
+        assertTrue(pictureNegotiationService.negotiate(picture, "image/*,*/*;q=0.8").isEmpty());
+        assertTrue(pictureNegotiationService.negotiate(picture, "image/jpeg;q=0").isEmpty());
+        assertTrue(pictureNegotiationService.negotiate(picture, "not a media type").isEmpty());
+        picture.setSize(1);
+        assertTrue(pictureNegotiationService.negotiate(picture, "image/jpeg").isEmpty());
+    }
+
+    private static Picture picture(long size) {
+        return Picture.builder()
+                .id(UUID.randomUUID())
+                .type("image/png")
+                .format(ImageFormat.PNG)
+                .size(size)
+                .build();
+    }
+
+    // a PNG written with a text chunk the optimizer drops
+    private static byte[] paddedPng() throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        byte[] png = output.toByteArray();
+
+        byte[] data = ("tEXtComment\0" + "x".repeat(4096)).getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteArrayOutputStream padded = new ByteArrayOutputStream();
+        padded.write(png, 0, 33);
+        padded.writeBytes(ByteBuffer.allocate(4).putInt(data.length - 4).array());
+        padded.writeBytes(data);
+        padded.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+        padded.write(png, 33, png.length - 33);
+        return padded.toByteArray();
+    }
+}
@@ -0,0 +1,122 @@
+package app.service;
+
+import app.model.ImageFormat;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PictureOptimizerUTest {
+
+    private final PictureOptimizer optimizer = new PictureOptimizer(true, DataSize.ofMegabytes(20), DataSize.ofKilobytes(1),
+            Duration.ofSeconds(2), 1);
+
+    @Test
+    void givenPngWithTextChunks_whenOptimize_thenDropsThemAndKeepsEveryPixel() throws Exception {
+        // given
+        byte[] png = image("png");
+        byte[] withText = insertAfter(png, 33, pngChunk("tEXt", "Comment\0" + "x".repeat(4096)));
+
+        // when
+        Optional<byte[]> optimized = optimizer.optimize(ImageFormat.PNG, withText, null);
+
+        // then
+        assertTrue(optimized.isPresent());
+        assertTrue(optimized.get().length < withText.length);
+        assertFalse(new String(optimized.get(), StandardCharsets.ISO_8859_1).contains("tEXt"));
+        assertSamePixels(png, optimized.get());
+    }
+
+    @Test
+    void givenJpegWithMetadata_whenOptimize_thenStripsItAndKeepsScanAndOrientation() throws Exception {
+        // given
+        byte[] jpeg = image("jpeg");
+        byte[] xmp = jpegSegment(0xE1, "http://ns.adobe.com/xap/1.0/\0" + "x".repeat(4096));
+        byte[] comment = jpegSegment(0xFE, "y".repeat(2048));
+        byte[] withMetadata = insertAfter(insertAfter(jpeg, 2, comment), 2, xmp);
+
+        // when
+        Optional<byte[]> optimized = optimizer.optimize(ImageFormat.JPEG, withMetadata, 6);
+
+        // then
+        assertTrue(optimized.isPresent());
+        assertTrue(optimized.get().length < jpeg.length + 100);
+        String text = new String(optimized.get(), StandardCharsets.ISO_8859_1);
+        assertFalse(text.contains("xap/1.0") || text.contains("yyyy"));
+        assertEquals(6, new ImageMetadataExtractor(DataSize.ofKilobytes(64))
+                .extract(new ByteArrayInputStream(optimized.get())).getOrientation());
+        assertSamePixels(jpeg, optimized.get());
+    }
+
+    @Test
+    void givenNothingToGainOrDisabled_whenOptimize_thenReturnsEmpty() throws Exception {
+        // given
+        byte[] png = image("png");
+        PictureOptimizer disabled = new PictureOptimizer(false, DataSize.ofMegabytes(20), DataSize.ofKilobytes(1),
+                Duration.ofSeconds(2), 1);
+        byte[] withText = insertAfter(png, 33, pngChunk("tEXt", "Comment\0" + "x".repeat(4096)));
+
+        // when / then
+        assertTrue(optimizer.optimize(ImageFormat.PNG, optimizer.optimize(ImageFormat.PNG, withText, null).orElseThrow(), null).isEmpty());
+        assertTrue(optimizer.optimize(ImageFormat.PNG, Arrays.copyOf(withText, 100), null).isEmpty());
+        assertTrue(optimizer.optimize(ImageFormat.GIF, withText, null).isEmpty());
+        assertTrue(disabled.optimize(ImageFormat.PNG, withText, null).isEmpty());
+    }
+
+    private static void assertSamePixels(byte[] expected, byte[] actual) throws IOException {
+        BufferedImage expectedImage = ImageIO.read(new ByteArrayInputStream(expected));
+        BufferedImage actualImage = ImageIO.read(new ByteArrayInputStream(actual));
+        assertEquals(expectedImage.getWidth(), actualImage.getWidth());
+        assertEquals(expectedImage.getHeight(), actualImage.getHeight());
+        for (int y = 0; y < expectedImage.getHeight(); y++) {
+            for (int x = 0; x < expectedImage.getWidth(); x++) {
+                assertEquals(expectedImage.getRGB(x, y), actualImage.getRGB(x, y));
+            }
+        }
+    }
+
+    private static byte[] image(String format) throws IOException {
+        BufferedImage image = new BufferedImage(120, 80, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 2) << 16 | (y * 3) << 8 | (x * y) & 0xFF);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, format, output);
+        return output.toByteArray();
+    }
+
+    private static byte[] pngChunk(String type, String data) {
+        byte[] bytes = (type + data).getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return ByteBuffer.allocate(bytes.length + 8).putInt(bytes.length - 4).put(bytes).putInt((int) crc.getValue()).array();
+    }
+
+    private static byte[] jpegSegment(int marker, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+        return ByteBuffer.allocate(bytes.length + 4).put((byte) 0xFF).put((byte) marker)
+                .putShort((short) (bytes.length + 2)).put(bytes).array();
+    }
+
+    private static byte[] insertAfter(byte[] content, int offset, byte[] inserted) {
+        byte[] result = new byte[content.length + inserted.length];
+        System.arraycopy(content, 0, result, 0, offset);
+        System.arraycopy(inserted, 0, result, offset, inserted.length);
+        System.arraycopy(content, offset, result, offset + inserted.length, content.length - offset);
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.event.PictureUploadedEvent;
+import app.model.Picture;
+import app.model.RenditionStatus;
+import app.model.VariantSpec;
+import app.repository.PictureRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.data.domain.Pageable;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureRenditionServiceUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureService pictureService;
+
+    private PictureVariantService pictureVariantService;
+    private PictureRenditionService pictureRenditionService;
+    private Picture picture;
+
+    @BeforeEach
+    void setUp() {
+        pictureVariantService = new PictureVariantService(tempDir.resolve("variants").toString(), 4096, 0.85f, 2, Duration.ofSeconds(5));
+        PictureMetadataCache metadataCache = new PictureMetadataCache(100, Duration.ofMinutes(1));
+        PictureNegotiationService pictureNegotiationService = new PictureNegotiationService(pictureVariantService,
+                new PictureOptimizer(false, DataSize.ofMegabytes(20), DataSize.ofKilobytes(1), Duration.ofSeconds(2), 1),
+                pictureRepository, metadataCache, new SimpleMeterRegistry(), List.of(), 0.1);
+        pictureRenditionService = new PictureRenditionService(pictureRepository, pictureService, pictureVariantService,
+                pictureNegotiationService, metadataCache, List.of(16, 32), List.of("source", "jpeg"), 1, 10, 100);
+        picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .type("image/png")
+                .renditionStatus(RenditionStatus.PENDING)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pictureRenditionService.shutdown();
+    }
+
+    @Test
+    void givenUploadedPicture_whenOnPictureUploaded_thenRendersEveryRenditionAndMarksReady() throws IOException {
+        Path originalPath = tempDir.resolve("original.png");
+        ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB), "png", originalPath.toFile());
+        when(pictureRepository.findById(picture.getId())).thenReturn(Optional.of(picture));
+        when(pictureService.getPictureResource(picture)).thenReturn(new FileSystemResource(originalPath));
+
+        pictureRenditionService.onPictureUploaded(new PictureUploadedEvent(picture));
+
+        verify(pictureRepository, timeout(5000)).updateRenditionStatus(picture.getId(), RenditionStatus.READY);
+        assertEquals(4, pictureRenditionService.renditionSpecs(picture).size());
+        for (VariantSpec spec : pictureRenditionService.renditionSpecs(picture)) {
+            assertTrue(pictureVariantService.findVariant(picture.getId(), spec).isPresent());
+        }
+    }
+
+    @Test
+    void givenUndecodablePicture_whenOnPictureUploaded_thenMarksFailed() {
+        when(pictureRepository.findById(picture.getId())).thenReturn(Optional.of(picture));
+        when(pictureService.getPictureResource(picture)).thenReturn(new ByteArrayResource("test data".getBytes()));
+
+        pictureRenditionService.onPictureUploaded(new PictureUploadedEvent(picture));
+
+        verify(pictureRepository, timeout(5000)).updateRenditionStatus(picture.getId(), RenditionStatus.FAILED);
+    }
+
+    @Test
+    void givenPendingPictures_whenSweepPendingRenditions_thenQueuesThem() {
+        when(pictureRepository.findByRenditionStatusOrderByUploadDateAsc(eq(RenditionStatus.PENDING), any(Pageable.class)))
+                .thenReturn(List.of(picture));
+        when(pictureRepository.findById(picture.getId())).thenReturn(Optional.empty());
+
+        pictureRenditionService.sweepPendingRenditions();
+
+        verify(pictureRepository, timeout(5000)).findById(picture.getId());
+    }
+
+    @Test
+    void givenPendingPicture_whenFindRendition_thenReturnsEmpty() {
+        VariantSpec spec = pictureRenditionService.renditionSpecs(picture).iterator().next();
+
+        assertTrue(pictureRenditionService.findRendition(picture, spec).isEmpty());
+    }
+}
@@ -0,0 +1,140 @@
+package app.service;
+
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import app.repository.PictureRepository;
+import app.storage.ShardedFileSystemPictureStorage;
+import app.storage.StorageKeys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PictureScrubberUTest {
+
+    // SHA-256 of "test data" and of "more data"
+    private static final String TEST_DATA_HASH = "916f0027a575074ce72a331777c3478d6513f786a591bd892da1a577bf2335f9";
+    private static final String MORE_DATA_HASH = "737165b08ad9b72940af2167aae90fb7eb3b52faf641c0590d36f857adbe451d";
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureBlobRepository pictureBlobRepository;
+
+    private ShardedFileSystemPictureStorage pictureStorage;
+    private PictureScrubber pictureScrubber;
+
+    @BeforeEach
+    void setUp() {
+        pictureStorage = new ShardedFileSystemPictureStorage(tempDir.toString());
+        // a small buffer, so a file takes several reads
+        pictureScrubber = new PictureScrubber(true, pictureStorage, pictureRepository, pictureBlobRepository,
+                100, 1.0, DataSize.ofBytes(4), false, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void givenIntactAndCorruptBlob_whenScrub_thenQuarantinesOnlyTheCorruptOne() throws Exception {
+        // given
+        pictureStorage.put(StorageKeys.blobKey(TEST_DATA_HASH), content("test data"));
+        pictureStorage.put(StorageKeys.blobKey(MORE_DATA_HASH), content("more data"));
+        // flipped on disk after upload, same size
+        Files.writeString(pictureStorage.open(StorageKeys.blobKey(MORE_DATA_HASH)).getFile().toPath(), "more dat4");
+        when(pictureBlobRepository.findAllById(any())).thenReturn(List.of(
+                blob(TEST_DATA_HASH, "test data"), blob(MORE_DATA_HASH, "more data")));
+
+        // when
+        int corrupt = pictureScrubber.scrub("blobs");
+
+        // then
+        assertEquals(1, corrupt);
+        assertTrue(pictureStorage.exists(StorageKeys.blobKey(TEST_DATA_HASH)));
+        assertFalse(pictureStorage.exists(StorageKeys.blobKey(MORE_DATA_HASH)));
+        assertArrayEquals("more dat4".getBytes(),
+                pictureStorage.open("quarantine/" + StorageKeys.blobKey(MORE_DATA_HASH)).getContentAsByteArray());
+    }
+
+    @Test
+    void givenTruncatedPictureFile_whenScrub_thenQuarantinesIt() throws Exception {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        String key = StorageKeys.pictureKey(pictureId);
+        pictureStorage.put(key, content("test da"));
+        when(pictureRepository.findAllById(any())).thenReturn(List.of(Picture.builder()
+                .id(pictureId)
+                .filePath(key)
+                .size(9)
+                .contentHash(TEST_DATA_HASH)
+                .crc32c(crc32c("test data"))
+                .build()));
+
+        // when
+        int corrupt = pictureScrubber.scrub("pictures");
+
+        // then
+        assertEquals(1, corrupt);
+        assertTrue(pictureStorage.exists("quarantine/" + key));
+    }
+
+    @Test
+    void givenBlobStoredBeforeChecksums_whenScrub_thenVerifiesItsDigestAndRecordsItsChecksum() throws Exception {
+        // given
+        String key = StorageKeys.blobKey(TEST_DATA_HASH);
+        pictureStorage.put(key, content("test data"));
+        PictureBlob blob = blob(TEST_DATA_HASH, "test data");
+        blob.setCrc32c(null);
+        when(pictureBlobRepository.findAllById(any())).thenReturn(List.of(blob));
+
+        // when
+        int corrupt = pictureScrubber.scrub("blobs");
+
+        // then
+        assertEquals(0, corrupt);
+        verify(pictureBlobRepository).updateCrc32c(TEST_DATA_HASH, crc32c("test data"));
+        verify(pictureRepository).updateCrc32c(TEST_DATA_HASH, key, crc32c("test data"));
+    }
+
+    private static PictureBlob blob(String contentHash, String data) {
+        return PictureBlob.builder()
+                .contentHash(contentHash)
+                .filePath(StorageKeys.blobKey(contentHash))
+                .size(data.length())
+                .crc32c(crc32c(data))
+                .referenceCount(1)
+                .build();
+    }
+
+    private static long crc32c(String data) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(data.getBytes());
+        return crc32c.getValue();
+    }
+
+    private static ByteArrayInputStream content(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+}
@@ -1,25 +1,48 @@
 package app.service;
 
+import app.cache.HotPictureCache;
+import app.cache.PerceptualHashIndex;
+import app.cache.PictureMetadataCache;
+import app.event.PictureUploadedEvent;
+import app.exception.InvalidPictureUploadException;
 import app.exception.PictureNotFoundException;
+import app.model.ImageFormat;
 import app.model.Picture;
+import app.model.RenditionStatus;
+import app.model.StoredBlob;
 import app.repository.PictureRepository;
+import app.storage.PictureStorage;
+import app.storage.StorageKeys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -32,15 +55,36 @@ public class PictureServiceUTest {
     @Mock
     private PictureRepository pictureRepository;
 
+    @Mock
+    private PictureWriteBehind pictureWriteBehind;
+
+    @Mock
+    private PictureVariantService pictureVariantService;
+
+    @Mock
+    private PictureBlobService pictureBlobService;
+
+    @Mock
+    private PictureStorage pictureStorage;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     //@InjectMocks
     private PictureService pictureService;
 
     private MultipartFile pictureFile;
     private Path fileStorageLocation;
     private String fileUploadDir = "test-uploads";
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private HotPictureCache hotPictureCache = new HotPictureCache(DataSize.ofMegabytes(1), DataSize.ofKilobytes(64));
+    private PerceptualHashIndex perceptualHashIndex = new PerceptualHashIndex();
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         pictureFile = new MockMultipartFile(
                 "file",
                 "test.jpg",
@@ -48,7 +92,10 @@ public class PictureServiceUTest {
                 "test data".getBytes()
         );
         fileStorageLocation = Paths.get(fileUploadDir).toAbsolutePath().normalize();
-        pictureService = new PictureService(fileUploadDir, pictureRepository); // Manual instantiation
+        Files.createDirectories(fileStorageLocation);
+        pictureService = new PictureService(fileUploadDir, pictureRepository, pictureWriteBehind,
+                new PictureMetadataCache(100, Duration.ofMinutes(1)), hotPictureCache, perceptualHashIndex, pictureVariantService, pictureBlobService, pictureStorage,
+                new ImageMetadataExtractor(DataSize.ofKilobytes(64)), eventPublisher, new TransactionTemplate(transactionManager), meterRegistry); // Manual instantiation
     }
 
 
@@ -68,6 +115,24 @@ public class PictureServiceUTest {
         assertEquals(picture.getId(), pictureById.get().getId());
     }
 
+    @Test
+    void givenCachedPicture_whenGetPictureByIdTwice_thenDatabaseIsQueriedOnce() {
+
+        //given
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .build();
+        when(pictureRepository.findById(picture.getId())).thenReturn(Optional.of(picture));
+
+        //when
+        pictureService.getPictureById(picture.getId());
+        Optional<Picture> pictureById = pictureService.getPictureById(picture.getId());
+
+        //then
+        assertEquals(picture.getId(), pictureById.get().getId());
+        verify(pictureRepository, times(1)).findById(picture.getId());
+    }
+
     @Test
     void givenNullMultipartFile_whenSavePictureToStorage_thenThrowsPictureNotFoundException() {
         assertThrows(PictureNotFoundException.class, () -> pictureService.savePictureToStorage(null));
@@ -96,20 +161,100 @@ public class PictureServiceUTest {
                 .filePath(filePath.toAbsolutePath().toString())
                 .build();
         Path picturePath = fileStorageLocation.resolve((picture.getId()).toString());
-        when(pictureRepository.save(any())).thenReturn(picture);
+        when(pictureBlobService.store(any(), any())).thenReturn(new StoredBlob("abc123", filePath.toString(), 9, 0xCAFEL));
 
         // When
         Picture savedPicture = pictureService.savePictureToStorage(pictureFile);
 
         // Then
         assertNotNull(savedPicture);
+        assertEquals("abc123", savedPicture.getContentHash());
+        assertEquals(filePath.toString(), savedPicture.getFilePath());
         assertEquals("test.jpg", savedPicture.getOriginalFileName());
         assertEquals("image/jpeg", savedPicture.getType());
-        verify(pictureRepository, times(1)).save(any());
+        assertEquals(RenditionStatus.PENDING, savedPicture.getRenditionStatus());
+        verify(pictureRepository, times(1)).insertAll(anyList());
+        verify(eventPublisher, times(1)).publishEvent(any(PictureUploadedEvent.class));
         Files.deleteIfExists(picturePath); //cleanup
         RequestContextHolder.resetRequestAttributes(); // Clean up
     }
 
+    @Test
+    void givenStreamMatchingExpectedDigest_whenSavePictureStreamToStorage_thenPictureIsSaved() throws IOException {
+        // given
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        when(pictureBlobService.store(any(), any())).thenReturn(new StoredBlob("abc123", "blobs/abc123", 9, 0xCAFEL));
+
+        // when
+        Picture savedPicture = pictureService.savePictureStreamToStorage(
+                new ByteArrayInputStream("test data".getBytes()), "test.png", "image/png", "ABC123");
+
+        // then
+        assertEquals(9, savedPicture.getSize());
+        assertEquals("image/png", savedPicture.getType());
+        verify(pictureRepository, times(1)).insertAll(List.of(savedPicture));
+        verify(eventPublisher, times(1)).publishEvent(any(PictureUploadedEvent.class));
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void givenWriteBehindTakesTheRow_whenSavePictureStreamToStorage_thenServedBeforeInsertAndEventLeftToIt() throws IOException {
+        // given
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        when(pictureBlobService.store(any(), any())).thenReturn(new StoredBlob("abc123", "blobs/abc123", 9, 0xCAFEL));
+        when(pictureWriteBehind.write(any())).thenReturn(true);
+
+        // when
+        Picture savedPicture = pictureService.savePictureStreamToStorage(
+                new ByteArrayInputStream("test data".getBytes()), "test.png", "image/png", null);
+        when(pictureWriteBehind.find(savedPicture.getId())).thenReturn(Optional.of(savedPicture));
+
+        // then
+        assertSame(savedPicture, pictureService.getPictureById(savedPicture.getId()).orElseThrow());
+        verify(pictureRepository, never()).insertAll(any());
+        verify(pictureRepository, never()).findById(any());
+        verify(eventPublisher, never()).publishEvent(any());
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void givenPngClaimedAsJpeg_whenSavePictureStreamToStorage_thenRecordsTheRealFormatAndDimensions() throws IOException {
+        // given
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        byte[] pngHeader = ByteBuffer.allocate(33)
+                .put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'})
+                .putInt(640)
+                .putInt(480)
+                .array();
+        when(pictureBlobService.store(any(), any())).thenReturn(new StoredBlob("abc123", "blobs/abc123", 33, 0xCAFEL));
+        when(pictureStorage.openRange("blobs/abc123", 0, 33)).thenReturn(new ByteArrayInputStream(pngHeader));
+
+        // when
+        Picture savedPicture = pictureService.savePictureStreamToStorage(
+                new ByteArrayInputStream(pngHeader), "test.jpg", "image/jpeg", null);
+
+        // then
+        assertEquals("image/jpeg", savedPicture.getType());
+        assertEquals(ImageFormat.PNG, savedPicture.getFormat());
+        assertEquals(640, savedPicture.getWidth());
+        assertEquals(480, savedPicture.getHeight());
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void givenStreamNotMatchingExpectedDigest_whenSavePictureStreamToStorage_thenContentIsDiscarded() throws IOException {
+        // given
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        when(pictureBlobService.store(any(), any())).thenReturn(new StoredBlob("abc123", "blobs/abc123", 9, 0xCAFEL));
+
+        // when & then
+        assertThrows(InvalidPictureUploadException.class, () -> pictureService.savePictureStreamToStorage(
+                new ByteArrayInputStream("test data".getBytes()), "test.png", "image/png", "def456"));
+        verify(pictureBlobService, times(1)).release(any());
+        verify(pictureRepository, never()).insertAll(any());
+        RequestContextHolder.resetRequestAttributes();
+    }
+
     @Test
     void givenExistingPictureName_whenGetPicture_thenReturnByteArray() throws IOException {
         String pictureName = "test.jpg";
@@ -128,6 +273,59 @@ public class PictureServiceUTest {
         assertThrows(PictureNotFoundException.class, () -> pictureService.getPicture("nonexistent.jpg"));
     }
 
+    @Test
+    void givenExistingPictureName_whenGetPictureResource_thenReturnStreamableResource() throws IOException {
+        String pictureName = "test-resource.jpg";
+        byte[] pictureBytes = "test data".getBytes();
+        Path picturePath = fileStorageLocation.resolve(pictureName);
+        Files.write(picturePath, pictureBytes);
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .filePath(picturePath.toString())
+                .build();
+
+        Resource result = pictureService.getPictureResource(picture);
+
+        assertEquals(pictureBytes.length, result.contentLength());
+        try (InputStream inputStream = result.getInputStream()) {
+            assertArrayEquals(pictureBytes, inputStream.readAllBytes());
+        }
+        Files.deleteIfExists(picturePath); //cleanup
+    }
+
+    @Test
+    void givenStorageKey_whenGetPictureResource_thenOpensItInStorageBackend() throws IOException {
+        Resource stored = new ByteArrayResource("test data".getBytes());
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .filePath("blobs/abc123")
+                .build();
+        when(pictureStorage.open("blobs/abc123")).thenReturn(stored);
+
+        assertSame(stored, pictureService.getPictureResource(picture));
+    }
+
+    @Test
+    void givenMissingStorageKey_whenGetPictureResource_thenThrowsPictureNotFoundException() throws IOException {
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .filePath("blobs/abc123")
+                .build();
+        when(pictureStorage.open("blobs/abc123")).thenThrow(new NoSuchFileException("blobs/abc123"));
+
+        assertThrows(PictureNotFoundException.class, () -> pictureService.getPictureResource(picture));
+    }
+
+    @Test
+    void givenPathOutsideStorage_whenGetPictureResource_thenThrowsPictureNotFoundException() {
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .filePath(fileStorageLocation.resolve("../pom.xml").toString())
+                .build();
+
+        assertThrows(PictureNotFoundException.class, () -> pictureService.getPictureResource(picture));
+    }
+
     @Test
     void givenExistingPictureId_whenGetFileType_thenReturnContentType() throws IOException {
         String pictureId = "test.jpg";
@@ -140,22 +338,113 @@ public class PictureServiceUTest {
     @Test
     void givenPictureId_whenDeletePicture_thenDeletePicture() throws IOException {
         UUID pictureId = UUID.randomUUID();
-        Picture picture = Picture.builder().id(pictureId).build();
-        when(pictureRepository.findById(pictureId)).thenReturn(Optional.of(picture));
         Path picturePath = fileStorageLocation.resolve(pictureId.toString());
+        Picture picture = Picture.builder().id(pictureId).filePath(picturePath.toString()).build();
+        when(pictureRepository.findById(pictureId)).thenReturn(Optional.of(picture));
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of(picture));
+        when(pictureRepository.deleteRowById(pictureId)).thenReturn(1);
         Files.createFile(picturePath);
 
+        pictureService.getPictureById(pictureId);
         pictureService.deletePicture(pictureId);
 
-        verify(pictureRepository, times(1)).delete(picture);
-        assertFalse(Files.exists(picturePath));
+        verify(pictureRepository, times(1)).deleteRowById(pictureId);
+        verify(pictureBlobService, times(1)).release(picture);
+        verify(pictureVariantService, times(1)).deleteVariants(pictureId);
+        when(pictureRepository.findById(pictureId)).thenReturn(Optional.empty());
+        assertTrue(pictureService.getPictureById(pictureId).isEmpty());
         Files.deleteIfExists(picturePath); //cleanup
     }
 
+    @Test
+    void givenViewedPicture_whenDeletePicture_thenDropsItFromTheHotCache() throws IOException {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        Picture picture = Picture.builder().id(pictureId).filePath("blobs/abc123").build();
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of(picture));
+        when(pictureRepository.deleteRowById(pictureId)).thenReturn(1);
+        when(pictureStorage.open("blobs/abc123")).thenReturn(new ByteArrayResource("test data".getBytes()));
+        pictureService.getPictureResourceForView(picture);
+        pictureService.getPictureResourceForView(picture);
+        pictureService.getPictureResourceForView(picture);
+
+        // when
+        pictureService.deletePicture(pictureId);
+        pictureService.getPictureResourceForView(picture);
+
+        // then
+        verify(pictureStorage, times(3)).open("blobs/abc123");
+    }
+
+    @Test
+    void givenHashedPicture_whenDeletePicture_thenDropsItFromTheSimilarityIndex() {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        Picture picture = Picture.builder().id(pictureId).filePath("blobs/abc123").perceptualHash(0x0F0FL).build();
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of(picture));
+        when(pictureRepository.deleteRowById(pictureId)).thenReturn(1);
+        perceptualHashIndex.add(0x0F0FL, pictureId);
+
+        // when
+        pictureService.deletePicture(pictureId);
+
+        // then
+        assertTrue(perceptualHashIndex.search(0x0F0FL, 0, 10).isEmpty());
+    }
+
+    @Test
+    void givenPictureWithMissingContent_whenDeletePicture_thenStillDeletesRow() {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        Picture picture = Picture.builder().id(pictureId).filePath(StorageKeys.pictureKey(pictureId)).build();
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of(picture));
+        when(pictureRepository.deleteRowById(pictureId)).thenReturn(1);
+
+        // when
+        pictureService.deletePicture(pictureId);
+
+        // then
+        verify(pictureRepository, times(1)).deleteRowById(pictureId);
+        verify(pictureBlobService, times(1)).release(picture);
+    }
+
+    @Test
+    void givenPictureDeletedConcurrently_whenDeletePicture_thenReleasesItsBlobOnlyOnce() {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        Picture picture = Picture.builder().id(pictureId).filePath("blobs/abc123").contentHash("abc123").build();
+        // the second delete waited on the row lock, and the first one removed the row before it got it
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of(picture)).thenReturn(List.of());
+        when(pictureRepository.deleteRowById(pictureId)).thenReturn(1);
+
+        // when
+        pictureService.deletePicture(pictureId);
+        assertThrows(PictureNotFoundException.class, () -> pictureService.deletePicture(pictureId));
+
+        // then
+        verify(pictureBlobService, times(1)).release(picture);
+    }
+
+    @Test
+    void givenReleaseFailing_whenDeletePicture_thenFailsWithTheCauseInsteadOfNotFound() {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        Picture picture = Picture.builder().id(pictureId).filePath("blobs/abc123").contentHash("abc123").build();
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of(picture));
+        when(pictureRepository.deleteRowById(pictureId)).thenReturn(1);
+        doThrow(new IllegalStateException("storage unavailable")).when(pictureBlobService).release(picture);
+
+        // when / then
+        assertThrows(IllegalStateException.class, () -> pictureService.deletePicture(pictureId));
+        verify(transactionManager, times(1)).rollback(any());
+        verify(pictureVariantService, never()).deleteVariants(pictureId);
+    }
+
     @Test
     void givenNonExistentPictureId_whenDeletePicture_thenThrowsPictureNotFoundException() {
         UUID pictureId = UUID.randomUUID();
-        when(pictureRepository.findById(pictureId)).thenReturn(Optional.empty());
+        when(pictureRepository.findAllForUpdate(List.of(pictureId))).thenReturn(List.of());
         assertThrows(PictureNotFoundException.class, () -> pictureService.deletePicture(pictureId));
+        verify(pictureBlobService, never()).release(any());
     }
 }
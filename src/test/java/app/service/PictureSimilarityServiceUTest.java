@@ -0,0 +1,78 @@
+package app.service;
+
+import app.cache.PerceptualHashIndex;
+import app.cache.PictureMetadataCache;
+import app.exception.InvalidPictureQueryException;
+import app.model.Picture;
+import app.model.PictureHash;
+import app.model.SimilarPicture;
+import app.repository.PictureRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureSimilarityServiceUTest {
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureService pictureService;
+
+    private final PerceptualHashIndex index = new PerceptualHashIndex();
+
+    private PictureSimilarityService pictureSimilarityService;
+
+    @BeforeEach
+    void setUp() {
+        pictureSimilarityService = new PictureSimilarityService(true, 8, 16, 20, 100, 1000, 10, 10, 1, 0,
+                index, new PerceptualHasher(), pictureRepository, pictureService, new PictureMetadataCache(100, Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void givenLoadedIndex_whenFindSimilar_thenReturnsCloseMatchesWithoutThePictureItselfOrDeletedOnes() {
+        // given
+        Picture picture = Picture.builder().id(UUID.randomUUID()).perceptualHash(0xFF00L).build();
+        UUID close = UUID.randomUUID();
+        UUID closer = UUID.randomUUID();
+        UUID deleted = UUID.randomUUID();
+        UUID far = UUID.randomUUID();
+        when(pictureRepository.findPerceptualHashes(isNull(), any())).thenReturn(List.of(
+                new PictureHash(picture.getId(), 0xFF00L),
+                new PictureHash(close, 0xFF07L),
+                new PictureHash(closer, 0xFF01L),
+                new PictureHash(deleted, 0xFF03L),
+                new PictureHash(far, ~0xFF00L)));
+        when(pictureService.getPictureById(picture.getId())).thenReturn(Optional.of(picture));
+        when(pictureRepository.findExistingIds(anyCollection())).thenReturn(List.of(close, closer));
+        pictureSimilarityService.load();
+
+        // when
+        List<SimilarPicture> similar = pictureSimilarityService.findSimilar(picture.getId(), 4, null);
+
+        // then
+        assertEquals(List.of(closer, close), similar.stream().map(SimilarPicture::getId).toList());
+        assertEquals(List.of(1, 3), similar.stream().map(SimilarPicture::getDistance).toList());
+        assertTrue(index.search(0xFF03L, 0, 10).isEmpty());
+    }
+
+    @Test
+    void givenDistanceAboveTheMaximum_whenFindSimilar_thenThrowsInvalidPictureQueryException() {
+        assertThrows(InvalidPictureQueryException.class,
+                () -> pictureSimilarityService.findSimilar(UUID.randomUUID(), 17, null));
+    }
+}
@@ -0,0 +1,118 @@
+package app.service;
+
+import app.cache.PictureMetadataCache;
+import app.model.Picture;
+import app.model.PictureBlob;
+import app.repository.PictureBlobRepository;
+import app.repository.PictureRepository;
+import app.storage.ShardedFileSystemPictureStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureStorageMigrationUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureBlobRepository pictureBlobRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private ShardedFileSystemPictureStorage pictureStorage;
+    private PictureMetadataCache metadataCache;
+    private PictureStorageMigration pictureStorageMigration;
+
+    @BeforeEach
+    void setUp() {
+        pictureStorage = new ShardedFileSystemPictureStorage(tempDir.toString());
+        metadataCache = new PictureMetadataCache(100, Duration.ofMinutes(1));
+        pictureStorageMigration = new PictureStorageMigration(tempDir.toString(), true, 10, pictureRepository,
+                pictureBlobRepository, pictureStorage, metadataCache, new TransactionTemplate(transactionManager));
+    }
+
+    @Test
+    void givenFlatLegacyFile_whenMigrateLegacyFiles_thenMovesItUnderItsPictureKey() throws IOException {
+        UUID pictureId = UUID.randomUUID();
+        Path legacyPath = Files.writeString(tempDir.resolve(pictureId.toString()), "test data");
+        Picture picture = Picture.builder().id(pictureId).filePath(legacyPath.toString()).build();
+        Picture unrelated = Picture.builder().id(UUID.randomUUID()).filePath("pictures/" + UUID.randomUUID()).build();
+        metadataCache.put(picture);
+        metadataCache.put(unrelated);
+        when(pictureRepository.findByFilePathStartingWith(anyString(), any(Pageable.class)))
+                .thenReturn(List.of(picture)).thenReturn(List.of());
+        when(pictureRepository.findIdsByFilePath(legacyPath.toString())).thenReturn(List.of(pictureId));
+
+        int migrated = pictureStorageMigration.migrateLegacyFiles();
+
+        assertEquals(1, migrated);
+        assertFalse(Files.exists(legacyPath));
+        assertArrayEquals("test data".getBytes(), pictureStorage.open("pictures/" + pictureId).getContentAsByteArray());
+        verify(pictureRepository).updateFilePath(legacyPath.toString(), "pictures/" + pictureId);
+        // only the repointed row is dropped from the cache
+        assertTrue(metadataCache.get(pictureId, id -> Optional.empty()).isEmpty());
+        assertSame(unrelated, metadataCache.get(unrelated.getId(), id -> Optional.empty()).orElseThrow());
+    }
+
+    @Test
+    void givenLegacyFileMissing_whenMigrateLegacyFiles_thenSkipsTheRowAndMigratesTheRest() throws IOException {
+        Picture missing = Picture.builder().id(UUID.randomUUID()).filePath(tempDir.resolve("gone").toString()).build();
+        UUID pictureId = UUID.randomUUID();
+        Path legacyPath = Files.writeString(tempDir.resolve(pictureId.toString()), "test data");
+        Picture present = Picture.builder().id(pictureId).filePath(legacyPath.toString()).build();
+        // a skipped row keeps matching until the migration ends
+        when(pictureRepository.findByFilePathStartingWith(anyString(), any(Pageable.class)))
+                .thenReturn(List.of(missing, present)).thenReturn(List.of(missing));
+
+        int migrated = pictureStorageMigration.migrateLegacyFiles();
+
+        assertEquals(1, migrated);
+        assertFalse(pictureStorage.exists("pictures/" + missing.getId()));
+        verify(pictureRepository, never()).updateFilePath(eq(missing.getFilePath()), anyString());
+        verify(pictureRepository).updateFilePath(legacyPath.toString(), "pictures/" + pictureId);
+    }
+
+    @Test
+    void givenLegacySharedBlob_whenMigrateLegacyFiles_thenMovesBlobAndRepointsIt() throws IOException {
+        Path legacyPath = Files.writeString(Files.createDirectories(tempDir.resolve("blobs/ab")).resolve("abc123"), "test data");
+        PictureBlob blob = PictureBlob.builder().contentHash("abc123").filePath(legacyPath.toString()).referenceCount(2).build();
+        Picture picture = Picture.builder().id(UUID.randomUUID()).contentHash("abc123").filePath(legacyPath.toString()).build();
+        when(pictureRepository.findByFilePathStartingWith(anyString(), any(Pageable.class)))
+                .thenReturn(List.of(picture)).thenReturn(List.of());
+        when(pictureBlobRepository.findById("abc123")).thenReturn(Optional.of(blob));
+        when(pictureBlobRepository.findForUpdate("abc123")).thenReturn(Optional.of(blob));
+
+        pictureStorageMigration.migrateLegacyFiles();
+
+        assertEquals("blobs/abc123", blob.getFilePath());
+        assertTrue(pictureStorage.exists("blobs/abc123"));
+        assertFalse(Files.exists(legacyPath));
+        verify(pictureRepository).updateFilePath(legacyPath.toString(), "blobs/abc123");
+    }
+}
@@ -0,0 +1,160 @@
+package app.service;
+
+import app.repository.PictureBlobRepository;
+import app.repository.PictureContentRef;
+import app.repository.PictureRepository;
+import app.storage.ShardedFileSystemPictureStorage;
+import app.storage.StorageKeys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PictureStorageReconcilerUTest {
+
+    private static final Duration GRACE_PERIOD = Duration.ofHours(1);
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureBlobRepository pictureBlobRepository;
+
+    @Mock
+    private PictureBlobService pictureBlobService;
+
+    private ShardedFileSystemPictureStorage pictureStorage;
+    private PictureVariantService pictureVariantService;
+
+    @BeforeEach
+    void setUp() {
+        pictureStorage = new ShardedFileSystemPictureStorage(tempDir.toString());
+        pictureVariantService = new PictureVariantService(tempDir.resolve("variants").toString(), 4096, 0.85f, 1, Duration.ofSeconds(5));
+        doAnswer(invocation -> pictureStorage.delete(invocation.getArgument(0)))
+                .when(pictureBlobService).deleteContent(any());
+    }
+
+    @Test
+    void givenFilesWithoutRows_whenRemoveOrphans_thenRemovesOnlyThoseOlderThanTheGracePeriod() throws IOException {
+        // given
+        UUID referencedPictureId = UUID.randomUUID();
+        UUID orphanedPictureId = UUID.randomUUID();
+        pictureStorage.put(StorageKeys.blobKey("aaaa11"), content());
+        pictureStorage.put(StorageKeys.blobKey("bbbb22"), content());
+        pictureStorage.put(StorageKeys.pictureKey(referencedPictureId), content());
+        pictureStorage.put(StorageKeys.pictureKey(orphanedPictureId), content());
+        pictureStorage.put(StorageKeys.stagingKey(UUID.randomUUID()), content());
+        when(pictureBlobRepository.findExistingHashes(any())).thenReturn(List.of("aaaa11"));
+        when(pictureRepository.findExistingIds(any())).thenReturn(List.of(referencedPictureId));
+
+        // when
+        int removedWithinGracePeriod = newReconciler(Clock.systemDefaultZone()).removeOrphans();
+        int removed = newReconciler(Clock.offset(Clock.systemDefaultZone(), GRACE_PERIOD.multipliedBy(2))).removeOrphans();
+
+        // then
+        assertEquals(0, removedWithinGracePeriod);
+        assertEquals(3, removed);
+        assertTrue(pictureStorage.exists(StorageKeys.blobKey("aaaa11")));
+        assertFalse(pictureStorage.exists(StorageKeys.blobKey("bbbb22")));
+        assertTrue(pictureStorage.exists(StorageKeys.pictureKey(referencedPictureId)));
+        assertFalse(pictureStorage.exists(StorageKeys.pictureKey(orphanedPictureId)));
+    }
+
+    @Test
+    void givenVariantsOfDeletedPicture_whenRemoveOrphanedVariants_thenRemovesOnlyThoseOlderThanTheGracePeriod() throws IOException {
+        // given
+        UUID existingPictureId = UUID.randomUUID();
+        UUID deletedPictureId = UUID.randomUUID();
+        Path existingVariants = variantDirectory(existingPictureId);
+        Path deletedVariants = variantDirectory(deletedPictureId);
+        when(pictureRepository.findExistingIds(any())).thenReturn(List.of(existingPictureId));
+
+        // when
+        int removedWithinGracePeriod = newReconciler(Clock.systemDefaultZone()).removeOrphanedVariants();
+        int removed = newReconciler(Clock.offset(Clock.systemDefaultZone(), GRACE_PERIOD.multipliedBy(2))).removeOrphanedVariants();
+
+        // then
+        assertEquals(0, removedWithinGracePeriod);
+        assertEquals(1, removed);
+        assertTrue(Files.exists(existingVariants));
+        assertFalse(Files.exists(deletedVariants));
+    }
+
+    @Test
+    void givenRowsWithMissingContent_whenFlagDanglingPictures_thenFlagsNewOnesAndClearsRecoveredOnes() throws IOException {
+        // given
+        UUID missingId = UUID.randomUUID();
+        UUID recoveredId = UUID.randomUUID();
+        pictureStorage.put(StorageKeys.pictureKey(recoveredId), content());
+        when(pictureRepository.findContentRefs(any(), any())).thenReturn(List.of(
+                new ContentRef(missingId, StorageKeys.pictureKey(missingId), null),
+                new ContentRef(recoveredId, StorageKeys.pictureKey(recoveredId), LocalDateTime.now())));
+
+        // when
+        int dangling = newReconciler(Clock.systemDefaultZone()).flagDanglingPictures();
+
+        // then
+        assertEquals(1, dangling);
+        verify(pictureRepository).updateContentMissingSince(eq(List.of(missingId)), any(LocalDateTime.class));
+        verify(pictureRepository).updateContentMissingSince(List.of(recoveredId), null);
+        verify(pictureRepository, never()).delete(any());
+    }
+
+    private PictureStorageReconciler newReconciler(Clock clock) {
+        return new PictureStorageReconciler(true, pictureStorage, pictureRepository, pictureBlobRepository,
+                pictureBlobService, pictureVariantService, 10, 0, GRACE_PERIOD, clock);
+    }
+
+    private Path variantDirectory(UUID pictureId) throws IOException {
+        String id = pictureId.toString();
+        Path directory = Files.createDirectories(tempDir.resolve("variants").resolve(id.substring(0, 2)).resolve(id));
+        Files.writeString(directory.resolve("64x64-contain.png"), "test data");
+        return directory;
+    }
+
+    private static ByteArrayInputStream content() {
+        return new ByteArrayInputStream("test data".getBytes());
+    }
+
+    private record ContentRef(UUID id, String filePath, LocalDateTime contentMissingSince) implements PictureContentRef {
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public String getFilePath() {
+            return filePath;
+        }
+
+        @Override
+        public LocalDateTime getContentMissingSince() {
+            return contentMissingSince;
+        }
+    }
+}
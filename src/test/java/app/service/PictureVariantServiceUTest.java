@@ -0,0 +1,140 @@
+package app.service;
+
+import app.exception.InvalidPictureVariantException;
+import app.model.Picture;
+import app.model.PictureVariant;
+import app.model.VariantSpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PictureVariantServiceUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private PictureVariantService pictureVariantService;
+    private Picture picture;
+    private Resource original;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        pictureVariantService = new PictureVariantService(tempDir.resolve("variants").toString(), 4096, 0.85f, 2, Duration.ofSeconds(5));
+
+        Path originalPath = tempDir.resolve("original.png");
+        ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "png", originalPath.toFile());
+        original = new FileSystemResource(originalPath);
+        picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .type("image/png")
+                .build();
+    }
+
+    @Test
+    void givenWidthOnly_whenGetVariant_thenKeepsAspectRatioInSourceFormat() throws IOException {
+        VariantSpec spec = pictureVariantService.toSpec(picture, 100, null, null, null);
+
+        PictureVariant variant = pictureVariantService.getVariant(picture, original, spec);
+
+        BufferedImage image = read(variant.getResource());
+        assertEquals(100, image.getWidth());
+        assertEquals(50, image.getHeight());
+        assertEquals("image/png", variant.getContentType());
+    }
+
+    @Test
+    void givenCoverFit_whenGetVariant_thenFillsWholeBox() throws IOException {
+        VariantSpec spec = pictureVariantService.toSpec(picture, 64, 64, "cover", "jpg");
+
+        PictureVariant variant = pictureVariantService.getVariant(picture, original, spec);
+
+        BufferedImage image = read(variant.getResource());
+        assertEquals(64, image.getWidth());
+        assertEquals(64, image.getHeight());
+        assertEquals("image/jpeg", variant.getContentType());
+    }
+
+    @Test
+    void givenRenderedVariant_whenGetVariantAgain_thenServesCachedFile() throws IOException {
+        VariantSpec spec = pictureVariantService.toSpec(picture, 100, null, null, null);
+        Path rendered = pictureVariantService.getVariant(picture, original, spec).getResource().getFile().toPath();
+        long renderedAt = Files.getLastModifiedTime(rendered).toMillis();
+
+        // the original is gone, so a second render would fail
+        PictureVariant variant = pictureVariantService.getVariant(picture, new ByteArrayResource(new byte[0]), spec);
+
+        assertEquals(rendered, variant.getResource().getFile().toPath());
+        assertEquals(renderedAt, Files.getLastModifiedTime(rendered).toMillis());
+    }
+
+    @Test
+    void givenConcurrentRequests_whenGetVariant_thenAllGetTheSameDerivative() throws Exception {
+        VariantSpec spec = pictureVariantService.toSpec(picture, 32, 32, null, null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Callable<Path> request = () -> pictureVariantService.getVariant(picture, original, spec).getResource().getFile().toPath();
+
+        try {
+            List<Future<Path>> results = executor.invokeAll(List.of(request, request, request, request, request, request, request, request));
+
+            for (Future<Path> result : results) {
+                assertEquals(results.get(0).get(), result.get());
+            }
+            try (var files = Files.list(results.get(0).get().getParent())) {
+                assertEquals(1, files.count());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void givenRenderedVariant_whenDeleteVariants_thenVariantIsRemoved() throws IOException {
+        VariantSpec spec = pictureVariantService.toSpec(picture, 100, null, null, null);
+        Path rendered = pictureVariantService.getVariant(picture, original, spec).getResource().getFile().toPath();
+
+        pictureVariantService.deleteVariants(picture.getId());
+
+        assertFalse(Files.exists(rendered));
+    }
+
+    @Test
+    void givenInvalidParameters_whenToSpec_thenThrowsInvalidPictureVariantException() {
+        assertThrows(InvalidPictureVariantException.class, () -> pictureVariantService.toSpec(picture, 0, null, null, null));
+        assertThrows(InvalidPictureVariantException.class, () -> pictureVariantService.toSpec(picture, 100, 5000, null, null));
+        assertThrows(InvalidPictureVariantException.class, () -> pictureVariantService.toSpec(picture, 100, null, "stretch", null));
+        assertThrows(InvalidPictureVariantException.class, () -> pictureVariantService.toSpec(picture, 100, null, null, "tiff2"));
+    }
+
+    @Test
+    void givenNonImageOriginal_whenGetVariant_thenThrowsInvalidPictureVariantException() {
+        VariantSpec spec = pictureVariantService.toSpec(picture, 100, null, null, null);
+        Resource notAnImage = new ByteArrayResource("test data".getBytes());
+
+        assertThrows(InvalidPictureVariantException.class, () -> pictureVariantService.getVariant(picture, notAnImage, spec));
+    }
+
+    private static BufferedImage read(Resource resource) throws IOException {
+        try (InputStream inputStream = resource.getInputStream()) {
+            return ImageIO.read(inputStream);
+        }
+    }
+}
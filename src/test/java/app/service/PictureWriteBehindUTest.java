@@ -0,0 +1,142 @@
+package app.service;
+
+import app.event.PictureUploadedEvent;
+import app.model.Picture;
+import app.repository.PictureRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PictureWriteBehindUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private PictureRepository pictureRepository;
+
+    @Mock
+    private PictureBlobService pictureBlobService;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Test
+    void givenJournaledPicture_whenInserted_thenServedUntilThenAndEventPublishedAfter() throws Exception {
+        // given
+        CountDownLatch inserting = new CountDownLatch(1);
+        doAnswer(invocation -> inserting.await(5, TimeUnit.SECONDS)).when(pictureRepository).insertAll(anyList());
+        PictureWriteBehind writeBehind = writeBehind();
+        Picture picture = picture();
+
+        // when
+        assertTrue(writeBehind.write(picture));
+
+        // then
+        assertSame(picture, writeBehind.find(picture.getId()).orElseThrow());
+        verify(eventPublisher, never()).publishEvent(any());
+        inserting.countDown();
+        verify(eventPublisher, timeout(5000)).publishEvent(any(PictureUploadedEvent.class));
+        writeBehind.awaitInserted(picture.getId());
+        assertTrue(writeBehind.find(picture.getId()).isEmpty());
+        writeBehind.shutdown();
+        assertEquals(0, journalSegments());
+    }
+
+    @Test
+    void givenDatabaseDownUntilShutdown_whenRestarted_thenReplaysTheRowsNotInsertedYet() throws Exception {
+        // given
+        doThrow(new DataAccessResourceFailureException("Connection refused")).when(pictureRepository).insertAll(anyList());
+        PictureWriteBehind stopped = writeBehind();
+        Picture inserted = picture();
+        Picture lost = picture();
+        assertTrue(stopped.write(inserted));
+        assertTrue(stopped.write(lost));
+        stopped.shutdown();
+        assertEquals(1, journalSegments());
+
+        // the first row made it to the database just before the process stopped
+        reset(pictureRepository);
+        when(pictureRepository.findAllById(anyList())).thenReturn(List.of(inserted));
+
+        // when
+        PictureWriteBehind restarted = writeBehind();
+
+        // then
+        verify(eventPublisher, timeout(5000)).publishEvent(any(PictureUploadedEvent.class));
+        verify(pictureRepository).insertAll(argThat(rows -> rows.size() == 1 && rows.get(0).getId().equals(lost.getId())));
+        restarted.shutdown();
+        assertEquals(0, journalSegments());
+    }
+
+    @Test
+    void givenCallerInterrupted_whenWrite_thenRowReachesTheDatabaseOnlyIfWriteSucceeded() throws Exception {
+        // given
+        PictureWriteBehind writeBehind = writeBehind();
+        Picture picture = picture();
+        AtomicBoolean written = new AtomicBoolean();
+        Thread caller = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                written.set(writeBehind.write(picture));
+            } catch (RuntimeException e) {
+                written.set(false);
+            }
+        });
+
+        // when
+        caller.start();
+        caller.join();
+        writeBehind.shutdown();
+
+        // then
+        verify(pictureRepository, written.get() ? times(1) : never())
+                .insertAll(argThat(rows -> rows.stream().anyMatch(row -> row.getId().equals(picture.getId()))));
+        assertEquals(0, journalSegments());
+    }
+
+    private PictureWriteBehind writeBehind() {
+        return new PictureWriteBehind(true, tempDir.toString(), DataSize.ofMegabytes(1), 50, Duration.ofMillis(20), 100,
+                pictureRepository, pictureBlobService, eventPublisher, new SimpleMeterRegistry());
+    }
+
+    private long journalSegments() throws IOException {
+        try (var files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    private static Picture picture() {
+        UUID pictureId = UUID.randomUUID();
+        return Picture.builder()
+                .id(pictureId)
+                .originalFileName("test.jpg")
+                .type("image/jpeg")
+                .size(9)
+                .uploadDate(LocalDateTime.now())
+                .filePath("blobs/" + pictureId)
+                .pictureUrl("http://localhost/api/v1/pictures/view/" + pictureId)
+                .build();
+    }
+}
@@ -0,0 +1,186 @@
+package app.service;
+
+import app.exception.IncompleteUploadException;
+import app.exception.InvalidPictureUploadException;
+import app.exception.PictureTooLargeException;
+import app.exception.UploadSessionNotFoundException;
+import app.model.Picture;
+import app.model.UploadSession;
+import app.repository.UploadSessionRepository;
+import jakarta.persistence.Column;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class ResumableUploadServiceUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Mock
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Mock
+    private PictureService pictureService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final Map<UUID, UploadSession> sessions = new HashMap<>();
+    private ResumableUploadService resumableUploadService;
+
+    @BeforeEach
+    void setUp() {
+        resumableUploadService = new ResumableUploadService(tempDir.toString(), DataSize.ofKilobytes(1), 1000,
+                Duration.ofHours(1), 100, uploadSessionRepository, pictureService, new TransactionTemplate(transactionManager));
+        when(uploadSessionRepository.save(any())).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            sessions.put(session.getId(), session);
+            return session;
+        });
+        when(uploadSessionRepository.findById(any()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.<UUID>getArgument(0))));
+        when(uploadSessionRepository.findForUpdate(any()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.<UUID>getArgument(0))));
+        doAnswer(invocation -> sessions.remove(invocation.<UploadSession>getArgument(0).getId()))
+                .when(uploadSessionRepository).delete(any());
+    }
+
+    @Test
+    void givenChunksOutOfOrder_whenFinalizeSession_thenCompleteFileIsSavedAsPicture() {
+        // given
+        UploadSession session = resumableUploadService.createSession("a.png", "image/png", 9);
+        Picture picture = Picture.builder().id(UUID.randomUUID()).build();
+        when(pictureService.savePictureFileToStorage(any(), eq("a.png"), eq("image/png"))).thenAnswer(invocation -> {
+            assertEquals("test data", Files.readString(invocation.getArgument(0, Path.class)));
+            return picture;
+        });
+
+        // when
+        long offsetAfterTail = resumableUploadService.receivedOffset(
+                resumableUploadService.appendChunk(session.getId(), 5, content("data")));
+        long offsetAfterHead = resumableUploadService.receivedOffset(
+                resumableUploadService.appendChunk(session.getId(), 0, content("test ")));
+        Picture finalized = resumableUploadService.finalizeSession(session.getId());
+
+        // then
+        assertEquals(0, offsetAfterTail);
+        assertEquals(9, offsetAfterHead);
+        assertSame(picture, finalized);
+        assertTrue(sessions.isEmpty());
+    }
+
+    @Test
+    void givenManyDisjointChunks_whenFinalizeSession_thenRangesFitTheColumnAndFileIsSaved() throws Exception {
+        // given
+        UploadSession session = resumableUploadService.createSession("a.png", "image/png", 1000);
+        when(pictureService.savePictureFileToStorage(any(), eq("a.png"), eq("image/png")))
+                .thenReturn(Picture.builder().id(UUID.randomUUID()).build());
+        for (int offset = 0; offset < 1000; offset += 2) {
+            resumableUploadService.appendChunk(session.getId(), offset, content("x"));
+        }
+        String gappedRanges = sessions.get(session.getId()).getReceivedRanges();
+
+        // when
+        for (int offset = 1; offset < 1000; offset += 2) {
+            resumableUploadService.appendChunk(session.getId(), offset, content("x"));
+        }
+        resumableUploadService.finalizeSession(session.getId());
+
+        // then
+        int columnLength = UploadSession.class.getDeclaredField("receivedRanges").getAnnotation(Column.class).length();
+        assertEquals(500, gappedRanges.split(",").length);
+        assertTrue(gappedRanges.length() > 255 && gappedRanges.length() <= columnLength);
+        verify(pictureService).savePictureFileToStorage(any(), eq("a.png"), eq("image/png"));
+    }
+
+    @Test
+    void givenSessionAtItsRangeCap_whenAppendDisjointChunk_thenRejectsItButAcceptsChunksClosingGaps() {
+        // given
+        ResumableUploadService capped = new ResumableUploadService(tempDir.toString(), DataSize.ofKilobytes(1), 3,
+                Duration.ofHours(1), 100, uploadSessionRepository, pictureService, new TransactionTemplate(transactionManager));
+        UploadSession session = capped.createSession("a.png", "image/png", 100);
+        for (int offset = 0; offset < 6; offset += 2) {
+            capped.appendChunk(session.getId(), offset, content("x"));
+        }
+
+        // when & then
+        assertThrows(InvalidPictureUploadException.class, () -> capped.appendChunk(session.getId(), 50, content("x")));
+        assertEquals("0-1,2-3,4-5", sessions.get(session.getId()).getReceivedRanges());
+        capped.appendChunk(session.getId(), 1, content("x"));
+        capped.appendChunk(session.getId(), 50, content("x"));
+        assertEquals("0-3,4-5,50-51", sessions.get(session.getId()).getReceivedRanges());
+    }
+
+    @Test
+    void givenMissingChunk_whenFinalizeSession_thenThrowsIncompleteUploadException() {
+        // given
+        UploadSession session = resumableUploadService.createSession("a.png", "image/png", 9);
+        resumableUploadService.appendChunk(session.getId(), 5, content("data"));
+
+        // when & then
+        assertThrows(IncompleteUploadException.class, () -> resumableUploadService.finalizeSession(session.getId()));
+        verify(pictureService, never()).savePictureFileToStorage(any(), any(), any());
+    }
+
+    @Test
+    void givenChunkPastDeclaredLength_whenAppendChunk_thenThrowsPictureTooLargeException() {
+        // given
+        UploadSession session = resumableUploadService.createSession("a.png", "image/png", 4);
+
+        // when & then
+        assertThrows(PictureTooLargeException.class,
+                () -> resumableUploadService.appendChunk(session.getId(), 0, content("test data")));
+        assertThrows(PictureTooLargeException.class,
+                () -> resumableUploadService.createSession("b.png", "image/png", 2048));
+    }
+
+    @Test
+    void givenAbandonedSession_whenSweepAbandonedSessions_thenSessionAndStagingFileAreRemoved() throws Exception {
+        // given
+        UploadSession session = resumableUploadService.createSession("a.png", "image/png", 9);
+        session.setUpdatedAt(LocalDateTime.now().minusDays(1));
+        when(uploadSessionRepository.findByUpdatedAtBefore(any(), any())).thenReturn(List.of(session));
+
+        // when
+        resumableUploadService.sweepAbandonedSessions();
+
+        // then
+        assertTrue(sessions.isEmpty());
+        try (var staged = Files.list(tempDir)) {
+            assertEquals(0, staged.count());
+        }
+        assertThrows(UploadSessionNotFoundException.class,
+                () -> resumableUploadService.appendChunk(session.getId(), 0, content("test")));
+    }
+
+    private static ByteArrayInputStream content(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+}
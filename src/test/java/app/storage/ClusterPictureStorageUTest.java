@@ -0,0 +1,239 @@
+package app.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterPictureStorageUTest {
+
+    private static final String SECRET = "cluster-secret";
+
+    @TempDir
+    Path uploadDir;
+
+    private InMemoryNode node2;
+    private InMemoryNode node3;
+    private StorageCluster cluster;
+    private ClusterPictureStorage pictureStorage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        node2 = new InMemoryNode();
+        node3 = new InMemoryNode();
+        cluster = new StorageCluster(uploadDir.toString(), "node-1",
+                List.of("node-1=http://localhost:1", "node-2=" + node2.url(), "node-3=" + node3.url()),
+                SECRET, 3, 0, 128, Duration.ofMinutes(1), 4);
+        pictureStorage = new ClusterPictureStorage(cluster);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cluster.shutdown();
+        node2.stop();
+        node3.stop();
+    }
+
+    @Test
+    void givenThreeNodes_whenPut_thenEveryReplicaIsStored() throws IOException {
+        // when
+        long size = pictureStorage.put("blobs/abcdef", content("test data"));
+
+        // then
+        assertEquals(9, size);
+        awaitReplica(node2, "blobs/abcdef");
+        awaitReplica(node3, "blobs/abcdef");
+        awaitLocalCopy("blobs/abcdef");
+        assertArrayEquals("test data".getBytes(), cluster.local().open("blobs/abcdef").getContentAsByteArray());
+        assertEquals(SECRET, node2.lastSecret);
+    }
+
+    @Test
+    void givenLocalCopyMissing_whenOpen_thenReadsFromReplica() throws IOException {
+        // given
+        pictureStorage.put("blobs/abcdef", content("test data"));
+        awaitReplica(node2, "blobs/abcdef");
+        awaitReplica(node3, "blobs/abcdef");
+        awaitLocalCopy("blobs/abcdef");
+        cluster.local().delete("blobs/abcdef");
+
+        // when
+        byte[] read = pictureStorage.open("blobs/abcdef").getContentAsByteArray();
+
+        // then
+        assertArrayEquals("test data".getBytes(), read);
+        assertEquals(9, pictureStorage.size("blobs/abcdef"));
+        try (InputStream range = pictureStorage.openRange("blobs/abcdef", 5, 3)) {
+            assertArrayEquals("dat".getBytes(), range.readAllBytes());
+        }
+    }
+
+    @Test
+    void givenOnePeerDown_whenPut_thenWriteQuorumIsStillReached() throws IOException {
+        // given
+        node3.stop();
+
+        // when
+        pictureStorage.put("blobs/abcdef", content("test data"));
+
+        // then
+        awaitLocalCopy("blobs/abcdef");
+        awaitReplica(node2, "blobs/abcdef");
+    }
+
+    @Test
+    void givenTwoPeersDown_whenPut_thenThrowsIOException() {
+        // given
+        node2.stop();
+        node3.stop();
+
+        // when / then
+        assertThrows(IOException.class, () -> pictureStorage.put("blobs/abcdef", content("test data")));
+    }
+
+    @Test
+    void givenCopyOnEveryNode_whenDelete_thenItIsGoneEverywhere() throws IOException {
+        // given
+        pictureStorage.put("blobs/abcdef", content("test data"));
+        awaitReplica(node2, "blobs/abcdef");
+        awaitReplica(node3, "blobs/abcdef");
+        awaitLocalCopy("blobs/abcdef");
+
+        // when
+        boolean deleted = pictureStorage.delete("blobs/abcdef");
+
+        // then
+        assertTrue(deleted);
+        assertTrue(node2.objects.isEmpty());
+        assertTrue(node3.objects.isEmpty());
+        assertThrows(NoSuchFileException.class, () -> pictureStorage.open("blobs/abcdef"));
+    }
+
+    @Test
+    void givenCopyOnlyOnThisNode_whenRebalancerPass_thenItIsStreamedToTheOtherOwners() throws IOException {
+        // given
+        cluster.local().put("pictures/abcdef", content("test data"));
+        ClusterRebalancer rebalancer = new ClusterRebalancer(cluster, Duration.ofHours(6));
+
+        // when
+        boolean balanced = rebalancer.pass(cluster.ringVersion());
+
+        // then
+        assertTrue(balanced);
+        assertArrayEquals("test data".getBytes(), node2.objects.get("pictures/abcdef"));
+        assertArrayEquals("test data".getBytes(), node3.objects.get("pictures/abcdef"));
+        assertTrue(cluster.local().exists("pictures/abcdef"));
+    }
+
+    private static ByteArrayInputStream content(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    // writes beyond the quorum finish in the background
+    private static void awaitReplica(InMemoryNode node, String key) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!node.objects.containsKey(key)) {
+            assertTrue(System.nanoTime() < deadline, "No replica of " + key);
+            Thread.onSpinWait();
+        }
+        assertArrayEquals("test data".getBytes(), node.objects.get(key));
+    }
+
+    private void awaitLocalCopy(String key) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!cluster.local().exists(key)) {
+            assertTrue(System.nanoTime() < deadline, "No local copy of " + key);
+            Thread.onSpinWait();
+        }
+    }
+
+    // a peer speaking the internal storage protocol from memory: PUT, GET (with Range), HEAD, DELETE and the probe
+    private static final class InMemoryNode {
+
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        private final HttpServer server;
+        private volatile String lastSecret;
+
+        private InMemoryNode() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        private String url() {
+            return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            lastSecret = exchange.getRequestHeaders().getFirst(StorageCluster.SECRET_HEADER);
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals(StorageCluster.HEALTH_PATH)) {
+                respond(exchange, 200, new byte[0]);
+                return;
+            }
+            String key = path.substring(StorageCluster.STORAGE_PATH.length());
+            byte[] object = objects.get(key);
+
+            switch (exchange.getRequestMethod()) {
+                case "PUT" -> {
+                    objects.put(key, exchange.getRequestBody().readAllBytes());
+                    respond(exchange, 204, new byte[0]);
+                }
+                case "HEAD" -> {
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.length));
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                    exchange.close();
+                }
+                case "GET" -> {
+                    if (object == null) {
+                        respond(exchange, 404, new byte[0]);
+                        return;
+                    }
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    if (range == null) {
+                        respond(exchange, 200, object);
+                    } else {
+                        String[] bounds = range.substring("bytes=".length()).split("-");
+                        int start = Integer.parseInt(bounds[0]);
+                        int end = Math.min(Integer.parseInt(bounds[1]), object.length - 1);
+                        respond(exchange, 206, Arrays.copyOfRange(object, start, end + 1));
+                    }
+                }
+                case "DELETE" -> respond(exchange, objects.remove(key) == null ? 404 : 204, new byte[0]);
+                default -> respond(exchange, 405, new byte[0]);
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
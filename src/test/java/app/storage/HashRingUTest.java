@@ -0,0 +1,59 @@
+package app.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingUTest {
+
+    private static final int KEYS = 20_000;
+
+    @Test
+    void givenThreeNodes_whenNodesFor_thenKeysAreSpreadEvenlyOverDistinctOwners() {
+        // given
+        HashRing ring = new HashRing(List.of("node-1", "node-2", "node-3"), 128);
+        Map<String, Integer> primaries = new HashMap<>();
+
+        // when
+        for (int i = 0; i < KEYS; i++) {
+            List<String> owners = ring.nodesFor("blobs/" + i, 2);
+            assertEquals(2, owners.stream().distinct().count());
+            primaries.merge(owners.get(0), 1, Integer::sum);
+        }
+
+        // then
+        assertEquals(3, primaries.size());
+        primaries.values().forEach(count -> assertEquals(KEYS / 3.0, count, KEYS * 0.05));
+    }
+
+    @Test
+    void givenNodeJoins_whenNodesFor_thenOnlyItsShareOfKeysMoves() {
+        // given
+        HashRing before = new HashRing(List.of("node-1", "node-2", "node-3"), 128);
+        HashRing after = new HashRing(List.of("node-1", "node-2", "node-3", "node-4"), 128);
+        int moved = 0;
+
+        // when
+        for (int i = 0; i < KEYS; i++) {
+            String primary = after.nodesFor("pictures/" + i, 1).get(0);
+            if (!primary.equals(before.nodesFor("pictures/" + i, 1).get(0))) {
+                assertEquals("node-4", primary);
+                moved++;
+            }
+        }
+
+        // then
+        assertEquals(KEYS / 4.0, moved, KEYS * 0.05);
+    }
+
+    @Test
+    void givenFewerNodesThanReplicas_whenNodesFor_thenReturnsEveryNode() {
+        HashRing ring = new HashRing(List.of("node-1", "node-2"), 16);
+
+        assertEquals(2, ring.nodesFor("blobs/abcdef", 3).size());
+    }
+}
@@ -0,0 +1,269 @@
+package app.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3PictureStorageUTest {
+
+    private InMemoryS3Server s3Server;
+    private S3PictureStorage pictureStorage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        s3Server = new InMemoryS3Server();
+        pictureStorage = new S3PictureStorage("http://localhost:" + s3Server.port(), "pictures", "us-east-1", "access", "secret",
+                Duration.ofMillis(500));
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Server.stop();
+    }
+
+    @Test
+    void givenContent_whenPut_thenObjectIsStoredUnderBucketAndKeyWithSignedRequest() throws IOException {
+        long size = pictureStorage.put("blobs/abcdef", content("test data"));
+
+        assertEquals(9, size);
+        assertArrayEquals("test data".getBytes(), s3Server.objects.get("/pictures/blobs/abcdef"));
+        assertTrue(s3Server.lastAuthorization.startsWith("AWS4-HMAC-SHA256 Credential=access/"));
+        assertTrue(s3Server.lastAuthorization.contains("SignedHeaders=host;x-amz-content-sha256;x-amz-date"));
+    }
+
+    @Test
+    void givenStoredObject_whenOpen_thenStreamsItWithKnownLength() throws IOException {
+        pictureStorage.put("blobs/abcdef", content("test data"));
+
+        Resource resource = pictureStorage.open("blobs/abcdef");
+
+        assertEquals(9, resource.contentLength());
+        assertArrayEquals("test data".getBytes(), resource.getContentAsByteArray());
+    }
+
+    @Test
+    void givenStoredObject_whenOpenRange_thenRequestsOnlyThatRange() throws IOException {
+        pictureStorage.put("blobs/abcdef", content("test data"));
+
+        try (InputStream range = pictureStorage.openRange("blobs/abcdef", 5, 3)) {
+            assertArrayEquals("dat".getBytes(), range.readAllBytes());
+        }
+    }
+
+    @Test
+    void givenStoredObject_whenMoveAndDelete_thenOnlyTargetExistsThenNothing() throws IOException {
+        pictureStorage.put("staging/abcdef", content("test data"));
+
+        pictureStorage.move("staging/abcdef", "blobs/fedcba");
+
+        assertFalse(pictureStorage.exists("staging/abcdef"));
+        assertTrue(pictureStorage.exists("blobs/fedcba"));
+        assertEquals(9, pictureStorage.size("blobs/fedcba"));
+        assertTrue(pictureStorage.delete("blobs/fedcba"));
+        assertFalse(pictureStorage.exists("blobs/fedcba"));
+    }
+
+    @Test
+    void givenObjectsOverSeveralPages_whenList_thenStreamsEveryObjectBelowThePrefix() throws IOException {
+        pictureStorage.put("blobs/aaaaaa", content("a"));
+        pictureStorage.put("blobs/bbbbbb", content("bb"));
+        pictureStorage.put("blobs/cccccc", content("ccc"));
+        pictureStorage.put("pictures/dddddd", content("d"));
+
+        List<StorageEntry> entries;
+        try (Stream<StorageEntry> listing = pictureStorage.list("blobs")) {
+            entries = listing.toList();
+        }
+
+        assertEquals(List.of("blobs/aaaaaa", "blobs/bbbbbb", "blobs/cccccc"), entries.stream().map(StorageEntry::getKey).toList());
+        assertEquals(List.of(1L, 2L, 3L), entries.stream().map(StorageEntry::getSize).toList());
+        assertEquals(Instant.parse("2026-01-01T00:00:00Z"), entries.get(0).getLastModified());
+        assertTrue(s3Server.lastAuthorization.contains("SignedHeaders=host;x-amz-content-sha256;x-amz-date"));
+    }
+
+    @Test
+    void givenConnectionDroppedByTheServer_whenPut_thenRetriesOnceAndStoresTheObject() throws IOException {
+        s3Server.dropNext.set(true);
+
+        long size = pictureStorage.put("blobs/abcdef", content("test data"));
+
+        assertEquals(9, size);
+        assertEquals(2, s3Server.requests.get());
+        assertArrayEquals("test data".getBytes(), s3Server.objects.get("/pictures/blobs/abcdef"));
+    }
+
+    @Test
+    void givenServerNotAnsweringInTime_whenSize_thenFailsWithoutRetrying() throws IOException {
+        pictureStorage.put("blobs/abcdef", content("test data"));
+        s3Server.requests.set(0);
+        s3Server.delay = Duration.ofSeconds(2);
+
+        assertThrows(HttpTimeoutException.class, () -> pictureStorage.size("blobs/abcdef"));
+        assertEquals(1, s3Server.requests.get());
+    }
+
+    @Test
+    void givenMissingKey_whenOpen_thenThrowsNoSuchFileException() {
+        assertThrows(NoSuchFileException.class, () -> pictureStorage.open("blobs/missing"));
+    }
+
+    private static ByteArrayInputStream content(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    // MinIO-style stand-in: path-style PUT (plain and copy), GET (with Range), HEAD, DELETE and ListObjectsV2,
+    // which answers two keys per page
+    private static final class InMemoryS3Server {
+
+        private static final int PAGE_SIZE = 2;
+
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+        // the next request is read and its connection closed without an answer
+        private final AtomicBoolean dropNext = new AtomicBoolean();
+        private volatile Duration delay = Duration.ZERO;
+        private volatile String lastAuthorization;
+
+        private InMemoryS3Server() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", this::handle);
+            // a request held back by delay does not hold up the next one
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+        }
+
+        private int port() {
+            return server.getAddress().getPort();
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            if (dropNext.compareAndSet(true, false)) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.close();
+                return;
+            }
+            try {
+                Thread.sleep(delay.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            String path = exchange.getRequestURI().getPath();
+            byte[] object = objects.get(path);
+
+            switch (exchange.getRequestMethod()) {
+                case "PUT" -> {
+                    String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+                    byte[] body = exchange.getRequestBody().readAllBytes();
+                    objects.put(path, copySource == null ? body : objects.get(copySource));
+                    respond(exchange, 200, new byte[0]);
+                }
+                case "HEAD" -> {
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.length));
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                    exchange.close();
+                }
+                case "GET" -> {
+                    if (exchange.getRequestURI().getRawQuery() != null) {
+                        respond(exchange, 200, listing(path, query(exchange.getRequestURI().getRawQuery())));
+                        return;
+                    }
+                    if (object == null) {
+                        respond(exchange, 404, new byte[0]);
+                        return;
+                    }
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    if (range == null) {
+                        respond(exchange, 200, object);
+                    } else {
+                        String[] bounds = range.substring("bytes=".length()).split("-");
+                        int start = Integer.parseInt(bounds[0]);
+                        int end = Math.min(Integer.parseInt(bounds[1]), object.length - 1);
+                        respond(exchange, 206, Arrays.copyOfRange(object, start, end + 1));
+                    }
+                }
+                case "DELETE" -> {
+                    objects.remove(path);
+                    respond(exchange, 204, new byte[0]);
+                }
+                default -> respond(exchange, 405, new byte[0]);
+            }
+        }
+
+        private byte[] listing(String bucketPath, Map<String, String> query) {
+            String prefix = bucketPath + "/" + query.get("prefix");
+            List<String> keys = objects.keySet().stream()
+                    .filter(path -> path.startsWith(prefix))
+                    .map(path -> path.substring(bucketPath.length() + 1))
+                    .filter(key -> query.get("continuation-token") == null || key.compareTo(query.get("continuation-token")) > 0)
+                    .sorted()
+                    .toList();
+            List<String> page = keys.subList(0, Math.min(PAGE_SIZE, keys.size()));
+
+            StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                    .append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+            for (String key : page) {
+                xml.append("<Contents><Key>").append(key).append("</Key>")
+                        .append("<LastModified>2026-01-01T00:00:00.000Z</LastModified>")
+                        .append("<Size>").append(objects.get(bucketPath + "/" + key).length).append("</Size></Contents>");
+            }
+            xml.append("<IsTruncated>").append(keys.size() > page.size()).append("</IsTruncated>");
+            if (keys.size() > page.size()) {
+                xml.append("<NextContinuationToken>").append(page.get(page.size() - 1)).append("</NextContinuationToken>");
+            }
+            return xml.append("</ListBucketResult>").toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static Map<String, String> query(String rawQuery) {
+            Map<String, String> query = new HashMap<>();
+            for (String parameter : rawQuery.split("&")) {
+                String[] pair = parameter.split("=", 2);
+                query.put(pair[0], URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+            }
+            return query;
+        }
+
+        private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
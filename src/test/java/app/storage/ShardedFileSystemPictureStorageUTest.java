@@ -0,0 +1,92 @@
+package app.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedFileSystemPictureStorageUTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private ShardedFileSystemPictureStorage pictureStorage;
+
+    @BeforeEach
+    void setUp() {
+        pictureStorage = new ShardedFileSystemPictureStorage(tempDir.toString());
+    }
+
+    @Test
+    void givenKey_whenPut_thenStoresItInNestedPrefixDirectories() throws IOException {
+        long size = pictureStorage.put("blobs/abcdef", content("test data"));
+
+        assertEquals(9, size);
+        assertTrue(Files.exists(tempDir.resolve("blobs/ab/cd/abcdef")));
+        assertArrayEquals("test data".getBytes(), pictureStorage.open("blobs/abcdef").getContentAsByteArray());
+        assertEquals(9, pictureStorage.size("blobs/abcdef"));
+    }
+
+    @Test
+    void givenStoredObject_whenOpenRange_thenReadsOnlyThatRange() throws IOException {
+        pictureStorage.put("blobs/abcdef", content("test data"));
+
+        try (InputStream range = pictureStorage.openRange("blobs/abcdef", 5, 3)) {
+            assertArrayEquals("dat".getBytes(), range.readAllBytes());
+        }
+    }
+
+    @Test
+    void givenStoredObject_whenMoveAndDelete_thenOnlyTargetExistsThenNothing() throws IOException {
+        pictureStorage.put("staging/abcdef", content("test data"));
+
+        pictureStorage.move("staging/abcdef", "blobs/fedcba");
+
+        assertFalse(pictureStorage.exists("staging/abcdef"));
+        assertTrue(pictureStorage.exists("blobs/fedcba"));
+        assertTrue(pictureStorage.delete("blobs/fedcba"));
+        assertFalse(pictureStorage.delete("blobs/fedcba"));
+    }
+
+    @Test
+    void givenMissingKey_whenOpen_thenThrowsNoSuchFileException() {
+        assertThrows(NoSuchFileException.class, () -> pictureStorage.open("blobs/missing"));
+    }
+
+    @Test
+    void givenKeyEscapingTheRoot_whenPut_thenThrowsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> pictureStorage.put("../outside", content("test data")));
+        assertThrows(IllegalArgumentException.class, () -> pictureStorage.put("/etc/passwd", content("test data")));
+    }
+
+    @Test
+    void givenStoredObjects_whenList_thenReturnsEveryKeyBelowThePrefix() throws IOException {
+        pictureStorage.put("blobs/abcdef", content("test data"));
+        pictureStorage.put("blobs/123456", content("data"));
+        pictureStorage.put("staging/abcdef", content("test data"));
+
+        List<String> keys;
+        try (Stream<StorageEntry> entries = pictureStorage.list("blobs")) {
+            keys = entries.map(StorageEntry::getKey).sorted().toList();
+        }
+
+        assertEquals(List.of("blobs/123456", "blobs/abcdef"), keys);
+        try (Stream<StorageEntry> entries = pictureStorage.list("pictures")) {
+            assertEquals(0, entries.count());
+        }
+    }
+
+    private static ByteArrayInputStream content(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+}
@@ -0,0 +1,71 @@
+package app.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimitUTest {
+
+    private static final double MILLIS = 1_000_000;
+
+    @Test
+    void givenSaturatedLimitAndSteadyLatency_whenAdjust_thenLimitGrows() {
+        // given
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 2.0);
+        saturate(limit);
+
+        // when
+        limit.adjust(Map.of("put", 10 * MILLIS));
+        limit.adjust(Map.of("put", 11 * MILLIS));
+
+        // then
+        assertTrue(limit.limit() > 10);
+    }
+
+    @Test
+    void givenLimitNotReached_whenAdjust_thenLimitStays() {
+        // given
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100, 2.0);
+        limit.tryAcquire();
+
+        // when
+        limit.adjust(Map.of("put", 10 * MILLIS));
+
+        // then
+        assertEquals(10, limit.limit());
+    }
+
+    @Test
+    void givenStorageLatencyClimbingPastTolerance_whenAdjust_thenLimitShrinksEveryInterval() {
+        // given
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 5, 100, 2.0);
+        limit.adjust(Map.of("open", 1 * MILLIS, "put", 10 * MILLIS));
+
+        // when / then
+        int previous = limit.limit();
+        for (int i = 0; i < 3; i++) {
+            // one operation slowing down is enough
+            limit.adjust(Map.of("open", 1 * MILLIS, "put", 100 * MILLIS));
+            assertTrue(limit.limit() < previous);
+            previous = limit.limit();
+        }
+    }
+
+    @Test
+    void givenLimitReached_whenTryAcquire_thenRefusesUntilReleased() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1, 2.0);
+
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        limit.release();
+        assertTrue(limit.tryAcquire());
+    }
+
+    private static void saturate(AdaptiveConcurrencyLimit limit) {
+        while (limit.tryAcquire()) {
+            // fill every slot
+        }
+    }
+}
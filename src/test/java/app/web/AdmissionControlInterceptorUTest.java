@@ -0,0 +1,127 @@
+package app.web;
+
+import app.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AdmissionControlInterceptorUTest {
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Test
+    void givenClientOverItsBurst_whenPreHandle_thenRejectsItWithRetryAfterButAdmitsOthers() {
+        // given
+        AdmissionControlInterceptor interceptor = interceptor(1, 2, DataSize.ofBytes(0), DataSize.ofBytes(0), 10);
+        admit(interceptor, view("192.0.2.1"));
+        admit(interceptor, view("192.0.2.1"));
+
+        // when
+        TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+                () -> interceptor.preHandle(view("192.0.2.1"), response, null));
+
+        // then
+        assertTrue(exception.getRetryAfter().compareTo(Duration.ZERO) > 0);
+        assertTrue(exception.getRetryAfter().compareTo(Duration.ofSeconds(1)) <= 0);
+        assertTrue(interceptor.preHandle(view("192.0.2.2"), response, null));
+    }
+
+    @Test
+    void givenUploadSpentIngestBudget_whenNextUpload_thenRejectsUntilItIsPaidBack() {
+        // given
+        AdmissionControlInterceptor interceptor = interceptor(0, 1, DataSize.ofKilobytes(1), DataSize.ofBytes(0), 10);
+        // larger than the 2 s burst, still admitted on a full budget
+        admit(interceptor, upload(4096));
+
+        // when
+        TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+                () -> interceptor.preHandle(upload(1), response, null));
+
+        // then
+        assertTrue(exception.getRetryAfter().compareTo(Duration.ofSeconds(1)) > 0);
+        assertTrue(interceptor.preHandle(view("192.0.2.1"), response, null));
+    }
+
+    @Test
+    void givenViewLeftEgressBudgetInDebt_whenNextView_thenRejects() {
+        // given
+        AdmissionControlInterceptor interceptor = interceptor(0, 1, DataSize.ofBytes(0), DataSize.ofKilobytes(1), 10);
+        MockHttpServletRequest first = view("192.0.2.1");
+        assertTrue(interceptor.preHandle(first, response, null));
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, "10240");
+        interceptor.afterCompletion(first, response, null, null);
+
+        // when / then
+        assertThrows(TooManyRequestsException.class, () -> interceptor.preHandle(view("192.0.2.2"), response, null));
+    }
+
+    @Test
+    void givenConcurrencyLimitReached_whenPreHandle_thenRejectsUntilARequestCompletes() {
+        // given
+        AdmissionControlInterceptor interceptor = interceptor(0, 1, DataSize.ofBytes(0), DataSize.ofBytes(0), 1);
+        MockHttpServletRequest running = view("192.0.2.1");
+        assertTrue(interceptor.preHandle(running, response, null));
+        // the async dispatch of the same request is not counted again
+        assertTrue(interceptor.preHandle(running, response, null));
+
+        // when / then
+        assertThrows(TooManyRequestsException.class, () -> interceptor.preHandle(view("192.0.2.2"), response, null));
+        interceptor.afterCompletion(running, response, null, null);
+        assertTrue(interceptor.preHandle(view("192.0.2.2"), response, null));
+    }
+
+    @Test
+    void givenRequestRefusedByALaterCheck_whenPreHandle_thenGivesBackTheClientAndIngestTokens() {
+        // given
+        AdmissionControlInterceptor interceptor = interceptor(1, 1, DataSize.ofKilobytes(1), DataSize.ofBytes(0), 1);
+        MockHttpServletRequest running = view("192.0.2.2");
+        assertTrue(interceptor.preHandle(running, response, null));
+        MockHttpServletRequest refused = upload(2048);
+        refused.setRemoteAddr("192.0.2.1");
+        assertThrows(TooManyRequestsException.class, () -> interceptor.preHandle(refused, response, null));
+        interceptor.afterCompletion(running, response, null, null);
+
+        // when
+        MockHttpServletRequest retried = upload(2048);
+        retried.setRemoteAddr("192.0.2.1");
+
+        // then
+        assertTrue(interceptor.preHandle(retried, response, null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AdmissionControlInterceptor interceptor(double clientRate, double clientBurst, DataSize ingest,
+                                                           DataSize egress, int concurrency) {
+        ObjectProvider<MeterRegistry> meterRegistry = mock(ObjectProvider.class);
+        when(meterRegistry.getIfAvailable()).thenReturn(new SimpleMeterRegistry());
+        return new AdmissionControlInterceptor(clientRate, clientBurst, "", ingest, egress, Duration.ofSeconds(2),
+                concurrency, concurrency, concurrency, 2.0, Duration.ofSeconds(1), meterRegistry);
+    }
+
+    private void admit(AdmissionControlInterceptor interceptor, MockHttpServletRequest request) {
+        assertTrue(interceptor.preHandle(request, response, null));
+        interceptor.afterCompletion(request, response, null, null);
+    }
+
+    private static MockHttpServletRequest view(String client) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/pictures/view/1");
+        request.setRemoteAddr(client);
+        return request;
+    }
+
+    private static MockHttpServletRequest upload(int length) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/pictures/upload");
+        request.setContent(new byte[length]);
+        return request;
+    }
+}
@@ -0,0 +1,45 @@
+package app.web;
+
+import app.exception.TooManyConcurrentRequestsException;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyLimitInterceptorUTest {
+
+    private final ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor(1, Duration.ZERO);
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Test
+    void givenAllPermitsTaken_whenPreHandle_thenThrowsUntilTheRunningRequestCompletes() {
+        // given
+        MockHttpServletRequest running = new MockHttpServletRequest();
+        assertTrue(interceptor.preHandle(running, response, null));
+
+        // when / then
+        assertThrows(TooManyConcurrentRequestsException.class,
+                () -> interceptor.preHandle(new MockHttpServletRequest(), response, null));
+
+        interceptor.afterCompletion(running, response, null, null);
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+    }
+
+    @Test
+    void givenRequestHoldingPermit_whenDispatchedAgain_thenItDoesNotTakeASecondPermit() {
+        // given
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        interceptor.preHandle(request, response, null);
+
+        // when
+        boolean proceeded = interceptor.preHandle(request, response, null);
+
+        // then
+        assertTrue(proceeded);
+        interceptor.afterCompletion(request, response, null, null);
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+    }
+}
@@ -1,23 +1,48 @@
 package app.web;
 
+import app.model.BatchUploadResult;
+import app.model.BundlePart;
+import app.model.BulkDeleteResult;
+import app.model.ImageFormat;
 import app.model.Picture;
+import app.exception.InvalidPictureVariantException;
+import app.model.PictureVariant;
+import app.model.VariantFit;
+import app.model.VariantSpec;
+import app.service.PictureBatchUploadService;
+import app.service.PictureBundleService;
+import app.service.PictureBulkDeleteService;
+import app.service.PictureNegotiationService;
+import app.service.PictureRenditionService;
 import app.service.PictureService;
+import app.service.PictureVariantService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.mockito.Mockito.*;
@@ -33,6 +58,24 @@ public class PictureControllerApiTest {
     @MockitoBean
     private PictureService pictureService;
 
+    @MockitoBean
+    private PictureVariantService pictureVariantService;
+
+    @MockitoBean
+    private PictureRenditionService pictureRenditionService;
+
+    @MockitoBean
+    private PictureNegotiationService pictureNegotiationService;
+
+    @MockitoBean
+    private PictureBatchUploadService pictureBatchUploadService;
+
+    @MockitoBean
+    private PictureBulkDeleteService pictureBulkDeleteService;
+
+    @MockitoBean
+    private PictureBundleService pictureBundleService;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -69,18 +112,275 @@ public class PictureControllerApiTest {
         verify(pictureService, times(1)).savePictureToStorage(any());
     }
 
+    @Test
+    void givenMultipartBody_whenUploadPictureStream_thenStreamsPicturePartWithSniffedType() throws Exception {
+        // given
+        String boundary = "picture-boundary";
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0};
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"picture\"; filename=\"a.png\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes());
+        body.write(png);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes());
+
+        Picture storedPicture = Picture.builder()
+                .id(UUID.randomUUID())
+                .originalFileName("a.png")
+                .uploadDate(LocalDateTime.now())
+                .build();
+        when(pictureService.savePictureStreamToStorage(any(), eq("a.png"), eq("image/png"), eq("abc123")))
+                .thenAnswer(invocation -> {
+                    assertArrayEquals(png, invocation.getArgument(0, InputStream.class).readAllBytes());
+                    return storedPicture;
+                });
+
+        // when & then
+        mockMvc.perform(post("/api/v1/pictures/upload/stream")
+                        .contentType("multipart/form-data; boundary=" + boundary)
+                        .header("X-Content-SHA256", "abc123")
+                        .content(body.toByteArray()))
+                .andExpect(status().isCreated())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.id").value(storedPicture.getId().toString()));
+    }
+
+    @Test
+    void givenPartiallyFailedBatch_whenUploadPictures_thenReturnsMultiStatusWithPerFileResults() throws Exception {
+        // given
+        Picture storedPicture = Picture.builder()
+                .id(UUID.randomUUID())
+                .originalFileName("a.jpg")
+                .uploadDate(LocalDateTime.now())
+                .build();
+        when(pictureBatchUploadService.savePicturesToStorage(any())).thenReturn(List.of(
+                new BatchUploadResult("a.jpg", storedPicture, null),
+                new BatchUploadResult("b.jpg", null, "Could not save picture")));
+
+        // when & then
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/api/v1/pictures/upload/batch")
+                        .file(new MockMultipartFile("pictures", "a.jpg", MediaType.IMAGE_JPEG_VALUE, "a".getBytes()))
+                        .file(new MockMultipartFile("pictures", "b.jpg", MediaType.IMAGE_JPEG_VALUE, "b".getBytes())))
+                .andExpect(status().isMultiStatus())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].stored").value(true))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value(storedPicture.getId().toString()))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].stored").value(false))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].error").value("Could not save picture"));
+    }
+
     @Test
     void givenNonExistingPictureId_whenViewByteFile_thenReturnsNotFound() throws Exception {
         // given
         UUID pictureId = UUID.randomUUID();
-        when(pictureService.getPicture(pictureId.toString())).thenReturn(null);
         when(pictureService.getPictureById(pictureId)).thenReturn(Optional.empty());
 
         // request and response
         mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", pictureId))
                 .andExpect(status().isNotFound());
-        verify(pictureService, times(1)).getPicture(pictureId.toString());
         verify(pictureService, times(1)).getPictureById(pictureId);
+        verify(pictureService, never()).getPictureResource(any());
+        verify(pictureService, never()).getPictureResourceForView(any());
+    }
+
+    @Test
+    void givenClientOverItsBurst_whenViewByteFile_thenReturnsTooManyRequestsWithRetryAfter() throws Exception {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        when(pictureService.getPictureById(pictureId)).thenReturn(Optional.empty());
+        MockHttpServletRequestBuilder request = get("/api/v1/pictures/view/{pictureId}", pictureId)
+                .with(servletRequest -> {
+                    servletRequest.setRemoteAddr("192.0.2.10");
+                    return servletRequest;
+                });
+        // the bucket refills while these run, so the exact request turned away depends on their speed
+        MvcResult result = mockMvc.perform(request).andReturn();
+        for (int i = 0; i < 1000 && result.getResponse().getStatus() == 404; i++) {
+            result = mockMvc.perform(request).andReturn();
+        }
+
+        // request and response
+        assertEquals(429, result.getResponse().getStatus());
+        assertEquals("1", result.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", pictureId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void givenExistingPictureId_whenViewByteFile_thenStreamsPictureWithHeaders() throws Exception {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        Picture picture = Picture.builder()
+                .id(pictureId)
+                .originalFileName("test.jpg")
+                .type(MediaType.IMAGE_JPEG_VALUE)
+                .size(9)
+                .build();
+        when(pictureService.getPictureResourceForView(picture)).thenReturn(new ByteArrayResource("test data".getBytes()));
+        when(pictureService.getPictureById(pictureId)).thenReturn(Optional.of(picture));
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", pictureId))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.IMAGE_JPEG))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"test.jpg\""))
+                .andExpect(MockMvcResultMatchers.header().longValue(HttpHeaders.CONTENT_LENGTH, 9))
+                .andExpect(MockMvcResultMatchers.content().bytes("test data".getBytes()));
+    }
+
+    @Test
+    void givenPictureWithImageMetadata_whenViewByteFile_thenSendsRealFormatAndDimensions() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+        picture.setFormat(ImageFormat.PNG);
+        picture.setWidth(640);
+        picture.setHeight(480);
+        picture.setOrientation(1);
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId()))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.IMAGE_PNG))
+                .andExpect(MockMvcResultMatchers.header().string("X-Image-Width", "640"))
+                .andExpect(MockMvcResultMatchers.header().string("X-Image-Height", "480"))
+                .andExpect(MockMvcResultMatchers.header().string("X-Image-Orientation", "1"));
+    }
+
+    @Test
+    void givenNegotiatedRepresentation_whenViewByteFile_thenServesItWithItsOwnETagAndVary() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+        picture.setFormat(ImageFormat.PNG);
+        PictureVariant alternate = new PictureVariant(new ByteArrayResource("webp".getBytes()), "image/webp", "x-contain.webp");
+        when(pictureNegotiationService.negotiate(picture, "image/webp,*/*")).thenReturn(Optional.of(alternate));
+        when(pictureNegotiationService.variesByAccept()).thenReturn(true);
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId()).header(HttpHeaders.ACCEPT, "image/webp,*/*"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("image/webp"))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, containsString("-x-contain.webp")))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+                .andExpect(MockMvcResultMatchers.content().bytes("webp".getBytes()));
+        verify(pictureService, never()).getPictureResourceForView(any());
+    }
+
+    @Test
+    void givenExistingPictureId_whenViewByteFile_thenSendsValidatorsAndCacheControl() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId()))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.ETAG))
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, public, immutable"))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ACCEPT_RANGES, "bytes"));
+    }
+
+    @Test
+    void givenMatchingIfNoneMatch_whenViewByteFile_thenReturnsNotModified() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+        String eTag = mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(MockMvcResultMatchers.content().bytes(new byte[0]));
+    }
+
+    @Test
+    void givenSingleRange_whenViewByteFile_thenReturnsPartialContent() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId())
+                        .header(HttpHeaders.RANGE, "bytes=5-8"))
+                .andExpect(status().isPartialContent())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CONTENT_RANGE, "bytes 5-8/9"))
+                .andExpect(MockMvcResultMatchers.content().bytes("data".getBytes()));
+    }
+
+    @Test
+    void givenMultipleRanges_whenViewByteFile_thenReturnsMultipartByteRanges() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-3,5-8"))
+                .andExpect(status().isPartialContent())
+                .andExpect(MockMvcResultMatchers.content().contentTypeCompatibleWith("multipart/byteranges"))
+                .andExpect(MockMvcResultMatchers.content().string(containsString("Content-Range: bytes 0-3/9")))
+                .andExpect(MockMvcResultMatchers.content().string(containsString("Content-Range: bytes 5-8/9")));
+    }
+
+    @Test
+    void givenVariantParameters_whenViewByteFile_thenServesResizedVariant() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+        VariantSpec spec = VariantSpec.builder().width(200).fit(VariantFit.CONTAIN).format("png").build();
+        when(pictureVariantService.toSpec(picture, 200, null, null, "png")).thenReturn(spec);
+        when(pictureVariantService.getVariant(eq(picture), any(), eq(spec)))
+                .thenReturn(new PictureVariant(new ByteArrayResource("variant".getBytes()), MediaType.IMAGE_PNG_VALUE, spec.key()));
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId())
+                        .param("w", "200")
+                        .param("format", "png"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.IMAGE_PNG))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, containsString(spec.key())))
+                .andExpect(MockMvcResultMatchers.content().bytes("variant".getBytes()));
+    }
+
+    @Test
+    void givenReadyRendition_whenViewByteFile_thenServesPrebuiltRenditionWithoutRendering() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+        VariantSpec spec = VariantSpec.builder().width(256).height(256).fit(VariantFit.CONTAIN).format("jpeg").build();
+        when(pictureVariantService.toSpec(picture, 256, 256, null, null)).thenReturn(spec);
+        when(pictureRenditionService.findRendition(picture, spec))
+                .thenReturn(Optional.of(new PictureVariant(new ByteArrayResource("rendition".getBytes()), MediaType.IMAGE_JPEG_VALUE, spec.key())));
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId())
+                        .param("w", "256")
+                        .param("h", "256"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().bytes("rendition".getBytes()));
+        verify(pictureVariantService, never()).getVariant(any(), any(), any());
+    }
+
+    @Test
+    void givenInvalidVariantParameters_whenViewByteFile_thenReturnsBadRequest() throws Exception {
+        // given
+        Picture picture = stubViewablePicture();
+        when(pictureVariantService.toSpec(picture, 0, null, null, null))
+                .thenThrow(new InvalidPictureVariantException("Parameter [w] must be between 1 and 4096"));
+
+        // request and response
+        mockMvc.perform(get("/api/v1/pictures/view/{pictureId}", picture.getId())
+                        .param("w", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Parameter [w] must be between 1 and 4096"));
+    }
+
+    private Picture stubViewablePicture() {
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .originalFileName("test.jpg")
+                .type(MediaType.IMAGE_JPEG_VALUE)
+                .size(9)
+                .uploadDate(LocalDateTime.now())
+                .build();
+        when(pictureService.getPictureById(picture.getId())).thenReturn(Optional.of(picture));
+        when(pictureService.getPictureResource(picture)).thenReturn(new ByteArrayResource("test data".getBytes()));
+        when(pictureService.getPictureResourceForView(picture)).thenReturn(new ByteArrayResource("test data".getBytes()));
+        return picture;
     }
 
     @Test
@@ -95,5 +395,121 @@ public class PictureControllerApiTest {
         verify(pictureService, times(1)).deletePicture(pictureId);
     }
 
+    @Test
+    void givenPictureIds_whenDeletePictures_thenReturnsDeletedAndNotFoundIds() throws Exception {
+        // given
+        UUID deletedId = UUID.randomUUID();
+        UUID missingId = UUID.randomUUID();
+        when(pictureBulkDeleteService.deletePictures(List.of(deletedId, missingId)))
+                .thenReturn(new BulkDeleteResult(List.of(deletedId), List.of(missingId)));
+
+        // when & then
+        mockMvc.perform(post("/api/v1/pictures/delete")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\":[\"%s\",\"%s\"]}".formatted(deletedId, missingId)))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.deleted[0]").value(deletedId.toString()))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.notFound[0]").value(missingId.toString()));
+    }
+
+    @Test
+    void givenNoPictureIds_whenDeletePictures_thenReturnsBadRequest() throws Exception {
+        // when & then
+        mockMvc.perform(post("/api/v1/pictures/delete")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\":[]}"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(pictureBulkDeleteService);
+    }
 
+    @Test
+    void givenFoundAndMissingPictures_whenViewBundle_thenWritesAPartPerIdInOrder() throws Exception {
+        // given
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .type(MediaType.IMAGE_JPEG_VALUE)
+                .size(9)
+                .build();
+        UUID missingId = UUID.randomUUID();
+        List<UUID> pictureIds = List.of(picture.getId(), missingId);
+        when(pictureService.getPicturesByIds(pictureIds)).thenReturn(Map.of(picture.getId(), picture));
+        doAnswer(invocation -> {
+            PictureBundleService.PartWriter writer = invocation.getArgument(7);
+            writer.write(new BundlePart(picture.getId(), 200, picture, new ByteArrayResource("test data".getBytes()),
+                    MediaType.IMAGE_JPEG_VALUE, ""));
+            writer.write(new BundlePart(missingId, 404, null, null, null, ""));
+            return null;
+        }).when(pictureBundleService).writeBundle(eq(pictureIds), any(), any(), any(), any(), any(), any(), any());
+
+        // when
+        MvcResult result = mockMvc.perform(get("/api/v1/pictures/bundle")
+                        .param("ids", picture.getId().toString(), missingId.toString()))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CONTENT_TYPE, containsString("multipart/mixed; boundary=")))
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CACHE_CONTROL, "no-store"))
+                .andReturn();
+
+        // then
+        String boundary = result.getResponse().getContentType().substring(result.getResponse().getContentType().indexOf('=') + 1);
+        String body = result.getResponse().getContentAsString();
+        assertEquals("--" + boundary + "\r\n"
+                + "Content-ID: <" + picture.getId() + ">\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + "ETag: \"" + picture.getId() + "-9-0\"\r\n"
+                + "Content-Length: 9\r\n\r\n"
+                + "test data\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-ID: <" + missingId + ">\r\n"
+                + "X-Picture-Status: 404\r\n"
+                + "Content-Length: 0\r\n\r\n"
+                + "\r\n"
+                + "--" + boundary + "--\r\n", body);
+    }
+
+    @Test
+    void givenPartFailingToRender_whenViewBundle_thenMarksItAndOnlyAllowsRevalidatedCaching() throws Exception {
+        // given
+        Picture picture = Picture.builder()
+                .id(UUID.randomUUID())
+                .type(MediaType.IMAGE_JPEG_VALUE)
+                .size(9)
+                .build();
+        when(pictureService.getPicturesByIds(List.of(picture.getId()))).thenReturn(Map.of(picture.getId(), picture));
+        doAnswer(invocation -> {
+            PictureBundleService.PartWriter writer = invocation.getArgument(7);
+            writer.write(new BundlePart(picture.getId(), 503, picture, null, null, ""));
+            return null;
+        }).when(pictureBundleService).writeBundle(any(), any(), any(), any(), any(), any(), any(), any());
+
+        // when
+        MvcResult result = mockMvc.perform(get("/api/v1/pictures/bundle").param("ids", picture.getId().toString()).param("w", "100"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.ETAG))
+                .andExpect(MockMvcResultMatchers.content().string(containsString("X-Picture-Status: 503\r\n")))
+                .andReturn();
+
+        // then
+        mockMvc.perform(get("/api/v1/pictures/bundle").param("ids", picture.getId().toString()).param("w", "100")
+                        .header(HttpHeaders.IF_NONE_MATCH, result.getResponse().getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/v1/pictures/bundle").param("ids", picture.getId().toString()).param("w", "200")
+                        .header(HttpHeaders.IF_NONE_MATCH, result.getResponse().getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isOk());
+        verify(pictureBundleService, times(2)).writeBundle(any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void givenTooManyPictureIds_whenViewBundle_thenReturnsBadRequest() throws Exception {
+        // given
+        String[] pictureIds = new String[201];
+        for (int i = 0; i < pictureIds.length; i++) {
+            pictureIds[i] = UUID.randomUUID().toString();
+        }
+
+        // when & then
+        mockMvc.perform(get("/api/v1/pictures/bundle").param("ids", pictureIds))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(pictureBundleService);
+    }
 }
@@ -0,0 +1,112 @@
+package app.web;
+
+import app.exception.InvalidPictureQueryException;
+import app.model.ImageFormat;
+import app.model.PictureFilter;
+import app.model.PicturePage;
+import app.model.PictureSummary;
+import app.service.PictureListingService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(PictureListingController.class)
+public class PictureListingControllerApiTest {
+
+    @MockitoBean
+    private PictureListingService pictureListingService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void givenFilterParameters_whenListPictures_thenReturnsPageWithNextCursor() throws Exception {
+        // given
+        PictureSummary summary = summary();
+        when(pictureListingService.listPictures(any(), eq("abc"), eq(10)))
+                .thenReturn(new PicturePage(List.of(summary), "next"));
+
+        // when & then
+        mockMvc.perform(get("/api/v1/pictures")
+                        .param("uploadedFrom", "2025-03-01T00:00:00")
+                        .param("type", "image/png")
+                        .param("minSize", "5")
+                        .param("fileNamePrefix", "holiday")
+                        .param("format", "png")
+                        .param("minWidth", "600")
+                        .param("cursor", "abc")
+                        .param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id").value(summary.getId().toString()))
+                .andExpect(jsonPath("$.items[0].size").value(10))
+                .andExpect(jsonPath("$.items[0].width").value(640))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+
+        ArgumentCaptor<PictureFilter> filter = ArgumentCaptor.forClass(PictureFilter.class);
+        verify(pictureListingService).listPictures(filter.capture(), eq("abc"), eq(10));
+        assertEquals(LocalDateTime.of(2025, 3, 1, 0, 0), filter.getValue().getUploadedFrom());
+        assertEquals("image/png", filter.getValue().getType());
+        assertEquals(5L, filter.getValue().getMinSize());
+        assertEquals("holiday", filter.getValue().getFileNamePrefix());
+        assertEquals(ImageFormat.PNG, filter.getValue().getFormat());
+        assertEquals(600, filter.getValue().getMinWidth());
+    }
+
+    @Test
+    void givenNdjsonAccepted_whenListPictures_thenStreamsEveryPageOneObjectPerLine() throws Exception {
+        // given
+        PictureSummary first = summary();
+        PictureSummary second = summary();
+        when(pictureListingService.getMaxLimit()).thenReturn(1);
+        when(pictureListingService.listPictures(any(), isNull(), eq(1))).thenReturn(new PicturePage(List.of(first), "next"));
+        when(pictureListingService.listPictures(any(), eq("next"), eq(1))).thenReturn(new PicturePage(List.of(second), null));
+
+        // when
+        String body = mockMvc.perform(get("/api/v1/pictures").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        // then
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains(first.getId().toString()));
+        assertTrue(lines[1].contains(second.getId().toString()));
+    }
+
+    @Test
+    void givenInvalidQuery_whenListPictures_thenReturnsBadRequest() throws Exception {
+        when(pictureListingService.listPictures(any(), any(), any()))
+                .thenThrow(new InvalidPictureQueryException("Invalid cursor [x]"));
+
+        mockMvc.perform(get("/api/v1/pictures").param("cursor", "x"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Invalid cursor [x]"));
+        mockMvc.perform(get("/api/v1/pictures").param("cursor", "x").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Invalid cursor [x]"));
+    }
+
+    private static PictureSummary summary() {
+        UUID id = UUID.randomUUID();
+        return new PictureSummary(id, "holiday.png", "image/png", 10, LocalDateTime.of(2025, 3, 2, 10, 0),
+                "http://localhost/api/v1/pictures/view/" + id, ImageFormat.PNG, 640, 480);
+    }
+}
@@ -0,0 +1,61 @@
+package app.web;
+
+import app.exception.SimilarityIndexUnavailableException;
+import app.model.SimilarPicture;
+import app.service.PictureService;
+import app.service.PictureSimilarityService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(PictureSimilarityController.class)
+public class PictureSimilarityControllerApiTest {
+
+    @MockitoBean
+    private PictureSimilarityService pictureSimilarityService;
+
+    @MockitoBean
+    private PictureService pictureService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void givenIndexedPicture_whenFindSimilarPictures_thenReturnsMatchesClosestFirst() throws Exception {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        SimilarPicture match = new SimilarPicture(UUID.randomUUID(), 0x0F0FL, 2);
+        when(pictureSimilarityService.findSimilar(pictureId, 4, null)).thenReturn(List.of(match));
+        when(pictureService.pictureViewUriPrefix()).thenReturn("http://localhost/api/v1/pictures/view/");
+
+        // when & then
+        mockMvc.perform(get("/api/v1/pictures/similar/{pictureId}", pictureId).param("maxDistance", "4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.pictureId").value(pictureId.toString()))
+                .andExpect(jsonPath("$.items[0].id").value(match.getId().toString()))
+                .andExpect(jsonPath("$.items[0].distance").value(2))
+                .andExpect(jsonPath("$.items[0].pictureUrl").value("http://localhost/api/v1/pictures/view/" + match.getId()));
+    }
+
+    @Test
+    void givenIndexStillLoading_whenFindSimilarPictures_thenReturns503WithRetryAfter() throws Exception {
+        // given
+        UUID pictureId = UUID.randomUUID();
+        when(pictureSimilarityService.findSimilar(pictureId, null, null))
+                .thenThrow(new SimilarityIndexUnavailableException("Similarity index is not loaded yet."));
+
+        // when & then
+        mockMvc.perform(get("/api/v1/pictures/similar/{pictureId}", pictureId))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists("Retry-After"));
+    }
+}